@@ -1,17 +1,42 @@
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import db.Database;
+import db.Server;
 
 public class Main {
     private static final String EXIT   = "exit";
     private static final String PROMPT = "> ";
+    private static final String LISTEN = "--listen";
 
     public static void main(String[] args) throws IOException {
+        /* "java Main --listen <port>" serves the database to clients (see
+           db.Client) instead of reading commands from stdin. */
+        if (args.length == 2 && LISTEN.equals(args[0])) {
+            int port;
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.err.println("ERROR: Not a port: " + args[1]);
+                return;
+            }
+            Server server = new Server(new Database(), port);
+            server.start();
+            System.out.println("Listening on port " + server.getPort());
+            return;
+        }
+
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        /* Results are streamed to the output row by row, not built up first. */
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+                                        1 << 16);
         Database db = new Database();
-        System.out.print(PROMPT);
+        out.write(PROMPT);
+        out.flush();
 
         String line = "";
         while ((line = in.readLine()) != null) {
@@ -20,14 +45,13 @@ public class Main {
             }
 
             if (!line.trim().isEmpty()) {
-                String result = db.transact(line);
-                if (result.length() > 0) {
-                    System.out.print(result);
-                }
+                db.transact(line, out);
             }
-            System.out.print(PROMPT);
+            out.write(PROMPT);
+            out.flush();
         }
 
+        out.flush();
         in.close();
     }
 }
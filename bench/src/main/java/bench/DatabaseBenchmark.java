@@ -0,0 +1,28 @@
+package bench;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings shared by the benchmarks. Every run forks one JVM with a heap
+ * big enough for the 10M row tables; pass -jvmArgsAppend to change it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+abstract class DatabaseBenchmark {
+    /** Fails the setup if a command did not succeed. */
+    static void check(String result) {
+        if (result.startsWith("ERROR")) {
+            throw new IllegalStateException(result);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package bench;
+
+import db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures inserting rows into a table that already holds a copy of
+ * records<rows>: one "insert into" at a time, ROWS_PER_STATEMENT rows per
+ * "insert into ... values (...), ...", and all at once through
+ * Database.bulkInsert(). Scores are per row inserted.
+ *
+ * Each iteration runs a fixed batch of INVOCATIONS invocations on a fresh
+ * copy, so every iteration inserts into tables of the same sizes: from
+ * records<rows> up to INVOCATIONS * BATCH rows more.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, batchSize = InsertBenchmark.INVOCATIONS)
+@Measurement(iterations = 5, batchSize = InsertBenchmark.INVOCATIONS)
+public class InsertBenchmark extends DatabaseBenchmark {
+    /** Number of rows inserted by one invocation. */
+    static final int BATCH = 10000;
+
+    /** Number of invocations between copies of records<rows>. */
+    static final int INVOCATIONS = 10;
+
+    /** Number of rows inserted by one multi-row statement. */
+    static final int ROWS_PER_STATEMENT = 1000;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private Database db;
+    private final String[] inserts = new String[BATCH];
+    private final String[][] values = new String[BATCH][];
+    private final String[] multiRowInserts =
+            new String[BATCH / ROWS_PER_STATEMENT];
+
+    @Setup
+    public void setUp() throws IOException {
+        TableFiles.ensure(rows);
+        int numTeams = TableFiles.numTeams(rows);
+        for (int i = 0; i < BATCH; i++) {
+            inserts[i] = TableFiles.insertRecord("target", i, numTeams);
+            values[i] = TableFiles.recordValues(i, numTeams);
+        }
+        for (int s = 0; s < multiRowInserts.length; s++) {
+            StringBuilder insert = new StringBuilder(
+                    "insert into target values ");
+            for (int i = 0; i < ROWS_PER_STATEMENT; i++) {
+                insert.append(i > 0 ? ",(" : "(")
+                      .append(String.join(",",
+                              values[s * ROWS_PER_STATEMENT + i]))
+                      .append(')');
+            }
+            multiRowInserts[s] = insert.toString();
+        }
+        db = new Database();
+        check(db.transact("load records" + rows));
+    }
+
+    /**
+     * Starts every iteration, i.e. every batch of INVOCATIONS invocations,
+     * from a fresh copy of records<rows>.
+     */
+    @Setup(Level.Iteration)
+    public void resetTarget() {
+        db.transact("drop table target");
+        check(db.transact("create table target as select * from records"
+                          + rows));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert(Blackhole blackhole) {
+        for (String insert : inserts) {
+            blackhole.consume(db.transact(insert));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertRows(Blackhole blackhole) {
+        for (String insert : multiRowInserts) {
+            blackhole.consume(db.transact(insert));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public String bulkInsert() {
+        return db.bulkInsert("target", Arrays.asList(values).iterator());
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Measures "load" and "store" of records<rows>, in the text and the binary
+ * formats.
+ */
+@State(Scope.Benchmark)
+public class LoadStoreBenchmark extends DatabaseBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private Database db;
+    private String loadText, loadBinary, storeText, storeBinary;
+
+    @Setup
+    public void setUp() throws IOException {
+        TableFiles.ensure(rows);
+        db = new Database();
+        check(db.transact("load records" + rows));
+
+        /* Copies under other names, so that storing them never replaces the
+         * generated text file. */
+        check(db.transact("create table brecords" + rows
+                          + " as select * from records" + rows));
+        check(db.transact("store brecords" + rows + " as binary"));
+        check(db.transact("create table srecords" + rows
+                          + " as select * from records" + rows));
+
+        loadText = "load records" + rows;
+        loadBinary = "load brecords" + rows;
+        storeText = "store srecords" + rows;
+        storeBinary = "store srecords" + rows + " as binary";
+    }
+
+    @Benchmark
+    public String loadText() {
+        return db.transact(loadText);
+    }
+
+    @Benchmark
+    public String loadBinary() {
+        return db.transact(loadBinary);
+    }
+
+    @Benchmark
+    public String storeText() {
+        return db.transact(storeText);
+    }
+
+    @Benchmark
+    public String storeBinary() {
+        return db.transact(storeBinary);
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.Writer;
+
+/**
+ * A Writer that throws away what it is given and only counts the
+ * characters, so that printing benchmarks measure producing the output and
+ * not storing it.
+ */
+final class NullWriter extends Writer {
+    private long count;
+
+    /** Returns the number of characters written, and resets it. */
+    long reset() {
+        long ret = count;
+        count = 0;
+        return ret;
+    }
+
+    @Override
+    public void write(int c) {
+        count++;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        count += len;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
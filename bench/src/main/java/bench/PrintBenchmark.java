@@ -0,0 +1,43 @@
+package bench;
+
+import db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Measures "print records<rows>", streamed to a NullWriter and built as
+ * one String.
+ */
+@State(Scope.Benchmark)
+public class PrintBenchmark extends DatabaseBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private Database db;
+    private final NullWriter out = new NullWriter();
+    private String print;
+
+    @Setup
+    public void setUp() throws IOException {
+        TableFiles.ensure(rows);
+        db = new Database();
+        check(db.transact("load records" + rows));
+        print = "print records" + rows;
+    }
+
+    @Benchmark
+    public long printToWriter() throws IOException {
+        db.transact(print, out);
+        return out.reset();
+    }
+
+    @Benchmark
+    public String printToString() {
+        return db.transact(print);
+    }
+}
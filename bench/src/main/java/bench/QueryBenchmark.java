@@ -0,0 +1,69 @@
+package bench;
+
+import db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Measures selects over teams<rows>, records<rows>, and seasons<rows>:
+ * joins, where-filters, and computed columns. Results go to a NullWriter,
+ * so a score covers running the select and formatting its rows.
+ */
+@State(Scope.Benchmark)
+public class QueryBenchmark extends DatabaseBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private Database db;
+    private final NullWriter out = new NullWriter();
+    private String join2, join3, filter, computed;
+
+    @Setup
+    public void setUp() throws IOException {
+        TableFiles.ensure(rows);
+        db = new Database();
+        String teams = "teams" + rows, records = "records" + rows,
+               seasons = "seasons" + rows;
+        check(db.transact("load " + teams));
+        check(db.transact("load " + records));
+        check(db.transact("load " + seasons));
+
+        join2 = "select TeamName,City,Season,Wins from " + teams + ","
+                + records;
+        join3 = "select City,Season,Wins,Champion from " + teams + ","
+                + records + "," + seasons;
+        filter = "select TeamName,Season,Wins from " + records
+                 + " where Wins > 10 and Season >= 1960";
+        computed = "select TeamName,Wins + Losses as Games,"
+                   + "Wins * 1.0 as Ratio from " + records;
+    }
+
+    @Benchmark
+    public long join2() throws IOException {
+        db.transact(join2, out);
+        return out.reset();
+    }
+
+    @Benchmark
+    public long join3() throws IOException {
+        db.transact(join3, out);
+        return out.reset();
+    }
+
+    @Benchmark
+    public long filter() throws IOException {
+        db.transact(filter, out);
+        return out.reset();
+    }
+
+    @Benchmark
+    public long computed() throws IOException {
+        db.transact(computed, out);
+        return out.reset();
+    }
+}
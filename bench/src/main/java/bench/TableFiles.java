@@ -0,0 +1,113 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes synthetic .tbl files, shaped like teams.tbl and records.tbl but
+ * with any number of rows, to the working directory (which is where "load"
+ * reads them from). Files are only written once per scale, and the same
+ * scale always gives the same file.
+ *
+ *     teams<rows>     TeamName string,City string,Sport string,
+ *                     YearEstablished int,Mascot string,Stadium string
+ *                     (rows / 100 teams, at least 10)
+ *     records<rows>   TeamName string,Season int,Wins int,Losses int,Ties int
+ *                     (rows records, spread over the teams and seasons)
+ *     seasons<rows>   Season int,Champion string,Games int
+ *                     (one row per season)
+ *
+ * Every record matches one team and one season, so joining records with
+ * teams, seasons, or both gives one row per record.
+ */
+final class TableFiles {
+    /** Seasons run from FIRST_SEASON for NUM_SEASONS years. */
+    static final int FIRST_SEASON = 1900, NUM_SEASONS = 120;
+
+    private static final String[] SPORTS = {"'MLB Baseball'",
+        "'NFL Football'", "'NBA Basketball'", "'NHL Hockey'",
+        "'MLS Soccer'"};
+
+    private TableFiles() {
+    }
+
+    /** Returns the number of teams at a scale. */
+    static int numTeams(int rows) {
+        return Math.max(10, rows / 100);
+    }
+
+    /** Writes teams<rows>, records<rows>, and seasons<rows> if needed. */
+    static void ensure(int rows) throws IOException {
+        int numTeams = numTeams(rows);
+        Random random = new Random(rows);
+
+        File teams = new File("teams" + rows + ".tbl");
+        if (!teams.exists()) {
+            try (BufferedWriter out = writer(teams)) {
+                out.write("TeamName string,City string,Sport string,"
+                          + "YearEstablished int,Mascot string,"
+                          + "Stadium string\n");
+                for (int t = 0; t < numTeams; t++) {
+                    out.write("'T" + t + "','City" + (t % 997) + "',"
+                              + SPORTS[t % SPORTS.length] + ","
+                              + (1850 + random.nextInt(170)) + ",'Mascot"
+                              + t + "','Stadium" + t + "'\n");
+                }
+            }
+        }
+
+        File records = new File("records" + rows + ".tbl");
+        if (!records.exists()) {
+            try (BufferedWriter out = writer(records)) {
+                out.write("TeamName string,Season int,Wins int,Losses int,"
+                          + "Ties int\n");
+                for (int i = 0; i < rows; i++) {
+                    int season = FIRST_SEASON + (i / numTeams) % NUM_SEASONS;
+                    int wins = random.nextInt(17);
+                    out.write("'T" + (i % numTeams) + "'," + season + ","
+                              + wins + "," + (16 - wins) + ","
+                              + random.nextInt(2) + "\n");
+                }
+            }
+        }
+
+        File seasons = new File("seasons" + rows + ".tbl");
+        if (!seasons.exists()) {
+            try (BufferedWriter out = writer(seasons)) {
+                out.write("Season int,Champion string,Games int\n");
+                for (int s = 0; s < NUM_SEASONS; s++) {
+                    out.write((FIRST_SEASON + s) + ",'T"
+                              + random.nextInt(numTeams) + "',"
+                              + (10 + random.nextInt(7)) + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the text of an "insert into <table> values ..." for a row of
+     * records, picked by seed.
+     */
+    static String insertRecord(String table, int seed, int numTeams) {
+        return "insert into " + table + " values "
+               + String.join(",", recordValues(seed, numTeams));
+    }
+
+    /** Returns the values of a row of records, picked by seed. */
+    static String[] recordValues(int seed, int numTeams) {
+        int wins = seed % 17;
+        return new String[]{"'T" + (seed % numTeams) + "'",
+                            Integer.toString(FIRST_SEASON
+                                             + seed % NUM_SEASONS),
+                            Integer.toString(wins),
+                            Integer.toString(16 - wins),
+                            Integer.toString(seed & 1)};
+    }
+
+    private static BufferedWriter writer(File file) throws IOException {
+        return new BufferedWriter(new FileWriter(file), 1 << 16);
+    }
+}
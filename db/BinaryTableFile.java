@@ -0,0 +1,581 @@
+package db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes tables in a binary, columnar file format. Written by
+ * "store <name> as binary"; "load <name>" tells the formats apart by the
+ * first bytes of the file (a text .tbl file starts with a letter).
+ *
+ * Format (little-endian):
+ *     magic           4 bytes: 0 'R' 'D' 'B'
+ *     version         int
+ *     numColumns      int, then each column name (with type) as a string
+ *     numRows         int
+ *     for each column:
+ *         type        byte: 0 = int, 1 = float, 2 = string
+ *         NOVALUE     bitmap: int numWords, then numWords longs
+ *         NaN         bitmap
+ *         verbatim    int count, then count (int row, string text) pairs
+ *         values      int:    numRows ints
+ *                     float:  numRows floats
+ *                     string: dictionary (int size, then size strings),
+ *                             then numRows int codes (-1 = no string)
+ *         zone map    (version 2) int block size, int numBlocks, then for
+ *                     each block: int NOVALUE count, int NaN count, smallest
+ *                     and largest value (two floats, or two strings for a
+ *                     string column), and the sketch's registers as bytes
+ *     checksum        long: CRC32 of every byte before it
+ *
+ * A string is an int byte count followed by UTF-8 bytes. Values are written
+ * exactly as the columns hold them, so loading needs no validation or
+ * re-formatting: typed blocks are copied straight into the column arrays.
+ * Version 1 files, which have no zone maps, are still read.
+ */
+class BinaryTableFile {
+    private static final byte[] MAGIC = {0, 'R', 'D', 'B'};
+    private static final int VERSION = 2;
+    private static final byte INT = 0, FLOAT = 1, STRING = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /* Largest part of the file mapped at once. */
+    private static final long WINDOW_SIZE = 1 << 30;
+
+    /** Returns whether the file starts like a binary table file. */
+    static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length);
+        while (buffer.hasRemaining()
+               && channel.read(buffer, buffer.position()) > 0) {
+            continue;
+        }
+        if (buffer.hasRemaining()) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes a table to a file, replacing what was there. */
+    static void write(Table table, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            int numRows = table.getNumRows();
+            String[] columnNames = table.getColumnNames();
+
+            out.putBytes(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(columnNames.length);
+            for (String name : columnNames) {
+                out.putString(name);
+            }
+            out.putInt(numRows);
+
+            for (int i = 1; i <= columnNames.length; i++) {
+                Column column = table.getColumn(i);
+                if (column instanceof IntColumn) {
+                    out.putByte(INT);
+                } else if (column instanceof FloatColumn) {
+                    out.putByte(FLOAT);
+                } else {
+                    out.putByte(STRING);
+                }
+                out.putBitSet(column.getNoValues());
+                out.putBitSet(column.getNaNs());
+                putVerbatim(out, column);
+                if (column instanceof IntColumn) {
+                    out.putInts(((IntColumn) column).getValues(), numRows);
+                } else if (column instanceof FloatColumn) {
+                    out.putFloats(((FloatColumn) column).getValues(), numRows);
+                } else {
+                    putStrings(out, (StringColumn) column, numRows);
+                }
+                putZoneMap(out, column, numRows);
+            }
+            out.finish();
+        }
+    }
+
+    /** Writes the values a column keeps verbatim. */
+    private static void putVerbatim(Output out, Column column)
+            throws IOException {
+        Map<Integer, String> verbatim = column.getVerbatim();
+        if (verbatim == null) {
+            out.putInt(0);
+            return;
+        }
+        out.putInt(verbatim.size());
+        for (Map.Entry<Integer, String> entry : verbatim.entrySet()) {
+            out.putInt(entry.getKey());
+            out.putString(entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the statistics of every block of the first numRows rows of a
+     * column.
+     */
+    private static void putZoneMap(Output out, Column column, int numRows)
+            throws IOException {
+        ZoneMap zoneMap = column.getZoneMap();
+        synchronized (zoneMap) {
+            if (zoneMap.numRows() != numRows) {
+                /* The column is a snapshot, and rows were added since. */
+                zoneMap = new ZoneMap(column);
+                zoneMap.update(column);
+            }
+            putZoneMap(out, zoneMap, column instanceof StringColumn);
+        }
+    }
+
+    /** Writes the statistics of every block of a zone map. */
+    private static void putZoneMap(Output out, ZoneMap zoneMap,
+                                   boolean isString) throws IOException {
+        out.putInt(ZoneMap.BLOCK_SIZE);
+        out.putInt(zoneMap.numBlocks());
+        for (int b = 0; b < zoneMap.numBlocks(); b++) {
+            out.putInt(zoneMap.noValueCount(b));
+            out.putInt(zoneMap.nanCount(b));
+            if (isString) {
+                out.putString(zoneMap.minText(b));
+                out.putString(zoneMap.maxText(b));
+            } else {
+                out.putInt(Float.floatToRawIntBits(zoneMap.min(b)));
+                out.putInt(Float.floatToRawIntBits(zoneMap.max(b)));
+            }
+            out.putBytes(zoneMap.registers(b));
+        }
+    }
+
+    /**
+     * Writes strings as a dictionary followed by one code per value. The
+     * column's dictionary may be shared with other columns and hold values
+     * it doesn't use, so only the ones it uses are written, in the order they
+     * first appear.
+     */
+    private static void putStrings(Output out, StringColumn column,
+                                   int numRows) throws IOException {
+        Dictionary dictionary = column.getDictionary();
+        int[] codes = column.getCodes();
+        int[] fileCodes = new int[dictionary.size()];
+        Arrays.fill(fileCodes, -1);
+        int[] order = new int[dictionary.size()];
+        int numCodes = 0;
+        int[] rowCodes = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            int code = codes[i];
+            if (code < 0) {
+                rowCodes[i] = -1;
+                continue;
+            }
+            if (fileCodes[code] < 0) {
+                fileCodes[code] = numCodes;
+                order[numCodes] = code;
+                numCodes++;
+            }
+            rowCodes[i] = fileCodes[code];
+        }
+        out.putInt(numCodes);
+        for (int k = 0; k < numCodes; k++) {
+            out.putString(dictionary.decode(order[k]));
+        }
+        out.putInts(rowCodes, numRows);
+    }
+
+    /**
+     * Reads a table from a binary table file.
+     *
+     * @return  the table  if the file is well-formed
+     *          null       if it is corrupted or not a binary table file
+     */
+    static Table read(FileChannel channel, String name) throws IOException {
+        long size = channel.size();
+        if (size < MAGIC.length + 8 || !isBinary(channel)
+            || !checksumMatches(channel, size)) {
+            return null;
+        }
+        try {
+            Input in = new Input(channel, size - 8);
+            in.skip(MAGIC.length);
+            int version = in.getInt();
+            if (version != 1 && version != VERSION) {
+                return null;
+            }
+            int numColumns = in.getInt();
+            if (numColumns < 1) {
+                return null;
+            }
+            String[] columnNames = new String[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                columnNames[i] = in.getString();
+            }
+            Table table = new Table(columnNames, name);
+            int numRows = in.getInt();
+            if (!table.isValid() || numRows < 0) {
+                return null;
+            }
+
+            String[] columnTypes = table.getColumnTypes();
+            Column[] columns = new Column[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                byte type = in.getByte();
+                BitSet noValues = in.getBitSet();
+                BitSet nans = in.getBitSet();
+                HashMap<Integer, String> verbatim = getVerbatim(in);
+                if (type == INT && columnTypes[i].equals("int")) {
+                    IntColumn column = new IntColumn();
+                    column.setValues(in.getInts(numRows));
+                    columns[i] = column;
+                } else if (type == FLOAT && columnTypes[i].equals("float")) {
+                    FloatColumn column = new FloatColumn();
+                    column.setValues(in.getFloats(numRows));
+                    columns[i] = column;
+                } else if (type == STRING && columnTypes[i].equals("string")) {
+                    StringColumn column = new StringColumn();
+                    getStrings(in, column, numRows);
+                    columns[i] = column;
+                } else {
+                    return null;
+                }
+                columns[i].restore(numRows, noValues, nans, verbatim);
+                if (version >= 2) {
+                    getZoneMap(in, columns[i], numRows);
+                }
+            }
+            if (in.remaining() != 0) {
+                return null;
+            }
+            table.restoreColumns(columns, numRows);
+            return table;
+        } catch (RuntimeException e) {
+            return null;    // e.g. a length that runs past the end
+        }
+    }
+
+    /** Reads the values a column keeps verbatim. */
+    private static HashMap<Integer, String> getVerbatim(Input in)
+            throws IOException {
+        int count = in.getInt();
+        HashMap<Integer, String> verbatim = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int row = in.getInt();
+            verbatim.put(row, in.getString());
+        }
+        return verbatim;
+    }
+
+    /**
+     * Reads the zone map of a column. It is left out (and built again when
+     * needed) if its blocks are not the size this version uses.
+     */
+    private static void getZoneMap(Input in, Column column, int numRows)
+            throws IOException {
+        int blockSize = in.getInt();
+        int numBlocks = in.getInt();
+        boolean isString = column instanceof StringColumn;
+        boolean keep = blockSize == ZoneMap.BLOCK_SIZE;
+        if (keep && numBlocks != ZoneMap.numBlocks(numRows)) {
+            throw new IllegalStateException("bad zone map length");
+        }
+        ZoneMap zoneMap = new ZoneMap(column);
+        for (int b = 0; b < numBlocks; b++) {
+            int noValues = in.getInt();
+            int nans = in.getInt();
+            float min = 0, max = 0;
+            String minText = null, maxText = null;
+            if (isString) {
+                minText = in.getString();
+                maxText = in.getString();
+            } else {
+                min = Float.intBitsToFloat(in.getInt());
+                max = Float.intBitsToFloat(in.getInt());
+            }
+            byte[] registers = in.getBytes(ZoneMap.REGISTERS);
+            if (keep) {
+                zoneMap.restoreBlock(b, noValues, nans, min, max, minText,
+                        maxText, registers);
+            }
+        }
+        if (keep) {
+            column.setZoneMap(zoneMap);
+        }
+    }
+
+    /** Reads a dictionary and codes back into an empty string column. */
+    private static void getStrings(Input in, StringColumn column, int numRows)
+            throws IOException {
+        Dictionary dictionary = new Dictionary();
+        int[] map = new int[in.getInt()];
+        for (int k = 0; k < map.length; k++) {
+            map[k] = dictionary.encode(in.getString());
+        }
+        int[] codes = in.getInts(numRows);
+        for (int i = 0; i < numRows; i++) {
+            if (codes[i] >= 0) {
+                codes[i] = map[codes[i]];
+            } else if (codes[i] != -1) {
+                throw new IllegalStateException("bad string code");
+            }
+        }
+        column.setCodes(dictionary, codes);
+    }
+
+    /** Checks the CRC32 at the end of the file against its contents. */
+    private static boolean checksumMatches(FileChannel channel, long size)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        long end = size - 8;
+        for (long position = 0; position < end; position += WINDOW_SIZE) {
+            long length = Math.min(WINDOW_SIZE, end - position);
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    length));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()
+               && channel.read(buffer, end + buffer.position()) > 0) {
+            continue;
+        }
+        return buffer.getLong(0) == crc.getValue();
+    }
+
+    /** Buffered, checksummed writes to a file channel. */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(byte b) throws IOException {
+            ensure(1);
+            buffer.put(b);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putBitSet(BitSet bits) throws IOException {
+            long[] words = bits.toLongArray();
+            putInt(words.length);
+            for (long word : words) {
+                putLong(word);
+            }
+        }
+
+        /** Writes the first n values of an array, a buffer at a time. */
+        void putInts(int[] values, int n) throws IOException {
+            int offset = 0;
+            while (offset < n) {
+                ensure(4);
+                int count = Math.min(buffer.remaining() / 4, n - offset);
+                buffer.asIntBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * 4);
+                offset += count;
+            }
+        }
+
+        /** Writes the first n values of an array, a buffer at a time. */
+        void putFloats(float[] values, int n) throws IOException {
+            int offset = 0;
+            while (offset < n) {
+                ensure(4);
+                int count = Math.min(buffer.remaining() / 4, n - offset);
+                buffer.asFloatBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * 4);
+                offset += count;
+            }
+        }
+
+        /** Writes the checksum and flushes everything to the channel. */
+        void finish() throws IOException {
+            flush();
+            buffer.putLong(crc.getValue());
+            buffer.flip();
+            writeFully();
+        }
+
+        /** Makes room for n more bytes in the buffer. */
+        private void ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            writeFully();
+        }
+
+        private void writeFully() throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /** Reads from a file channel through memory-mapped windows. */
+    private static class Input {
+        private final FileChannel channel;
+        private final long end;
+        private long windowStart = 0;
+        private MappedByteBuffer window;
+
+        Input(FileChannel channel, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            map(0);
+        }
+
+        /** Returns the number of bytes left before the checksum. */
+        long remaining() {
+            return end - windowStart - window.position();
+        }
+
+        void skip(int n) throws IOException {
+            ensure(n);
+            window.position(window.position() + n);
+        }
+
+        byte getByte() throws IOException {
+            ensure(1);
+            return window.get();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            if (length < 0 || length > remaining()) {
+                throw new IllegalStateException("bad string length");
+            }
+            ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes(int n) throws IOException {
+            ensure(n);
+            byte[] bytes = new byte[n];
+            window.get(bytes);
+            return bytes;
+        }
+
+        BitSet getBitSet() throws IOException {
+            int numWords = getInt();
+            if (numWords < 0 || numWords * 8L > remaining()) {
+                throw new IllegalStateException("bad bitmap length");
+            }
+            long[] words = new long[numWords];
+            for (int i = 0; i < numWords; i++) {
+                words[i] = getLong();
+            }
+            return BitSet.valueOf(words);
+        }
+
+        /** Reads n ints with bulk copies out of the mapped file. */
+        int[] getInts(int n) throws IOException {
+            if (n * 4L > remaining()) {
+                throw new IllegalStateException("bad column length");
+            }
+            int[] values = new int[Math.max(n, 1)];
+            int offset = 0;
+            while (offset < n) {
+                ensure(4);
+                int count = Math.min(window.remaining() / 4, n - offset);
+                window.asIntBuffer().get(values, offset, count);
+                window.position(window.position() + count * 4);
+                offset += count;
+            }
+            return values;
+        }
+
+        /** Reads n floats with bulk copies out of the mapped file. */
+        float[] getFloats(int n) throws IOException {
+            if (n * 4L > remaining()) {
+                throw new IllegalStateException("bad column length");
+            }
+            float[] values = new float[Math.max(n, 1)];
+            int offset = 0;
+            while (offset < n) {
+                ensure(4);
+                int count = Math.min(window.remaining() / 4, n - offset);
+                window.asFloatBuffer().get(values, offset, count);
+                window.position(window.position() + count * 4);
+                offset += count;
+            }
+            return values;
+        }
+
+        /** Moves the window forward if fewer than n bytes are left in it. */
+        private void ensure(int n) throws IOException {
+            if (window.remaining() >= n) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (end - position < n) {
+                throw new IllegalStateException("unexpected end of file");
+            }
+            map(position);
+        }
+
+        private void map(long position) throws IOException {
+            long length = Math.min(WINDOW_SIZE, end - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = position;
+        }
+    }
+}
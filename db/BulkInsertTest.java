@@ -0,0 +1,165 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that rows inserted in bulk, through Database.bulkInsert() or one
+ * "insert into ... values (...), ..." statement, end up the same as rows
+ * inserted one statement at a time.
+ */
+public class BulkInsertTest {
+    private static final int NUM_ROWS = 10000;
+
+    /** Returns a database with an empty table t with an index on k. */
+    private static Database database() {
+        Database db = new Database();
+        db.transact("create table t (k int, x float, s string)");
+        db.transact("create index on t (k) using btree");
+        return db;
+    }
+
+    /** Returns the values of row i of t. */
+    private static String[] row(int i) {
+        String k = i % 101 == 0 ? "NOVALUE" : Integer.toString(i % 97 - 20);
+        if (i % 211 == 0) {
+            k = "0" + i % 10;       // kept verbatim
+        }
+        String x = i % 89 == 0 ? "NaN" : (i % 13) + "." + i % 10007;
+        if (i % 53 == 0) {
+            x = "00" + i % 7 + ".";
+        }
+        return new String[]{k, x, "'s" + i % 37 + "'"};
+    }
+
+    /** Tests that a bulk insert gives the same table as single inserts. */
+    @Test
+    public void testSameAsInserts() {
+        Database single = database();
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String[] row = row(i);
+            assertEquals("", single.transact("insert into t values "
+                                             + String.join(",", row)));
+            rows.add(row);
+        }
+        Database bulk = database();
+        assertEquals("", bulk.bulkInsert("t", rows.iterator()));
+        assertArrayEquals("values are not changed", row(53), rows.get(53));
+
+        String[] queries = {
+            "print t",
+            "select k, s from t where k > 70",
+            "select x, s from t where k == 5 and s < 's2'",
+            "select k from t where k >= 05",
+        };
+        for (String query : queries) {
+            assertEquals(query, single.transact(query),
+                         bulk.transact(query));
+        }
+        assertEquals("", bulk.transact("insert into t values 90,1.0,'a'"));
+        assertEquals("k int\n90\n", bulk.transact("select k from t "
+                                                  + "where k > 76"));
+    }
+
+    /** Tests inserting many rows with one statement. */
+    @Test
+    public void testInsertRows() {
+        Database single = database();
+        StringBuilder query = new StringBuilder("insert into t values ");
+        for (int i = 0; i < 300; i++) {
+            String values = String.join(",", row(i));
+            single.transact("insert into t values " + values);
+            query.append(i > 0 ? ", (" : "(").append(values).append(")");
+        }
+        Database bulk = database();
+        assertEquals("", bulk.transact(query.toString()));
+        assertEquals(single.transact("print t"), bulk.transact("print t"));
+
+        assertEquals("", bulk.transact("insert into t values (1,.5,'a')"));
+        assertEquals("k int,x float,s string\n1,.500,'a'\n",
+                     bulk.transact("select * from t where s == 'a'"));
+        assertEquals("ERROR: No such table: u\n",
+                     bulk.transact("insert into u values (1)"));
+    }
+
+    /**
+     * Tests that a statement with a row that doesn't match the table's
+     * columns inserts none of its rows, even past the first batch.
+     */
+    @Test
+    public void testStatementBadRow() {
+        Database db = database();
+        StringBuilder query = new StringBuilder("insert into t values ");
+        for (int i = 0; i < 5000; i++) {
+            String values = i == 4500 ? "1,2,'s'" : String.join(",", row(i));
+            query.append(i > 0 ? ",(" : "(").append(values).append(")");
+        }
+        assertEquals("ERROR: Row format does not match the table's! (b)\n",
+                     db.transact(query.toString()));
+        assertEquals(0, db.catalog.get("t").getNumRows());
+        assertEquals("k int\n", db.transact("select k from t where k > 0"));
+
+        String good = query.toString().replace("(1,2,'s')", "(1,2.0,'s')");
+        assertEquals("", db.transact(good));
+        assertEquals(5000, db.catalog.get("t").getNumRows());
+    }
+
+    /**
+     * Tests that a row that doesn't match the table's columns ends a bulk
+     * insert through Database.bulkInsert(), leaving the batches before its
+     * own inserted.
+     */
+    @Test
+    public void testBadRow() {
+        Database db = database();
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            rows.add(row(i));
+        }
+        rows.set(5000, new String[]{"1", "2", "'s'"});
+        assertEquals("ERROR: Row format does not match the table's! (b)\n",
+                     db.bulkInsert("t", rows.iterator()));
+        Table t = db.catalog.get("t");
+        assertEquals(4096, t.getNumRows());
+        assertArrayEquals(new String[]{"-19", "1.100", "'s1'"}, t.getRow(2));
+
+        String[][] bad = {
+            {"1", "2.0"},
+            {"1", "2.0", "s"},
+            {"1", "2.0", ""},
+            {"1", null, "'s'"},
+            {"1.0", "2.0", "'s'"},
+            null,
+        };
+        for (String[] row : bad) {
+            assertEquals("ERROR: Row format does not match the table's! "
+                         + "(b)\n", db.bulkInsert("t", Arrays.asList(
+                                 new String[]{"1", "2.0", "'s'"}, row)
+                                 .iterator()));
+        }
+        assertEquals("ERROR: Malformed insert.\n",
+                     db.transact("insert into t values (1,2.0,'s'),"));
+        assertEquals("ERROR: No such table: u\n", db.bulkInsert("u",
+                     Arrays.<String[]>asList().iterator()));
+        assertEquals(4096, t.getNumRows());
+    }
+
+    /** Tests that floats are formatted as they always were. */
+    @Test
+    public void testFormatFloats() {
+        Database db = new Database();
+        db.transact("create table t (x float)");
+        String[] values = {"00.1234", ".5", "-00.5", "5.", "0.", "000.001",
+                           "-.25", "12.34567"};
+        for (String value : values) {
+            assertEquals("", db.transact("insert into t values " + value));
+        }
+        assertEquals("x float\n0.123\n.500\n-00.500\n5.000\n0.000\n0.001\n"
+                     + "-.250\n12.345\n", db.transact("print t"));
+    }
+}
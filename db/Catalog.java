@@ -0,0 +1,181 @@
+package db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The catalog of tables in a Database: maps each table name to its table
+ * and metadata (column names, row count, last-modified version), with
+ * constant-time lookup.
+ *
+ * Versions come from one counter shared by every table, so a larger version
+ * always means a later change. Other parts of the database (statistics,
+ * caches, indexes) can register a Listener to hear about every change.
+ *
+ * Many threads may use a catalog at once. Lookups don't lock; changes are
+ * made one at a time, and listeners hear about them in that order, on the
+ * thread that made the change. A listener may take a table's lock, so a
+ * table's lock must not be held while making a change.
+ */
+class Catalog {
+    /** Kinds of changes to a table. */
+    enum Event {
+        CREATED,    // a table with a new name was added
+        REPLACED,   // a table took the place of one with the same name
+        MODIFIED,   // rows were added to a table
+        DROPPED     // a table was removed
+    }
+
+    /** Receives catalog changes. */
+    interface Listener {
+        /**
+         * Called after a table changes. For DROPPED and REPLACED, table is
+         * the table that was removed.
+         */
+        void tableChanged(Event event, String name, Table table);
+    }
+
+    /** Metadata about one table. */
+    static class Entry {
+        final Table table;
+        volatile long version;
+
+        Entry(Table table, long version) {
+            this.table = table;
+            this.version = version;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners =
+            new CopyOnWriteArrayList<>();
+    private volatile long version = 0;
+
+    /** Returns the table with the given name, or null. */
+    Table get(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        return entry.table;
+    }
+
+    /** Returns whether a table with the given name exists. */
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Adds a table under its name. If a table with the same name exists, it
+     * is replaced.
+     */
+    synchronized void put(Table table) {
+        String name = table.getName();
+        version++;
+        Entry old = entries.put(name, new Entry(table, version));
+        if (old == null) {
+            fire(Event.CREATED, name, table);
+        } else {
+            fire(Event.REPLACED, name, old.table);
+        }
+    }
+
+    /**
+     * Adds a table under its name, unless a table with that name exists.
+     *
+     * @return  true    if the table was added
+     *          false   if the name was taken
+     */
+    synchronized boolean add(Table table) {
+        if (entries.containsKey(table.getName())) {
+            return false;
+        }
+        put(table);
+        return true;
+    }
+
+    /**
+     * Removes the table with the given name.
+     *
+     * @return  the table  if it existed
+     *          null       if not
+     */
+    synchronized Table remove(String name) {
+        Entry old = entries.remove(name);
+        if (old == null) {
+            return null;
+        }
+        version++;
+        fire(Event.DROPPED, name, old.table);
+        return old.table;
+    }
+
+    /** Records that rows were added to the table with the given name. */
+    synchronized void modified(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return;
+        }
+        version++;
+        entry.version = version;
+        fire(Event.MODIFIED, name, entry.table);
+    }
+
+    /**
+     * Returns the version at which the table with the given name was last
+     * created, replaced, or modified, or -1 if there is no such table.
+     */
+    long getVersion(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return -1;
+        }
+        return entry.version;
+    }
+
+    /** Returns the version of the latest change to any table. */
+    long getVersion() {
+        return version;
+    }
+
+    /** Returns the column names of the given table, or null. */
+    String[] getColumnNames(String name) {
+        Table table = get(name);
+        if (table == null) {
+            return null;
+        }
+        return table.getColumnNames();
+    }
+
+    /** Returns the number of rows in the given table, or -1. */
+    int getNumRows(String name) {
+        Table table = get(name);
+        if (table == null) {
+            return -1;
+        }
+        return table.snapshot().getNumRows();
+    }
+
+    /** Returns the number of tables. */
+    int size() {
+        return entries.size();
+    }
+
+    /** Registers a listener for catalog changes. */
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** Unregisters a listener. */
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Tells every listener about a change. */
+    private void fire(Event event, String name, Table table) {
+        for (Listener listener : listeners) {
+            listener.tableChanged(event, name, table);
+        }
+    }
+}
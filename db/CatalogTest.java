@@ -0,0 +1,71 @@
+package db;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Catalog class.
+ */
+public class CatalogTest {
+
+    /** Tests lookup, replacement, removal, and versions. */
+    @Test
+    public void testPutGetRemove() {
+        Catalog catalog = new Catalog();
+        Table t1 = new Table(new String[]{"x int"}, "t1");
+        Table t2 = new Table(new String[]{"y int"}, "t2");
+        catalog.put(t1);
+        catalog.put(t2);
+
+        assertEquals(t1, catalog.get("t1"));
+        assertEquals(t2, catalog.get("t2"));
+        assertEquals(null, catalog.get("t3"));
+        assertEquals(2, catalog.size());
+        assertEquals(1, catalog.getVersion("t1"));
+        assertEquals(2, catalog.getVersion("t2"));
+
+        t1.addRow(new String[]{"5"});
+        catalog.modified("t1");
+        assertEquals(3, catalog.getVersion("t1"));
+        assertEquals(1, catalog.getNumRows("t1"));
+
+        Table t1New = new Table(new String[]{"z float"}, "t1");
+        catalog.put(t1New);
+        assertEquals(t1New, catalog.get("t1"));
+        assertArrayEquals(new String[]{"z float"}, catalog.getColumnNames("t1"));
+        assertEquals(2, catalog.size());
+
+        assertEquals(t2, catalog.remove("t2"));
+        assertEquals(null, catalog.remove("t2"));
+        assertEquals(-1, catalog.getVersion("t2"));
+        assertEquals(1, catalog.size());
+    }
+
+    /** Tests that listeners hear about every change. */
+    @Test
+    public void testListener() {
+        Catalog catalog = new Catalog();
+        final ArrayList<String> events = new ArrayList<>();
+        catalog.addListener(new Catalog.Listener() {
+            @Override
+            public void tableChanged(Catalog.Event event, String name,
+                                     Table table) {
+                events.add(event + " " + name);
+            }
+        });
+
+        catalog.put(new Table(new String[]{"x int"}, "t"));
+        catalog.modified("t");
+        catalog.put(new Table(new String[]{"x int"}, "t"));
+        catalog.remove("t");
+        catalog.remove("t");
+
+        assertEquals(4, events.size());
+        assertEquals("CREATED t", events.get(0));
+        assertEquals("MODIFIED t", events.get(1));
+        assertEquals("REPLACED t", events.get(2));
+        assertEquals("DROPPED t", events.get(3));
+    }
+}
@@ -0,0 +1,163 @@
+package db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connection to a Server, which runs statements the same way
+ * Database.transact() would, e.g.
+ *
+ *     try (Client client = new Client(5433)) {
+ *         client.transact("load teams");
+ *         int s = client.prepare("select * from teams where Wins > ?");
+ *         String result = client.execute(s, 10);
+ *     }
+ *
+ * A client must not be used by more than one thread at a time; open a
+ * client per thread instead.
+ */
+public class Client implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /** Connects to a server on the given port of this machine. */
+    public Client(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+    }
+
+    /** Runs a statement and returns its result. */
+    public String transact(String query) throws IOException {
+        StringWriter result = new StringWriter();
+        transact(query, result);
+        return result.toString();
+    }
+
+    /**
+     * Runs a statement, writing its result to out as it arrives instead of
+     * building it as one String. Does not flush out.
+     */
+    public void transact(String query, Writer out) throws IOException {
+        this.out.writeByte(Protocol.QUERY);
+        Protocol.writeText(this.out, query);
+        this.out.flush();
+        readResult(out);
+    }
+
+    /**
+     * Prepares a statement on the server (see Database.prepare()), to be run
+     * by execute().
+     *
+     * @return  the id of the statement on this connection
+     */
+    public int prepare(String query) throws IOException {
+        out.writeByte(Protocol.PREPARE);
+        Protocol.writeText(out, query);
+        out.flush();
+        return readResult(new StringWriter());
+    }
+
+    /**
+     * Runs a prepared statement with values bound to its parameters in
+     * order, and returns its result. Each value is an Integer, a Float, a
+     * String (without quotes), or null for NOVALUE.
+     *
+     * @throws IllegalArgumentException  if a value is of another type, or
+     *                                   there are more than
+     *                                   Protocol.MAX_PARAMETERS values
+     */
+    public String execute(int statement, Object... values)
+            throws IOException {
+        StringWriter result = new StringWriter();
+        execute(result, statement, values);
+        return result.toString();
+    }
+
+    /**
+     * Runs a prepared statement like execute(), writing its result to out as
+     * it arrives. Does not flush out.
+     */
+    public void execute(Writer out, int statement, Object... values)
+            throws IOException {
+        if (values.length > Protocol.MAX_PARAMETERS) {
+            throw new IllegalArgumentException("More than "
+                    + Protocol.MAX_PARAMETERS + " values");
+        }
+        for (Object value : values) {
+            if (value != null && !(value instanceof Integer)
+                && !(value instanceof Float) && !(value instanceof String)) {
+                throw new IllegalArgumentException("Not an Integer, Float, "
+                        + "or String: " + value);
+            }
+        }
+        this.out.writeByte(Protocol.EXECUTE);
+        this.out.writeInt(statement);
+        this.out.writeInt(values.length);
+        for (Object value : values) {
+            if (value == null) {
+                this.out.writeByte(Protocol.NO_VALUE);
+                continue;
+            } else if (value instanceof Integer) {
+                this.out.writeByte(Protocol.INT);
+            } else if (value instanceof Float) {
+                this.out.writeByte(Protocol.FLOAT);
+            } else {
+                this.out.writeByte(Protocol.STRING);
+            }
+            Protocol.writeText(this.out, value.toString());
+        }
+        this.out.flush();
+        readResult(out);
+    }
+
+    /** Forgets a prepared statement. */
+    public void closeStatement(int statement) throws IOException {
+        out.writeByte(Protocol.CLOSE);
+        out.writeInt(statement);
+        out.flush();
+        readResult(new StringWriter());
+    }
+
+    /**
+     * Reads the result of a request into out.
+     *
+     * @return  the value that ends the response
+     */
+    private int readResult(Writer out) throws IOException {
+        Protocol.ChunkInputStream chunks = new Protocol.ChunkInputStream(in);
+        Reader result = new InputStreamReader(chunks, StandardCharsets.UTF_8);
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = result.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return chunks.finish();
+    }
+
+    /** Ends the connection, and with it the session's prepared statements. */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeByte(Protocol.QUIT);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package db;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single column of a Table, stored as one typed array instead of one map
+ * entry per cell. Rows are 0-indexed here (row 0 is the first value, not the
+ * column names).
+ *
+ * NOVALUE and NaN are kept in two bitmaps, so the typed array only ever holds
+ * real values. Values whose text would not survive a round trip through the
+ * typed array (e.g. "007" in an int column) are kept verbatim on the side, so
+ * get() always returns exactly what was added.
+ *
+ * A column only ever grows at the end, so a snapshot of it (see snapshot())
+ * can share its storage: the typed array(s) are only written past the rows
+ * the snapshot has, and the bitmaps and verbatim text are copied before the
+ * next change once a snapshot shares them.
+ */
+abstract class Column {
+    static final String NOVALUE = "NOVALUE";
+    static final String NAN = "NaN";
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* The kinds of values, in the order compareValues() puts them in. */
+    private static final int KIND_NOVALUE = 0;
+    private static final int KIND_NAN = 1;
+    private static final int KIND_VERBATIM = 2;
+    private static final int KIND_TYPED = 3;
+
+    protected int size;
+    protected int capacity = INITIAL_CAPACITY;
+    private BitSet noValues = new BitSet();
+    private BitSet nans = new BitSet();
+    private HashMap<Integer, String> verbatim;  // null until first needed
+    private boolean shared;     // whether a snapshot shares the three above
+    private ZoneMap zoneMap;                    // null until first needed
+    private Column base;        // the column a snapshot was taken of
+    private int orderedRows;    // leading rows known to be in order
+    private boolean unordered;  // whether the row after those is out of order
+
+    /**
+     * Creates an empty column for the given type.
+     *
+     * @return  the column  if the type is "string", "int", or "float"
+     *          null        otherwise
+     */
+    static Column forType(String type) {
+        if (type.equals("int")) {
+            return new IntColumn();
+        } else if (type.equals("float")) {
+            return new FloatColumn();
+        } else if (type.equals("string")) {
+            return new StringColumn();
+        }
+        return null;
+    }
+
+    /** Returns the type of the column: "string", "int", or "float". */
+    abstract String type();
+
+    /** Returns the number of values in the column. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a value that has already been validated (and, for floats,
+     * formatted) by Table.addRow().
+     */
+    void append(String value) {
+        ensureCapacity(size + 1);
+        if (value.equals(NOVALUE)) {
+            unshare();
+            noValues.set(size);
+            setZero(size);
+        } else if (value.equals(NAN)) {
+            unshare();
+            nans.set(size);
+            setZero(size);
+        } else if (!set(size, value)) {
+            /* The typed array can't reproduce the text; keep it as is. */
+            unshare();
+            if (verbatim == null) {
+                verbatim = new HashMap<>();
+            }
+            verbatim.put(size, value);
+        }
+        size++;
+    }
+
+    /** Appends NOVALUE. */
+    void appendNoValue() {
+        ensureCapacity(size + 1);
+        unshare();
+        noValues.set(size);
+        setZero(size);
+        size++;
+    }
+
+    /** Appends NaN. */
+    void appendNaN() {
+        ensureCapacity(size + 1);
+        unshare();
+        nans.set(size);
+        setZero(size);
+        size++;
+    }
+
+    /** Returns the string representation of the ith value. */
+    String get(int i) {
+        if (noValues.get(i)) {
+            return NOVALUE;
+        }
+        if (nans.get(i)) {
+            return NAN;
+        }
+        String value = verbatimAt(i);
+        if (value != null) {
+            return value;
+        }
+        return format(i);
+    }
+
+    /** Returns whether the ith value is NOVALUE. */
+    boolean isNoValue(int i) {
+        return noValues.get(i);
+    }
+
+    /** Returns whether the ith value is NaN. */
+    boolean isNaN(int i) {
+        return nans.get(i);
+    }
+
+    /**
+     * Returns the ith value as a float, the same way Float.parseFloat() would
+     * read its string representation. Only meaningful for int and float
+     * columns.
+     */
+    float getFloat(int i) {
+        if (nans.get(i)) {
+            return Float.NaN;
+        }
+        String value = verbatimAt(i);
+        if (value != null) {
+            return Float.parseFloat(value);
+        }
+        return floatAt(i);
+    }
+
+    /**
+     * Appends the jth value of another column of the same type, without
+     * going through its string representation.
+     */
+    void appendFrom(Column other, int j) {
+        ensureCapacity(size + 1);
+        if (other.noValues.get(j)) {
+            unshare();
+            noValues.set(size);
+            setZero(size);
+        } else if (other.nans.get(j)) {
+            unshare();
+            nans.set(size);
+            setZero(size);
+        } else {
+            String value = other.verbatimAt(j);
+            if (value != null) {
+                unshare();
+                if (verbatim == null) {
+                    verbatim = new HashMap<>();
+                }
+                verbatim.put(size, value);
+            }
+            copy(size, other, j);
+        }
+        size++;
+    }
+
+    /** Appends every value of another column of the same type, in bulk. */
+    void appendAll(Column other) {
+        int n = other.size;
+        ensureCapacity(size + n);
+        copyRange(other, 0, size, n);
+        unshare();
+        for (int j = other.noValues.nextSetBit(0); j >= 0 && j < n;
+             j = other.noValues.nextSetBit(j + 1)) {
+            noValues.set(size + j);
+        }
+        for (int j = other.nans.nextSetBit(0); j >= 0 && j < n;
+             j = other.nans.nextSetBit(j + 1)) {
+            nans.set(size + j);
+        }
+        if (other.verbatim != null) {
+            if (verbatim == null) {
+                verbatim = new HashMap<>();
+            }
+            for (Map.Entry<Integer, String> entry : other.verbatim.entrySet()) {
+                verbatim.put(size + entry.getKey(), entry.getValue());
+            }
+        }
+        size += n;
+    }
+
+    /**
+     * Returns a hash of the ith value. Values for which valueEquals() is true
+     * have the same hash.
+     */
+    int valueHash(int i) {
+        if (noValues.get(i)) {
+            return 1;
+        }
+        if (nans.get(i)) {
+            return 2;
+        }
+        String value = verbatimAt(i);
+        if (value != null) {
+            return value.hashCode();
+        }
+        return hashAt(i);
+    }
+
+    /**
+     * Returns whether the ith value of this column has the same string
+     * representation as the jth value of another column of the same type.
+     */
+    boolean valueEquals(int i, Column other, int j) {
+        boolean noValue = noValues.get(i);
+        if (noValue || other.noValues.get(j)) {
+            return noValue && other.noValues.get(j);
+        }
+        boolean nan = nans.get(i);
+        if (nan || other.nans.get(j)) {
+            return nan && other.nans.get(j);
+        }
+        String value1 = verbatimAt(i);
+        String value2 = other.verbatimAt(j);
+        if (value1 != null || value2 != null) {
+            /* A verbatim value is never the canonical text of a typed one. */
+            return value1 != null && value1.equals(value2);
+        }
+        return equalsAt(i, other, j);
+    }
+
+    /**
+     * Compares the ith value of this column to the jth value of another
+     * column of the same type, in the order that merge joins match values
+     * in (see MergeJoin): NOVALUE first, then NaN, then values kept verbatim
+     * by their text, then the others by their typed value. Returns 0 if and
+     * only if valueEquals() is true, and otherwise less than or greater than
+     * 0.
+     */
+    int compareValues(int i, Column other, int j) {
+        int kind1 = kind(i);
+        int kind2 = other.kind(j);
+        if (kind1 != kind2) {
+            return kind1 < kind2 ? -1 : 1;
+        }
+        if (kind1 == KIND_VERBATIM) {
+            return verbatimAt(i).compareTo(other.verbatimAt(j));
+        }
+        if (kind1 == KIND_TYPED) {
+            return compareAt(i, other, j);
+        }
+        return 0;
+    }
+
+    /** Returns the kind of the ith value, for compareValues(). */
+    private int kind(int i) {
+        if (noValues.get(i)) {
+            return KIND_NOVALUE;
+        }
+        if (nans.get(i)) {
+            return KIND_NAN;
+        }
+        if (verbatim != null && verbatim.containsKey(i)) {
+            return KIND_VERBATIM;
+        }
+        return KIND_TYPED;
+    }
+
+    /** Returns the verbatim text of the ith value, or null if it has none. */
+    private String verbatimAt(int i) {
+        if (verbatim == null) {
+            return null;
+        }
+        return verbatim.get(i);
+    }
+
+    /** Returns the rows that hold NOVALUE. Not to be modified. */
+    BitSet getNoValues() {
+        return noValues;
+    }
+
+    /** Returns the rows that hold NaN. Not to be modified. */
+    BitSet getNaNs() {
+        return nans;
+    }
+
+    /**
+     * Returns the values kept verbatim, keyed by row, or null if there are
+     * none. Not to be modified.
+     */
+    Map<Integer, String> getVerbatim() {
+        return verbatim;
+    }
+
+    /**
+     * Returns the zone map of the column, after summarizing the values added
+     * since it was last asked for. A snapshot uses the zone map of the column
+     * it was taken of, which may already summarize rows added since.
+     * Statements that read the column at the same time may all ask for it,
+     * so only one summarizes at a time.
+     */
+    ZoneMap getZoneMap() {
+        if (base != null) {
+            return base.zoneMapOf(this);
+        }
+        return zoneMapOf(this);
+    }
+
+    /** Returns the zone map, after summarizing the rows of source. */
+    private synchronized ZoneMap zoneMapOf(Column source) {
+        if (zoneMap == null) {
+            zoneMap = new ZoneMap(this);
+        }
+        zoneMap.update(source);
+        return zoneMap;
+    }
+
+    /**
+     * Returns whether the values are in order (see compareValues()), e.g.
+     * in a table loaded from a file sorted on the column, or one whose rows
+     * were inserted in order. Rows are only ever checked once: a column
+     * remembers how many of its first rows are in order, and a snapshot
+     * asks the column it was taken of, like getZoneMap().
+     */
+    boolean isOrdered() {
+        if (base != null) {
+            return base.isOrdered(this);
+        }
+        return isOrdered(this);
+    }
+
+    /**
+     * Returns whether the rows of source are in order, after checking the
+     * ones not yet checked.
+     */
+    private synchronized boolean isOrdered(Column source) {
+        int size = source.size();
+        while (!unordered && orderedRows < size) {
+            if (orderedRows > 0 && source.compareValues(orderedRows - 1,
+                                                        source,
+                                                        orderedRows) > 0) {
+                unordered = true;
+            } else {
+                orderedRows++;
+            }
+        }
+        return orderedRows >= size;
+    }
+
+    /** Sets the zone map of the column, e.g. one read back from a file. */
+    synchronized void setZoneMap(ZoneMap zoneMap) {
+        this.zoneMap = zoneMap;
+    }
+
+    /**
+     * Restores an empty column to the given number of values, special values
+     * and verbatim text. The typed array(s) must already hold the values.
+     */
+    void restore(int size, BitSet noValues, BitSet nans,
+                 HashMap<Integer, String> verbatim) {
+        this.size = size;
+        unshare();
+        this.noValues.or(noValues);
+        this.nans.or(nans);
+        if (verbatim != null && !verbatim.isEmpty()) {
+            this.verbatim = verbatim;
+        }
+    }
+
+    /**
+     * Returns a read-only copy of the column as it is now, which keeps its
+     * values while more are added to this column. It shares this column's
+     * storage instead of copying it.
+     */
+    Column snapshot() {
+        Column ret = share();
+        ret.size = size;
+        /* A full capacity, so that anything appended to the snapshot goes
+           to a new array instead of this column's. */
+        ret.capacity = size;
+        ret.noValues = noValues;
+        ret.nans = nans;
+        ret.verbatim = verbatim;
+        ret.shared = true;
+        shared = true;
+        ret.base = base != null ? base : this;
+        return ret;
+    }
+
+    /**
+     * Copies the bitmaps and verbatim text before they change, if a snapshot
+     * shares them.
+     */
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
+        noValues = (BitSet) noValues.clone();
+        nans = (BitSet) nans.clone();
+        if (verbatim != null) {
+            verbatim = new HashMap<>(verbatim);
+        }
+        shared = false;
+    }
+
+    /** Grows the typed array(s) so that they can hold n values. */
+    protected void ensureCapacity(int n) {
+        if (n <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, INITIAL_CAPACITY);
+        while (newCapacity < n) {
+            newCapacity *= 2;
+        }
+        grow(newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Stores the value at index i in the typed array.
+     *
+     * @return  true    if get(i) will reproduce the value exactly
+     *          false   if the value must be kept verbatim
+     */
+    protected abstract boolean set(int i, String value);
+
+    /** Stores the zero value at index i (used under NOVALUE and NaN). */
+    protected abstract void setZero(int i);
+
+    /** Formats the value stored in the typed array at index i. */
+    protected abstract String format(int i);
+
+    /** Returns the value stored in the typed array at index i as a float. */
+    protected abstract float floatAt(int i);
+
+    /**
+     * Returns an empty column of the same type that shares this column's
+     * typed array(s), for snapshot().
+     */
+    protected abstract Column share();
+
+    /** Resizes the typed array(s) to the new capacity. */
+    protected abstract void grow(int newCapacity);
+
+    /** Copies the typed value at index j of another column to index i. */
+    protected abstract void copy(int i, Column other, int j);
+
+    /**
+     * Copies n typed values of another column, starting at index from, to
+     * this column, starting at index to.
+     */
+    protected abstract void copyRange(Column other, int from, int to, int n);
+
+    /** Hashes the value stored in the typed array at index i. */
+    protected abstract int hashAt(int i);
+
+    /** Compares the typed values at index i and index j of another column. */
+    protected abstract boolean equalsAt(int i, Column other, int j);
+
+    /**
+     * Orders the typed values at index i and index j of another column:
+     * returns 0 exactly when equalsAt() is true, and otherwise less than or
+     * greater than 0.
+     */
+    protected abstract int compareAt(int i, Column other, int j);
+}
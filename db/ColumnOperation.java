@@ -0,0 +1,330 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * A column expression with an operator ("Wins + Losses as Games"), compiled
+ * against one table and evaluated a batch of rows at a time. Operands are
+ * read from the typed columns into primitive arrays, the arithmetic runs in
+ * one tight loop per batch, and the results are appended to a typed Column
+ * without being turned into text.
+ *
+ * Results are the same as when every value went through its string form:
+ *
+ *     - the math is done in floats; int op int is cast back to an int
+ *     - float results are stored rounded to 3 decimal points
+ *     - dividing by 0 gives NaN
+ *     - with two columns, NaN op anything is NaN, and NOVALUE counts as 0
+ *       unless both operands are NOVALUE, which gives NOVALUE
+ *     - with a literal, NOVALUE counts as 0 and NaN is not checked for, so
+ *       an int column's NaN op an int literal gives 0
+ *     - an infinite float result has no string form a table accepts, so its
+ *       row is left out of the result (see select())
+ *     - strings are concatenated without their quotes
+ */
+abstract class ColumnOperation {
+    /** Number of rows evaluated at a time. */
+    static final int BATCH_SIZE = 1024;
+
+    /* What each result of a batch is. */
+    static final byte VALUE = 0, NAN = 1, NOVALUE = 2, INFINITE = 3;
+
+    /* Results of the current batch, by row in the batch. */
+    protected final byte[] kinds = new byte[BATCH_SIZE];
+
+    /**
+     * Compiles an operation that was already checked to be valid for the
+     * table.
+     *
+     * @param name1         column name with its type, e.g. "Wins int"
+     * @param operand2      column name with its type, or a literal
+     * @param resultType    "string", "int", or "float"
+     */
+    static ColumnOperation compile(Table table, String name1, String operator,
+                                   String operand2, boolean operand2IsLiteral,
+                                   String resultType) {
+        Column column1 = table.getColumn(name1);
+        if (resultType.equals("string")) {
+            if (operand2IsLiteral) {
+                return new Concatenation(column1, null, operand2);
+            }
+            return new Concatenation(column1, table.getColumn(operand2), null);
+        }
+        boolean intResult = resultType.equals("int");
+        if (operand2IsLiteral) {
+            return new Arithmetic(column1, null, Float.parseFloat(operand2),
+                    operator.charAt(0), intResult);
+        }
+        return new Arithmetic(column1, table.getColumn(operand2), 0,
+                operator.charAt(0), intResult);
+    }
+
+    /**
+     * Returns an operation that computes the same values with batches of its
+     * own, so that other rows can be evaluated on another thread at the same
+     * time.
+     */
+    abstract ColumnOperation copy();
+
+    /**
+     * Evaluates the first n of rows (numbered from 1, like Predicate.test()),
+     * which need not be next to each other.
+     */
+    abstract void evaluate(int[] rows, int n);
+
+    /**
+     * Appends the results of the selected rows (by row in the batch) to a
+     * column of the result type.
+     */
+    abstract void append(Column out, int[] selection, int numSelected);
+
+    /** Returns whether some results may be infinite. */
+    boolean mayBeInfinite() {
+        return false;
+    }
+
+    /**
+     * Removes the rows with an infinite result from a selection (by row in
+     * the batch), keeping the order. Returns the number of rows left.
+     */
+    int select(int[] selection, int numSelected) {
+        int kept = 0;
+        for (int k = 0; k < numSelected; k++) {
+            if (kinds[selection[k]] != INFINITE) {
+                selection[kept] = selection[k];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /** Arithmetic on ints and floats: +, -, *, or /. */
+    private static class Arithmetic extends ColumnOperation {
+        private final Column column1;
+        private final Column column2;   // null if the operand is a literal
+        private final float literal;
+        private final char operator;
+        private final boolean intResult;
+        private final float[] operands1 = new float[BATCH_SIZE];
+        private final float[] operands2 = new float[BATCH_SIZE];
+        private final byte[] kinds1 = new byte[BATCH_SIZE];
+        private final byte[] kinds2 = new byte[BATCH_SIZE];
+        private final float[] results = new float[BATCH_SIZE];
+
+        Arithmetic(Column column1, Column column2, float literal,
+                   char operator, boolean intResult) {
+            this.column1 = column1;
+            this.column2 = column2;
+            this.literal = literal;
+            this.operator = operator;
+            this.intResult = intResult;
+        }
+
+        @Override
+        ColumnOperation copy() {
+            return new Arithmetic(column1, column2, literal, operator,
+                                  intResult);
+        }
+
+        @Override
+        boolean mayBeInfinite() {
+            return !intResult;
+        }
+
+        @Override
+        void evaluate(int[] rows, int n) {
+            load(column1, rows, n, operands1, kinds1);
+            if (column2 != null) {
+                load(column2, rows, n, operands2, kinds2);
+                compute(n);
+            } else {
+                computeWithLiteral(n);
+            }
+
+            boolean divideByZero = column2 == null && operator == '/'
+                                   && Float.compare(literal, 0) == 0;
+            for (int k = 0; k < n; k++) {
+                byte kind = VALUE;
+                if (column2 != null) {
+                    if (kinds1[k] == NAN || kinds2[k] == NAN) {
+                        kind = NAN;
+                    } else if (kinds1[k] == NOVALUE && kinds2[k] == NOVALUE) {
+                        kind = NOVALUE;
+                    } else if (operator == '/'
+                               && Float.compare(operands2[k], 0) == 0) {
+                        kind = NAN;
+                    }
+                } else if (divideByZero) {
+                    kind = NAN;
+                }
+                if (kind == VALUE && !intResult) {
+                    if (Float.isNaN(results[k])) {
+                        kind = NAN;
+                    } else if (Float.isInfinite(results[k])) {
+                        kind = INFINITE;
+                    }
+                }
+                kinds[k] = kind;
+            }
+        }
+
+        /** Computes operands1[k] op operands2[k]. */
+        private void compute(int n) {
+            float[] a = operands1, b = operands2, r = results;
+            switch (operator) {
+                case '+':
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] + b[k];
+                    }
+                    break;
+                case '-':
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] - b[k];
+                    }
+                    break;
+                case '*':
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] * b[k];
+                    }
+                    break;
+                default:
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] / b[k];
+                    }
+                    break;
+            }
+        }
+
+        /** Computes operands1[k] op the literal. */
+        private void computeWithLiteral(int n) {
+            float[] a = operands1, r = results;
+            float b = literal;
+            switch (operator) {
+                case '+':
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] + b;
+                    }
+                    break;
+                case '-':
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] - b;
+                    }
+                    break;
+                case '*':
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] * b;
+                    }
+                    break;
+                default:
+                    for (int k = 0; k < n; k++) {
+                        r[k] = a[k] / b;
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Reads the values of the first n of rows of a column as floats: NaN
+         * as NaN and NOVALUE as 0, with their kinds.
+         */
+        private static void load(Column column, int[] rows, int n,
+                                 float[] operands, byte[] kinds) {
+            if (column.getNoValues().isEmpty() && column.getNaNs().isEmpty()
+                && column.getVerbatim() == null) {
+                if (column instanceof IntColumn) {
+                    int[] values = ((IntColumn) column).getValues();
+                    for (int k = 0; k < n; k++) {
+                        operands[k] = values[rows[k] - 1];
+                    }
+                } else {
+                    float[] values = ((FloatColumn) column).getValues();
+                    for (int k = 0; k < n; k++) {
+                        operands[k] = values[rows[k] - 1];
+                    }
+                }
+                Arrays.fill(kinds, 0, n, VALUE);
+                return;
+            }
+            for (int k = 0; k < n; k++) {
+                int i = rows[k] - 1;
+                if (column.isNoValue(i)) {
+                    operands[k] = 0;
+                    kinds[k] = NOVALUE;
+                } else if (column.isNaN(i)) {
+                    operands[k] = Float.NaN;
+                    kinds[k] = NAN;
+                } else {
+                    operands[k] = column.getFloat(i);
+                    kinds[k] = VALUE;
+                }
+            }
+        }
+
+        @Override
+        void append(Column out, int[] selection, int numSelected) {
+            for (int j = 0; j < numSelected; j++) {
+                int k = selection[j];
+                if (kinds[k] == NAN) {
+                    out.appendNaN();
+                } else if (kinds[k] == NOVALUE) {
+                    out.appendNoValue();
+                } else if (intResult) {
+                    ((IntColumn) out).appendInt((int) results[k]);
+                } else {
+                    ((FloatColumn) out).appendFloat(
+                            FloatColumn.round(results[k]));
+                }
+            }
+        }
+    }
+
+    /** Concatenation of strings. */
+    private static class Concatenation extends ColumnOperation {
+        private final Column column1;
+        private final Column column2;   // null if the operand is a literal
+        private final String literal;   // without quotes
+        private final String[] results = new String[BATCH_SIZE];
+
+        Concatenation(Column column1, Column column2, String literal) {
+            this.column1 = column1;
+            this.column2 = column2;
+            this.literal = literal == null ? null : unquote(literal);
+        }
+
+        @Override
+        ColumnOperation copy() {
+            return new Concatenation(column1, column2, literal);
+        }
+
+        @Override
+        void evaluate(int[] rows, int n) {
+            for (int k = 0; k < n; k++) {
+                int i = rows[k] - 1;
+                String value2 = literal;
+                if (column2 != null) {
+                    value2 = unquote(column2.get(i));
+                }
+                results[k] = "'" + unquote(column1.get(i)) + value2
+                             + "'";
+                kinds[k] = VALUE;
+            }
+        }
+
+        /** Removes every single quote from a value. */
+        private static String unquote(String value) {
+            int length = value.length();
+            if (length >= 2 && value.charAt(0) == '\''
+                && value.indexOf('\'', 1) == length - 1) {
+                return value.substring(1, length - 1);
+            }
+            return value.replace("'", "");
+        }
+
+        @Override
+        void append(Column out, int[] selection, int numSelected) {
+            for (int j = 0; j < numSelected; j++) {
+                out.append(results[selection[j]]);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ColumnOperation class, through select.
+ */
+public class ColumnOperationTest {
+
+    /** Tests NaN, NOVALUE, and division by zero. */
+    @Test
+    public void testSpecialValues() {
+        Database db = new Database();
+        db.transact("create table t (a int, b int, c float)");
+        db.transact("insert into t values 7,2,1.5");
+        db.transact("insert into t values NaN,1,NaN");
+        db.transact("insert into t values NOVALUE,3,NOVALUE");
+        db.transact("insert into t values NOVALUE,NOVALUE,0.0");
+
+        assertEquals("x int,y float,z int\n"
+                     + "9,1.333,3\n"
+                     + "NaN,NaN,NaN\n"
+                     + "3,NaN,0\n"
+                     + "NOVALUE,NaN,NOVALUE\n",
+                db.transact("select a + b as x, b / c as y, a / b as z"
+                            + " from t"));
+        assertEquals("x int,y float,z float\n"
+                     + "8,2.333,NaN\n"
+                     + "0,NaN,NaN\n"
+                     + "1,0.000,NaN\n"
+                     + "1,0.000,NaN\n",
+                db.transact("select a + 1 as x, a / 3.0 as y, c / 0 as z"
+                            + " from t"));
+    }
+
+    /**
+     * Tests that rows with an infinite result are left out, across batches.
+     */
+    @Test
+    public void testInfiniteResults() {
+        Database db = new Database();
+        db.transact("create table t (k int, c float)");
+        int numRows = 3 * ColumnOperation.BATCH_SIZE + 5;
+        StringBuilder expected = new StringBuilder("k int,d float\n");
+        for (int i = 0; i < numRows; i++) {
+            if (i % 1000 == 999) {
+                db.transact("insert into t values " + i
+                            + ",300000000000000000000000000000000000000.0");
+            } else {
+                db.transact("insert into t values " + i + ",0.5");
+                expected.append(i).append(",1.500\n");
+            }
+        }
+        assertEquals(expected.toString(),
+                db.transact("select k, c * 3.0 as d from t"));
+    }
+
+    /** Tests string concatenation. */
+    @Test
+    public void testConcatenation() {
+        Database db = new Database();
+        db.transact("create table t (s string, u string)");
+        db.transact("insert into t values 'ab','c d'");
+        db.transact("insert into t values NOVALUE,''");
+        assertEquals("x string,y string\n'abc d','abz'\n'NOVALUE','NOVALUEz'\n",
+                db.transact("select s + u as x, s + 'z' as y from t"));
+    }
+}
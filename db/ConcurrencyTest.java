@@ -0,0 +1,236 @@
+package db;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests running statements on one Database from many threads at once.
+ */
+public class ConcurrencyTest {
+    private static final int NUM_THREADS = 8;
+
+    /** Runs the tasks on threads of their own, and waits for them all. */
+    private static void runAll(ArrayList<Callable<Void>> tasks)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        try {
+            ArrayList<Future<Void>> done = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                done.add(pool.submit(task));
+            }
+            for (Future<Void> future : done) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that selects see whole rows and never lose rows, while other
+     * threads insert rows, index the table, and add strings to a dictionary
+     * the table shares with another one.
+     */
+    @Test
+    public void testReadersAndWriters() throws Exception {
+        final Database db = new Database();
+        db.transact("create table t (k int, v int, s string)");
+        for (int i = 0; i < 100; i++) {
+            db.transact("insert into t values " + i + "," + 2 * i + ",'s"
+                        + i % 10 + "'");
+        }
+        db.transact("create table u as select k, s from t where k < 50");
+        final int numInserts = 500;
+        final AtomicInteger next = new AtomicInteger(100);
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int w = 0; w < NUM_THREADS / 2; w++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int r = 0; r < numInserts; r++) {
+                        int i = next.getAndIncrement();
+                        assertEquals("", db.transact("insert into t values "
+                                + i + "," + 2 * i + ",'s" + i % 10 + "'"));
+                        assertEquals("", db.transact("insert into u values "
+                                + i + ",'new" + i + "'"));
+                    }
+                    return null;
+                }
+            });
+        }
+        for (int rd = 0; rd < NUM_THREADS / 2; rd++) {
+            final boolean indexes = rd == 0;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int lastRows = 0;
+                    for (int r = 0; r < numInserts / 5; r++) {
+                        if (indexes && r == 10) {
+                            db.transact("create index on t (k)");
+                        }
+                        if (indexes && r == 20) {
+                            db.transact("create index on t (s) using btree");
+                        }
+                        String result = db.transact(
+                                "select k, v, s from t where v >= 0 "
+                                + "and s < 's5'");
+                        String[] lines = result.split("\n");
+                        assertEquals("k int,v int,s string", lines[0]);
+                        for (int i = 1; i < lines.length; i++) {
+                            String[] values = lines[i].split(",");
+                            int k = Integer.parseInt(values[0]);
+                            assertEquals(2 * k, Integer.parseInt(values[1]));
+                            assertEquals("'s" + k % 10 + "'", values[2]);
+                            assertTrue(k % 10 < 5);
+                        }
+                        assertTrue(lines.length >= lastRows);
+                        lastRows = lines.length;
+                        String joined = db.transact(
+                                "select k, s from t, u where k < 50");
+                        assertEquals(51, joined.split("\n").length);
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+
+        int numRows = 100 + numInserts * NUM_THREADS / 2;
+        assertEquals(numRows + 1, db.transact("print t").split("\n").length);
+        assertEquals(numRows / 2 + 1, db.transact(
+                "select k, v, s from t where s < 's5'").split("\n").length);
+    }
+
+    /** Tests that only one of many threads creates a table with a name. */
+    @Test
+    public void testCreate() throws Exception {
+        final Database db = new Database();
+        final AtomicInteger created = new AtomicInteger();
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < NUM_THREADS; c++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int r = 0; r < 100; r++) {
+                        String result = db.transact("create table t" + r
+                                                    + " (x int)");
+                        if (result.isEmpty()) {
+                            created.incrementAndGet();
+                        } else {
+                            assertEquals("ERROR: table t" + r
+                                         + " already exists!\n", result);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+        assertEquals(100, created.get());
+    }
+
+    /**
+     * Tests that a snapshot keeps its rows, special values included, while
+     * rows are added to its table, and that its index and zone maps leave
+     * the later rows out.
+     */
+    @Test
+    public void testSnapshot() {
+        Table t = new Table(new String[]{"x int", "y float", "s string"});
+        int numRows = ZoneMap.BLOCK_SIZE + 10;
+        for (int i = 0; i < numRows; i++) {
+            assertTrue(t.addRow(new String[]{
+                    i % 100 == 0 ? "NOVALUE" : Integer.toString(i % 50),
+                    i % 7 == 0 ? "NaN" : "1.5", "'s" + i % 3 + "'"}));
+        }
+        assertTrue(t.createIndex("x int", "hash"));
+        Table snapshot = t.snapshot();
+        assertSame(snapshot, t.snapshot());
+        String before = snapshot.toString();
+
+        for (int i = 0; i < ZoneMap.BLOCK_SIZE; i++) {
+            assertTrue(t.addRow(new String[]{"NOVALUE", "NaN", "'new'"}));
+            assertTrue(t.addRow(new String[]{"007", "2.0", "'s1'"}));
+        }
+        assertNotSame(snapshot, t.snapshot());
+        assertEquals(numRows + 2 * ZoneMap.BLOCK_SIZE,
+                     t.snapshot().getNumRows());
+        assertEquals(before, snapshot.toString());
+        assertEquals(numRows, snapshot.getNumRows());
+
+        Index index = snapshot.getIndex("x int");
+        int[] rows = Index.upTo(index.lookup(new int[]{Predicate.EQ},
+                new String[]{"7"}, 1), snapshot.getNumRows());
+        assertEquals(numRows / 50, rows.length);
+        assertTrue(t.getColumn("x int").getZoneMap().numRows()
+                   > snapshot.getNumRows());
+        Table copy = new Table(t.getColumnNames());
+        copy.appendTable(snapshot);
+        assertEquals(before, copy.toString());
+    }
+
+    /**
+     * Tests that rows can be added to a table while a select that reads it
+     * is stuck writing its result, and that the select doesn't see them.
+     */
+    @Test
+    public void testInsertDuringSelect() throws Exception {
+        final Database db = new Database();
+        db.transact("create table t (x int)");
+        for (int i = 0; i < 3; i++) {
+            db.transact("insert into t values " + i);
+        }
+        final String expected = db.transact("select x from t where x >= 0");
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch inserted = new CountDownLatch(1);
+        final StringWriter out = new StringWriter() {
+            @Override
+            public StringWriter append(CharSequence text) {
+                writing.countDown();
+                try {
+                    inserted.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.append(text);
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Void> select = pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    db.transact("select x from t where x >= 0", out);
+                    return null;
+                }
+            });
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            Future<String> insert = pool.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return db.transact("insert into t values 3");
+                }
+            });
+            assertEquals("", insert.get(10, TimeUnit.SECONDS));
+            inserted.countDown();
+            select.get(10, TimeUnit.SECONDS);
+        } finally {
+            inserted.countDown();
+            pool.shutdown();
+        }
+        assertEquals(expected, out.toString());
+        assertEquals(5, db.transact("print t").split("\n").length);
+    }
+}
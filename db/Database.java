@@ -1,52 +1,122 @@
 package db;
 
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.io.File;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.FileNotFoundException;
-
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * A database of tables, run by SQL-like statements (see transact()).
+ *
+ * Many threads may run statements on one database at once. Statements that
+ * add rows to a table lock it while they do; statements that read tables
+ * read snapshots of them (see Table.snapshot()) and lock nothing, so each
+ * select sees every table it reads as of when it started, and never makes
+ * an insert wait for it.
+ */
 public class Database {
-    ArrayList<Table> tables;
-    int numTables;
-
-    /* Various common constructs, simplifies parsing. */
-    private static final String REST  = "\\s*(.*)\\s*",
-            COMMA = "\\s*,\\s*",
-            AND   = "\\s+and\\s+";
-
-    /* Stage 1 syntax, contains the command name. */
-    private static final Pattern CREATE_CMD = Pattern.compile("create table "
-                                                              + REST),
-            LOAD_CMD   = Pattern.compile("load " + REST),
-            STORE_CMD  = Pattern.compile("store " + REST),
-            DROP_CMD   = Pattern.compile("drop table " + REST),
-            INSERT_CMD = Pattern.compile("insert into " + REST),
-            PRINT_CMD  = Pattern.compile("print " + REST),
-            SELECT_CMD = Pattern.compile("select " + REST);
-
-    /* Stage 2 syntax, contains the clauses of commands. */
-    private static final Pattern CREATE_NEW  =
-            Pattern.compile("(\\S+)\\s+\\(\\s*(\\S+\\s+\\S+\\s*"
-                            + "(?:,\\s*\\S+\\s+\\S+\\s*)*)\\)"),
-            SELECT_CLS  = Pattern.compile("([^,]+?(?:,[^,]+?)*)\\s+from\\s+"
-                    + "(\\S+\\s*(?:,\\s*\\S+\\s*)*)(?:\\s+where\\s+"
-                    + "([\\w\\s+\\-*/'<>=!.]+?(?:\\s+and\\s+"
-                    + "[\\w\\s+\\-*/'<>=!.]+?)*))?"),
-            CREATE_SEL  = Pattern.compile("(\\S+)\\s+as select\\s+"
-                                          + SELECT_CLS.pattern()),
-            INSERT_CLS  = Pattern.compile("(\\S+)\\s+values\\s+(.+?"
-                                          + "\\s*(?:,\\s*.+?\\s*)*)");
+    final Catalog catalog;
+    private final Indexes indexes;
+
+    /* How many parsed statements to keep. */
+    private static final int STATEMENT_CACHE_SIZE = 256;
+
+    private final StatementCache statements =
+            new StatementCache(STATEMENT_CACHE_SIZE);
+
+    /* How many rows a table needs for a select to scan it in parallel. */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private volatile ParallelScan scan = new ParallelScan(
+            Runtime.getRuntime().availableProcessors(), PARALLEL_THRESHOLD);
+
+    private volatile boolean nestedLoopOrder;
+
+    /* Bytes that each value of a select's joined rows takes, roughly:
+       conditions and column expressions only copy a batch of rows at a
+       time (see Pipeline). */
+    private static final long BYTES_PER_VALUE = 8;
+
+    /* Most partitions that a select's join is split into. */
+    private static final int MAX_PARTITIONS = 4096;
+
+    /* How many rows a bulk insert checks before it appends them at once. */
+    private static final int INSERT_BATCH_SIZE = 4096;
+
+    private volatile long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private volatile File spillDirectory = new File(
+            System.getProperty("java.io.tmpdir"));
 
     /** Constructor. */
     public Database() {
-        tables = new ArrayList<Table>();
-        numTables = 0;
+        catalog = new Catalog();
+        indexes = new Indexes(catalog);
+    }
+
+    /**
+     * Sets how selects scan large tables: split into ranges of rows that run
+     * on up to numThreads threads at once, for tables (and results) of at
+     * least threshold rows. By default, a select uses as many threads as
+     * there are processors for tables of 65536 rows or more; with 1 thread,
+     * every statement runs on the thread that called it. Statements that are
+     * running keep the threads they started with.
+     *
+     * @throws IllegalArgumentException     if either number is less than 1
+     */
+    public void setParallelism(int numThreads, int threshold) {
+        if (numThreads < 1 || threshold < 1) {
+            throw new IllegalArgumentException("Not a number of threads and "
+                    + "of rows: " + numThreads + ", " + threshold);
+        }
+        scan = new ParallelScan(numThreads, threshold);
+    }
+
+    /**
+     * Sets whether selects give the rows of joins in nested-loop order: the
+     * rows of the first table in order, and for each one the matching rows
+     * of the second table in order, and so on. By default they don't have
+     * to: a merge join of tables that are in order of the shared columns
+     * (see MergeJoin) gives its rows in the order of their values, and
+     * tables joined in another order than the from clause's (see
+     * JoinPlanner) give them in the order they were joined in. Other joins
+     * give them in nested-loop order either way.
+     */
+    public void setNestedLoopOrder(boolean nestedLoopOrder) {
+        this.nestedLoopOrder = nestedLoopOrder;
+    }
+
+    /**
+     * Sets roughly how many bytes a statement may keep on the heap for the
+     * rows it selects before it keeps them in files in the spill directory
+     * instead (see Spill). A select whose joined rows are estimated to take
+     * more runs a partition of the join at a time (see JoinPartitions), and
+     * "create table as select" reads back the selected text from a file.
+     * The default is a quarter of the largest the heap may grow to.
+     *
+     * @throws IllegalArgumentException     if bytes is less than 1
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Not a number of bytes: "
+                                               + bytes);
+        }
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Sets the directory that statements spill rows to (see
+     * setMemoryBudget()). The default is the system's temporary directory.
+     */
+    public void setSpillDirectory(File directory) {
+        spillDirectory = directory;
     }
 
     /** Processes database transaction. */
@@ -54,86 +124,115 @@ public class Database {
         return eval(query);
     }
 
+    /**
+     * Processes database transaction, writing the result to out as it is
+     * produced instead of building it as one String. Does not flush out.
+     */
+    public void transact(String query, Writer out) throws IOException {
+        eval(query, out);
+    }
+
     /** Evaluates the query: calls appropriate function and returns result. */
     public String eval(String unformattedQuery) {
-        String result = "";
-        Matcher m;
-
-        String query = formatQuery(unformattedQuery);
-
-        if ((m = CREATE_CMD.matcher(query)).matches()) {
-            result = createTable(m.group(1));
-        } else if ((m = LOAD_CMD.matcher(query)).matches()) {
-            result = loadTable(m.group(1));
-        } else if ((m = STORE_CMD.matcher(query)).matches()) {
-            result = storeTable(m.group(1));
-        } else if ((m = DROP_CMD.matcher(query)).matches()) {
-            result = dropTable(m.group(1));
-        } else if ((m = INSERT_CMD.matcher(query)).matches()) {
-            result = insertRow(m.group(1));
-        } else if ((m = PRINT_CMD.matcher(query)).matches()) {
-            result = printTable(m.group(1));
-        } else if ((m = SELECT_CMD.matcher(query)).matches()) {
-            result = select(m.group(1));
-        } else {
-            result = "ERROR: Malformed query.\n";
+        StringWriter out = new StringWriter();
+        try {
+            eval(unformattedQuery, out);
+        } catch (IOException e) {
+            /* StringWriter never throws, but spilling to files may. */
+            throw new UncheckedIOException(e);
         }
-        return result;
+        return out.toString();
     }
 
-    /** Formats a query to remove excess whitespaces and returns the result. */
-    private static String formatQuery(String unformattedQuery) {
-        /*
-         * Each command may have arbitrary amounts of whitespace in between
-         * keywords. To make life easier for the rest of these functions (which
-         * assume that the format strictly matches the formats given in the
-         * spec), format the query before passing it to all the database
-         * functions.
-         *
-         * Formatting algorithm:
-         *      PART 1:
-         *          Convert all series of spaces into 1 space, while removing
-         *          leading and trailing spaces.
-         *      PART 2:
-         *          There should be NO spaces between a keyword and a comma, on
-         *          both sides of the comma. So, remove spaces that immediately
-         *          precede or follow a comma.
-         */
-
-        String ret = "";
-
-        /* PART 1 */
-        ret = unformattedQuery.trim().replaceAll(" +", " "); // from StckOvflw
+    /**
+     * Evaluates the query: calls appropriate function and writes its result
+     * to out. Tables printed or selected are written one row at a time.
+     */
+    public void eval(String unformattedQuery, Writer out) throws IOException {
+        execute(parse(unformattedQuery), out);
+    }
 
-        /* Part 2 */
-        ret = ret.trim().replaceAll(", ", ",");
-        ret = ret.trim().replaceAll(" ,", ",");
+    /**
+     * Prepares a statement to be run any number of times. A "?" in place of
+     * an insert value, or of the second operand of a column expression or
+     * condition, is a parameter: bind a value to it with the setters of the
+     * returned statement before running it.
+     *
+     * For example, prepare("select Lastname from teams where Wins > ?").
+     */
+    public PreparedStatement prepare(String query) {
+        return new PreparedStatement(this,
+                Parser.parsePrepared(Parser.normalize(query)));
+    }
 
-        return ret;
+    /** Runs a parsed statement and writes its result to out. */
+    void execute(Statement statement, Writer out) throws IOException {
+        String result;
+
+        switch (statement.kind) {
+            case CREATE_TABLE:
+                result = createNewTable(statement.name, statement.columns);
+                break;
+            case CREATE_SELECTED:
+                result = createSelectedTable(statement.name, statement.select);
+                break;
+            case CREATE_INDEX:
+                result = indexes.create(statement.name, statement.columns[0],
+                        statement.columns[1]);
+                break;
+            case LOAD:
+                result = loadTable(statement.name);
+                break;
+            case STORE:
+                result = storeTable(statement.name, false);
+                break;
+            case STORE_BINARY:
+                result = storeTable(statement.name, true);
+                break;
+            case DROP:
+                result = dropTable(statement.name);
+                break;
+            case INSERT:
+                result = insertRow(statement.name, statement.values);
+                break;
+            case INSERT_ROWS:
+                result = insertRows(statement.name, statement.rows);
+                break;
+            case PRINT:
+                result = printTable(statement.name, out);
+                break;
+            case SELECT:
+                result = select(statement.select, out);
+                break;
+            default:
+                result = statement.error;
+                break;
+        }
+        out.write(result);
     }
 
-    /** Finds and returns a table with the corresponding name, or null. */
-    private Table findTable(String name) {
-        for (Table table : tables) {
-            String temp = table.getName();
-            if (temp != null && temp.equals(name)) {
-                return table;
+    /**
+     * Parses a query, or returns the statement parsed earlier from the same
+     * normalized text.
+     */
+    Statement parse(String query) {
+        String text = Parser.normalize(query);
+        Statement statement = statements.get(text);
+        if (statement == null) {
+            statement = Parser.parse(text);
+            /* Inserts almost never repeat their values, so caching them
+               would only push other statements out. */
+            if (statement.kind != Statement.Kind.INSERT
+                && statement.kind != Statement.Kind.INSERT_ROWS) {
+                statements.put(text, statement);
             }
         }
-        return null;
+        return statement;
     }
 
-    /** Calls the correct table creating function. */
-    private String createTable(String expr) {
-        Matcher m;
-        if ((m = CREATE_NEW.matcher(expr)).matches()) {
-            return createNewTable(m.group(1), m.group(2).split(COMMA));
-        } else if ((m = CREATE_SEL.matcher(expr)).matches()) {
-            return createSelectedTable(m.group(1), m.group(2), m.group(3),
-                    m.group(4));
-        } else {
-            return "ERROR: Malformed create command.\n";
-        }
+    /** Finds and returns a table with the corresponding name, or null. */
+    private Table findTable(String name) {
+        return catalog.get(name);
     }
 
     /**
@@ -146,166 +245,75 @@ public class Database {
         /* Create the table if the name is not already used. */
         if (findTable(name) == null) {
             Table table = new Table(cols, name);
-            if (table.isValid()) {
-                tables.add(table);
-                return "";
-            } else {
+            if (!table.isValid()) {
                 return "ERROR: incorrect table format!\n";
             }
+            if (catalog.add(table)) {
+                return "";
+            }
         }
         return "ERROR: table " + name + " already exists!\n";
     }
 
-    /** Creates a table using 'select'. */
-    private String createSelectedTable(String name, String exprs, String
-            tableNames, String conds) {
-        /* Get string representation of table. */
-        String stringRep = select(exprs, tableNames, conds);
-
-        /* Separate the string representation of table line-by-line. */
-        ArrayList<String> lines = new ArrayList<>();
-        String line = "";
-        for (int i = 0; i < stringRep.length(); i++) {
-            char c = stringRep.charAt(i);
-            if (c == '\n') {
-                lines.add(line);
-                line = "";
-                continue;
-            }
-            line += c;
-        }
-
-        /* Process the first line in the string representation of table. */
-        line = lines.get(0);
-        ArrayList<String> list = new ArrayList<>();
-        String columnName = "";
-        int lineLength = line.length();
-        for (int i = 0; i < lineLength; i++) {
-            char c = line.charAt(i);
-            /* Upon finding comma, add the column name to list. */
-            if (c == ',') {
-                list.add(columnName);
-                columnName = "";
-                continue;
-            }
-            columnName += c;
-        }
-        list.add(columnName);    // add last column
-
-        /* Initialize the table. */
-        String[] columnNames = list.toArray(new String[0]);
-        Table table = new Table(columnNames, name);
-
-        /* Check if the table is valid. */
-        if (!table.isValid()) {
+    /**
+     * Creates a table using 'select'. The selected rows are appended to it
+     * as typed values, a batch at a time (see Pipeline), without going
+     * through their string representation.
+     */
+    private String createSelectedTable(String name, Statement.Select select)
+            throws IOException {
+        SelectPlan plan = planSelect(select);
+        TableResult result = new TableResult(name);
+        if (plan == null || !select(plan, result).isEmpty()) {
             return "ERROR: Attempting to create incorrectly formatted "
                     + "table!\n";
         }
 
-        /* Process all other lines. */
-        String[] row;
-        for (int i = 1; i < lines.size(); i++) {
-            line = lines.get(i);
-            row = lineToArr(line);
-            boolean ret = table.addRow(row);
-            if (!ret) {
-                return "ERROR: Row format does not match the table's! (c)\n";
-            }
-        }
-
         /* If a table exists with the same name, overwrite it. */
-        Table temp = findTable(name);
-        if (temp != null) {
-            tables.remove(temp);
-        }
-        tables.add(table);
+        catalog.put(result.table);
         return "";
     }
 
     /** Loads table from a .tbl file. */
     private String loadTable(String name) {
-        Table table;
         String filename = name + ".tbl";
-        File file = new File(filename);
-        BufferedReader reader;
+        TableLoader loader = new TableLoader(new File(filename), name);
 
         try {
-            FileReader fr = new FileReader(file);
-            reader = new BufferedReader(fr);
-            String line;
-
-            /* Process the first line in the file. */
-            line = reader.readLine();
-            ArrayList<String> list = new ArrayList<String>();
-            String columnName = "";
-
-            /* Assert that the first line is not null. */
-            if (line == null) {
-                return "ERROR: The first line is null!\n";
+            String result = loader.load();
+            if (!result.isEmpty()) {
+                return result;
             }
-
-            int lineLength = line.length();
-            for (int i = 0; i < lineLength; i++) {
-                char c = line.charAt(i);
-                /* Upon finding comma, add the column name to list. */
-                if (c == ',') {
-                    list.add(columnName);
-                    columnName = "";
-                    continue;
-                }
-                columnName += c;
-            }
-            list.add(columnName);    // add last column
-
-            /* Initialize the table. */
-            String[] columnNames = list.toArray(new String[0]);
-            table = new Table(columnNames, name);
-
-            /* Check if the table is valid. */
-            if (!table.isValid()) {
-                return "ERROR: Attempting to load incorrectly formatted "
-                        + "table!\n";
-            }
-
-            /* Process all other lines. */
-            String[] row;
-            while ((line = reader.readLine()) != null) {
-                row = fileLineToArr(line);
-                boolean ret = table.addRow(row);
-                if (!ret) {
-                    return "ERROR: Row format does not match the table's! (a)\n";
-                }
-            }
-
             /* If a table exists with the same name, overwrite it. */
-            Table temp = findTable(name);
-            if (temp != null) {
-                tables.remove(temp);
-            }
-            tables.add(table);
-            fr.close();
-            reader.close();
-        } catch (FileNotFoundException e) {
-            return "ERROR: " + filename + " not found.\n";
+            catalog.put(loader.getTable());
         } catch (IOException e) {
             e.printStackTrace();
         }
         return "";
     }
 
-    /** Writes table to a .tbl file. */
-    private String storeTable(String name) {
+    /**
+     * Writes table to a .tbl file: as text, or in the binary format if the
+     * command is "store <name> as binary".
+     */
+    private String storeTable(String name, boolean asBinary) {
         Table table = findTable(name);
         if (table == null) {
             return "ERROR: No such table: " + name + "\n";
         }
 
         /* Create and write to .tbl file. */
+        table = table.snapshot();
         try {
             String filename = name + ".tbl";
-            BufferedWriter bw = new BufferedWriter(new FileWriter(filename));
-            bw.write(table.toString());
-            bw.close();
+            if (asBinary) {
+                BinaryTableFile.write(table, new File(filename));
+            } else {
+                try (BufferedWriter bw = new BufferedWriter(
+                        new FileWriter(filename))) {
+                    scan.write(table, bw);
+                }
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -317,9 +325,8 @@ public class Database {
 
     /** Deallocates a table. */
     private String dropTable(String name) {
-        Table table = findTable(name);
+        Table table = catalog.remove(name);
         if (table != null) {
-            tables.remove(table);
             return "";
         } else {
             return "ERROR: No such table: " + name + "\n";
@@ -327,85 +334,114 @@ public class Database {
     }
 
     /** Inserts a row into a table. */
-    private String insertRow(String expr) {
-        Matcher m = INSERT_CLS.matcher(expr);
-        if (!m.matches()) {
-            return "ERROR: Malformed insert.\n";
-        }
-
-        String name = m.group(1);
-        String line = m.group(2);
-
+    private String insertRow(String name, String[] values) {
         Table table = findTable(name);
         if (table != null) {
-            boolean ret = table.addRow(lineToArr(line));
+            /* addRow() formats floats in place; statements are reused. */
+            boolean ret;
+            table.getLock().lock();
+            try {
+                ret = table.addRow(values.clone());
+            } finally {
+                table.getLock().unlock();
+            }
             if (!ret) {
                 return "ERROR: Row format does not match the table's! (b)\n";
             }
+            /* Not under the table's lock: the catalog's listeners may take
+               it. */
+            catalog.modified(name);
         } else {
             return "ERROR: No such table: " + name + "\n";
         }
         return "";
     }
 
-    /** Prints the table. */
-    private String printTable(String name) {
+    /**
+     * Inserts the rows of one "insert into <name> values (...), ..."
+     * statement: all of them, or none if one doesn't match the table's
+     * columns. They are checked and typed without holding the table's
+     * lock, like bulkInsert() does, but all before any is appended.
+     */
+    private String insertRows(String name, String[][] rows) {
         Table table = findTable(name);
-        if (table != null) {
-            return table.toString();
-        } else {
+        if (table == null) {
             return "ERROR: No such table: " + name + "\n";
         }
+        Table batch = table.newBatch();
+        for (String[] row : rows) {
+            if (!batch.addToBatch(row)) {
+                return "ERROR: Row format does not match the table's! (b)\n";
+            }
+        }
+        appendBatch(name, table, batch);
+        return "";
     }
 
-    /** Processes a comma-separated line and converts it to an array. */
-    private String[] lineToArr(String line) {
-        ArrayList<String> list = new ArrayList<>();
-        int lineLength = line.length();
-        String value = "";
-
-        for (int i = 0; i < lineLength; i++) {
-            char c = line.charAt(i);
-            /* Upon finding comma, add the value to the list. */
-            if (c == ',') {
-                list.add(value);
-                value = "";
-                continue;
+    /**
+     * Inserts rows into a table, as one "insert into" statement per row
+     * would, but faster: the rows are checked against the table's columns
+     * and typed a batch at a time without holding the table's lock, and
+     * each batch is then appended at once, updating the table's indexes
+     * and snapshot once per batch instead of once per row.
+     *
+     * Values are written as in statements: "5", "2.5", "'Lee'", "NOVALUE".
+     * Unlike a statement, a bulk insert is not all or nothing, so that its
+     * rows don't all have to be held at once: a row that doesn't match the
+     * table's columns ends the insert, the batches before the one it is in
+     * having been inserted, and no row from its batch on.
+     *
+     * For example, bulkInsert("teams", rows) where rows gives
+     * {"'Mets'", "90", "0.556"}, ...
+     *
+     * @return  ""              if every row was inserted
+     *          error message   otherwise
+     */
+    public String bulkInsert(String name, Iterator<String[]> rows) {
+        Table table = findTable(name);
+        if (table == null) {
+            return "ERROR: No such table: " + name + "\n";
+        }
+        while (rows.hasNext()) {
+            Table batch = table.newBatch();
+            while (rows.hasNext()
+                   && batch.getNumRows() < INSERT_BATCH_SIZE) {
+                if (!batch.addToBatch(rows.next())) {
+                    return "ERROR: Row format does not match the table's! "
+                           + "(b)\n";
+                }
             }
-            value += c;
+            appendBatch(name, table, batch);
         }
-        list.add(value);    // add the last value
-        String[] arr = list.toArray(new String[0]);
-        return arr;
+        return "";
     }
 
-    /** Processes a comma-separated line and converts it to an array. */
-    private String[] fileLineToArr(String line) {
-        ArrayList<String> list = new ArrayList<>();
-        int lineLength = line.length();
-        String value = "";
-
-        boolean ignoreSpaces = true;
-        for (int i = 0; i < lineLength; i++) {
-            char c = line.charAt(i);
-            /* File lines should have 0 spaces except when the spaces are inside quotes. */
-            if (c == '\'') {
-                ignoreSpaces = !ignoreSpaces;
-            }
-            /* Upon finding comma, add the value to the list. */
-            if (c == ',') {
-                list.add(value);
-                value = "";
-                continue;
-            }
-            if (ignoreSpaces && c == ' ') {
-                continue;
-            }
-            value += c;
+    /** Appends a batch of rows (see Table.newBatch()) to a table. */
+    private void appendBatch(String name, Table table, Table batch) {
+        table.getLock().lock();
+        try {
+            table.appendTable(batch);
+        } finally {
+            table.getLock().unlock();
+        }
+        /* Not under the table's lock: the catalog's listeners may take it. */
+        catalog.modified(name);
+    }
+
+    /**
+     * Prints the table to out.
+     *
+     * @return  ""              if the table was printed
+     *          error message   otherwise
+     */
+    private String printTable(String name, Writer out) throws IOException {
+        Table table = findTable(name);
+        if (table != null) {
+            scan.write(table.snapshot(), out);
+            return "";
+        } else {
+            return "ERROR: No such table: " + name + "\n";
         }
-        list.add(value);    // add the last value
-        String[] arr = list.toArray(new String[0]);
-        return arr;
     }
 
     /**
@@ -632,648 +668,744 @@ public class Database {
         return true;
     }
 
-    /** Helper function for applyColOperation() and applyLitOperation(). */
-    private float doMath(float operand1, String operator,
-                                float operand2) {
-        if (operator.equals("+")) {
-            return operand1 + operand2;
-        } else if (operator.equals("-")) {
-            return operand1 - operand2;
-        } else if (operator.equals("*")) {
-            return operand1 * operand2;
-        } else if (operator.equals("/")) {
-            return operand1 / operand2;
+    /** Gets the resulting type after an operation. */
+    private String getResultingType(String type1, String type2) {
+        if (type1.equals("string") || type2.equals("string")) {
+            return "string";
+        } else if (type1.equals("float") || type2.equals("float")) {
+            return "float";
         } else {
-            return 0;
+            return "int";
         }
     }
 
-    /** Helper function for passesColCondition() and passesLitCondition(). */
-    private boolean doStringComparison(String operand1, String operator,
-                                        String operand2) {
-        int ret = operand1.compareTo(operand2);
-
-        if (operator.equals("==") && operand1.equals(operand2)) {
-            return true;
-        } else if (operator.equals("!=") && !operand1.equals(operand2)) {
-            return true;
-        } else if (operator.equals("<") && operand1.compareTo(operand2) < 0) {
-            return true;
-        } else if (operator.equals(">") && operand1.compareTo(operand2) > 0) {
-            return true;
-        } else if (operator.equals("<=") && (ret < 0 || ret == 0)) {
-            return true;
-        } else {
-            return operator.equals(">=") && (ret > 0 || ret == 0);
+    /**
+     * Helper function for evalExprs(): checks one expression and sets the
+     * name of its column, and either the column it copies or the operation
+     * that computes it.
+     *
+     * @return  ""      if the expression is valid
+     *          null    otherwise
+     */
+    private String evalExpr(Table table, Statement.ColumnExpr expr,
+                            String[] columnNames, Column[] sources,
+                            ColumnOperation[] operations, int i) {
+        boolean operand2IsLiteral = false;
+        if (expr.isMalformed()) {
+            return null;
         }
-    }
-
-    /** Helper function for passesColCondition() and passesLitCondition(). */
-    private boolean numCompare(String value1, String operator,
-                                      String value2) {
-        /* NaN > all values except itself, to which it is equal. */
-
-        if (value1.equals("NaN") && !value2.equals("NaN")) {
-            if (operator.equals("==")) {
-                return false;
-            } else if (operator.equals("!=")) {
-                return true;
-            } else if (operator.equals("<")) {
-                return false;
-            } else if (operator.equals(">")) {
-                return true;
-            } else if (operator.equals("<=")) {
-                return false;
-            } else if (operator.equals(">=")) {
-                return true;
+        if (expr.operator == null) {                        // Found 1 operand
+            /* Verify that the column name exists in table. */
+            String columnName = table.addType(expr.operand1);
+            if (columnName == null) {
+                return null;
             }
-        } else if (!value1.equals("NaN") && value2.equals("NaN")) {
-            if (operator.equals("==")) {
-                return false;
-            } else if (operator.equals("!=")) {
-                return true;
-            } else if (operator.equals("<")) {
-                return true;
-            } else if (operator.equals(">")) {
-                return false;
-            } else if (operator.equals("<=")) {
-                return true;
-            } else if (operator.equals(">=")) {
-                return false;
+            columnNames[i] = columnName;
+            sources[i] = table.getColumn(columnName);
+        } else {                                            // Found 2 operands
+            String operand1 = expr.operand1, operator = expr.operator,
+                   operand2 = expr.operand2;
+            /* Verify that the first (left) column name exists in table. */
+            String name1 = table.addType(operand1);
+            String name2 = table.addType(operand2);
+            if (name1 == null) {
+                return null;
             }
-        } else if (value1.equals("NaN") && value2.equals("NaN")) {
-            if (operator.equals("==")) {
-                return true;
-            } else if (operator.equals("!=")) {
-                return false;
-            } else if (operator.equals("<")) {
-                return false;
-            } else if (operator.equals(">")) {
-                return false;
-            } else if (operator.equals("<=")) {
-                return true;
-            } else if (operator.equals(">=")) {
-                return true;
+            if (name2 == null) {
+                operand2IsLiteral = true;
             }
-        } else {
-            Float operand1 = Float.parseFloat(value1);
-            Float operand2 = Float.parseFloat(value2);
-            int ret = operand1.compareTo(operand2);
-
-            if (operator.equals("==") && operand1.equals(operand2)) {
-                return true;
-            } else if (operator.equals("!=") && !operand1.equals(operand2)) {
-                return true;
-            } else if (operator.equals("<") && operand1.compareTo(operand2) < 0) {
-                return true;
-            } else if (operator.equals(">") && operand1.compareTo(operand2) > 0) {
-                return true;
-            } else if (operator.equals("<=") && (ret < 0 || ret == 0)) {
-                return true;
+            if (operand2IsLiteral) {
+                if (!isValidLitOperation(table, name1, operator, operand2)) {
+                    return null;
+                }
             } else {
-                return operator.equals(">=") && (ret > 0 || ret == 0);
+                if (!isValidColOperation(table, name1, operator, name2)) {
+                    return null;
+                }
             }
+            /* Attach the correct type to the newly formed column. */
+            String type1 = table.getColType(name1), type2 = null;
+            if (!operand2IsLiteral) {
+                type2 = table.getColType(name2);
+            } else {
+                type2 = getLitType(operand2);
+            }
+            String resultingType = getResultingType(type1, type2);
+            columnNames[i] = expr.alias + " " + resultingType;
+            operations[i] = ColumnOperation.compile(table, name1, operator,
+                    operand2IsLiteral ? operand2 : name2, operand2IsLiteral,
+                    resultingType);
         }
-
-        System.out.println("This line should never print (numCompare)");
-        return false;
+        return "";  // indicates success
     }
 
-    /** Applies the operation to two arrays (columns) and returns the result. */
-    private String[] applyColOperation(Table table, String name1,
-                                    String operator, String name2) {
-        /* Get the column types. */
-        String type1 = table.getColType(name1), type2 = table.getColType(name2);
-
-        /* Get the column values. */
-        String[] values1 = table.getCol(name1);
-        String[] values2 = table.getCol(name2);
-        int numValues = values1.length;
-        String[] ret = new String[numValues];
+    /**
+     * Evaluates column expressions against a table to choose which columns
+     * to return: checks each one, and sets the column it copies or the
+     * operation that computes it (see Pipeline), by resulting column.
+     *
+     * @param table         the table to apply the expressions to
+     * @param columnNames   set to the resulting columns' names
+     * @param sources       set to the columns copied, for each expression
+     * @param operations    set to the operations, for each expression
+     * @return  the table itself    for "*"
+     *          a table of the resulting columns, with no rows, otherwise
+     *          null                if an expression is malformed
+     */
+    private Table evalExprs(Table table, Statement.Select select,
+                            String[] columnNames, Column[] sources,
+                            ColumnOperation[] operations) {
+        Statement.ColumnExpr[] exprs = select.columnExprs;
 
-        /* If both types are string, the operation is "+". */
-        if (type1.equals("string") && type2.equals("string")) {
-            /* Concatenate all values. */
-            for (int i = 0; i < numValues; i++) {
-                String result = "";
-                result += '\'';
-                String value1 = values1[i];
-                for (int j = 0; j < value1.length(); j++) {
-                    char c = value1.charAt(j);
-                    if (c != '\'') {    // don't add extra single quotes
-                        result += c;
-                    }
-                }
+        /* If the expression is "*", return all columns. */
+        if (select.isSelectAll()) {
+            return table;
+        }
 
-                String value2 = values2[i];
-                for (int j = 0; j < value2.length(); j++) {
-                    char c = value2.charAt(j);
-                    if (c != '\'') {
-                        result += c;    // don't add extra single quotes
-                    }
-                }
-                result += '\'';
-                ret[i] = result;
+        /* For each expression... */
+        for (int i = 0; i < exprs.length; i++) {
+            if (evalExpr(table, exprs[i], columnNames, sources, operations,
+                         i) == null) {
+                return null;
             }
-            return ret;
         }
+        return new Table(columnNames);
+    }
 
-        /* If we reached this point, the types are ints/floats in any
-           combination. Apply the arithmetic. Possible ops: { +,-, *, / } */
-        float operand1, operand2, result;
-        int resultInt;
-        for (int i = 0; i < numValues; i++) {
-            /* Any arithmetic operation with a NaN returns a NaN. */
-            if (values1[i].equals("NaN") || values2[i].equals("NaN")) {
-                ret[i] = "NaN";
-                continue;
-            }
-            /* Any arithmetic operation with a NOVALUE should treat NOVALUE as zero,
-            except when both operands are NOVALUE--then the result should be NOVALUE. */
-            if (values1[i].equals("NOVALUE") && !values2[i].equals("NOVALUE")) {
-                operand1 = (float) 0.0;
-                operand2 = Float.parseFloat(values2[i]);
-            } else if (!values1[i].equals("NOVALUE") && values2[i].equals("NOVALUE")) {
-                operand1 = Float.parseFloat(values1[i]);
-                operand2 = (float) 0.0;
-            } else if (values1[i].equals("NOVALUE") && values2[i].equals("NOVALUE")) {
-                ret[i] = "NOVALUE";
-                continue;
-            } else {
-                operand1 = Float.parseFloat(values1[i]);
-                operand2 = Float.parseFloat(values2[i]);
+    /**
+     * Checks a condition against a table, and resolves its column names.
+     *
+     * @return  the resolved condition  if it is well-formed
+     *          null                    otherwise
+     */
+    private SelectPlan.Condition resolve(Table table,
+                                         Statement.Condition cond) {
+        if (cond.isMalformed()) {
+            return null;
+        }
+        /* Verify that operand1 is an existing column name in table. */
+        String name1 = table.addType(cond.operand1);
+        String name2 = table.addType(cond.operand2);
+        if (name1 == null) {
+            return null;
+        }
+        boolean operand2IsLiteral = name2 == null;
+        if (operand2IsLiteral) {
+            if (!isValidLitComparison(table, name1, cond.operator,
+                                      cond.operand2)) {
+                return null;
             }
+        } else if (!isValidColComparison(table, name1, cond.operator,
+                                         name2)) {
+            return null;
+        }
+        return new SelectPlan.Condition(name1, cond.operator,
+                operand2IsLiteral ? cond.operand2 : name2, operand2IsLiteral,
+                cond.parameter);
+    }
 
-            /* Do the operation. If dividing by 0, result is NaN. */
-            if (operator.equals("/") && Float.compare(operand2, 0) == 0) {
-                ret[i] = "NaN";
-                continue;
+    /**
+     * Applies conditions that were already split and resolved by
+     * planSelect() to a table, and returns the rows (numbered from 1) that
+     * pass all of them, in order.
+     * If a column compared to literals has an index that can look up those
+     * comparisons, only the rows the index gives are tested against the
+     * other conditions. Otherwise, blocks of rows that the zone maps show
+     * can't pass a comparison to a literal are skipped.
+     */
+    private int[] filterRows(Table table, ArrayList<SelectPlan.Condition> conds) {
+        int numConds = conds.size();
+        Predicate[] predicates = new Predicate[numConds];
+        boolean mayThrow = false;
+        for (int k = 0; k < numConds; k++) {
+            SelectPlan.Condition cond = conds.get(k);
+            predicates[k] = Predicate.compile(table, cond.name1,
+                    cond.operator, cond.operand2, cond.operand2IsLiteral);
+            mayThrow |= predicates[k].mayThrow();
+        }
+
+        /* Look up every comparison to a literal on the first column that has
+           an index for it. Only use an index if testing fewer rows can't
+           change whether a condition throws. */
+        int[] rows = null;
+        boolean[] lookedUp = new boolean[numConds];
+        for (int k = 0; k < numConds && rows == null && !mayThrow; k++) {
+            Index index = table.getIndex(conds.get(k).name1);
+            if (index != null && usesIndex(conds.get(k), index)) {
+                rows = lookUp(index, conds, k, lookedUp);
             }
-            result = doMath(operand1, operator, operand2);
+        }
+        if (rows != null) {
+            rows = Index.upTo(rows, table.getNumRows());
+        }
+        if (rows == null && !mayThrow) {
+            rows = rowsOfBlocks(table, blocksThatMayPass(table, conds));
+        }
+        if (rows == null) {
+            rows = allRows(table);
+        }
 
-            /* Cast the result to the right type. */
-            if (type1.equals("int") && type2.equals("int")) {
-                resultInt = (int) result;
-                ret[i] = Integer.toString(resultInt);
-            } else {
-                ret[i] = String.format("%.3f", result);
+        ArrayList<Predicate> rest = new ArrayList<>();
+        for (int k = 0; k < numConds; k++) {
+            if (!lookedUp[k]) {
+                rest.add(predicates[k]);
             }
         }
-        return ret;
+        int numSelected = scan.filter(rest.toArray(new Predicate[0]), rows,
+                                      rows.length);
+        return numSelected == rows.length ? rows
+                                          : Arrays.copyOf(rows, numSelected);
     }
 
-    /** Applies the operation to column w/ a literal and returns the result. */
-    private String[] applyLitOperation(Table table, String name1,
-                                              String operator, String literal) {
-        /* Get the column type and the literal type. */
-        String type1 = table.getColType(name1);
-        String type2 = getLitType(literal);
-
-        /* Get the column values. */
-        String[] values1 = table.getCol(name1);
-        int numValues = values1.length;
-
-        String[] ret = new String[numValues];
-
-        /* If both types are string, the operation is "+". */
-        if (type1.equals("string") && type2.equals("string")) {
-            /* Concatenate all values with the literal. */
-            for (int i = 0; i < numValues; i++) {
-                String result = "";
-                result += '\'';
-                String value1 = values1[i];
-                for (int j = 0; j < value1.length(); j++) {
-                    char c = value1.charAt(j);
-                    if (c != '\'') {    // don't add extra single quotes
-                        result += c;
-                    }
-                }
+    /** Returns whether an index can look up a condition. */
+    private static boolean usesIndex(SelectPlan.Condition cond, Index index) {
+        return cond.operand2IsLiteral
+               && index.supports(Predicate.operatorCode(cond.operator));
+    }
 
-                for (int j = 0; j < literal.length(); j++) {
-                    char c = literal.charAt(j);
-                    if (c != '\'') {
-                        result += c;    // don't add extra single quotes
-                    }
-                }
-                result += '\'';
-                ret[i] = result;
+    /**
+     * Looks up the conditions, from the kth on, that compare the kth
+     * condition's column to a literal in the index on that column, and marks
+     * them as looked up.
+     *
+     * @return  the rows that pass them, from Index.lookup()
+     *          null    if the index can't look them up (nothing is marked)
+     */
+    private static int[] lookUp(Index index,
+                                ArrayList<SelectPlan.Condition> conds, int k,
+                                boolean[] lookedUp) {
+        int numConds = conds.size();
+        int[] operators = new int[numConds];
+        String[] literals = new String[numConds];
+        int n = 0;
+        for (int m = k; m < numConds; m++) {
+            SelectPlan.Condition cond = conds.get(m);
+            if (cond.name1.equals(conds.get(k).name1)
+                && usesIndex(cond, index)) {
+                operators[n] = Predicate.operatorCode(cond.operator);
+                literals[n] = cond.operand2;
+                n++;
+                lookedUp[m] = true;
             }
-            return ret;
         }
+        int[] rows = index.lookup(operators, literals, n);
+        if (rows == null) {
+            Arrays.fill(lookedUp, false);
+        }
+        return rows;
+    }
 
-
-        /* If we reached this point, the types are ints/floats in any
-           combination. Apply the arithmetic. Possible ops: { +,-, *, / } */
-        float operand1, operand2, result;
-        int resultInt;
-        for (int i = 0; i < numValues; i++) {
-            /* Get the values in the correct types. */
-            operand1 = Float.parseFloat(values1[i]);
-            operand2 = Float.parseFloat(literal);
-
-            /* Do the operation. If dividing by 0, result is NaN. */
-            if (operator.equals("/") && Float.compare(operand2, 0) == 0) {
-                ret[i] = "NaN";
+    /**
+     * Returns the blocks of a table (see ZoneMap) in which some row may pass
+     * every comparison of a column to a literal, or null if there are none
+     * to check, or the table fits in one block.
+     */
+    private static BitSet blocksThatMayPass(Table table,
+            ArrayList<SelectPlan.Condition> conds) {
+        if (table.getNumRows() <= ZoneMap.BLOCK_SIZE) {
+            return null;
+        }
+        BitSet ret = null;
+        for (SelectPlan.Condition cond : conds) {
+            if (!cond.operand2IsLiteral) {
                 continue;
             }
-            result = doMath(operand1, operator, operand2);
-
-            /* Cast the result to the right type. */
-            if (type1.equals("int") && type2.equals("int")) {
-                resultInt = (int) result;
-                ret[i] = Integer.toString(resultInt);
+            ZoneMap zoneMap = table.getColumn(cond.name1).getZoneMap();
+            BitSet blocks = zoneMap.blocksThatMayPass(
+                    Predicate.operatorCode(cond.operator), cond.operand2);
+            if (blocks == null) {
+                continue;
+            }
+            if (ret == null) {
+                ret = blocks;
             } else {
-                ret[i] = String.format("%.3f", result);
+                ret.and(blocks);
             }
         }
         return ret;
     }
 
     /**
-     * Tests whether a particular row in a table passes a condition when given
-     * a column name and a literal.
-     *
-     * @return  true    if the row passes the condition
-     *          false   otherwise
+     * Returns the numbers of the rows, from 1, in the given blocks of a
+     * table, or null if blocks is null.
      */
-    private boolean passesLitCondition(Table table, String name1,
-                                              String operator, String literal,
-                                              int rowNum) {
-        /* Get the column type and the literal type. */
-        String type1 = table.getColType(name1);
-        String type2 = getLitType(literal);
-
-        /* Get the value in the column and row specified by name1 and rowNum. */
-        String value = table.getVal(rowNum, name1);
-
-        /* Return the result of condition test. */
-        if (type1.equals("string") || type2.equals("string")) {
-            return doStringComparison(value, operator, literal);
-        } else {
-            return numCompare(value, operator, literal);
+    private static int[] rowsOfBlocks(Table table, BitSet blocks) {
+        if (blocks == null) {
+            return null;
         }
-    }
-
-    /**
-     * Tests whether a particular row in a table passes a condition when given
-     * two column names.
-     *
-     * @return  true    if the row passes the condition
-     *          false   otherwise
-     */
-    private boolean passesColCondition(Table table, String name1,
-                                              String operator, String name2,
-                                              int rowNum) {
-        /* Get the column type and the literal type. */
-        String type1 = table.getColType(name1);
-        String type2 = table.getColType(name2);
-
-        /* Get values in the columns and rows specified by name1 and rowNum. */
-        String value1 = table.getVal(rowNum, name1);
-        String value2 = table.getVal(rowNum, name2);
-
-        /* Return the result of condition test. */
-        if (type1.equals("string") || type2.equals("string")) {
-            return doStringComparison(value1, operator, value2);
-        } else {
-            return numCompare(value1, operator, value2);
+        /* The zone maps may cover rows added after the table's snapshot. */
+        int numRows = table.getNumRows();
+        blocks.clear(ZoneMap.numBlocks(numRows), Integer.MAX_VALUE);
+        int count = 0;
+        for (int b = blocks.nextSetBit(0); b >= 0;
+             b = blocks.nextSetBit(b + 1)) {
+            count += ZoneMap.blockRows(b, numRows);
+        }
+        int[] rows = new int[count];
+        int k = 0;
+        for (int b = blocks.nextSetBit(0); b >= 0;
+             b = blocks.nextSetBit(b + 1)) {
+            int start = b * ZoneMap.BLOCK_SIZE;
+            for (int i = 0; i < ZoneMap.blockRows(b, numRows); i++) {
+                rows[k] = start + i + 1;
+                k++;
+            }
         }
+        return rows;
     }
 
-    /** Gets the resulting type after an operation. */
-    private String getResultingType(String type1, String type2) {
-        if (type1.equals("string") || type2.equals("string")) {
-            return "string";
-        } else if (type1.equals("float") || type2.equals("float")) {
-            return "float";
-        } else {
-            return "int";
+    /** Returns the numbers of every row of a table, from 1. */
+    private static int[] allRows(Table table) {
+        int[] rows = new int[table.getNumRows()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i + 1;
         }
+        return rows;
     }
 
     /**
-     * Formats column expression so that it has the proper # of spaces.
-     * Example: change "x+y as z" to "x + y as z".
-     * This is useful when evaluating expression conditions.
+     * For each column of the expressed table, returns the name of the joined
+     * table's column it is a copy of, or null if it is computed.
      */
-    private String formatExpr(String expr) {
-        String operatorFound = null;
-        String[] parts = null;
-        String ret = "";
-        if (expr.contains("+")) {
-            operatorFound = "+";
-            parts = expr.split("\\+");  // must escape + for regex in split()
-        } else if (expr.contains("-")) {
-            operatorFound = "-";
-            parts = expr.split("-");
-        } else if (expr.contains("*")) {
-            operatorFound = "*";
-            parts = expr.split("\\*");  // must escape * for regex in split()
-        } else if (expr.contains("/")) {
-            operatorFound = "/";
-            parts = expr.split("/");
-        } else {  // If expr doesn't contain operator, just return original expr.
-            return expr;
-        }
-
-        /*
-         * array parts should have 2 Strings.
-         * Example: "x+y as z"   split --> "x" and "y as z", or
-         *          "x + y as z" split --> "x " and " y as z", etc.
-         */
-        String firstPart = parts[0];
-        String secondPart = parts[1];
-
-        /* Add all characters of the first part, excluding spaces. */
-        for (int i = 0; i < firstPart.length(); i++) {
-            char c = firstPart.charAt(i);
-            if (c == ' ') {
-                continue;
+    private String[] sourceColumns(Table joinedSchema,
+                                   Statement.ColumnExpr[] exprs,
+                                   Table expressedSchema) {
+        if (expressedSchema == joinedSchema) {     // "*"
+            return joinedSchema.getColumnNames();
+        }
+        String[] sources = new String[exprs.length];
+        for (int i = 0; i < exprs.length; i++) {
+            if (exprs[i].operator == null) {
+                sources[i] = joinedSchema.addType(exprs[i].operand1);
             }
-            ret += c;
         }
+        return sources;
+    }
 
-        /* Add single space, operator, and single space. */
-        ret += ' ' + operatorFound + ' ';
-
-        /* Add all characters of the second part, excluding the first character
-        if it is a space. */
-        for (int i = 0; i < secondPart.length(); i++) {
-            char c = secondPart.charAt(i);
-            if (c == ' ' && i == 0) {
-                continue;
+    /** Returns whether a table has two columns with the same name. */
+    private boolean hasDuplicateColumns(Table table) {
+        String[] names = table.getColumnNames();
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++) {
+                if (names[i].equals(names[j])) {
+                    return true;
+                }
             }
-            ret += c;
         }
-
-        /* Now the expr should be formatted correctly. Return the result. */
-        return ret;
+        return false;
     }
 
     /**
-     * Helper function for evalExprs(): evaluates one expression.
+     * Plans a select. A condition that only reads columns copied straight
+     * from the joined table is applied before the column expressions, and
+     * if those columns all come from one table, before the join. Everything
+     * is worked out from column names and types only, on empty tables.
      */
-    private String evalExpr(Table table, String expr, String[] columnNames,
-                                   String [][] columnValues, int i) {
-        String operand1 = null, operator = null, operand2 = null;
-        boolean operand2IsLiteral = false, countSpaces = true;
-        String newColumnName = null, substring = "";
-        int numSpaces = 0;
-        /* Format expr correctly if needed. */
-        expr = formatExpr(expr);
-
-        for (int j = 0; j < expr.length(); j++) {
-            char c = expr.charAt(j);
-            /* In a literal like ' Pie', don't count spaces inside the quotes. */
-            if (c == '\'') {
-                countSpaces = !countSpaces;
-            }
-            if (c == ' ' && countSpaces) {
-                numSpaces++;
-                if (numSpaces == 1) {
-                    operand1 = substring;
-                } else if (numSpaces == 2) {
-                    operator = substring;
-                } else if (numSpaces == 3) {
-                    operand2 = substring;
-                }
-                substring = "";
-                continue;
+    private SelectPlan planSelect(Table[] tables, Statement.Select select) {
+        Statement.Condition[] conditions = select.conditions;
+        SelectPlan plan = new SelectPlan(tables, select);
+        if (conditions == null) {
+            return plan;
+        }
+        plan.applyAllAfterExprs(conditions);
+
+        /* Work out the joined and expressed tables' columns. */
+        Table[] schemas = new Table[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            if (hasDuplicateColumns(tables[i])) {
+                return plan;
             }
-            substring += c;
-        }
-        newColumnName = substring;
-        if (numSpaces == 0) {                               // Found 1 operand
-            /* Verify that the column name exists in table. */
-            String columnName = table.addType(expr);
-            if (columnName == null) {
-                return null;
+            schemas[i] = new Table(tables[i].getColumnNames());
+        }
+        Table joinedSchema = Table.join(schemas);
+        int numExprs = select.columnExprs.length;
+        Table expressedSchema = evalExprs(joinedSchema, select,
+                new String[numExprs], new Column[numExprs],
+                new ColumnOperation[numExprs]);
+        if (expressedSchema == null) {
+            return plan;
+        }
+        String[] sources = sourceColumns(joinedSchema, select.columnExprs,
+                expressedSchema);
+
+        /* Resolve every condition. Give up on pushing conditions down if any
+           of them is malformed. */
+        ArrayList<SelectPlan.Condition> baseConditions = new ArrayList<>();
+        ArrayList<Statement.Condition> projectedConditions = new ArrayList<>();
+        for (Statement.Condition cond : conditions) {
+            SelectPlan.Condition resolved = resolve(expressedSchema, cond);
+            if (resolved == null) {
+                return plan;
             }
-            columnNames[i] = columnName;
-            String[] values = table.getCol(columnName);
-            columnValues[i] = values;
-        } else if (numSpaces == 4) {                        // Found 2 operands
-            if (!expr.contains("as")) {
-                return null;
+            String source1 = sources[expressedSchema.getColIndex(
+                    resolved.name1) - 1];
+            String source2 = resolved.operand2;
+            if (!resolved.operand2IsLiteral) {
+                source2 = sources[expressedSchema.getColIndex(
+                        resolved.operand2) - 1];
             }
-            /* Verify that the first (left) column name exists in table. */
-            String name1 = table.addType(operand1);
-            String name2 = table.addType(operand2);
-            if (name1 == null) {
-                return null;
-            }
-            if (name2 == null) {
-                operand2IsLiteral = true;
-            }
-            /* Apply the operation. */
-            String[] values = null;
-            if (operand2IsLiteral) {
-                if (!isValidLitOperation(table, name1, operator, operand2)) {
-                    return null;
-                }
-                values = applyLitOperation(table, name1, operator, operand2);
+            if (source1 == null || source2 == null) {
+                projectedConditions.add(cond);
             } else {
-                if (!isValidColOperation(table, name1, operator, name2)) {
-                    return null;
+                baseConditions.add(new SelectPlan.Condition(source1,
+                        cond.operator, source2, resolved.operand2IsLiteral,
+                        cond.parameter));
+            }
+        }
+
+        /* Push each base condition to the first table that has all of its
+           columns. A natural join keeps shared columns equal, so any such
+           table gives the same result. */
+        plan.projectedConditions.clear();
+        plan.projectedConditions.addAll(projectedConditions);
+        for (SelectPlan.Condition cond : baseConditions) {
+            int target = -1;
+            for (int i = 0; i < tables.length && target == -1; i++) {
+                if (tables[i].getColIndex(cond.name1) != 0
+                    && (cond.operand2IsLiteral
+                        || tables[i].getColIndex(cond.operand2) != 0)) {
+                    target = i;
                 }
-                values = applyColOperation(table, name1, operator, name2);
             }
-            columnValues[i] = values;
-            /* Attach the correct type to the newly formed column. */
-            String type1 = table.getColType(name1), type2 = null;
-            if (!operand2IsLiteral) {
-                type2 = table.getColType(name2);
+            if (target != -1) {
+                plan.pushedConditions.get(target).add(cond);
             } else {
-                type2 = getLitType(operand2);
+                plan.joinConditions.add(cond);
             }
-            String resultingType = getResultingType(type1, type2);
-            newColumnName += " " + resultingType;
-            columnNames[i] = newColumnName;
-        } else {
-            return null;
         }
-        return "";  // indicates success
+        return plan;
     }
 
     /**
-     * Evaluates and applies column expressions to a table to choose which
-     * columns to return.
+     * Plans a select from the tables now in the catalog.
      *
-     * @param table the table to apply the expressions to
-     * @param exprs the column expressions
+     * @return  the plan    if every table exists
+     *          null        otherwise
      */
-    private Table evalExprs(Table table, String[] exprs) {
-        int numColumns = exprs.length;
-        int numRows = table.getNumRows();
-
-        /* If the expression is "*", return all columns. */
-        if (exprs.length == 1 && exprs[0].equals("*")) {
-            return table;
+    SelectPlan planSelect(Statement.Select select) {
+        String[] names = select.tableNames;
+        Table[] arr = new Table[names.length];
+        for (int i = 0; i < names.length; i++) {
+            arr[i] = findTable(names[i]);
+            if (arr[i] == null) {
+                return null;
+            }
         }
-        String[] columnNames = new String[numColumns];
-        String[][] columnValues = new String[numColumns][numRows];
+        return planSelect(arr, select);
+    }
 
-        /* For each expression... */
-        for (int i = 0; i < exprs.length; i++) {
-            if (evalExpr(table, exprs[i], columnNames, columnValues, i) == null) {
-                return null;
+    /**
+     * Returns whether a plan was made for the tables now in the catalog, i.e.
+     * none of them was dropped, reloaded, or replaced since.
+     */
+    boolean isCurrent(SelectPlan plan) {
+        String[] names = plan.select.tableNames;
+        for (int i = 0; i < names.length; i++) {
+            if (findTable(names[i]) != plan.tables[i]) {
+                return false;
             }
         }
+        return true;
+    }
 
-        /* Put the column names and column values into a new table. */
-        Table ret = new Table(columnNames);
-        for (int i = 0; i < numRows; i++) {
-            String[] row = new String[numColumns];
-            for (int j = 0; j < numColumns; j++) {
-                row[j] = columnValues[j][i];    // j first, i second on purpose
+    /**
+     * Selects from tables and writes the resulting table to out.
+     *
+     * @return  ""              if the table was written
+     *          error message   otherwise
+     */
+    private String select(Statement.Select select, Writer out)
+            throws IOException {
+        String[] names = select.tableNames;
+
+        /* Verify that each table exists in the database. */
+        for (int i = 0; i < names.length; i++) {
+            if (findTable(names[i]) == null) {
+                return "ERROR: No such table: " + names[i] + "\n";
             }
-            ret.addRow(row);
         }
-        return ret;
+        SelectPlan plan = planSelect(select);
+        if (plan == null) {
+            return select(select, out);     // a table was dropped meanwhile
+        }
+        return select(plan, out);
     }
 
     /**
-     * Evaluates and applies conditions to a table to choose which rows to
-     * return.
+     * Runs a planned select and writes the resulting table to out.
      *
-     * @param table the table to apply the expressions to
-     * @param conds the conditions
+     * @return  ""              if the table was written
+     *          error message   otherwise
      */
-    private Table evalConds(Table table, String[] conds) {
-        int numColumns = table.getNumColumns();
-        int numRowsOriginal = table.getNumRows();
-        Table ret = new Table(table.getColumnNames());
-        /* For each row in the original table... */
-        for (int i = 1; i <= numRowsOriginal; i++) {
-            boolean shouldAdd = true;
-            String[] row = table.getRow(i);
-            /* For each condition... */
-            for (int k = 0; k < conds.length; k++) {
-                String cond = conds[k];
-                String operand1 = null, operator = null, operand2 = null;
-                String substring = "";
-                /* Split condition into operand1, operator, operand2.
-                   Example: "Lastname <= 'Lee'" */
-                int numSpaces = 0;
-                boolean countSpaces = true;
-                for (int j = 0; j < cond.length(); j++) {
-                    char c = cond.charAt(j);
-                    /* In literal like ' Pie', ignore spaces in quotes. */
-                    if (c == '\'') {
-                        countSpaces = !countSpaces;
-                    }
-                    if (c == ' ' && countSpaces) {
-                        numSpaces++;
-                        if (numSpaces == 1) {
-                            operand1 = substring;
-                        } else if (numSpaces == 2) {
-                            operator = substring;
-                        }
-                        substring = "";
-                        continue;
-                    }
-                    substring += c;
+    String select(SelectPlan plan, Writer out) throws IOException {
+        return select(plan, new TextResult(out));
+    }
+
+    /**
+     * Runs a planned select into a result. The rows that pass the pushed
+     * conditions are joined, and go through a pipeline for the rest of the
+     * plan (see Pipeline). A single table isn't joined, so the rows that
+     * pass go into the pipeline without being copied.
+     *
+     * If the joined rows would take more than the memory budget, the tables
+     * are joined a partition at a time (see JoinPartitions), by rows if the
+     * rows are to be in nested-loop order, and by value otherwise, and each
+     * partition goes through a pipeline of its own.
+     *
+     * @return  ""              if the rows went into the result
+     *          error message   otherwise
+     */
+    private String select(SelectPlan plan, Result result)
+            throws IOException {
+        /* Read every table as of now; a table named twice is read once. */
+        Table[] arr = new Table[plan.tables.length];
+        for (int i = 0; i < arr.length; i++) {
+            for (int j = 0; j < i && arr[i] == null; j++) {
+                if (plan.tables[j] == plan.tables[i]) {
+                    arr[i] = arr[j];
                 }
-                operand2 = substring;
-                /* Verify that the condition has correct format (2 spaces). */
-                if (numSpaces != 2) {
-                    return null;
+            }
+            if (arr[i] == null) {
+                arr[i] = plan.tables[i].snapshot();
+            }
+        }
+
+        /* Apply pushed conditions. */
+        int[][] rows = new int[arr.length][];
+        Table[] filtered = arr.clone();
+        for (int i = 0; i < arr.length; i++) {
+            if (!plan.pushedConditions.get(i).isEmpty()) {
+                rows[i] = filterRows(arr[i], plan.pushedConditions.get(i));
+                if (arr.length > 1) {
+                    filtered[i] = scan.select(arr[i], rows[i],
+                                              rows[i].length);
                 }
-                /* Verify that operand1 is an existing column name in table. */
-                String name1 = table.addType(operand1);
-                String name2 = table.addType(operand2);
-                boolean operand2IsLiteral = false;
-                if (name1 == null) {
-                    return null;
+            }
+        }
+        try (Spill spill = new Spill(spillDirectory)) {
+            int numPartitions = numPartitions(filtered);
+            JoinPartitions partitions = null;
+            if (numPartitions > 1) {
+                partitions = new JoinPartitions(filtered, numPartitions,
+                                                !nestedLoopOrder, spill);
+                Arrays.fill(filtered, null);    // only partitions are needed
+            }
+            for (int p = 0; p < numPartitions; p++) {
+                Pipeline pipeline;
+                if (arr.length == 1) {
+                    pipeline = pipeline(plan, arr[0], rows[0]);
+                } else {
+                    Table[] tables = partitions == null ? filtered
+                                                        : partitions.get(p);
+                    pipeline = pipeline(plan,
+                            JoinPlanner.join(tables, nestedLoopOrder), null);
                 }
-                if (name2 == null) {
-                    operand2IsLiteral = true;
+                if (pipeline == null) {
+                    return "ERROR: Malformed column expressions.\n";
                 }
-                /* Apply the condition. If the row fails any condition, do not
-                   add it to the new table. */
-                int rowNum = i;
-                if (operand2IsLiteral) {
-                    if (!isValidLitComparison(table, name1, operator, operand2)) {
-                        return null;
+                if (p == 0) {
+                    String error = result.begin(pipeline.getColumnNames(),
+                            numPartitions > 1 || pipeline.mayThrow()
+                            || pipeline.hasMalformedCondition(), spill);
+                    if (!error.isEmpty()) {
+                        return error;
                     }
-                    if (!passesLitCondition(table, name1, operator, operand2, rowNum)) {
-                        shouldAdd = false;
-                        break;
+                }
+                if (pipeline.hasMalformedCondition()) {
+                    Pipeline.CountSink count = new Pipeline.CountSink();
+                    pipeline.run(scan, count);
+                    if (count.getCount() > 0) {
+                        return "ERROR: Malformed conditions.\n";
                     }
                 } else {
-                    if (!isValidColComparison(table, name1, operator, name2)) {
-                        return null;
-                    }
-                    if (!passesColCondition(table, name1, operator, name2, rowNum)) {
-                        shouldAdd = false;
-                        break;
-                    }
+                    pipeline.run(scan, result.sink());
                 }
             }
-            /* If the row passes all the conditions, add it to the new table. */
-            if (shouldAdd) {
-                ret.addRow(row);
-            }
+            result.end();
         }
-
-        return ret;
+        return "";
     }
 
-    private String select(String expr) {
-        Matcher m = SELECT_CLS.matcher(expr);
-        if (!m.matches()) {
-            return "Malformed select: " + expr + "\n";
+    /**
+     * Compiles the rest of a planned select into a pipeline over rows of the
+     * joined table: its join conditions, column expressions, and projected
+     * conditions, each checked once.
+     *
+     * @param rows  the rows of the joined table to select from (numbered
+     *              from 1), or null for all of them
+     * @return  the pipeline   if the expressions are well-formed
+     *          null           otherwise
+     */
+    private Pipeline pipeline(SelectPlan plan, Table joinedTable,
+                              int[] rows) {
+        int numConds = plan.joinConditions.size();
+        Predicate[] joinPredicates = new Predicate[numConds];
+        for (int k = 0; k < numConds; k++) {
+            SelectPlan.Condition cond = plan.joinConditions.get(k);
+            joinPredicates[k] = Predicate.compile(joinedTable, cond.name1,
+                    cond.operator, cond.operand2, cond.operand2IsLiteral);
+        }
+
+        int numExprs = plan.select.columnExprs.length;
+        String[] names = new String[numExprs];
+        Column[] sources = new Column[numExprs];
+        ColumnOperation[] operations = new ColumnOperation[numExprs];
+        Table expressed = evalExprs(joinedTable, plan.select, names, sources,
+                                    operations);
+        if (expressed == null) {
+            return null;
+        }
+        if (expressed == joinedTable) {     // "*"
+            int numColumns = joinedTable.getColumnNames().length;
+            sources = new Column[numColumns];
+            operations = new ColumnOperation[numColumns];
+            for (int j = 0; j < numColumns; j++) {
+                sources[j] = joinedTable.getColumn(j + 1);
+            }
+        }
+
+        /* A table with bad column names takes no rows. */
+        if (!expressed.isValid()) {
+            return new Pipeline(joinedTable, new int[0], joinPredicates,
+                    names, null, sources, operations,
+                    new ArrayList<SelectPlan.Condition>(), false);
         }
 
-        return select(m.group(1), m.group(2), m.group(3));
+        /* Only a row that reaches a malformed condition makes it an error,
+           so the conditions after one never matter. */
+        ArrayList<SelectPlan.Condition> conditions = new ArrayList<>();
+        boolean malformed = false;
+        for (Statement.Condition cond : plan.projectedConditions) {
+            SelectPlan.Condition resolved = resolve(expressed, cond);
+            if (resolved == null) {
+                malformed = true;
+                break;
+            }
+            conditions.add(resolved);
+        }
+        return new Pipeline(joinedTable, rows, joinPredicates,
+                expressed.getColumnNames(), expressed.getColumnTypes(),
+                sources, operations, conditions, malformed);
     }
 
-    private String select(String exprs, String tableNames, String conds) {
-        /* Split up the lines into processable arrays. */
-        String[] columnExprs = null, names = null, conditions = null;
-        if (exprs != null) {
-            columnExprs = lineToArr(exprs);
-        } else {
-            return "ERROR: No column expressions given!\n";
+    /**
+     * Returns how many partitions to join tables in (see JoinPartitions), so
+     * that each partition's joined rows fit the memory budget: 1 for a
+     * single table, or if the joined rows are estimated to fit whole.
+     */
+    private int numPartitions(Table[] tables) {
+        if (tables.length < 2) {
+            return 1;
         }
-        if (tableNames != null) {
-            names = lineToArr(tableNames);
-        } else {
-            return "ERROR: No table names given!\n";
+        HashSet<String> columnNames = new HashSet<>();
+        double product = 1;
+        for (Table table : tables) {
+            columnNames.addAll(Arrays.asList(table.getColumnNames()));
+            product *= table.getNumRows();
         }
-        if (conds != null) {
-            conditions = conds.split(AND);
+        double bytesPerRow = (double) columnNames.size() * BYTES_PER_VALUE;
+        long budget = memoryBudget;
+        if (product * bytesPerRow <= budget) {
+            return 1;
         }
+        double bytes = Math.min(product, JoinPlanner.estimateRows(tables))
+                       * bytesPerRow;
+        if (bytes <= budget) {
+            return 1;
+        }
+        return (int) Math.min(MAX_PARTITIONS, Math.ceil(bytes / budget));
+    }
 
-        /* Verify that each table exists in the database. */
-        Table[] arr = new Table[names.length];
-        for (int i = 0; i < names.length; i++) {
-            Table table = findTable(names[i]);
-            if (table != null) {
-                arr[i] = table;
+    /** Where the resulting rows of a select go. */
+    private abstract static class Result {
+        /**
+         * Starts the result, before any rows, with the names of its columns.
+         * If buffered is true, rows may still turn out to be an error after
+         * they start coming, so they must not be let out until end().
+         *
+         * @return  ""              if the result was started
+         *          error message   otherwise
+         */
+        abstract String begin(String[] columnNames, boolean buffered,
+                              Spill spill) throws IOException;
+
+        /** Returns the sink that takes the rows. */
+        abstract Pipeline.Sink<?> sink();
+
+        /** Ends the result, after every row. */
+        abstract void end() throws IOException;
+    }
+
+    /**
+     * Writes the resulting rows as the string representation of a table,
+     * straight to a Writer, unless they must be buffered: then they are kept
+     * in a SpillWriter until every row is in, so that a select that fails
+     * writes nothing.
+     */
+    private class TextResult extends Result {
+        private final Writer out;
+        private final StringBuilder header = new StringBuilder();
+        private SpillWriter rows;   // null unless buffered
+        private Pipeline.TextSink sink;
+
+        TextResult(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        String begin(String[] columnNames, boolean buffered, Spill spill)
+                throws IOException {
+            Table.appendHeader(header, columnNames);
+            if (buffered) {
+                rows = new SpillWriter(spill, memoryBudget / 2);
+                sink = new Pipeline.TextSink(rows);
             } else {
-                return "ERROR: No such table: " + names[i] + "\n";
+                out.append(header);
+                sink = new Pipeline.TextSink(out);
             }
+            return "";
         }
 
-        /* Join the tables. */
-        Table joinedTable = Table.join(arr);
+        @Override
+        Pipeline.Sink<?> sink() {
+            return sink;
+        }
 
-        Table expressedTable = null, conditionedTable = null;
-        if (columnExprs != null) {
-            expressedTable = evalExprs(joinedTable, columnExprs);
+        @Override
+        void end() throws IOException {
+            if (rows != null) {
+                out.append(header);
+                rows.writeTo(out);
+            }
         }
-        if (expressedTable == null) {
-            return "ERROR: Malformed column expressions.\n";
+    }
+
+    /** Appends the resulting rows to a new table, as typed values. */
+    private static class TableResult extends Result {
+        private final String name;
+        Table table;        // null until begin()
+
+        TableResult(String name) {
+            this.name = name;
         }
-        if (conditions != null) {
-            conditionedTable = evalConds(expressedTable, conditions);
-            if (conditionedTable == null) {
-                return "ERROR: Malformed conditions.\n";
+
+        @Override
+        String begin(String[] columnNames, boolean buffered, Spill spill) {
+            table = new Table(columnNames, name);
+            if (!table.isValid()) {
+                return "ERROR: Attempting to create incorrectly formatted "
+                        + "table!\n";
             }
-            return conditionedTable.toString();
-        } else {
-            return expressedTable.toString();
+            return "";
+        }
+
+        @Override
+        Pipeline.Sink<?> sink() {
+            return new Pipeline.TableSink(table);
+        }
+
+        @Override
+        void end() {
         }
     }
 }
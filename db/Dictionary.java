@@ -0,0 +1,162 @@
+package db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The distinct values of a string column, each with an int code: the order
+ * in which it was first added, from 0. A StringColumn stores one code per
+ * row instead of a String, so a value repeated in many rows is kept once,
+ * and two rows whose columns share a dictionary hold the same value if and
+ * only if they hold the same code.
+ *
+ * Codes are never reused or changed, so a dictionary can be shared by the
+ * columns that copy values from one another (see StringColumn), and grows
+ * as any of them adds new values.
+ *
+ * When conditions need the values in order, the dictionary sorts them once
+ * and ranks each code (see Sorted), and keeps the ranks until a value is
+ * added.
+ *
+ * Tables that share a dictionary are locked separately (see Table), so the
+ * dictionary is safe to use from many threads at once: decode() reads
+ * without locking, and everything else is synchronized.
+ */
+class Dictionary {
+    /* Replaced when it grows, and only ever filled in under a code that is
+       not yet handed out, so decode() can read it without locking. */
+    private volatile String[] values = new String[16];
+    private int size;
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    private Sorted sorted;      // null until first needed
+
+    /** Returns the number of values. */
+    synchronized int size() {
+        return size;
+    }
+
+    /** Returns the code of a value, adding the value if it is new. */
+    synchronized int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;
+        codes.put(value, size);
+        size++;
+        return size - 1;
+    }
+
+    /** Returns the code of a value, or -1 if it is not in the dictionary. */
+    synchronized int code(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /** Returns the value of a code. */
+    String decode(int code) {
+        return values[code];
+    }
+
+    /** Returns the values in code order. */
+    synchronized String[] values() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns the codes in this dictionary of every value of another one, by
+     * their codes in the other one. Values this one doesn't have are added.
+     */
+    int[] translate(Dictionary other) {
+        String[] others = other.values();
+        int[] ret = new int[others.length];
+        synchronized (this) {
+            for (int code = 0; code < others.length; code++) {
+                ret[code] = encode(others[code]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the codes in this dictionary of every value of another one,
+     * like translate(), but with -1 for values this one doesn't have.
+     */
+    int[] lookUp(Dictionary other) {
+        String[] others = other.values();
+        int[] ret = new int[others.length];
+        synchronized (this) {
+            for (int code = 0; code < others.length; code++) {
+                ret[code] = code(others[code]);
+            }
+        }
+        return ret;
+    }
+
+    /** Returns whether the values are sorted, i.e. sorted() is cheap. */
+    synchronized boolean isSorted() {
+        return sorted != null && sorted.ranks.length == size;
+    }
+
+    /**
+     * Returns the values in sorted order, sorting them first unless they are
+     * up to date.
+     */
+    synchronized Sorted sorted() {
+        if (!isSorted()) {
+            sorted = new Sorted(values(), codes);
+        }
+        return sorted;
+    }
+
+    /**
+     * The values of a dictionary in sorted order, as of when they were
+     * sorted, and the rank of each code: its value's position in that order.
+     * Values added later have no rank.
+     */
+    static class Sorted {
+        private final String[] values;
+        final int[] ranks;      // not to be modified
+
+        private Sorted(String[] values, HashMap<String, Integer> codes) {
+            this.values = values;
+            Arrays.sort(values);
+            ranks = new int[values.length];
+            for (int rank = 0; rank < values.length; rank++) {
+                ranks[codes.get(values[rank])] = rank;
+            }
+        }
+
+        /**
+         * Returns where a string falls among the sorted values, for
+         * compareRank(): twice the number of values less than it, plus one if
+         * it is one of them.
+         */
+        int bound(String value) {
+            int position = Arrays.binarySearch(values, value);
+            if (position >= 0) {
+                return position * 2 + 1;
+            }
+            return (-position - 1) * 2;
+        }
+
+        /**
+         * Returns how the value with a given rank compares to a string: less
+         * than 0, 0, or greater than 0.
+         *
+         * @param bound     bound(string), which is the same for every rank
+         */
+        static int compareRank(int rank, int bound) {
+            int position = bound >> 1;
+            if (rank != position) {
+                return rank < position ? -1 : 1;
+            }
+            return (bound & 1) == 1 ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Dictionary class, and how string columns code their values in
+ * one.
+ */
+public class DictionaryTest {
+    /** Tests coding values and comparing them by rank. */
+    @Test
+    public void testCodes() {
+        Dictionary dictionary = new Dictionary();
+        assertEquals(0, dictionary.encode("'b'"));
+        assertEquals(1, dictionary.encode("'a'"));
+        assertEquals(0, dictionary.encode("'b'"));
+        assertEquals(2, dictionary.encode("'d'"));
+        assertEquals(1, dictionary.code("'a'"));
+        assertEquals(-1, dictionary.code("'c'"));
+        assertEquals("'d'", dictionary.decode(2));
+        assertFalse(dictionary.isSorted());
+
+        /* 'a' < 'b' < 'd' */
+        Dictionary.Sorted sorted = dictionary.sorted();
+        int[] ranks = sorted.ranks;
+        assertArrayEquals(new int[]{1, 0, 2}, ranks);
+        assertTrue(dictionary.isSorted());
+        int bound = sorted.bound("'c'");
+        assertTrue(Dictionary.Sorted.compareRank(ranks[0], bound) < 0);
+        assertTrue(Dictionary.Sorted.compareRank(ranks[2], bound) > 0);
+        bound = sorted.bound("'b'");
+        assertEquals(0, Dictionary.Sorted.compareRank(ranks[0], bound));
+        assertTrue(Dictionary.Sorted.compareRank(ranks[1], bound) < 0);
+        assertTrue(Dictionary.Sorted.compareRank(ranks[2], bound) > 0);
+
+        /* A new value sorts the dictionary again when needed. */
+        dictionary.encode("'c'");
+        assertFalse(dictionary.isSorted());
+        assertArrayEquals(new int[]{1, 0, 3, 2}, dictionary.sorted().ranks);
+        assertArrayEquals(new int[]{1, 0, 2}, ranks);   // as it was
+
+        Dictionary other = new Dictionary();
+        other.encode("'d'");
+        other.encode("'e'");
+        assertArrayEquals(new int[]{2, -1}, dictionary.lookUp(other));
+        assertArrayEquals(new int[]{2, 4}, dictionary.translate(other));
+        assertEquals(5, dictionary.size());
+    }
+
+    /**
+     * Tests that tables made from a table share its dictionaries, and that
+     * joins and conditions give the same results with or without a shared
+     * dictionary.
+     */
+    @Test
+    public void testSharing() {
+        Table t1 = new Table(new String[]{"x string", "y int"});
+        t1.addRow(new String[]{"'a'", "1"});
+        t1.addRow(new String[]{"NOVALUE", "2"});
+        t1.addRow(new String[]{"'b'", "3"});
+        t1.addRow(new String[]{"'a'", "4"});
+        t1.addRow(new String[]{"NaN", "5"});
+        StringColumn x1 = (StringColumn) t1.getColumn("x string");
+
+        Table selected = t1.selectRows(new int[]{4, 3, 2}, 3);
+        StringColumn x2 = (StringColumn) selected.getColumn("x string");
+        assertTrue(x2.sharesDictionary(x1));
+        assertEquals("x string,y int\n'a',4\n'b',3\nNOVALUE,2\n",
+                selected.toString());
+
+        Table t3 = new Table(new String[]{"x string", "z int"});
+        t3.addRow(new String[]{"'c'", "6"});
+        t3.addRow(new String[]{"'a'", "7"});
+        t3.addRow(new String[]{"NOVALUE", "8"});
+        t3.addRow(new String[]{"NaN", "9"});
+        StringColumn x3 = (StringColumn) t3.getColumn("x string");
+        assertFalse(x3.sharesDictionary(x1));
+
+        String expected = "x string,y int,z int\n'a',1,7\nNOVALUE,2,8\n"
+                + "'a',4,7\nNaN,5,9\n";
+        assertEquals(expected, Table.join(t1, t3).toString());
+
+        /* Both key columns share t1's dictionary. */
+        assertEquals("x string,y int\nNOVALUE,2\n'b',3\n'a',4\n",
+                Table.join(t1, selected).toString());
+
+        /* Conditions compare codes, and text under NOVALUE and NaN. */
+        int[] rows = {1, 2, 3, 4, 5};
+        Predicate p = Predicate.compile(t1, "x string", "<", "'b'", true);
+        assertEquals(2, p.filter(rows, 5));
+        assertEquals(1, rows[0]);
+        assertEquals(4, rows[1]);
+        rows = new int[]{1, 2, 3, 4, 5};
+        p = Predicate.compile(t1, "x string", "!=", "'a'", true);
+        assertEquals(3, p.filter(rows, 5));
+        assertEquals(2, rows[0]);
+        assertEquals(5, rows[2]);
+        rows = new int[]{1, 2, 3, 4, 5};
+        p = Predicate.compile(t1, "x string", ">=", "'NOVALUE'", true);
+        assertEquals(5, p.filter(rows, 5));
+    }
+}
@@ -0,0 +1,151 @@
+package db;
+
+/** A Column of floats, stored in a float[]. */
+class FloatColumn extends Column {
+    private float[] values = new float[capacity];
+
+    @Override
+    String type() {
+        return "float";
+    }
+
+    /**
+     * Appends a float that format() gives the text of exactly, such as one
+     * returned by round().
+     */
+    void appendFloat(float value) {
+        ensureCapacity(size + 1);
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Returns the typed array. Only the first size() values are in use, and
+     * values under NOVALUE/NaN are not meaningful.
+     */
+    float[] getValues() {
+        return values;
+    }
+
+    /** Replaces the typed array of an empty column, before restore(). */
+    void setValues(float[] values) {
+        this.values = values;
+        this.capacity = values.length;
+    }
+
+    @Override
+    protected boolean set(int i, String value) {
+        float f = Float.parseFloat(value);
+        values[i] = f;
+        /* Floats are stored with 3 decimal points, so formatting the parsed
+           value gives the original text back, except for odd inputs like
+           ".500" or values with more digits than a float can hold. */
+        return format(f).equals(value);
+    }
+
+    @Override
+    protected void setZero(int i) {
+        values[i] = 0;
+    }
+
+    @Override
+    protected String format(int i) {
+        return format(values[i]);
+    }
+
+    @Override
+    protected float floatAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected Column share() {
+        FloatColumn ret = new FloatColumn();
+        ret.values = values;
+        return ret;
+    }
+
+    @Override
+    protected void grow(int newCapacity) {
+        float[] temp = new float[newCapacity];
+        System.arraycopy(values, 0, temp, 0, size);
+        values = temp;
+    }
+
+    @Override
+    protected void copy(int i, Column other, int j) {
+        values[i] = ((FloatColumn) other).values[j];
+    }
+
+    @Override
+    protected void copyRange(Column other, int from, int to, int n) {
+        System.arraycopy(((FloatColumn) other).values, from, values, to, n);
+    }
+
+    @Override
+    protected int hashAt(int i) {
+        return Float.floatToIntBits(values[i]);
+    }
+
+    @Override
+    protected boolean equalsAt(int i, Column other, int j) {
+        /* Compare bits, so that 0.000 and -0.000 stay different. */
+        return Float.floatToIntBits(values[i])
+               == Float.floatToIntBits(((FloatColumn) other).values[j]);
+    }
+
+    /**
+     * Rounds a finite float to 3 decimal points: returns the float that
+     * format(value) reads back as, without going through the text. This is
+     * how a computed value is stored.
+     */
+    static float round(float value) {
+        /* Same rounding as format(). Larger floats are whole numbers. */
+        double magnitude = Math.abs((double) value) * 1000;
+        if (magnitude >= 4.0e15) {
+            return value;
+        }
+        long milli = (long) Math.floor(magnitude + 0.5);
+        /* milli / 1000.0 is within half a double ulp of the decimal, which
+           is never enough to round to a different float. */
+        float ret = (float) (milli / 1000.0);
+        return Float.floatToRawIntBits(value) < 0 ? -ret : ret;
+    }
+
+    /**
+     * Formats a float to 3 decimal points. Gives the same result as
+     * String.format("%.3f", value), without going through Formatter.
+     */
+    static String format(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return String.format("%.3f", value);
+        }
+        /* A float has a 24-bit mantissa, so multiplying it by 1000 as a
+           double is exact. Round half up, away from zero, like Formatter. */
+        double magnitude = Math.abs((double) value) * 1000;
+        if (magnitude >= 4.0e15) {
+            return String.format("%.3f", value);
+        }
+        long milli = (long) Math.floor(magnitude + 0.5);
+        StringBuilder sb = new StringBuilder(16);
+        if (Float.floatToRawIntBits(value) < 0) {
+            sb.append('-');     // also covers values that round to -0.000
+        }
+        sb.append(milli / 1000).append('.');
+        int fraction = (int) (milli % 1000);
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+        return sb.toString();
+    }
+
+    @Override
+    protected int compareAt(int i, Column other, int j) {
+        /* Float.compare() is 0 for the same bits, like equalsAt(). */
+        return Float.compare(values[i], ((FloatColumn) other).values[j]);
+    }
+}
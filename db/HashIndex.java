@@ -0,0 +1,105 @@
+package db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An index that hashes each value to its rows. It looks up "==", and joins
+ * on its column use it in place of a hash table of their own.
+ *
+ * Values are keyed the way conditions compare them:
+ *
+ *     strings     by their text, quotes included
+ *     numbers     by their float value (Float.floatToIntBits(), so NaN is
+ *                 one key and -0.0 is not 0.0); NOVALUE has a key of its own
+ *                 that no literal looks up
+ *
+ * Joins compare values by their string representation instead. Equal
+ * strings always have the same key, so a join can use the rows under a key
+ * as candidates and check each one.
+ */
+class HashIndex extends Index {
+    /** The key of NOVALUE in an int or float column. */
+    private static final Object NO_VALUE = new Object();
+
+    private final HashMap<Object, Postings> postings = new HashMap<>();
+
+    HashIndex(Column column) {
+        super(column);
+    }
+
+    @Override
+    String type() {
+        return "hash";
+    }
+
+    @Override
+    protected void add(int i) {
+        Object key = key(column, i);
+        Postings rows = postings.get(key);
+        if (rows == null) {
+            rows = new Postings();
+            postings.put(key, rows);
+        }
+        rows.add(i + 1);
+    }
+
+    /**
+     * Returns the key of the ith value (from 0) of a column of the same type
+     * as the indexed one.
+     */
+    static Object key(Column column, int i) {
+        if (column.type().equals("string")) {
+            return column.get(i);
+        }
+        if (column.isNoValue(i)) {
+            return NO_VALUE;
+        }
+        return Float.floatToIntBits(column.getFloat(i));
+    }
+
+    /**
+     * Returns the rows under a key up to row numRows, in a new array, or
+     * null if there are none.
+     */
+    synchronized int[] get(Object key, int numRows) {
+        Postings rows = postings.get(key);
+        if (rows == null) {
+            return null;
+        }
+        int n = rows.size;
+        while (n > 0 && rows.rows[n - 1] > numRows) {
+            n--;
+        }
+        return n == 0 ? null : Arrays.copyOf(rows.rows, n);
+    }
+
+    @Override
+    boolean supports(int operator) {
+        return operator == Predicate.EQ;
+    }
+
+    @Override
+    synchronized int[] lookup(int[] operators, String[] literals, int n) {
+        Object key = null;
+        for (int k = 0; k < n; k++) {
+            Object literalKey = literals[k];
+            if (!isString) {
+                Float value = parseNumber(literals[k]);
+                if (value == null) {
+                    return null;
+                }
+                literalKey = Float.floatToIntBits(value);
+            }
+            if (key != null && !key.equals(literalKey)) {
+                return new int[0];      // equal to two different values
+            }
+            key = literalKey;
+        }
+        Postings rows = postings.get(key);
+        if (rows == null) {
+            return new int[0];
+        }
+        return Arrays.copyOf(rows.rows, rows.size);
+    }
+}
@@ -0,0 +1,110 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the HashIndex and Indexes classes.
+ */
+public class HashIndexTest {
+
+    /** Creates a table whose rows are selected with and without indexes. */
+    private static Database records() {
+        Database db = new Database();
+        db.transact("create table r (TeamName string, Wins int, Ratio float)");
+        db.transact("insert into r values 'A',3,0.500");
+        db.transact("insert into r values 'B',3,NaN");
+        db.transact("insert into r values NOVALUE,007,-0.0");
+        db.transact("insert into r values 'A',NaN,0.0");
+        db.transact("insert into r values 'C',NOVALUE,0.500");
+        return db;
+    }
+
+    /** Tests that equality conditions give the same rows with an index. */
+    @Test
+    public void testEqualityConditions() {
+        String[] queries = {
+            "select * from r where TeamName == 'A'",
+            "select * from r where TeamName == 'Z'",
+            "select * from r where Wins == 3 and TeamName != 'B'",
+            "select * from r where Wins == 7.0",
+            "select * from r where Ratio == 0.0",
+            "select * from r where Ratio == -0.0",
+            "select * from r where Ratio == 0.5 and Wins > 0",
+            "select TeamName, Wins + 1 as w from r where TeamName == 'A'",
+        };
+        Database plain = records();
+        Database indexed = records();
+        assertEquals("", indexed.transact("create index on r (TeamName)"));
+        assertEquals("", indexed.transact("create index on r (Wins)"));
+        assertEquals("", indexed.transact("create index on r (Ratio)"));
+        for (String query : queries) {
+            assertEquals(query, plain.transact(query), indexed.transact(query));
+        }
+        assertEquals("TeamName string,Wins int,Ratio float\n"
+                     + "'A',3,0.500\n'A',NaN,0.000\n",
+                indexed.transact("select * from r where TeamName == 'A'"));
+    }
+
+    /** Tests that inserted rows, and replaced tables, are indexed. */
+    @Test
+    public void testMaintenance() {
+        Database db = records();
+        assertEquals("", db.transact("create index on r (TeamName)"));
+        db.transact("insert into r values 'C',9,1.000");
+        assertEquals("TeamName string,Wins int\n'C',NOVALUE\n'C',9\n",
+                db.transact("select TeamName, Wins from r"
+                            + " where TeamName == 'C'"));
+
+        Table old = db.catalog.get("r");
+        db.transact("create table r as select TeamName, Ratio from r");
+        assertNull(old.getIndex("TeamName string"));
+        assertNotNull(db.catalog.get("r").getIndex("TeamName string"));
+
+        db.transact("drop table r");
+        db.transact("create table r (TeamName string)");
+        assertNull(db.catalog.get("r").getIndex("TeamName string"));
+    }
+
+    /** Tests joins on an indexed column, on either side. */
+    @Test
+    public void testJoins() {
+        String[] queries = {
+            "select * from r, t",
+            "select * from t, r",
+            "select TeamName, Owner, Wins from t, r where Wins == 3",
+        };
+        Database plain = records();
+        Database indexed = records();
+        for (Database db : new Database[]{plain, indexed}) {
+            db.transact("create table t (TeamName string, Owner string)");
+            db.transact("insert into t values 'A','x'");
+            db.transact("insert into t values NOVALUE,'y'");
+            db.transact("insert into t values 'B','z'");
+            db.transact("insert into t values 'A','w'");
+        }
+        indexed.transact("create index on r (TeamName)");
+        for (String query : queries) {
+            assertEquals(query, plain.transact(query), indexed.transact(query));
+        }
+        indexed.transact("create index on t (TeamName)");
+        for (String query : queries) {
+            assertEquals(query, plain.transact(query), indexed.transact(query));
+        }
+    }
+
+    /** Tests the errors of create index. */
+    @Test
+    public void testErrors() {
+        Database db = records();
+        assertEquals("ERROR: No such table: x\n",
+                db.transact("create index on x (TeamName)"));
+        assertEquals("ERROR: No such column: Losses\n",
+                db.transact("create index on r (Losses)"));
+        assertEquals("", db.transact("create index on r(Wins)"));
+        assertEquals("ERROR: Index on r (Wins) already exists!\n",
+                db.transact("create index on r ( Wins )"));
+        assertEquals("ERROR: Malformed create command.\n",
+                db.transact("create index on r (Wins) now"));
+    }
+}
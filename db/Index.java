@@ -0,0 +1,125 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * A secondary index on one column of a table, made by "create index on
+ * <table> (<column>) [using btree]". It maps values to the rows (numbered
+ * from 1) that hold them, and is kept up to date as rows are added to the
+ * table.
+ *
+ * Statements read an index while rows are added to its table, so update()
+ * and every lookup are synchronized, and a lookup may return rows added
+ * after the snapshot a statement reads (see Table.snapshot()); upTo() leaves
+ * them out.
+ *
+ * An index answers comparisons of its column to literals with exactly the
+ * rows that the same conditions keep (see Predicate): strings compare by
+ * their text, quotes included, and numbers by their float value, with NaN
+ * greater than every other value, and NOVALUE passing no comparison.
+ */
+abstract class Index {
+    /** The rows that hold one value, in ascending order. */
+    static class Postings {
+        int[] rows = new int[1];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size] = row;
+            size++;
+        }
+    }
+
+    protected final Column column;
+    protected final boolean isString;
+    private int numRows;    // number of rows indexed so far
+
+    Index(Column column) {
+        this.column = column;
+        this.isString = column.type().equals("string");
+    }
+
+    /**
+     * Creates an index of the given type on a column, and indexes its first
+     * numRows rows.
+     *
+     * @return  the index   if the type is "hash" or "btree"
+     *          null        otherwise
+     */
+    static Index forType(String type, Column column, int numRows) {
+        Index ret;
+        if (type.equals("hash")) {
+            ret = new HashIndex(column);
+        } else if (type.equals("btree")) {
+            ret = new SortedIndex(column);
+        } else {
+            return null;
+        }
+        ret.update(numRows);
+        return ret;
+    }
+
+    /** Returns the type of the index: "hash" or "btree". */
+    abstract String type();
+
+    /** Returns the column the index is on. */
+    Column getColumn() {
+        return column;
+    }
+
+    /** Indexes the rows added since the last update, up to numRows. */
+    synchronized void update(int numRows) {
+        for (int i = this.numRows; i < numRows; i++) {
+            add(i);
+        }
+        this.numRows = numRows;
+    }
+
+    /** Indexes the ith value (from 0) of the column, which is row i + 1. */
+    protected abstract void add(int i);
+
+    /** Returns whether the index can look up a comparison operator. */
+    abstract boolean supports(int operator);
+
+    /**
+     * Returns the rows (numbered from 1, in ascending order) that pass every
+     * one of n comparisons of the column to a literal, e.g. ">=" 2013 and
+     * "<=" 2015.
+     *
+     * @param operators     operator codes (see Predicate), all supported
+     * @return  the rows    in a new array that the caller may change
+     *          null        if a literal can't be looked up, e.g. "-" for a
+     *                      number column
+     */
+    abstract int[] lookup(int[] operators, String[] literals, int n);
+
+    /**
+     * Returns the rows (in ascending order) up to row numRows, in rows
+     * itself if there are none after it.
+     */
+    static int[] upTo(int[] rows, int numRows) {
+        int n = rows.length;
+        while (n > 0 && rows[n - 1] > numRows) {
+            n--;
+        }
+        return n == rows.length ? rows : Arrays.copyOf(rows, n);
+    }
+
+    /**
+     * Returns the value of a literal to look up in a number column, or null
+     * if it is not a number.
+     */
+    static Float parseNumber(String literal) {
+        if (literal.isEmpty() || literal.charAt(0) == '\'') {
+            return null;
+        }
+        try {
+            return Float.parseFloat(literal);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package db;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The indexes of a Database, by table name. The indexes themselves belong to
+ * the tables (see Table.createIndex()); this remembers which columns have
+ * one, so that a table that is loaded again or replaced gets its indexes
+ * rebuilt, and a dropped table's indexes are released. Safe to use from
+ * many threads at once.
+ */
+class Indexes implements Catalog.Listener {
+    private final Catalog catalog;
+    /* Types of the indexes ("hash" or "btree") by the names of the indexed
+       columns (without types), by table name. */
+    private final HashMap<String, LinkedHashMap<String, String>> columns =
+            new HashMap<>();
+
+    /** Creates the indexes of a catalog, and follows its changes. */
+    Indexes(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    /**
+     * Creates an index on a column of a table.
+     *
+     * @param column    column name without its type
+     * @param type      "hash" or "btree"
+     * @return  ""              if the index was created
+     *          error message   otherwise
+     */
+    synchronized String create(String name, String column, String type) {
+        Table table = catalog.get(name);
+        if (table == null) {
+            return "ERROR: No such table: " + name + "\n";
+        }
+        String columnName = table.addType(column);
+        if (columnName == null) {
+            return "ERROR: No such column: " + column + "\n";
+        }
+        if (!table.createIndex(columnName, type)) {
+            return "ERROR: Index on " + name + " (" + column
+                   + ") already exists!\n";
+        }
+        LinkedHashMap<String, String> types = columns.get(name);
+        if (types == null) {
+            types = new LinkedHashMap<>();
+            columns.put(name, types);
+        }
+        types.put(column, type);
+        return "";
+    }
+
+    @Override
+    public synchronized void tableChanged(Catalog.Event event, String name,
+                                          Table table) {
+        switch (event) {
+            case REPLACED:
+                Table replacement = catalog.get(name);
+                if (replacement != table) {
+                    table.dropIndexes();
+                    rebuild(name, replacement);
+                }
+                break;
+            case DROPPED:
+                columns.remove(name);
+                table.dropIndexes();
+                break;
+            default:
+                break;      // rows added to a table update its indexes
+        }
+    }
+
+    /**
+     * Builds the indexes of the table that replaced another one with the same
+     * name. A column the new table doesn't have loses its index.
+     */
+    private void rebuild(String name, Table table) {
+        LinkedHashMap<String, String> types = columns.get(name);
+        if (types == null) {
+            return;
+        }
+        LinkedHashMap<String, String> kept = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : types.entrySet()) {
+            String columnName = table.addType(entry.getKey());
+            if (columnName != null) {
+                table.createIndex(columnName, entry.getValue());
+                kept.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (kept.isEmpty()) {
+            columns.remove(name);
+        } else {
+            columns.put(name, kept);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package db;
+
+/** A Column of ints, stored in an int[]. */
+class IntColumn extends Column {
+    private int[] values = new int[capacity];
+
+    @Override
+    String type() {
+        return "int";
+    }
+
+    /** Returns the ith value as an int. Not meaningful under NOVALUE/NaN. */
+    int getInt(int i) {
+        return values[i];
+    }
+
+    /** Appends an int. */
+    void appendInt(int value) {
+        ensureCapacity(size + 1);
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Returns the typed array. Only the first size() values are in use, and
+     * values under NOVALUE/NaN are not meaningful.
+     */
+    int[] getValues() {
+        return values;
+    }
+
+    /** Replaces the typed array of an empty column, before restore(). */
+    void setValues(int[] values) {
+        this.values = values;
+        this.capacity = values.length;
+    }
+
+    @Override
+    protected boolean set(int i, String value) {
+        /* Table.addRow() has already checked that the value is an optional
+           negative sign followed by digits. Only accept the canonical form,
+           so that Integer.toString() gives the same text back. */
+        int length = value.length();
+        boolean negative = value.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        if (length == start || length - start > 10
+            || (value.charAt(start) == '0' && (length - start > 1 || negative))) {
+            return false;
+        }
+        long result = 0;
+        for (int j = start; j < length; j++) {
+            result = result * 10 + (value.charAt(j) - '0');
+        }
+        if (negative) {
+            result = -result;
+        }
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            return false;
+        }
+        values[i] = (int) result;
+        return true;
+    }
+
+    @Override
+    protected void setZero(int i) {
+        values[i] = 0;
+    }
+
+    @Override
+    protected String format(int i) {
+        return Integer.toString(values[i]);
+    }
+
+    @Override
+    protected float floatAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected Column share() {
+        IntColumn ret = new IntColumn();
+        ret.values = values;
+        return ret;
+    }
+
+    @Override
+    protected void grow(int newCapacity) {
+        int[] temp = new int[newCapacity];
+        System.arraycopy(values, 0, temp, 0, size);
+        values = temp;
+    }
+
+    @Override
+    protected void copy(int i, Column other, int j) {
+        values[i] = ((IntColumn) other).values[j];
+    }
+
+    @Override
+    protected void copyRange(Column other, int from, int to, int n) {
+        System.arraycopy(((IntColumn) other).values, from, values, to, n);
+    }
+
+    @Override
+    protected int hashAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected boolean equalsAt(int i, Column other, int j) {
+        return values[i] == ((IntColumn) other).values[j];
+    }
+
+    @Override
+    protected int compareAt(int i, Column other, int j) {
+        return Integer.compare(values[i], ((IntColumn) other).values[j]);
+    }
+}
@@ -0,0 +1,141 @@
+package db;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The tables of a join split into partitions that are joined one at a time,
+ * for selects whose joined rows would take more than their memory budget
+ * (see Database.setMemoryBudget()). Joining each partition's tables, one
+ * partition after another, gives the rows of joining the whole tables once
+ * each:
+ *
+ *     by rows     the first table's rows are split into ranges, each of
+ *                 which is joined with the other tables whole. Partition
+ *                 by partition, the rows come out in nested-loop order.
+ *
+ *     by value    a grace hash join: the tables that have the column that
+ *                 the most tables share are split by the hash of its
+ *                 values, so that the rows with a value are all in the
+ *                 same partition, and the other tables are joined whole
+ *                 with each one. The parts are written to files of a Spill
+ *                 and read back one partition at a time, so each
+ *                 partition's hash tables are small too.
+ *
+ * Tables that share no column are split by rows.
+ */
+class JoinPartitions {
+    private final Table[] tables;
+    private final int numPartitions;
+    private final Spill spill;
+    private final int[] rows;       // 1, 2, ..., of the first table, by rows
+    private final File[][] files;   // by partition and table, by value
+
+    /**
+     * Splits tables into numPartitions partitions, by value if byValue is
+     * true and some column is shared, and by rows otherwise.
+     */
+    JoinPartitions(Table[] tables, int numPartitions, boolean byValue,
+                   Spill spill) throws IOException {
+        this.tables = tables.clone();
+        this.numPartitions = numPartitions;
+        this.spill = spill;
+        String column = byValue ? mostSharedColumn(tables) : null;
+        if (column == null) {
+            rows = new int[tables[0].getNumRows()];
+            for (int k = 0; k < rows.length; k++) {
+                rows[k] = k + 1;
+            }
+            files = null;
+            return;
+        }
+        rows = null;
+        files = new File[numPartitions][tables.length];
+        for (int t = 0; t < tables.length; t++) {
+            if (tables[t].getColIndex(column) != 0) {
+                split(t, tables[t].getColumn(column));
+                this.tables[t] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the column that the most tables have, if two or more do, or
+     * null. Ties go to the column that comes first.
+     */
+    private static String mostSharedColumn(Table[] tables) {
+        String ret = null;
+        int most = 1;
+        for (Table table : tables) {
+            for (String name : table.getColumnNames()) {
+                int count = 0;
+                for (Table other : tables) {
+                    if (other.getColIndex(name) != 0) {
+                        count++;
+                    }
+                }
+                if (count > most) {
+                    ret = name;
+                    most = count;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Splits table t by the hash of its values in a column, and writes each
+     * partition's part to a file.
+     */
+    private void split(int t, Column column) throws IOException {
+        Table table = tables[t];
+        int numRows = table.getNumRows();
+        int[] partitions = new int[numRows];
+        int[] starts = new int[numPartitions + 1];
+        for (int i = 0; i < numRows; i++) {
+            int h = column.valueHash(i) * 0x9E3779B9;
+            partitions[i] = (h >>> 1) % numPartitions;
+            starts[partitions[i] + 1]++;
+        }
+        for (int p = 0; p < numPartitions; p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] ends = starts.clone();
+        int[] byPartition = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            byPartition[ends[partitions[i]]] = i + 1;
+            ends[partitions[i]]++;
+        }
+        for (int p = 0; p < numPartitions; p++) {
+            files[p][t] = spill.write(table.selectRows(byPartition,
+                    starts[p], starts[p + 1]));
+        }
+    }
+
+    /** Returns the number of partitions. */
+    int size() {
+        return numPartitions;
+    }
+
+    /**
+     * Returns the tables of partition p, in the order of the tables that
+     * were split. Reading back the parts written to files deletes them.
+     */
+    Table[] get(int p) throws IOException {
+        Table[] ret = tables.clone();
+        if (rows != null) {
+            int numRows = rows.length;
+            ret[0] = tables[0].selectRows(rows,
+                    (int) ((long) numRows * p / numPartitions),
+                    (int) ((long) numRows * (p + 1) / numPartitions));
+            return ret;
+        }
+        for (int t = 0; t < ret.length; t++) {
+            if (files[p][t] != null) {
+                ret[t] = spill.read(files[p][t]);
+                files[p][t] = null;
+            }
+        }
+        return ret;
+    }
+}
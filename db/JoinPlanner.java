@@ -0,0 +1,353 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Chooses the order in which a select joins its tables. Joining from left
+ * to right in the order of the from clause can build huge tables on the way,
+ * e.g. when two large tables come before the small one that connects them,
+ * so the planner estimates the size of every table the join builds and
+ * picks the order that builds the fewest rows in all:
+ *
+ *     rows(A join B) = rows(A) * rows(B) / product, over the columns A and
+ *                      B share, of the larger number of distinct values
+ *
+ * with the numbers of distinct values estimated by the columns' zone maps
+ * (see ZoneMap.estimateDistinct()). Every order of up to MAX_EXHAUSTIVE
+ * tables is considered, one table at a time (by dynamic programming over
+ * the sets of tables joined so far); more tables are ordered greedily. An
+ * order never joins a table that shares no column with the tables joined so
+ * far while another table does, so there is no Cartesian product while a
+ * connected order exists.
+ *
+ * Natural joins give the same rows in any order; only the order of the
+ * rows and columns differs. join() puts the columns back the way joining
+ * from left to right gives them, and the rows too if they are to be in
+ * nested-loop order.
+ */
+class JoinPlanner {
+    /** Most tables for which every join order is considered. */
+    static final int MAX_EXHAUSTIVE = 8;
+
+    /* Names of the int columns that number the rows of each table while
+       they are joined out of order, by position in the from clause. */
+    private static final String ROW_NUMBER = "joinrow_";
+
+    private final Table[] tables;
+    private final int n;
+    /* The columns that two or more tables share, by name, and each table's
+       as a bitmap of their positions in joinColumns. */
+    private final ArrayList<String> joinColumns = new ArrayList<>();
+    private final long[] columnSets;
+    private final double[][] distinct;  // by table, by join column
+
+    /**
+     * An estimate of joining some tables, one at a time in some order: the
+     * rows and distinct values of the result, and how many rows the tables
+     * built on the way have in all.
+     */
+    private static class Estimate {
+        final double rows;
+        final long columns;
+        final double[] distinct;
+        final double cost;
+        final int last;             // the table joined last
+        final Estimate previous;    // null for the first table
+
+        Estimate(double rows, long columns, double[] distinct, double cost,
+                 int last, Estimate previous) {
+            this.rows = rows;
+            this.columns = columns;
+            this.distinct = distinct;
+            this.cost = cost;
+            this.last = last;
+            this.previous = previous;
+        }
+    }
+
+    private JoinPlanner(Table[] tables) {
+        this.tables = tables;
+        n = tables.length;
+        columnSets = new long[n];
+        distinct = new double[n][];
+    }
+
+    /**
+     * Joins tables like Table.join(Table[], boolean), with the same rows and
+     * columns in the same order, but in the order the planner chooses.
+     */
+    static Table join(Table[] tables, boolean nestedLoopOrder) {
+        int[] order = order(tables);
+        if (order == null) {
+            return Table.join(tables, nestedLoopOrder);
+        }
+
+        /* Join in the chosen order, numbering each table's rows if they are
+           to be put back in nested-loop order. */
+        Table joined = null;
+        for (int i : order) {
+            Table table = tables[i];
+            if (nestedLoopOrder) {
+                table = table.withRowNumbers(rowNumberColumn(i));
+            }
+            joined = joined == null ? table
+                     : Table.join(joined, table, nestedLoopOrder);
+        }
+
+        /* Put the columns in the order of joining from left to right. */
+        Table[] schemas = new Table[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            schemas[i] = new Table(tables[i].getColumnNames());
+        }
+        String[] names = Table.join(schemas).getColumnNames();
+        if (!nestedLoopOrder) {
+            return joined.withColumns(names);
+        }
+
+        /* Sort the rows by their row numbers in each table, the first
+           table's first, which is the order of joining from left to right.
+           Sort by the last table's first, since each sort is stable. */
+        int numRows = joined.getNumRows();
+        int[] rows = new int[numRows];
+        for (int k = 0; k < numRows; k++) {
+            rows[k] = k;
+        }
+        for (int i = tables.length - 1; i >= 0; i--) {
+            IntColumn numbers = (IntColumn) joined.getColumn(
+                    rowNumberColumn(i));
+            rows = sortBy(rows, numbers.getValues(), tables[i].getNumRows());
+        }
+        for (int k = 0; k < numRows; k++) {
+            rows[k]++;
+        }
+        return joined.withColumns(names).selectRows(rows, numRows);
+    }
+
+    /** Returns the name of the column that numbers the rows of table i. */
+    private static String rowNumberColumn(int i) {
+        return ROW_NUMBER + i + " int";
+    }
+
+    /**
+     * Returns rows stably sorted by their keys, which are from 0 to
+     * range - 1.
+     */
+    private static int[] sortBy(int[] rows, int[] keys, int range) {
+        int[] starts = new int[range + 1];
+        for (int row : rows) {
+            starts[keys[row] + 1]++;
+        }
+        for (int key = 0; key < range; key++) {
+            starts[key + 1] += starts[key];
+        }
+        int[] ret = new int[rows.length];
+        for (int row : rows) {
+            ret[starts[keys[row]]++] = row;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the order in which to join tables, by position, or null to
+     * join them from left to right: if there are fewer than 3 (2 tables
+     * make the same table either way), or no order is estimated to build
+     * fewer rows than that, counting putting the rows back in order.
+     */
+    static int[] order(Table[] tables) {
+        if (tables.length < 3) {
+            return null;
+        }
+        for (Table table : tables) {
+            for (String name : table.getColumnNames()) {
+                if (name.startsWith(ROW_NUMBER)) {
+                    return null;
+                }
+            }
+        }
+        JoinPlanner planner = new JoinPlanner(tables);
+        if (!planner.findJoinColumns()) {
+            return null;
+        }
+        Estimate best = tables.length <= MAX_EXHAUSTIVE
+                        ? planner.bestOrder() : planner.greedyOrder();
+        Estimate fromLeft = planner.start(0);
+        for (int t = 1; t < tables.length; t++) {
+            fromLeft = planner.extend(fromLeft, t);
+        }
+        if (best == null || best.cost + best.rows >= fromLeft.cost) {
+            return null;
+        }
+        int[] order = new int[tables.length];
+        int k = tables.length - 1;
+        for (Estimate e = best; e != null; e = e.previous) {
+            order[k] = e.last;
+            k--;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the estimated number of rows of joining tables, or the number
+     * of rows of their Cartesian product if there are too many shared
+     * columns to estimate with.
+     */
+    static double estimateRows(Table[] tables) {
+        JoinPlanner planner = new JoinPlanner(tables);
+        if (!planner.findJoinColumns()) {
+            double ret = 1;
+            for (Table table : tables) {
+                ret *= table.getNumRows();
+            }
+            return ret;
+        }
+        Estimate e = planner.start(0);
+        for (int t = 1; t < tables.length; t++) {
+            e = planner.extend(e, t);
+        }
+        return e.rows;
+    }
+
+    /**
+     * Finds the columns that two or more tables share, and estimates their
+     * distinct values in each table.
+     *
+     * @return  false   if there are too many join columns to keep in a
+     *                  bitmap
+     */
+    private boolean findJoinColumns() {
+        for (int t = 0; t < n; t++) {
+            for (String name : tables[t].getColumnNames()) {
+                if (joinColumns.contains(name)) {
+                    continue;
+                }
+                for (int u = t + 1; u < n; u++) {
+                    if (tables[u].getColIndex(name) != 0) {
+                        joinColumns.add(name);
+                        break;
+                    }
+                }
+            }
+        }
+        if (joinColumns.size() > Long.SIZE) {
+            return false;
+        }
+        for (int t = 0; t < n; t++) {
+            distinct[t] = new double[joinColumns.size()];
+            double rows = Math.max(1, tables[t].getNumRows());
+            for (int c = 0; c < joinColumns.size(); c++) {
+                Column column = tables[t].getColumn(joinColumns.get(c));
+                if (column != null) {
+                    columnSets[t] |= 1L << c;
+                    distinct[t][c] = Math.min(rows, Math.max(1,
+                            column.getZoneMap().estimateDistinct()));
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Returns the estimate of starting with table t. */
+    private Estimate start(int t) {
+        return new Estimate(tables[t].getNumRows(), columnSets[t],
+                            distinct[t], 0, t, null);
+    }
+
+    /** Returns the estimate of joining table t after the tables of e. */
+    private Estimate extend(Estimate e, int t) {
+        double rows = e.rows * tables[t].getNumRows();
+        double[] values = e.distinct.clone();
+        for (int c = 0; c < values.length; c++) {
+            if ((columnSets[t] & 1L << c) == 0) {
+                continue;
+            }
+            if ((e.columns & 1L << c) != 0) {
+                rows /= Math.max(values[c], distinct[t][c]);
+                values[c] = Math.min(values[c], distinct[t][c]);
+            } else {
+                values[c] = distinct[t][c];
+            }
+        }
+        for (int c = 0; c < values.length; c++) {
+            values[c] = Math.min(values[c], Math.max(1, rows));
+        }
+        return new Estimate(rows, e.columns | columnSets[t], values,
+                            e.cost + rows, t, e);
+    }
+
+    /**
+     * Returns whether table t may be joined after the tables of e (whose
+     * set is joined): if it shares a column with them, or no table left
+     * does.
+     */
+    private boolean mayJoin(Estimate e, int joined, int t) {
+        if ((e.columns & columnSets[t]) != 0) {
+            return true;
+        }
+        for (int u = 0; u < n; u++) {
+            if ((joined & 1 << u) == 0 && (e.columns & columnSets[u]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the estimate of the order that builds the fewest rows, by
+     * finding the best order of every set of tables from the best orders of
+     * its subsets. Ties go to the order found first.
+     */
+    private Estimate bestOrder() {
+        Estimate[] best = new Estimate[1 << n];
+        for (int t = 0; t < n; t++) {
+            best[1 << t] = start(t);
+        }
+        for (int joined = 1; joined < best.length; joined++) {
+            Estimate e = best[joined];
+            if (e == null) {
+                continue;
+            }
+            for (int t = 0; t < n; t++) {
+                int next = joined | 1 << t;
+                if (next == joined || !mayJoin(e, joined, t)) {
+                    continue;
+                }
+                Estimate candidate = extend(e, t);
+                if (best[next] == null || candidate.cost < best[next].cost) {
+                    best[next] = candidate;
+                }
+            }
+        }
+        return best[best.length - 1];
+    }
+
+    /**
+     * Returns the estimate of an order built by starting with each table in
+     * turn and then joining whichever table makes the fewest rows next,
+     * whichever of those orders builds the fewest rows.
+     */
+    private Estimate greedyOrder() {
+        Estimate ret = null;
+        for (int first = 0; first < n; first++) {
+            Estimate e = start(first);
+            int joined = 1 << first;
+            for (int k = 1; k < n; k++) {
+                Estimate next = null;
+                for (int t = 0; t < n; t++) {
+                    if ((joined & 1 << t) != 0 || !mayJoin(e, joined, t)) {
+                        continue;
+                    }
+                    Estimate candidate = extend(e, t);
+                    if (next == null || candidate.rows < next.rows) {
+                        next = candidate;
+                    }
+                }
+                e = next;
+                joined |= 1 << e.last;
+            }
+            if (ret == null || e.cost < ret.cost) {
+                ret = e;
+            }
+        }
+        return ret;
+    }
+}
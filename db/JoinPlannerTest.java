@@ -0,0 +1,96 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that joins in the order the planner chooses give the same table as
+ * joining from left to right.
+ */
+public class JoinPlannerTest {
+    /** Returns a table of n rows whose columns hold i % mod for each row i. */
+    private static Table table(String[] names, int[] mods, int n) {
+        Table t = new Table(names);
+        for (int i = 0; i < n; i++) {
+            String[] row = new String[names.length];
+            for (int c = 0; c < names.length; c++) {
+                row[c] = names[c].endsWith("string") ? "'s" + i % mods[c] + "'"
+                         : Integer.toString(i % mods[c]);
+            }
+            assertTrue(t.addRow(row));
+        }
+        return t;
+    }
+
+    /**
+     * Tests that the planner doesn't start with a Cartesian product, and
+     * that its result is the same as joining from left to right.
+     */
+    @Test
+    public void testAvoidsProduct() {
+        Table a = table(new String[]{"a int", "x int"}, new int[]{50, 7}, 300);
+        Table b = table(new String[]{"b int", "y string"},
+                        new int[]{40, 11}, 200);
+        Table ab = table(new String[]{"a int", "b int"}, new int[]{50, 40},
+                         60);
+        Table[] tables = {a, b, ab};
+        int[] order = JoinPlanner.order(tables);
+        assertNotNull(order);
+        assertTrue(order[0] == 2 || order[1] == 2);
+        assertEquals(Table.join(tables).toString(),
+                     JoinPlanner.join(tables, true).toString());
+    }
+
+    /** Tests that orders are only changed for 3 or more tables. */
+    @Test
+    public void testKeepsOrder() {
+        Table a = table(new String[]{"a int"}, new int[]{10}, 100);
+        Table b = table(new String[]{"a int", "b int"}, new int[]{10, 3}, 30);
+        assertNull(JoinPlanner.order(new Table[]{a, b}));
+        Table c = table(new String[]{"b int"}, new int[]{3}, 3);
+        assertNull(JoinPlanner.order(new Table[]{c, b, a}));
+    }
+
+    /**
+     * Tests that a chain of more tables than are ordered exhaustively, given
+     * with no two neighbours next to each other, is joined along the chain.
+     */
+    @Test
+    public void testGreedy() {
+        int n = JoinPlanner.MAX_EXHAUSTIVE + 2;
+        Table[] tables = new Table[n];
+        for (int i = 0; i < n; i++) {
+            int position = i % 2 == 0 ? i / 2 : n / 2 + i / 2;
+            tables[position] = table(new String[]{"c" + i + " int",
+                                                  "c" + (i + 1) + " int"},
+                                     new int[]{4, 4}, i == n / 2 ? 3 : 4);
+        }
+        int[] order = JoinPlanner.order(tables);
+        assertNotNull(order);
+        for (int k = 1; k < n; k++) {
+            Table joined = tables[order[k]];
+            boolean connected = false;
+            for (int j = 0; j < k; j++) {
+                for (String name : tables[order[j]].getColumnNames()) {
+                    connected |= joined.getColIndex(name) != 0;
+                }
+            }
+            assertTrue(connected);
+        }
+        assertEquals(Table.join(tables).toString(),
+                     JoinPlanner.join(tables, true).toString());
+    }
+
+    /** Tests that Table.join() leaves its argument as it was. */
+    @Test
+    public void testJoinKeepsArgument() {
+        Table a = table(new String[]{"a int"}, new int[]{3}, 3);
+        Table b = table(new String[]{"a int", "b int"}, new int[]{3, 2}, 4);
+        Table c = table(new String[]{"b int"}, new int[]{2}, 2);
+        Table[] tables = {a, b, c};
+        Table.join(tables);
+        assertSame(a, tables[0]);
+        assertSame(b, tables[1]);
+        assertSame(c, tables[2]);
+    }
+}
@@ -0,0 +1,326 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * A sort-merge join: the rows of both tables are put in the order of their
+ * values in the shared columns (see Column.compareValues()), and the two
+ * orders are walked side by side, joining each run of equal values in one
+ * table with the run of the same values in the other. Unlike a hash join it
+ * keeps no table of either side's values, so Table.join() uses it when
+ *
+ *     both tables are already in order of all the shared columns, with no
+ *     sort needed: their rows are in order of one of them, as they are
+ *     (see Column.isOrdered()), e.g. tables loaded from files sorted on
+ *     it, or in the order of a btree index on it (see SortedIndex), and
+ *     in that order the rows with equal values are in order of the other
+ *     shared columns too (see joinIfOrdered())
+ *
+ *     a hash table of the smaller table would take more than a quarter of
+ *     the heap
+ *
+ * The joined rows come out in the order of the shared columns' values, that
+ * column first and then the others in order, and the rows with the same
+ * values in nested-loop order. When the left table's rows are already in
+ * that order, this is nested-loop order itself; otherwise the rows are put
+ * in nested-loop order at the end, unless the caller doesn't need them to
+ * be (see Table.join(Table, Table, boolean)).
+ */
+class MergeJoin {
+    /* Bytes of memory that a hash join takes per row of the table it
+       hashes, roughly. */
+    private static final long HASH_BYTES_PER_ROW = 24;
+
+    /**
+     * Appends the rows of the natural join of a and b to ret, and returns
+     * true, if both tables are in order of all the shared columns without
+     * sorting them: for some shared column that both tables are in order
+     * of, or have a btree index on, the rows in that order (see
+     * startingOrder()) are in order of that column and then the others.
+     * Checking takes one pass over each table's rows. Returns false, and
+     * appends nothing, if the tables are not in such an order, e.g. when
+     * the only ordered column has the same value in every row and the
+     * others are in no order.
+     *
+     * @param sources           the columns that ret's columns are copied
+     *                          from (see Table.appendJoinedRow()), the
+     *                          first numFromLeft of them a's
+     * @param nestedLoopOrder   whether the rows must come out in
+     *                          nested-loop order
+     */
+    static boolean joinIfOrdered(Table a, Table b,
+                                 ArrayList<String> sharedColumns, Table ret,
+                                 Column[] sources, int numFromLeft,
+                                 boolean nestedLoopOrder) {
+        for (int first = 0; first < sharedColumns.size(); first++) {
+            String name = sharedColumns.get(first);
+            if (!isOrdered(a, name) || !isOrdered(b, name)) {
+                continue;
+            }
+            Column[] keys_a = keys(a, sharedColumns, first);
+            Column[] keys_b = keys(b, sharedColumns, first);
+            int[] rows_a = startingOrder(a, name);
+            if (!isSorted(rows_a, keys_a)) {
+                continue;
+            }
+            int[] rows_b = startingOrder(b, name);
+            if (!isSorted(rows_b, keys_b)) {
+                continue;
+            }
+            joinSorted(a, keys_a, rows_a, keys_b, rows_b, ret, sources,
+                       numFromLeft, nestedLoopOrder);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a table's rows are in order of a column, or in the
+     * order of a btree index on it.
+     */
+    private static boolean isOrdered(Table table, String columnName) {
+        return table.getIndex(columnName) instanceof SortedIndex
+               || table.getColumn(columnName).isOrdered();
+    }
+
+    /**
+     * Returns a table's shared columns in the order to order rows by: the
+     * one at position first among them, and then the rest in their order.
+     */
+    private static Column[] keys(Table table,
+                                 ArrayList<String> sharedColumns,
+                                 int first) {
+        int numKeys = sharedColumns.size();
+        Column[] ret = new Column[numKeys];
+        for (int k = 0; k < numKeys; k++) {
+            int position = k == 0 ? first : (k <= first ? k - 1 : k);
+            ret[k] = table.getColumn(sharedColumns.get(position));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns whether a hash join that hashes a table of numRows rows would
+     * take more than a quarter of the heap. The largest the heap may grow
+     * to is used instead of the memory that is free now, so that the same
+     * join is always done the same way.
+     */
+    static boolean isTooLargeToHash(int numRows) {
+        return numRows * HASH_BYTES_PER_ROW
+               > Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Appends the rows of the natural join of a and b to ret, sorting both
+     * tables by the shared columns first.
+     *
+     * @param first             position among the shared columns of the
+     *                          one to order by first
+     * @param sources           the columns that ret's columns are copied
+     *                          from (see Table.appendJoinedRow()), the
+     *                          first numFromLeft of them a's
+     * @param nestedLoopOrder   whether the rows must come out in
+     *                          nested-loop order
+     */
+    static void join(Table a, Table b, ArrayList<String> sharedColumns,
+                     int first, Table ret, Column[] sources, int numFromLeft,
+                     boolean nestedLoopOrder) {
+        Column[] keys_a = keys(a, sharedColumns, first);
+        Column[] keys_b = keys(b, sharedColumns, first);
+        String firstName = sharedColumns.get(first);
+        int[] rows_a = sort(startingOrder(a, firstName), keys_a);
+        int[] rows_b = sort(startingOrder(b, firstName), keys_b);
+        joinSorted(a, keys_a, rows_a, keys_b, rows_b, ret, sources,
+                   numFromLeft, nestedLoopOrder);
+    }
+
+    /**
+     * Appends the rows of the natural join of a and b to ret, given the
+     * rows (0-indexed) of each table in order of its keys.
+     */
+    private static void joinSorted(Table a, Column[] keys_a,
+                                   int[] rows_a, Column[] keys_b,
+                                   int[] rows_b, Table ret, Column[] sources,
+                                   int numFromLeft,
+                                   boolean nestedLoopOrder) {
+        /* Rows in a's order come out in nested-loop order as they are. */
+        Table.JoinMatches matches = null;
+        if (nestedLoopOrder && !isIdentity(rows_a)) {
+            matches = new Table.JoinMatches();
+        }
+        int p = 0, q = 0;
+        while (p < rows_a.length && q < rows_b.length) {
+            int cmp = compare(keys_a, rows_a[p], keys_b, rows_b[q]);
+            if (cmp < 0) {
+                p++;
+            } else if (cmp > 0) {
+                q++;
+            } else {
+                int end_a = runEnd(rows_a, keys_a, p);
+                int end_b = runEnd(rows_b, keys_b, q);
+                for (int s = p; s < end_a; s++) {
+                    for (int t = q; t < end_b; t++) {
+                        if (matches == null) {
+                            ret.appendJoinedRow(sources, numFromLeft,
+                                                rows_a[s], rows_b[t]);
+                        } else {
+                            matches.add(rows_a[s], rows_b[t]);
+                        }
+                    }
+                }
+                p = end_a;
+                q = end_b;
+            }
+        }
+        if (matches != null) {
+            matches.appendInLeftOrder(ret, sources, numFromLeft,
+                                      a.getNumRows());
+        }
+    }
+
+    /**
+     * Returns the rows (0-indexed) of a table in an order that is close to
+     * the order of a column's values: the order of a btree index on it,
+     * unless the rows are in order already, with the rows the index leaves
+     * out (NOVALUEs, which come first) in front, and then the NaNs, which
+     * the index puts last but compareValues() puts next.
+     */
+    private static int[] startingOrder(Table table, String columnName) {
+        int numRows = table.getNumRows();
+        int[] ret = new int[numRows];
+        Index index = table.getIndex(columnName);
+        Column column = table.getColumn(columnName);
+        if (index instanceof SortedIndex && !column.isOrdered()) {
+            int[] indexed = ((SortedIndex) index).rowsByValue(numRows);
+            BitSet nans = column.getNaNs();
+            BitSet left = new BitSet(numRows);
+            left.set(0, numRows);
+            for (int row : indexed) {
+                left.clear(row - 1);
+            }
+            left.andNot(nans);
+            int k = 0;
+            for (int i = left.nextSetBit(0); i >= 0;
+                 i = left.nextSetBit(i + 1)) {
+                ret[k] = i;
+                k++;
+            }
+            for (int i = nans.nextSetBit(0); i >= 0 && i < numRows;
+                 i = nans.nextSetBit(i + 1)) {
+                ret[k] = i;
+                k++;
+            }
+            for (int row : indexed) {
+                if (!nans.get(row - 1)) {
+                    ret[k] = row - 1;
+                    k++;
+                }
+            }
+            return ret;
+        }
+        for (int i = 0; i < numRows; i++) {
+            ret[i] = i;
+        }
+        return ret;
+    }
+
+    /** Returns whether rows are 0, 1, 2, ... in order. */
+    private static boolean isIdentity(int[] rows) {
+        for (int k = 0; k < rows.length; k++) {
+            if (rows[k] != k) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the values of row i of one set of key columns to row j of
+     * another, key by key.
+     */
+    private static int compare(Column[] keys1, int i, Column[] keys2, int j) {
+        for (int k = 0; k < keys1.length; k++) {
+            int cmp = keys1[k].compareValues(i, keys2[k], j);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the end of the run of rows, starting at rows[start], that have
+     * the same keys.
+     */
+    private static int runEnd(int[] rows, Column[] keys, int start) {
+        int end = start + 1;
+        while (end < rows.length
+               && compare(keys, rows[start], keys, rows[end]) == 0) {
+            end++;
+        }
+        return end;
+    }
+
+    /** Returns whether rows are in order of their keys. */
+    private static boolean isSorted(int[] rows, Column[] keys) {
+        for (int k = 1; k < rows.length; k++) {
+            if (compare(keys, rows[k - 1], keys, rows[k]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts rows by their keys, keeping the order of rows with the same
+     * keys. Rows that are nearly in order take little more than one pass:
+     * this merge sort leaves two runs alone when they are in order already.
+     *
+     * @return  rows        if they were in order
+     *          a new array otherwise
+     */
+    static int[] sort(int[] rows, Column[] keys) {
+        if (isSorted(rows, keys)) {
+            return rows;
+        }
+        int n = rows.length;
+        int[] from = rows.clone();
+        int[] to = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int middle = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                if (middle == high || compare(keys, from[middle - 1], keys,
+                                              from[middle]) <= 0) {
+                    System.arraycopy(from, low, to, low, high - low);
+                } else {
+                    merge(from, low, middle, high, to, keys);
+                }
+            }
+            int[] temp = from;
+            from = to;
+            to = temp;
+        }
+        return from;
+    }
+
+    /**
+     * Merges the sorted runs from[low..middle) and from[middle..high) into
+     * to[low..high), the first run's rows first when keys are equal.
+     */
+    private static void merge(int[] from, int low, int middle, int high,
+                              int[] to, Column[] keys) {
+        int s = low, t = middle;
+        for (int k = low; k < high; k++) {
+            if (t >= high || (s < middle
+                              && compare(keys, from[s], keys, from[t]) <= 0)) {
+                to[k] = from[s];
+                s++;
+            } else {
+                to[k] = from[t];
+                t++;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that merge joins give the same rows as a nested loop join, in
+ * nested-loop order when asked to, and in the order of the shared columns'
+ * values otherwise.
+ */
+public class MergeJoinTest {
+    /** Returns a table with the given rows. */
+    private static Table table(String[] names, String[][] rows) {
+        Table ret = new Table(names);
+        for (String[] row : rows) {
+            assertTrue(ret.addRow(row));
+        }
+        return ret;
+    }
+
+    /** Returns the natural join of a and b, by testing every pair of rows. */
+    private static String nestedLoopJoin(Table a, Table b) {
+        ArrayList<String> shared = Table.sharedColumns(a, b);
+        ArrayList<String> names = new ArrayList<>(shared);
+        names.addAll(Table.uniqueColumns(a, b));
+        ArrayList<String> fromRight = Table.uniqueColumns(b, a);
+        names.addAll(fromRight);
+        Table ret = new Table(names.toArray(new String[0]));
+        for (int i = 1; i <= a.getNumRows(); i++) {
+            for (int j = 1; j <= b.getNumRows(); j++) {
+                boolean matches = true;
+                for (String name : shared) {
+                    matches &= a.getVal(i, name).equals(b.getVal(j, name));
+                }
+                if (!matches) {
+                    continue;
+                }
+                String[] row = new String[names.size()];
+                for (int c = 0; c < row.length; c++) {
+                    String name = names.get(c);
+                    row[c] = fromRight.contains(name) ? b.getVal(j, name)
+                                                      : a.getVal(i, name);
+                }
+                assertTrue(ret.addRow(row));
+            }
+        }
+        return ret.toString();
+    }
+
+    /** Returns the lines of a table's string representation, sorted. */
+    private static String[] sortedLines(String table) {
+        String[] ret = table.split("\n");
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Tests joins of tables whose rows are in order of the shared column,
+     * with NOVALUEs and a value kept verbatim, which come first.
+     */
+    @Test
+    public void testOrderedTables() {
+        Table a = table(new String[]{"k int", "x string"}, new String[][]{
+            {"NOVALUE", "'a'"}, {"NOVALUE", "'b'"}, {"007", "'c'"},
+            {"1", "'d'"}, {"1", "'e'"}, {"2", "'f'"}, {"5", "'g'"},
+            {"5", "'h'"}, {"16777217", "'i'"}});
+        Table b = table(new String[]{"y float", "k int"}, new String[][]{
+            {"1.0", "NOVALUE"}, {"2.0", "007"}, {"3.0", "1"}, {"4.0", "3"},
+            {"5.0", "5"}, {"6.0", "5"}, {"7.0", "5"}, {"8.0", "16777216"}});
+        assertTrue(a.getColumn("k int").isOrdered());
+        assertTrue(b.getColumn("k int").isOrdered());
+        assertEquals(nestedLoopJoin(a, b), Table.join(a, b).toString());
+        assertEquals(nestedLoopJoin(b, a), Table.join(b, a).toString());
+
+        /* The left table is in order, so key order is nested-loop order. */
+        assertEquals(nestedLoopJoin(a, b), Table.join(a, b, false).toString());
+
+        assertTrue(a.addRow(new String[]{"3", "'j'"}));
+        assertFalse(a.getColumn("k int").isOrdered());
+        assertEquals(nestedLoopJoin(a, b), Table.join(a, b).toString());
+    }
+
+    /**
+     * Tests joins on two columns of tables that are in order of the second
+     * one, and then of the first, but not of the first alone.
+     */
+    @Test
+    public void testTwoColumns() {
+        Table a = new Table(new String[]{"s string", "k int", "x int"});
+        Table b = new Table(new String[]{"k int", "s string"});
+        for (int i = 0; i < 300; i++) {
+            assertTrue(a.addRow(new String[]{"'s" + i % 10 / 2 + "'",
+                    Integer.toString(i / 10), Integer.toString(i)}));
+        }
+        for (int j = 0; j < 100; j++) {
+            assertTrue(b.addRow(new String[]{Integer.toString(j / 4),
+                                             "'s" + j % 4 + "'"}));
+        }
+        assertFalse(a.getColumn("s string").isOrdered());
+        assertEquals(nestedLoopJoin(a, b), Table.join(a, b).toString());
+        assertEquals(nestedLoopJoin(a, b), Table.join(a, b, false)
+                                                .toString());
+        assertEquals(nestedLoopJoin(b, a), Table.join(b, a).toString());
+    }
+
+    /**
+     * Tests that tables in order of a shared column that has one value, but
+     * in no order of the other, are hashed rather than sorted and merged:
+     * the rows come out in nested-loop order, not in the order of the
+     * shared columns' values.
+     */
+    @Test
+    public void testConstantFirstKey() {
+        Table a = new Table(new String[]{"c int", "k int", "x int"});
+        Table b = new Table(new String[]{"k int", "c int", "y int"});
+        for (int i = 0; i < 200; i++) {
+            assertTrue(a.addRow(new String[]{"1", Integer.toString(
+                    i * 37 % 50), Integer.toString(i)}));
+        }
+        for (int j = 0; j < 120; j++) {
+            assertTrue(b.addRow(new String[]{Integer.toString(j * 11 % 50),
+                                             "1", Integer.toString(j)}));
+        }
+        assertTrue(a.getColumn("c int").isOrdered());
+        assertTrue(b.getColumn("c int").isOrdered());
+        assertFalse(a.getColumn("k int").isOrdered());
+
+        String expected = nestedLoopJoin(a, b);
+        Table joined = Table.join(a, b, false);
+        assertEquals(expected, joined.toString());
+        assertFalse(joined.getColumn("k int").isOrdered());
+        assertEquals(nestedLoopJoin(b, a), Table.join(b, a, false)
+                                                .toString());
+    }
+
+    /**
+     * Tests joins of tables in no order, with btree indexes on the shared
+     * column that have them in order.
+     */
+    @Test
+    public void testSortedIndexes() {
+        String[] specials = {"NOVALUE", "NaN", "-0.0", "0.0"};
+        Table a = new Table(new String[]{"f float", "x int"});
+        Table b = new Table(new String[]{"y int", "f float"});
+        for (int i = 0; i < 200; i++) {
+            String f = i % 9 < specials.length ? specials[i % 9]
+                       : (i * 7 % 13) + ".5";
+            assertTrue(a.addRow(new String[]{f, Integer.toString(i)}));
+        }
+        for (int j = 0; j < 150; j++) {
+            String f = j % 7 < specials.length ? specials[j % 7]
+                       : (j * 5 % 11) + ".5";
+            assertTrue(b.addRow(new String[]{Integer.toString(j), f}));
+        }
+        assertTrue(a.createIndex("f float", "btree"));
+        assertTrue(b.createIndex("f float", "btree"));
+        assertFalse(a.getColumn("f float").isOrdered());
+
+        String expected = nestedLoopJoin(a, b);
+        assertEquals(expected, Table.join(a, b).toString());
+        Table inKeyOrder = Table.join(a, b, false);
+        assertArrayEquals(sortedLines(expected),
+                          sortedLines(inKeyOrder.toString()));
+        assertTrue(inKeyOrder.getColumn("f float").isOrdered());
+        assertEquals(nestedLoopJoin(b, a), Table.join(b, a).toString());
+    }
+
+    /** Tests that sort() keeps the order of rows with the same keys. */
+    @Test
+    public void testSort() {
+        Table t = table(new String[]{"k int"}, new String[][]{
+            {"3"}, {"1"}, {"NOVALUE"}, {"3"}, {"1"}, {"2"}, {"NOVALUE"}});
+        Column[] keys = {t.getColumn("k int")};
+        int[] rows = {0, 1, 2, 3, 4, 5, 6};
+        assertArrayEquals(new int[]{2, 6, 1, 4, 5, 0, 3},
+                          MergeJoin.sort(rows, keys));
+        int[] ordered = {2, 6, 1, 4, 5, 0, 3};
+        assertSame(ordered, MergeJoin.sort(ordered, keys));
+    }
+}
@@ -0,0 +1,273 @@
+package db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scans large tables on the threads of a ForkJoinPool: the rows are split
+ * into ranges, each range is scanned on its own, and the results of the
+ * ranges are put back together in row order, so a scan gives the same
+ * result as on one thread:
+ *
+ *     filter()    tests conditions against rows
+ *     select()    copies the rows that passed into a new table
+ *     write()     formats the rows of a result
+ *     map()       runs any other work a range at a time
+ *     stream()    like map(), for results too large to hold all at once
+ *
+ * Scans of fewer than threshold rows, and every scan with a parallelism of
+ * 1, run on the calling thread. A Database makes one (see
+ * Database.setParallelism()), and all its statements share it.
+ */
+class ParallelScan {
+    /** Fewest rows worth a range of their own. */
+    static final int MIN_RANGE = 4096;
+
+    /* Ranges per thread, so that threads that finish early take more. */
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final int threshold;
+    private final ForkJoinPool pool;    // null if scans run on one thread
+
+    /**
+     * Creates a scan that uses up to parallelism threads at once for tables
+     * of at least threshold rows.
+     */
+    ParallelScan(int parallelism, int threshold) {
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /** Returns the most threads a scan uses at once. */
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /** Returns the fewest rows that a scan splits into ranges. */
+    int getThreshold() {
+        return threshold;
+    }
+
+    /** Work on one range of rows. */
+    interface RangeTask<T> {
+        /** Runs on rows from to to - 1, and returns the range's result. */
+        T run(int from, int to);
+    }
+
+    /**
+     * Splits n rows into ranges, and runs a task on each one, on the pool's
+     * threads if there are enough rows.
+     *
+     * @return  the results of the ranges, in row order
+     */
+    <T> List<T> map(int n, RangeTask<T> task) {
+        return map(numRanges(n), n, task);
+    }
+
+    /** Returns the number of ranges to split n rows into. */
+    private int numRanges(int n) {
+        if (pool == null || n < threshold) {
+            return 1;
+        }
+        return Math.max(1, Math.min(parallelism * RANGES_PER_THREAD,
+                                    n / MIN_RANGE));
+    }
+
+    /** Splits n rows into numRanges ranges, and runs a task on each one. */
+    private <T> List<T> map(int numRanges, int n, final RangeTask<T> task) {
+        ArrayList<T> ret = new ArrayList<>();
+        if (numRanges == 1) {
+            ret.add(task.run(0, n));
+            return ret;
+        }
+        ArrayList<Callable<T>> ranges = new ArrayList<>();
+        for (int r = 0; r < numRanges; r++) {
+            final int from = (int) ((long) n * r / numRanges);
+            final int to = (int) ((long) n * (r + 1) / numRanges);
+            ranges.add(new Callable<T>() {
+                @Override
+                public T call() {
+                    return task.run(from, to);
+                }
+            });
+        }
+        for (Future<T> future : pool.invokeAll(ranges)) {
+            ret.add(result(future));
+        }
+        return ret;
+    }
+
+    /** Returns the result of a range that ran, throwing what it threw. */
+    private static <T> T result(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during a scan", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Keeps the rows among the first n of rows (numbered from 1) that pass
+     * every predicate, in the same order, and returns how many there are,
+     * like Predicate.filter() with each predicate in turn.
+     *
+     * Each range is tested against every predicate before the next range.
+     * A predicate that may throw is only tested against the rows that passed
+     * the ones before it, as on one thread, so then the scan runs on one.
+     */
+    int filter(final Predicate[] predicates, final int[] rows, int n) {
+        for (Predicate predicate : predicates) {
+            if (predicate.mayThrow()) {
+                return filterRange(predicates, rows, 0, n);
+            }
+        }
+        List<int[]> kept = map(n, new RangeTask<int[]>() {
+            @Override
+            public int[] run(int from, int to) {
+                return new int[] {from,
+                                  filterRange(predicates, rows, from, to)};
+            }
+        });
+
+        /* Move the rows each range kept next to the ones before. */
+        int numKept = 0;
+        for (int[] range : kept) {
+            System.arraycopy(rows, range[0], rows, numKept, range[1]);
+            numKept += range[1];
+        }
+        return numKept;
+    }
+
+    /**
+     * Keeps the rows among rows[from] to rows[to - 1] that pass every
+     * predicate, at the start of that range, and returns how many there are.
+     */
+    private static int filterRange(Predicate[] predicates, int[] rows,
+                                   int from, int to) {
+        int n = to - from;
+        for (Predicate predicate : predicates) {
+            if (n == 0) {
+                break;
+            }
+            n = predicate.filter(rows, from, from + n);
+        }
+        return n;
+    }
+
+    /**
+     * Returns a new table with only the first n of rows (numbered from 1) of
+     * a table, in the given order, like Table.selectRows().
+     */
+    Table select(final Table table, final int[] rows, int n) {
+        List<Table> parts = map(n, new RangeTask<Table>() {
+            @Override
+            public Table run(int from, int to) {
+                return table.selectRows(rows, from, to);
+            }
+        });
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        Table ret = new Table(table.getColumnNames());
+        for (Table part : parts) {
+            ret.appendTable(part);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the string representation of a table to out, like
+     * Table.write(). Formats a few ranges per thread at a time, so the text
+     * of the whole table is never held in memory. Does not flush.
+     */
+    void write(Table table, Writer out) throws IOException {
+        if (numRanges(table.getNumRows()) == 1) {
+            table.write(out);
+            return;
+        }
+        StringBuilder header = new StringBuilder();
+        table.appendHeader(header);
+        out.append(header);
+        writeRows(table, out);
+    }
+
+    /**
+     * Writes the rows of a table to out, like write() but without the
+     * column names.
+     */
+    void writeRows(final Table table, final Writer out) throws IOException {
+        int numRows = table.getNumRows();
+        if (numRanges(numRows) == 1) {
+            table.writeRows(out);
+            return;
+        }
+        stream(numRows, new RangeTask<StringBuilder>() {
+            @Override
+            public StringBuilder run(int from, int to) {
+                StringBuilder text = new StringBuilder();
+                table.appendRows(text, from, to);
+                return text;
+            }
+        }, new RangeSink<StringBuilder>() {
+            @Override
+            public void take(StringBuilder text) throws IOException {
+                out.append(text);
+            }
+        });
+    }
+
+    /** Takes the results of ranges, in row order. */
+    interface RangeSink<T> {
+        void take(T result) throws IOException;
+    }
+
+    /**
+     * Splits n rows into ranges and runs a task on each one, like map(), but
+     * only a few ranges per thread at a time: each range's result is handed
+     * to sink, on the calling thread, before the next ranges run. So the
+     * results of all n rows are never held in memory at once, even when the
+     * ranges run one after another on the calling thread.
+     */
+    <T> void stream(int n, final RangeTask<T> task, RangeSink<T> sink)
+            throws IOException {
+        int step = parallelism * RANGES_PER_THREAD * MIN_RANGE;
+        if (numRanges(n) == 1) {
+            for (int start = 0; start < n; start += step) {
+                sink.take(task.run(start, Math.min(n, start + step)));
+            }
+            return;
+        }
+        for (int start = 0; start < n; start += step) {
+            final int first = start;
+            int size = Math.min(step, n - start);
+            List<T> results = map(Math.max(1, size / MIN_RANGE), size,
+                    new RangeTask<T>() {
+                        @Override
+                        public T run(int from, int to) {
+                            return task.run(first + from, first + to);
+                        }
+                    });
+            for (T result : results) {
+                sink.take(result);
+            }
+        }
+    }
+}
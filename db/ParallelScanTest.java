@@ -0,0 +1,90 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that selects scanned in parallel give the same results, in the same
+ * order, as on one thread.
+ */
+public class ParallelScanTest {
+    private static final int NUM_ROWS = 30000;
+
+    /** Returns a database with a large table t, scanned as given. */
+    private static Database database(int numThreads, int threshold) {
+        Database db = new Database();
+        db.setParallelism(numThreads, threshold);
+        db.transact("create table t (k int, x float, s string)");
+        db.transact("create table u (s string, w int)");
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String k = i % 101 == 0 ? "NOVALUE" : Integer.toString(i % 997);
+            String x = i % 89 == 0 ? "NaN" : (i % 13) + "." + (i % 7) + "00";
+            if (i % 211 == 0) {
+                k = "0" + i % 10;       // kept verbatim
+            }
+            db.transact("insert into t values " + k + "," + x + ",'s"
+                        + i % 37 + "'");
+        }
+        for (int i = 0; i < 40; i++) {
+            db.transact("insert into u values 's" + i + "'," + i);
+        }
+        return db;
+    }
+
+    @Test
+    public void testSameResults() {
+        Database serial = database(1, 1);
+        Database parallel = database(4, 1000);
+        String[] queries = {
+            "print t",
+            "select * from t",
+            "select k, s from t where k > 500",
+            "select k, s from t where k > 500 and s < 's20' and x != 3.0",
+            "select s, x from t where s == 's7'",
+            "select k / x as r, s from t where x > 0",
+            "select k / 0 as r, s, k from t",
+            "select x * 2 as y, s + s as ss from t where y > 10",
+            "select k, s, w from t, u where w > 30 and k < 100",
+            "select k, x from t where k < x",
+            "select k from t where k > 5000 and k > -",
+        };
+        for (String query : queries) {
+            String expected = serial.transact(query);
+            assertTrue(query, expected.length() > 0);
+            assertEquals(query, expected, parallel.transact(query));
+        }
+
+        /* Reading "-" throws once a row needs it, like on one thread. */
+        for (Database db : new Database[]{serial, parallel}) {
+            try {
+                db.transact("select k from t where k < 5 and k > -");
+                fail();
+            } catch (NumberFormatException e) {
+                assertEquals("For input string: \"-\"", e.getMessage());
+            }
+        }
+    }
+
+    /** Tests that filter() keeps the passing rows of every range in order. */
+    @Test
+    public void testFilter() {
+        Table t = new Table(new String[]{"x int"});
+        for (int i = 0; i < NUM_ROWS; i++) {
+            t.addRow(new String[]{Integer.toString(i % 10)});
+        }
+        Predicate even = Predicate.compile(t, "x int", "<", "5", true);
+        Predicate odd = Predicate.compile(t, "x int", "!=", "2", true);
+        int[] rows = new int[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            rows[i] = i + 1;
+        }
+        ParallelScan scan = new ParallelScan(3, 1);
+        int n = scan.filter(new Predicate[]{even, odd}, rows, NUM_ROWS);
+        assertEquals(NUM_ROWS / 10 * 4, n);
+        for (int k = 1; k < n; k++) {
+            assertTrue(rows[k] > rows[k - 1]);
+        }
+        assertEquals(scan.select(t, rows, n).toString(),
+                     t.selectRows(rows, n).toString());
+    }
+}
@@ -0,0 +1,814 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Parses the text of a statement into a Statement by recursive descent,
+ * without regular expressions:
+ *
+ *     create table <name> (<column> <type>, ...)
+ *     create table <name> as select <select clauses>
+ *     create index on <name> (<column>) [using hash|btree]
+ *     load <name>
+ *     store <name> [as binary]
+ *     drop table <name>
+ *     insert into <name> values <value>, ...
+ *     insert into <name> values (<value>, ...), ...
+ *     print <name>
+ *     select <column expr>, ... from <table>, ... [where <cond> and ...]
+ *
+ * The parser accepts exactly what the old patterns in Database accepted,
+ * corner cases included (e.g. which "from" ends the column expressions), so
+ * every statement gives the same result and error message as before.
+ *
+ * "Whitespace" below is what the patterns called \s: space, tab, newline,
+ * vertical tab, form feed, and carriage return.
+ *
+ * A prepared statement may also have parameters: "?" in place of an insert
+ * value or of the second operand of a column expression or condition. They
+ * are numbered from 0 in the order they appear.
+ */
+class Parser {
+    private static final String MALFORMED_QUERY = "ERROR: Malformed query.\n",
+            MALFORMED_CREATE = "ERROR: Malformed create command.\n",
+            MALFORMED_INSERT = "ERROR: Malformed insert.\n";
+
+    private final String text;
+    private final boolean prepared;     // whether "?" is a parameter
+    private int pos;
+    private int numParameters;
+
+    private Parser(String text, boolean prepared) {
+        this.text = text;
+        this.prepared = prepared;
+    }
+
+    /**
+     * Normalizes a query: removes leading and trailing whitespace, turns
+     * every series of spaces into one space, and removes spaces next to a
+     * comma. Statements are parsed from (and cached by) this text.
+     */
+    static String normalize(String query) {
+        int start = 0, end = query.length();
+        while (start < end && query.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && query.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        StringBuilder ret = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = query.charAt(i);
+            if (c != ' ') {
+                ret.append(c);
+                continue;
+            }
+            /* The ends were trimmed, so a run of spaces always has a
+               character on both sides. */
+            int runEnd = i + 1;
+            while (query.charAt(runEnd) == ' ') {
+                runEnd++;
+            }
+            if (query.charAt(i - 1) != ',' && query.charAt(runEnd) != ',') {
+                ret.append(' ');
+            }
+            i = runEnd - 1;
+        }
+        if (ret.length() == query.length()) {
+            return query;
+        }
+        return ret.toString();
+    }
+
+    /** Parses a statement from normalized text. */
+    static Statement parse(String text) {
+        return new Parser(text, false).parseStatement();
+    }
+
+    /** Parses a statement that may have parameters from normalized text. */
+    static Statement parsePrepared(String text) {
+        return new Parser(text, true).parseStatement();
+    }
+
+    private Statement parseStatement() {
+        if (command("create table ")) {
+            return parseCreate();
+        } else if (command("create index on ")) {
+            return parseCreateIndex();
+        } else if (command("load ")) {
+            return Statement.load(rest());
+        } else if (command("store ")) {
+            return parseStore();
+        } else if (command("drop table ")) {
+            return Statement.drop(rest());
+        } else if (command("insert into ")) {
+            return parseInsert();
+        } else if (command("print ")) {
+            return Statement.print(rest());
+        } else if (command("select ")) {
+            String clauses = rest();
+            Statement.Select select = parseSelect(clauses);
+            if (select == null) {
+                return Statement.malformed("Malformed select: " + clauses
+                                           + "\n");
+            }
+            return Statement.select(select);
+        }
+        return Statement.malformed(MALFORMED_QUERY);
+    }
+
+    /* The lexical layer: whitespace, words, and keywords. */
+
+    /** Returns whether c is whitespace. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+               || c == '\f' || c == '\r';
+    }
+
+    /** Returns whether c ends a line. */
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+               || c == '\u2029';
+    }
+
+    /**
+     * If the text starts with the given command, moves past it and the
+     * whitespace after it. The rest of the statement must be on one line.
+     */
+    private boolean command(String name) {
+        if (!text.startsWith(name)) {
+            return false;
+        }
+        pos = name.length();
+        skipSpaces();
+        for (int i = pos; i < text.length(); i++) {
+            if (isLineEnd(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the rest of the text. */
+    private String rest() {
+        return text.substring(pos);
+    }
+
+    /** Moves past whitespace and returns how much there was. */
+    private int skipSpaces() {
+        int start = pos;
+        while (pos < text.length() && isSpace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos - start;
+    }
+
+    /** Reads a word (anything up to whitespace), or returns null. */
+    private String word() {
+        int start = pos;
+        while (pos < text.length() && !isSpace(text.charAt(pos))) {
+            pos++;
+        }
+        if (pos == start) {
+            return null;
+        }
+        return text.substring(start, pos);
+    }
+
+    /** Moves past the keyword if the text continues with it. */
+    private boolean keyword(String keyword) {
+        if (!text.startsWith(keyword, pos)) {
+            return false;
+        }
+        pos += keyword.length();
+        return true;
+    }
+
+    /* The commands. */
+
+    /** Parses "<name> (<columns>)" or "<name> as select ...". */
+    private Statement parseCreate() {
+        String name = word();
+        if (name == null || skipSpaces() == 0) {
+            return Statement.malformed(MALFORMED_CREATE);
+        }
+
+        if (keyword("(")) {
+            skipSpaces();
+            int end = text.length() - 1;
+            if (end >= pos && text.charAt(end) == ')') {
+                String columns = text.substring(pos, end);
+                if (isColumnList(columns)) {
+                    return Statement.createTable(name, splitColumns(columns));
+                }
+            }
+        } else if (keyword("as select")) {
+            int spacesStart = pos;
+            int spacesEnd = spacesStart + skipSpaces();
+            /* Like the pattern, give whitespace back to the clauses one
+               character at a time if they don't parse without it. */
+            for (int start = spacesEnd; start > spacesStart; start--) {
+                Statement.Select select = parseSelect(text.substring(start));
+                if (select != null) {
+                    return Statement.createSelected(name, select);
+                }
+            }
+        }
+        return Statement.malformed(MALFORMED_CREATE);
+    }
+
+    /** Parses "<name> (<column>)", optionally followed by "using <type>". */
+    private Statement parseCreateIndex() {
+        int start = pos;
+        while (pos < text.length() && !isSpace(text.charAt(pos))
+               && text.charAt(pos) != '(') {
+            pos++;
+        }
+        String name = text.substring(start, pos);
+        skipSpaces();
+        if (name.isEmpty() || !keyword("(")) {
+            return Statement.malformed(MALFORMED_CREATE);
+        }
+        skipSpaces();
+        start = pos;
+        while (pos < text.length() && !isSpace(text.charAt(pos))
+               && text.charAt(pos) != ')' && text.charAt(pos) != ',') {
+            pos++;
+        }
+        String column = text.substring(start, pos);
+        skipSpaces();
+        if (column.isEmpty() || !keyword(")")) {
+            return Statement.malformed(MALFORMED_CREATE);
+        }
+        String type = "hash";
+        if (skipSpaces() > 0 && keyword("using") && skipSpaces() > 0) {
+            type = word();
+        }
+        if (pos != text.length()
+            || !(type.equals("hash") || type.equals("btree"))) {
+            return Statement.malformed(MALFORMED_CREATE);
+        }
+        return Statement.createIndex(name, column, type);
+    }
+
+    /** Parses "<name>" or "<name> as binary". */
+    private Statement parseStore() {
+        int start = pos;
+        String name = word();
+        if (skipSpaces() > 0 && keyword("as") && skipSpaces() > 0
+            && keyword("binary") && pos == text.length()) {
+            return Statement.store(name, true);
+        }
+        return Statement.store(text.substring(start), false);
+    }
+
+    /**
+     * Parses "<name> values <value>,..." or, for many rows at once,
+     * "<name> values (<value>,...),...". No value starts with "(", so the
+     * two can't be confused.
+     */
+    private Statement parseInsert() {
+        String name = word();
+        if (name == null || skipSpaces() == 0 || !keyword("values")
+            || skipSpaces() == 0 || pos == text.length()) {
+            return Statement.malformed(MALFORMED_INSERT);
+        }
+        if (text.charAt(pos) == '(') {
+            String[][] rows = parseRows();
+            if (rows == null) {
+                return Statement.malformed(MALFORMED_INSERT);
+            }
+            return Statement.insertRows(name, rows);
+        }
+        return Statement.insert(name, splitOnCommas(rest()));
+    }
+
+    /**
+     * Parses the rest of the text as "(<value>,...),(<value>,...),...",
+     * with optional whitespace around the parentheses. A row ends at the
+     * first ")" that is not inside single quotes.
+     *
+     * @return  the values of each row     if the rows are well formed
+     *          null                        otherwise
+     */
+    private String[][] parseRows() {
+        ArrayList<String[]> rows = new ArrayList<>();
+        int length = text.length();
+        while (true) {
+            if (!keyword("(")) {
+                return null;
+            }
+            skipSpaces();
+            int start = pos;
+            boolean inQuotes = false;
+            while (pos < length && (inQuotes || text.charAt(pos) != ')')) {
+                if (text.charAt(pos) == '\'') {
+                    inQuotes = !inQuotes;
+                }
+                pos++;
+            }
+            int end = pos;
+            while (end > start && isSpace(text.charAt(end - 1))) {
+                end--;
+            }
+            if (pos == length || end == start) {
+                return null;
+            }
+            rows.add(splitOnCommas(text.substring(start, end)));
+            pos++;
+            skipSpaces();
+            if (pos == length) {
+                return rows.toArray(new String[0][]);
+            }
+            if (!keyword(",")) {
+                return null;
+            }
+            skipSpaces();
+        }
+    }
+
+    /**
+     * Parses the clauses of a select: "<exprs> from <tables>", optionally
+     * followed by "where <conds>". The column expressions end at the first
+     * "from" after which the rest of the clauses are well formed.
+     *
+     * @return  the clauses     if they are well formed
+     *          null            otherwise
+     */
+    private Statement.Select parseSelect(String clauses) {
+        int length = clauses.length();
+        for (int i = 1; i < length; i++) {
+            if (!isSpace(clauses.charAt(i))) {
+                continue;
+            }
+            int from = i;
+            while (from < length && isSpace(clauses.charAt(from))) {
+                from++;
+            }
+            if (!clauses.startsWith("from", from)) {
+                continue;
+            }
+            int tablesStart = from + 4;
+            while (tablesStart < length && isSpace(clauses.charAt(tablesStart))) {
+                tablesStart++;
+            }
+            String exprs = clauses.substring(0, i);
+            if (tablesStart == from + 4 || !isExprList(exprs)) {
+                continue;
+            }
+
+            Statement.Select select = parseFrom(exprs,
+                    clauses.substring(tablesStart));
+            if (select != null) {
+                return select;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses what follows "from": "<tables>" or "<tables> where <conds>".
+     *
+     * @return  the clauses     if they are well formed
+     *          null            otherwise
+     */
+    private Statement.Select parseFrom(String exprs, String rest) {
+        FromClause from = new FromClause(rest, prepared);
+        if (!from.match()) {
+            return null;
+        }
+        String tables = rest.substring(0, from.tablesEnd);
+        if (from.condsStart == -1) {
+            return newSelect(exprs, tables, null);
+        }
+        return newSelect(exprs, tables, rest.substring(from.condsStart));
+    }
+
+    /** Builds a select out of well-formed clauses. */
+    private Statement.Select newSelect(String exprs, String tables,
+                                       String conds) {
+        String[] exprTexts = splitOnCommas(exprs);
+        Statement.ColumnExpr[] columnExprs =
+                new Statement.ColumnExpr[exprTexts.length];
+        if (exprTexts.length == 1 && exprTexts[0].equals("*")) {
+            columnExprs[0] = new Statement.ColumnExpr("*", null, null, null);
+        } else {
+            for (int i = 0; i < exprTexts.length; i++) {
+                Statement.ColumnExpr expr = parseColumnExpr(exprTexts[i]);
+                if (isParameter(expr.operand2)) {
+                    expr = new Statement.ColumnExpr(expr.operand1,
+                            expr.operator, expr.operand2, expr.alias,
+                            numParameters++);
+                }
+                columnExprs[i] = expr;
+            }
+        }
+
+        Statement.Condition[] conditions = null;
+        if (conds != null) {
+            ArrayList<String> condTexts = splitOnAnd(conds);
+            conditions = new Statement.Condition[condTexts.size()];
+            for (int i = 0; i < conditions.length; i++) {
+                Statement.Condition cond = parseCondition(condTexts.get(i));
+                if (isParameter(cond.operand2)) {
+                    cond = new Statement.Condition(cond.operand1,
+                            cond.operator, cond.operand2, numParameters++);
+                }
+                conditions[i] = cond;
+            }
+        }
+        return new Statement.Select(columnExprs, splitOnCommas(tables),
+                conditions);
+    }
+
+    /** Returns whether an operand is a parameter. */
+    private boolean isParameter(String operand) {
+        return prepared && Statement.PARAMETER.equals(operand);
+    }
+
+    /* Column expressions and conditions. */
+
+    /**
+     * Parses one column expression: "<column>", or
+     * "<operand> <operator> <operand> as <alias>", where the spaces around
+     * the operator may be left out.
+     */
+    static Statement.ColumnExpr parseColumnExpr(String expr) {
+        Statement.ColumnExpr malformed =
+                new Statement.ColumnExpr(null, null, null, null);
+        expr = spaceOperator(expr);
+        if (expr == null) {
+            return malformed;
+        }
+        ArrayList<String> parts = splitOnSpaces(expr);
+        if (parts.size() == 1) {
+            return new Statement.ColumnExpr(expr, null, null, null);
+        }
+        if (parts.size() != 5 || !expr.contains("as")) {
+            return malformed;
+        }
+        return new Statement.ColumnExpr(parts.get(0), parts.get(1),
+                parts.get(2), parts.get(4));
+    }
+
+    /**
+     * Puts exactly one space on each side of the first operator in a column
+     * expression (the first of +, -, *, / that it contains), e.g. "x+y as z"
+     * --> "x + y as z". Only the text up to the next such operator is kept
+     * after it.
+     *
+     * @return  the expression  if it has no operator, or something after it
+     *          null            otherwise
+     */
+    private static String spaceOperator(String expr) {
+        char operator;
+        if (expr.indexOf('+') != -1) {
+            operator = '+';
+        } else if (expr.indexOf('-') != -1) {
+            operator = '-';
+        } else if (expr.indexOf('*') != -1) {
+            operator = '*';
+        } else if (expr.indexOf('/') != -1) {
+            operator = '/';
+        } else {
+            return expr;
+        }
+
+        int first = expr.indexOf(operator);
+        boolean hasSecondPart = false;
+        for (int i = first + 1; i < expr.length(); i++) {
+            if (expr.charAt(i) != operator) {
+                hasSecondPart = true;
+                break;
+            }
+        }
+        if (!hasSecondPart) {
+            return null;
+        }
+        int second = expr.indexOf(operator, first + 1);
+        if (second == -1) {
+            second = expr.length();
+        }
+
+        /* The first part loses all its spaces, the second part only its
+           first one. */
+        StringBuilder ret = new StringBuilder(expr.length() + 2);
+        for (int i = 0; i < first; i++) {
+            char c = expr.charAt(i);
+            if (c != ' ') {
+                ret.append(c);
+            }
+        }
+        ret.append(' ').append(operator).append(' ');
+        int secondStart = first + 1;
+        if (secondStart < second && expr.charAt(secondStart) == ' ') {
+            secondStart++;
+        }
+        ret.append(expr, secondStart, second);
+        return ret.toString();
+    }
+
+    /** Parses one condition: "<column> <comparison> <column or literal>". */
+    static Statement.Condition parseCondition(String cond) {
+        ArrayList<String> parts = splitOnSpaces(cond);
+        if (parts.size() != 3) {
+            return new Statement.Condition(null, null, null);
+        }
+        return new Statement.Condition(parts.get(0), parts.get(1),
+                parts.get(2));
+    }
+
+    /* Splitting and checking clauses. */
+
+    /** Splits text at every comma, keeping empty values. */
+    static String[] splitOnCommas(String text) {
+        ArrayList<String> list = new ArrayList<>();
+        int start = 0;
+        int comma;
+        while ((comma = text.indexOf(',', start)) != -1) {
+            list.add(text.substring(start, comma));
+            start = comma + 1;
+        }
+        list.add(text.substring(start));    // add the last value
+        return list.toArray(new String[0]);
+    }
+
+    /** Splits text at every space that is not inside single quotes. */
+    private static ArrayList<String> splitOnSpaces(String text) {
+        ArrayList<String> list = new ArrayList<>(5);
+        boolean inQuotes = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                inQuotes = !inQuotes;
+            } else if (c == ' ' && !inQuotes) {
+                list.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        list.add(text.substring(start));
+        return list;
+    }
+
+    /** Splits conditions at every "and" that has whitespace on both sides. */
+    private static ArrayList<String> splitOnAnd(String conds) {
+        ArrayList<String> list = new ArrayList<>();
+        int length = conds.length();
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            if (!isSpace(conds.charAt(i))) {
+                i++;
+                continue;
+            }
+            int and = i;
+            while (and < length && isSpace(conds.charAt(and))) {
+                and++;
+            }
+            int next = and + 3;
+            if (conds.startsWith("and", and) && next < length
+                && isSpace(conds.charAt(next))) {
+                while (next < length && isSpace(conds.charAt(next))) {
+                    next++;
+                }
+                list.add(conds.substring(start, i));
+                start = next;
+                i = next;
+            } else {
+                i = and;
+            }
+        }
+        list.add(conds.substring(start));
+        return list;
+    }
+
+    /**
+     * Returns whether the column expressions are well formed: values that
+     * are separated by commas and are not empty.
+     */
+    private static boolean isExprList(String exprs) {
+        int length = exprs.length();
+        if (length == 0 || exprs.charAt(0) == ',' || exprs.charAt(length - 1) == ',') {
+            return false;
+        }
+        return !exprs.contains(",,");
+    }
+
+    /**
+     * Returns whether c may appear in conditions: letters, digits, '_',
+     * whitespace, quotes, and the characters of operators.
+     */
+    private static boolean isCondChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+               || (c >= '0' && c <= '9') || c == '_' || isSpace(c)
+               || "+-*/'<>=!.".indexOf(c) != -1;
+    }
+
+    /*
+     * The column list of "create table" is checked by a small state machine.
+     * Words may contain commas, so a comma can be part of a word or separate
+     * two columns, and both are tried at once by keeping a set of states.
+     */
+
+    /* States of the column list: the first word of a column, spaces inside
+       the column, the second word, spaces after the column, and a
+       separating comma (plus the spaces after it). */
+    private static final int C_NAME = 1, C_GAP = 2, C_TYPE = 4,
+            C_SPACES = 8, C_COMMA = 16;
+
+    /**
+     * Returns whether columns are a list of "<word> <word>" separated by
+     * commas.
+     */
+    private static boolean isColumnList(String columns) {
+        int states = C_COMMA;   // like after a comma: a column must follow
+        for (int i = 0; i < columns.length() && states != 0; i++) {
+            char c = columns.charAt(i);
+            int next = 0;
+            if (isSpace(c)) {
+                if ((states & (C_NAME | C_GAP)) != 0) {
+                    next |= C_GAP;
+                }
+                if ((states & (C_TYPE | C_SPACES)) != 0) {
+                    next |= C_SPACES;
+                }
+                if ((states & C_COMMA) != 0 && i > 0) {
+                    next |= C_COMMA;
+                }
+            } else {
+                if ((states & (C_NAME | C_COMMA)) != 0) {
+                    next |= C_NAME;
+                }
+                if ((states & (C_GAP | C_TYPE)) != 0) {
+                    next |= C_TYPE;
+                }
+                if (c == ',' && (states & (C_TYPE | C_SPACES)) != 0) {
+                    next |= C_COMMA;
+                }
+            }
+            states = next;
+        }
+        return (states & (C_TYPE | C_SPACES)) != 0;
+    }
+
+    /**
+     * Splits a column list at each comma, dropping the whitespace around the
+     * commas and any empty columns at the end.
+     */
+    private static String[] splitColumns(String columns) {
+        String[] parts = splitOnCommas(columns);
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            int start = 0, end = part.length();
+            if (i > 0) {
+                while (start < end && isSpace(part.charAt(start))) {
+                    start++;
+                }
+            }
+            if (i < parts.length - 1) {
+                while (end > start && isSpace(part.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            parts[i] = part.substring(start, end);
+        }
+        int length = parts.length;
+        while (length > 0 && parts[length - 1].isEmpty()) {
+            length--;
+        }
+        String[] ret = new String[length];
+        System.arraycopy(parts, 0, ret, 0, length);
+        return ret;
+    }
+
+    /**
+     * Matches what follows "from" the way the old pattern did. The tables are
+     * "<word>[spaces](,[spaces]<word>[spaces])*", where words may contain
+     * commas, optionally followed by "<spaces>where<spaces><conds>".
+     *
+     * Where the tables end decides what the conditions are, and with
+     * whitespace next to commas more than one choice can work. The pattern
+     * took the first one its (greedy) backtracking reached, so the same
+     * alternatives are tried here in the same order. A position that failed
+     * once would fail again, so it is not tried twice.
+     */
+    private static class FromClause {
+        private final String text;
+        private final int length;
+        /* Where conditions could start: every character from here on is
+           allowed in conditions. */
+        private final int condTextStart;
+        /* Positions already tried, for each step of the pattern. */
+        private final boolean[] triedWord, triedSpaces, triedNext, triedComma;
+        int tablesEnd;
+        int condsStart = -1;    // -1 if there is no where clause
+
+        /** Matches text; conditions may have parameters if prepared. */
+        FromClause(String text, boolean prepared) {
+            this.text = text;
+            length = text.length();
+            int start = length;
+            while (start > 0 && (isCondChar(text.charAt(start - 1))
+                                 || prepared && text.charAt(start - 1) == '?')) {
+                start--;
+            }
+            condTextStart = start;
+            triedWord = new boolean[length + 1];
+            triedSpaces = new boolean[length + 1];
+            triedNext = new boolean[length + 1];
+            triedComma = new boolean[length + 1];
+        }
+
+        /** Returns whether the text matches, and sets where its parts are. */
+        boolean match() {
+            return word(0);
+        }
+
+        /** A word starting at p, then spaces, then the rest. */
+        private boolean word(int p) {
+            if (triedWord[p]) {
+                return false;
+            }
+            triedWord[p] = true;
+            int end = p;
+            while (end < length && !isSpace(text.charAt(end))) {
+                end++;
+            }
+            for (int e = end; e > p; e--) {
+                if (spaces(e)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Spaces after a word starting at p, then the rest. */
+        private boolean spaces(int p) {
+            if (triedSpaces[p]) {
+                return false;
+            }
+            triedSpaces[p] = true;
+            for (int e = spaceEnd(p); e >= p; e--) {
+                if (next(e)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Another table after a comma at p if there is one, or the end. */
+        private boolean next(int p) {
+            if (triedNext[p]) {
+                return false;
+            }
+            triedNext[p] = true;
+            if (p < length && text.charAt(p) == ',' && comma(p + 1)) {
+                return true;
+            }
+            return end(p);
+        }
+
+        /** Spaces after a comma starting at p, then a word. */
+        private boolean comma(int p) {
+            if (triedComma[p]) {
+                return false;
+            }
+            triedComma[p] = true;
+            for (int e = spaceEnd(p); e >= p; e--) {
+                if (e < length && word(e)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The tables end at p: either the text ends or a where clause does. */
+        private boolean end(int p) {
+            if (p == length) {
+                tablesEnd = p;
+                return true;
+            }
+            int where = spaceEnd(p);
+            if (where == p || !text.startsWith("where", where)) {
+                return false;
+            }
+            int conds = spaceEnd(where + 5);
+            if (conds == where + 5 || conds == length || conds < condTextStart) {
+                return false;
+            }
+            tablesEnd = p;
+            condsStart = conds;
+            return true;
+        }
+
+        /** Returns the end of the whitespace starting at p. */
+        private int spaceEnd(int p) {
+            while (p < length && isSpace(text.charAt(p))) {
+                p++;
+            }
+            return p;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Parser and StatementCache classes.
+ */
+public class ParserTest {
+
+    private static Statement parse(String query) {
+        return Parser.parse(Parser.normalize(query));
+    }
+
+    /** Tests that whitespace is normalized like the old formatQuery(). */
+    @Test
+    public void testNormalize() {
+        assertEquals("select a,b from t", Parser.normalize("  select   a ,  b from t\n"));
+        assertEquals("insert into t values 'x y',1",
+                Parser.normalize("insert into t values 'x   y' , 1"));
+        assertEquals("a\tb", Parser.normalize("\ta\tb "));
+        String normalized = "print t";
+        assertSame(normalized, Parser.normalize(normalized));
+    }
+
+    /** Tests the commands that only take a table name. */
+    @Test
+    public void testSimpleCommands() {
+        Statement s = parse("load  t1");
+        assertEquals(Statement.Kind.LOAD, s.kind);
+        assertEquals("t1", s.name);
+        assertEquals(Statement.Kind.PRINT, parse("print t").kind);
+        assertEquals(Statement.Kind.DROP, parse("drop table t").kind);
+
+        s = parse("store t");
+        assertEquals(Statement.Kind.STORE, s.kind);
+        assertEquals("t", s.name);
+        s = parse("store t as  binary");
+        assertEquals(Statement.Kind.STORE_BINARY, s.kind);
+        assertEquals("t", s.name);
+        s = parse("store t as binary now");
+        assertEquals(Statement.Kind.STORE, s.kind);
+        assertEquals("t as binary now", s.name);
+
+        assertEquals("ERROR: Malformed query.\n", parse("print").error);
+        assertEquals("ERROR: Malformed query.\n", parse("PRINT t").error);
+    }
+
+    /** Tests create index. */
+    @Test
+    public void testCreateIndex() {
+        Statement s = parse("create index on t  (x)");
+        assertEquals(Statement.Kind.CREATE_INDEX, s.kind);
+        assertEquals("t", s.name);
+        assertArrayEquals(new String[]{"x", "hash"}, s.columns);
+        s = parse("create index on t(x ) using btree");
+        assertEquals("t", s.name);
+        assertArrayEquals(new String[]{"x", "btree"}, s.columns);
+        assertArrayEquals(new String[]{"x", "hash"},
+                parse("create index on t (x) using hash").columns);
+        assertEquals("ERROR: Malformed create command.\n",
+                parse("create index on t (x) using tree").error);
+        assertEquals("ERROR: Malformed create command.\n",
+                parse("create index on t (x, y)").error);
+        assertEquals("ERROR: Malformed create command.\n",
+                parse("create index on (x)").error);
+    }
+
+    /** Tests create table and insert into. */
+    @Test
+    public void testCreateAndInsert() {
+        Statement s = parse("create table t (x int, y string ,z float)");
+        assertEquals(Statement.Kind.CREATE_TABLE, s.kind);
+        assertEquals("t", s.name);
+        assertArrayEquals(new String[]{"x int", "y string", "z float"},
+                s.columns);
+        assertEquals("ERROR: Malformed create command.\n",
+                parse("create table t (x)").error);
+        assertEquals("ERROR: Malformed create command.\n",
+                parse("create table t(x int)").error);
+
+        s = parse("insert into t values 1, 'a b',NOVALUE");
+        assertEquals(Statement.Kind.INSERT, s.kind);
+        assertEquals("t", s.name);
+        assertArrayEquals(new String[]{"1", "'a b'", "NOVALUE"}, s.values);
+        assertArrayEquals(new String[]{"1", "", "2"},
+                parse("insert into t values 1,,2").values);
+        assertEquals("ERROR: Malformed insert.\n",
+                parse("insert into t values").error);
+        assertEquals("ERROR: Malformed insert.\n",
+                parse("insert into t value 1").error);
+    }
+
+    /** Tests inserting many rows at once. */
+    @Test
+    public void testInsertRows() {
+        Statement s = parse(Parser.normalize(
+                "insert into t values ( 1, 'a) b' ) , (2,NOVALUE),(3,'')"));
+        assertEquals(Statement.Kind.INSERT_ROWS, s.kind);
+        assertEquals("t", s.name);
+        assertEquals(3, s.rows.length);
+        assertArrayEquals(new String[]{"1", "'a) b'"}, s.rows[0]);
+        assertArrayEquals(new String[]{"2", "NOVALUE"}, s.rows[1]);
+        assertArrayEquals(new String[]{"3", "''"}, s.rows[2]);
+        assertArrayEquals(new String[]{"1", "", "2"},
+                parse("insert into t values (1,,2)").rows[0]);
+
+        String[] malformed = {
+            "insert into t values (1,2",
+            "insert into t values (1,2),",
+            "insert into t values (1,2) (3,4)",
+            "insert into t values (1,2),3",
+            "insert into t values ()",
+            "insert into t values (1,'a)",
+        };
+        for (String query : malformed) {
+            assertEquals(query, "ERROR: Malformed insert.\n",
+                    parse(query).error);
+        }
+    }
+
+    /** Tests splitting a select into its clauses. */
+    @Test
+    public void testSelect() {
+        Statement s = parse("select x, y+1 as z from t1, t2 where x > 1 and"
+                + " z == 'a b'");
+        assertEquals(Statement.Kind.SELECT, s.kind);
+        Statement.Select select = s.select;
+        assertEquals(2, select.columnExprs.length);
+        assertEquals("x", select.columnExprs[0].operand1);
+        assertEquals(null, select.columnExprs[0].operator);
+        Statement.ColumnExpr expr = select.columnExprs[1];
+        assertEquals("y", expr.operand1);
+        assertEquals("+", expr.operator);
+        assertEquals("1", expr.operand2);
+        assertEquals("z", expr.alias);
+        assertArrayEquals(new String[]{"t1", "t2"}, select.tableNames);
+        assertEquals(2, select.conditions.length);
+        assertEquals("z", select.conditions[1].operand1);
+        assertEquals("==", select.conditions[1].operator);
+        assertEquals("'a b'", select.conditions[1].operand2);
+
+        assertTrue(parse("select * from t").select.isSelectAll());
+        assertNull(parse("select * from t").select.conditions);
+
+        /* The expressions end at the first "from" that leaves a valid rest. */
+        select = parse("select a from b from c").select;
+        assertTrue(select.columnExprs[0].isMalformed());
+        assertArrayEquals(new String[]{"c"}, select.tableNames);
+
+        /* Malformed parts are kept, to be reported when the select runs. */
+        select = parse("select x+y from t where x >").select;
+        assertTrue(select.columnExprs[0].isMalformed());
+        assertTrue(select.conditions[0].isMalformed());
+
+        assertEquals("Malformed select: x,from t\n",
+                parse("select x, from t").error);
+        assertEquals("Malformed select: x from t where s == 'a,b'\n",
+                parse("select x from t where s == 'a,b'").error);
+    }
+
+    /** Tests create table ... as select. */
+    @Test
+    public void testCreateSelected() {
+        Statement s = parse("create table u as select x from t where x < 5");
+        assertEquals(Statement.Kind.CREATE_SELECTED, s.kind);
+        assertEquals("u", s.name);
+        assertArrayEquals(new String[]{"t"}, s.select.tableNames);
+        assertEquals("5", s.select.conditions[0].operand2);
+    }
+
+    /** Tests that the cache keeps the most recently used statements. */
+    @Test
+    public void testStatementCache() {
+        StatementCache cache = new StatementCache(2);
+        Statement a = parse("print a"), b = parse("print b"),
+                c = parse("print c");
+        cache.put("print a", a);
+        cache.put("print b", b);
+        assertSame(a, cache.get("print a"));    // a is now newer than b
+        cache.put("print c", c);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("print a"));
+        assertEquals(null, cache.get("print b"));
+        assertSame(c, cache.get("print c"));
+
+        Database db = new Database();
+        assertSame(db.parse("select x from t"), db.parse(" select  x  from t "));
+    }
+}
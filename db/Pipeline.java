@@ -0,0 +1,329 @@
+package db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * The part of a select that comes after the join, run as a pipeline that
+ * pushes the joined rows through a batch at a time instead of building a
+ * table of every row after each step:
+ *
+ *     joined rows
+ *         --> join conditions         tested against the joined table
+ *         --> column expressions      copied or computed into a batch
+ *         --> projected conditions    tested against the batch
+ *         --> sink                    text, a new table, or a count
+ *
+ * A batch is a table of at most ColumnOperation.BATCH_SIZE rows, of the
+ * resulting columns, which the projected conditions are compiled against.
+ * The only tables of every row are the joined one, which the join has to
+ * build, and the one a sink builds for "create table ... as select".
+ *
+ * Ranges of rows go through pipelines of their own on the threads of a
+ * ParallelScan, and reach the sink in row order, a few ranges at a time
+ * (see ParallelScan.stream()).
+ *
+ * A condition that is malformed makes the select an error only if a row
+ * reaches it, so a pipeline stops before it, and only counts those rows
+ * (see hasMalformedCondition()).
+ */
+class Pipeline {
+    private final int[] rows;       // of the source, from 1, or null for all
+    private final int numRows;
+    private final Predicate[] joinPredicates;
+    private final String[] columnNames;     // of the result
+    private final String[] columnTypes;
+    private final Column[] copies;          // by result column, or null
+    private final ColumnOperation[] operations;    // null for copies
+    private final List<SelectPlan.Condition> conditions;
+    private final boolean malformedCondition;
+
+    /**
+     * Creates a pipeline over rows of a source table.
+     *
+     * @param rows          the rows to select from (numbered from 1), or
+     *                      null for all of them
+     * @param copies        the column each resulting column copies, or null
+     *                      if an operation computes it
+     * @param conditions    the projected conditions, resolved against the
+     *                      resulting columns, up to the first malformed one
+     */
+    Pipeline(Table source, int[] rows, Predicate[] joinPredicates,
+             String[] columnNames, String[] columnTypes, Column[] copies,
+             ColumnOperation[] operations,
+             List<SelectPlan.Condition> conditions,
+             boolean malformedCondition) {
+        this.rows = rows;
+        numRows = rows != null ? rows.length : source.getNumRows();
+        this.joinPredicates = joinPredicates;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.copies = copies;
+        this.operations = operations;
+        this.conditions = conditions;
+        this.malformedCondition = malformedCondition;
+    }
+
+    /** Returns the names of the resulting columns. */
+    String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Returns whether a projected condition is malformed, so that a row that
+     * reaches it makes the select an error. Such a pipeline is only run into
+     * a CountSink.
+     */
+    boolean hasMalformedCondition() {
+        return malformedCondition;
+    }
+
+    /** Returns whether testing a row against a condition may throw. */
+    boolean mayThrow() {
+        for (Predicate predicate : joinPredicates) {
+            if (predicate.mayThrow()) {
+                return true;
+            }
+        }
+        /* The projected conditions are compiled batch by batch, so compile
+           them once against no rows to find out. */
+        Table schema = new Table(columnNames);
+        for (SelectPlan.Condition cond : conditions) {
+            if (Predicate.compile(schema, cond.name1, cond.operator,
+                    cond.operand2, cond.operand2IsLiteral).mayThrow()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the result is the source's rows as they are, with
+     * some of its columns.
+     */
+    private boolean onlyCopies() {
+        if (rows != null || joinPredicates.length > 0
+            || !conditions.isEmpty()) {
+            return false;
+        }
+        for (Column copy : copies) {
+            if (copy == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Pushes every row through the pipeline into a sink. */
+    <T> void run(ParallelScan scan, final Sink<T> sink) throws IOException {
+        if (onlyCopies()) {
+            Table table = new Table(columnNames);
+            table.restoreColumns(copies.clone(), numRows);
+            sink.takeAll(scan, table);
+            return;
+        }
+        scan.stream(numRows, new ParallelScan.RangeTask<T>() {
+            @Override
+            public T run(int from, int to) {
+                T part = sink.newPart();
+                runRange(sink, part, from, to);
+                return part;
+            }
+        }, sink);
+    }
+
+    /**
+     * Pushes rows from to to - 1 of the pipeline's rows (numbered from 0)
+     * into a part of a sink, with operations of their own, so that other
+     * ranges can run on other threads at the same time.
+     */
+    private <T> void runRange(Sink<T> sink, T part, int from, int to) {
+        int numColumns = columnNames.length;
+        ColumnOperation[] ops = new ColumnOperation[numColumns];
+        for (int j = 0; j < numColumns; j++) {
+            if (operations[j] != null) {
+                ops[j] = operations[j].copy();
+            }
+        }
+        int[] batchRows = new int[ColumnOperation.BATCH_SIZE];
+        int[] selection = new int[ColumnOperation.BATCH_SIZE];
+        Table batch = new Table(columnNames);
+        for (int start = from; start < to;
+             start += ColumnOperation.BATCH_SIZE) {
+            int n = Math.min(ColumnOperation.BATCH_SIZE, to - start);
+            for (int k = 0; k < n; k++) {
+                batchRows[k] = rows != null ? rows[start + k] : start + k + 1;
+            }
+            for (Predicate predicate : joinPredicates) {
+                if (n == 0) {
+                    break;
+                }
+                n = predicate.filter(batchRows, n);
+            }
+            if (n == 0) {
+                continue;
+            }
+
+            /* Evaluate the column expressions, leaving out the rows whose
+               results can't be stored. */
+            int numSelected = n;
+            for (int k = 0; k < n; k++) {
+                selection[k] = k;
+            }
+            for (ColumnOperation operation : ops) {
+                if (operation == null) {
+                    continue;
+                }
+                operation.evaluate(batchRows, n);
+                if (operation.mayBeInfinite()) {
+                    numSelected = operation.select(selection, numSelected);
+                }
+            }
+            Column[] columns = new Column[numColumns];
+            for (int j = 0; j < numColumns; j++) {
+                columns[j] = Column.forType(columnTypes[j]);
+                if (ops[j] != null) {
+                    ops[j].append(columns[j], selection, numSelected);
+                } else {
+                    for (int k = 0; k < numSelected; k++) {
+                        columns[j].appendFrom(copies[j],
+                                              batchRows[selection[k]] - 1);
+                    }
+                }
+            }
+            batch.restoreColumns(columns, numSelected);
+
+            /* Test the batch's rows (numbered from 1) against the projected
+               conditions. */
+            for (int k = 0; k < numSelected; k++) {
+                selection[k] = k + 1;
+            }
+            for (SelectPlan.Condition cond : conditions) {
+                if (numSelected == 0) {
+                    break;
+                }
+                numSelected = Predicate.compile(batch, cond.name1,
+                        cond.operator, cond.operand2, cond.operand2IsLiteral)
+                        .filter(selection, numSelected);
+            }
+            if (numSelected > 0) {
+                sink.add(part, batch, selection, numSelected);
+            }
+        }
+    }
+
+    /**
+     * Where the rows that come out of a pipeline go. Each range of rows goes
+     * into a part of its own, on the range's thread, and the parts are taken
+     * in row order on the thread that runs the pipeline.
+     */
+    abstract static class Sink<T> implements ParallelScan.RangeSink<T> {
+        /** Returns a new, empty part. */
+        abstract T newPart();
+
+        /**
+         * Adds the first n of rows (numbered from 1) of a batch to a part.
+         * The batch is reused once this returns.
+         */
+        abstract void add(T part, Table batch, int[] rows, int n);
+
+        /** Takes every row of a table that is the result as it is. */
+        abstract void takeAll(ParallelScan scan, Table table)
+                throws IOException;
+    }
+
+    /** Writes the rows (without the column names) to a Writer. */
+    static class TextSink extends Sink<StringBuilder> {
+        private final Writer out;
+
+        TextSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        StringBuilder newPart() {
+            return new StringBuilder();
+        }
+
+        @Override
+        void add(StringBuilder part, Table batch, int[] rows, int n) {
+            for (int k = 0; k < n; k++) {
+                batch.appendRow(part, rows[k] - 1);
+            }
+        }
+
+        @Override
+        public void take(StringBuilder part) throws IOException {
+            out.append(part);
+        }
+
+        @Override
+        void takeAll(ParallelScan scan, Table table) throws IOException {
+            scan.writeRows(table, out);
+        }
+    }
+
+    /** Appends the rows to a table, as typed values. */
+    static class TableSink extends Sink<Table> {
+        private final Table target;
+
+        TableSink(Table target) {
+            this.target = target;
+        }
+
+        @Override
+        Table newPart() {
+            return new Table(target.getColumnNames());
+        }
+
+        @Override
+        void add(Table part, Table batch, int[] rows, int n) {
+            if (n == batch.getNumRows()) {
+                part.appendTable(batch);
+            } else {
+                part.appendTable(batch.selectRows(rows, n));
+            }
+        }
+
+        @Override
+        public void take(Table part) {
+            target.appendTable(part);
+        }
+
+        @Override
+        void takeAll(ParallelScan scan, Table table) {
+            target.appendTable(table);
+        }
+    }
+
+    /** Counts the rows. */
+    static class CountSink extends Sink<long[]> {
+        private long count;
+
+        /** Returns the number of rows taken so far. */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        long[] newPart() {
+            return new long[1];
+        }
+
+        @Override
+        void add(long[] part, Table batch, int[] rows, int n) {
+            part[0] += n;
+        }
+
+        @Override
+        public void take(long[] part) {
+            count += part[0];
+        }
+
+        @Override
+        void takeAll(ParallelScan scan, Table table) {
+            count += table.getNumRows();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package db;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that selects pushed through pipelines a batch at a time give the
+ * same results on one thread and on many, into text and into new tables,
+ * and write nothing when they fail.
+ */
+public class PipelineTest {
+    private static final int BATCH_SIZE = ColumnOperation.BATCH_SIZE;
+
+    /* Two ranges on many threads, which split a batch, and a last batch
+       that is not full. */
+    private static final int NUM_ROWS = 2 * ParallelScan.MIN_RANGE
+                                        + 3 * BATCH_SIZE / 2 + 7;
+
+    /* A float that is infinite once doubled, so it can't be stored. */
+    private static final String HUGE =
+            "300000000000000000000000000000000000000.0";
+
+    /**
+     * Returns a database with tables t and u, scanned as given. Row i of t
+     * has k = i, and e = its position in its batch (on one thread), so
+     * conditions on e pick out the rows at the ends of batches. x doubles
+     * to infinity in the last row of each batch and in every row of the
+     * second batch, and is NOVALUE or NaN in a few.
+     */
+    private static Database database(int numThreads, int threshold) {
+        Database db = new Database();
+        db.setParallelism(numThreads, threshold);
+        db.transact("create table t (k int, e int, x float, s string)");
+        db.transact("create table u (s string, w int)");
+        StringBuilder insert = new StringBuilder("insert into t values ");
+        for (int i = 0; i < NUM_ROWS; i++) {
+            int e = i % BATCH_SIZE;
+            String x = (i % 13) + ".5";
+            if (e == BATCH_SIZE - 1 || i / BATCH_SIZE == 1) {
+                x = HUGE;
+            } else if (i % 301 == 0) {
+                x = "NOVALUE";
+            } else if (i % 307 == 0) {
+                x = "NaN";
+            }
+            insert.append(i > 0 ? ",(" : "(").append(i).append(',')
+                  .append(e).append(',').append(x).append(",'s")
+                  .append(i % 37).append("')");
+        }
+        assertEquals("", db.transact(insert.toString()));
+        for (int i = 0; i < 40; i++) {
+            db.transact("insert into u values 's" + i + "'," + i);
+        }
+        return db;
+    }
+
+    /** Returns the number of rows of a result. */
+    private static int numRows(String result) {
+        return result.split("\n").length - 1;
+    }
+
+    /**
+     * Tests that selects, and tables created from them, are the same on one
+     * thread as in ranges on many.
+     */
+    @Test
+    public void testSameResults() {
+        Database serial = database(1, 1);
+        Database parallel = database(4, 100);
+        String[] queries = {
+            "select * from t",
+            "select s, k from t",
+            "select k, e, s from t where e == 0",
+            "select k, e, s from t where e > 1020 and s < 's20'",
+            "select k, e, s from t where e == 1023",
+            "select k, x * 2.0 as y from t",
+            "select k, e, x * 2.0 as y from t where e < 2",
+            "select k, x + x as y from t where k > 1000 and k < 2100",
+            "select s + s as ss, k / 0 as z from t where ss != 's1s1'",
+            "select k, e, s, w, x from t, u where e < w and x > 3",
+            "select e + w as ew, s from t, u where ew > 1040",
+        };
+        for (String query : queries) {
+            String expected = serial.transact(query);
+            assertTrue(query, expected.length() > 100);
+            assertEquals(query, expected, parallel.transact(query));
+            for (Database db : new Database[]{serial, parallel}) {
+                assertEquals("", db.transact("create table r as " + query));
+                assertEquals(query, expected, db.transact("print r"));
+            }
+        }
+    }
+
+    /**
+     * Tests the rows at the ends of batches, and that rows whose results
+     * can't be stored are left out, even when they are a whole batch.
+     */
+    @Test
+    public void testBatchEnds() {
+        int numBatches = (NUM_ROWS + BATCH_SIZE - 1) / BATCH_SIZE;
+        for (Database db : new Database[]{database(1, 1),
+                                          database(4, 100)}) {
+            assertEquals(numBatches, numRows(db.transact(
+                    "select e from t where e == 0")));
+            assertEquals(numBatches - 1, numRows(db.transact(
+                    "select e from t where e == 1023")));
+            assertEquals(NUM_ROWS - (numBatches - 1) - (BATCH_SIZE - 1),
+                         numRows(db.transact("select k, x * 2.0 as y "
+                                             + "from t")));
+            assertEquals("k int,y float\n", db.transact("select k, x * 2.0 "
+                    + "as y from t where k >= 1024 and k < 2048"));
+            assertEquals("k int,y float\n1022,17.000\n2048,15.000\n",
+                         db.transact("select k, x * 2.0 as y from t "
+                                     + "where k > 1021 and k < 2049"));
+        }
+    }
+
+    /**
+     * Tests that a malformed condition is an error only if a row reaches
+     * it, and that then no rows are written.
+     */
+    @Test
+    public void testMalformedCondition() throws IOException {
+        Database db = database(4, 100);
+        assertEquals("k int\n",
+                db.transact("select k from t where k > 100000 and q > 1"));
+        StringWriter out = new StringWriter();
+        db.transact("select k from t where k > 90 and q > 1", out);
+        assertEquals("ERROR: Malformed conditions.\n", out.toString());
+        assertEquals("ERROR: Attempting to create incorrectly formatted "
+                     + "table!\n", db.transact("create table r as select "
+                                               + "k from t where k > 90 "
+                                               + "and q > 1"));
+        assertEquals("ERROR: No such table: r\n", db.transact("print r"));
+    }
+
+    /**
+     * Tests that a select whose condition throws partway through writes none
+     * of the rows that came before.
+     */
+    @Test
+    public void testThrowingCondition() throws IOException {
+        for (Database db : new Database[]{database(1, 1), database(4, 100)}) {
+            StringWriter out = new StringWriter();
+            try {
+                db.transact("select k + 1 as j from t where j > 50 and j > -",
+                            out);
+                fail();
+            } catch (NumberFormatException e) {
+                assertEquals("", out.toString());
+            }
+        }
+    }
+
+    /** Tests that a table created from a select keeps its typed values. */
+    @Test
+    public void testCreatedTable() {
+        Database db = new Database();
+        db.transact("create table t (k int, x float)");
+        db.transact("insert into t values 007,NaN");
+        db.transact("insert into t values NOVALUE,-0.0");
+        db.transact("insert into t values 3,1.25");
+        assertEquals("", db.transact("create table r as select k, x, x * 2 "
+                                     + "as y from t where x != 1.25"));
+        assertEquals("k int,x float,y float\n007,NaN,NaN\n"
+                     + "NOVALUE,-0.000,-0.000\n", db.transact("print r"));
+        assertEquals("k int\n007\n",
+                     db.transact("select k from r where k > 5"));
+        db.transact("insert into r values 8,1.0,2.0");
+        assertEquals("k int\n007\n8\n",
+                     db.transact("select k from r where k > 5"));
+    }
+}
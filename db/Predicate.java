@@ -0,0 +1,365 @@
+package db;
+
+/**
+ * A condition compiled against one table. Its columns are looked up, its
+ * comparison is chosen by type and operator, and its literal is parsed once,
+ * so testing a row reads the typed column values without parsing anything.
+ *
+ * Results are the same as comparing the values' string representations the
+ * way conditions always have:
+ *
+ *     strings     compare their text, quotes included
+ *     numbers     compare as floats (ints too, so large ints lose precision),
+ *                 with NaN greater than every other value and equal to
+ *                 itself, and -0.0 less than 0.0 (i.e. Float.compare())
+ *     NOVALUE     is less than NaN, as NaN is checked first; any other
+ *                 comparison of numbers with NOVALUE is false (it used to
+ *                 throw)
+ */
+abstract class Predicate {
+    /* Comparison operators. */
+    static final int EQ = 0, NE = 1, LT = 2, GT = 3, LE = 4, GE = 5;
+
+    final int operator;
+
+    Predicate(int operator) {
+        this.operator = operator;
+    }
+
+    /** Returns whether row i (numbered from 1) passes. */
+    abstract boolean test(int i);
+
+    /**
+     * Returns whether testing a row may throw, so that which rows are tested
+     * matters (see UnparsableLiteral).
+     */
+    boolean mayThrow() {
+        return false;
+    }
+
+    /**
+     * Keeps the rows among the first n of rows (numbered from 1) that pass,
+     * in the same order, and returns how many there are.
+     */
+    final int filter(int[] rows, int n) {
+        return filter(rows, 0, n);
+    }
+
+    /**
+     * Keeps the rows among rows[from] to rows[to - 1] that pass, in the same
+     * order, at the start of that range, and returns how many there are.
+     * Ranges that don't overlap may be filtered on different threads.
+     */
+    int filter(int[] rows, int from, int to) {
+        int kept = from;
+        for (int k = from; k < to; k++) {
+            if (test(rows[k])) {
+                rows[kept] = rows[k];
+                kept++;
+            }
+        }
+        return kept - from;
+    }
+
+    /** Returns whether the result of a comparison satisfies the operator. */
+    final boolean holds(int cmp) {
+        switch (operator) {
+            case EQ:
+                return cmp == 0;
+            case NE:
+                return cmp != 0;
+            case LT:
+                return cmp < 0;
+            case GT:
+                return cmp > 0;
+            case LE:
+                return cmp <= 0;
+            default:
+                return cmp >= 0;
+        }
+    }
+
+    /**
+     * Returns the code of a comparison operator: "==", "!=", "<", ">", "<=",
+     * or ">=".
+     */
+    static int operatorCode(String operator) {
+        switch (operator) {
+            case "==":
+                return EQ;
+            case "!=":
+                return NE;
+            case "<":
+                return LT;
+            case ">":
+                return GT;
+            case "<=":
+                return LE;
+            case ">=":
+                return GE;
+            default:
+                throw new IllegalArgumentException("Not a comparison: "
+                                                   + operator);
+        }
+    }
+
+    /**
+     * Compiles a condition that was already checked to be valid for the
+     * table.
+     *
+     * @param name1     column name with its type, e.g. "Wins int"
+     * @param operand2  column name with its type, or a literal
+     */
+    static Predicate compile(Table table, String name1, String operator,
+                             String operand2, boolean operand2IsLiteral) {
+        int op = operatorCode(operator);
+        Column column1 = table.getColumn(name1);
+        boolean isString = column1.type().equals("string");
+        if (!operand2IsLiteral) {
+            Column column2 = table.getColumn(operand2);
+            if (isString || column2.type().equals("string")) {
+                return new StringColumns(op, column1, column2);
+            }
+            return new NumberColumns(op, column1, column2);
+        }
+        if (isString || operand2.charAt(0) == '\'') {
+            return new StringLiteral(op, column1, operand2);
+        }
+        float literal;
+        try {
+            literal = Float.parseFloat(operand2);
+        } catch (NumberFormatException e) {
+            /* E.g. "-": reading it fails on the first row that needs it. */
+            return new UnparsableLiteral(op, column1, operand2);
+        }
+        return new NumberLiteral(op, column1, literal);
+    }
+
+    /** Compares a string column to a string literal. */
+    private static class StringLiteral extends Predicate {
+        private final Column column;
+        private final String literal;
+
+        StringLiteral(int operator, Column column, String literal) {
+            super(operator);
+            this.column = column;
+            this.literal = literal;
+        }
+
+        @Override
+        boolean test(int i) {
+            return holds(column.get(i - 1).compareTo(literal));
+        }
+
+        /**
+         * Compares codes instead of text: "==" and "!=" to the literal's
+         * code, the others by rank in the sorted dictionary. Sorting a large
+         * dictionary to test a few rows isn't worth it, so those compare text
+         * unless the dictionary is already sorted.
+         */
+        @Override
+        int filter(int[] rows, int from, int to) {
+            if (!(column instanceof StringColumn)) {
+                return super.filter(rows, from, to);
+            }
+            StringColumn strings = (StringColumn) column;
+            Dictionary dictionary = strings.getDictionary();
+            int[] codes = strings.getCodes();
+            boolean byCode = operator == EQ || operator == NE;
+            if (!byCode && !dictionary.isSorted() && to - from < dictionary.size()) {
+                return super.filter(rows, from, to);
+            }
+            int code = byCode ? dictionary.code(literal) : 0;
+            Dictionary.Sorted sorted = byCode ? null : dictionary.sorted();
+            int bound = byCode ? 0 : sorted.bound(literal);
+            int kept = from;
+            for (int k = from; k < to; k++) {
+                int row = rows[k];
+                int value = codes[row - 1];
+                boolean passes;
+                if (value < 0) {        // NOVALUE or NaN
+                    passes = test(row);
+                } else if (byCode) {
+                    passes = (value == code) == (operator == EQ);
+                } else {
+                    passes = holds(Dictionary.Sorted.compareRank(
+                            sorted.ranks[value], bound));
+                }
+                if (passes) {
+                    rows[kept] = row;
+                    kept++;
+                }
+            }
+            return kept - from;
+        }
+    }
+
+    /** Compares an int or float column to a number literal. */
+    private static class NumberLiteral extends Predicate {
+        private final Column column;
+        private final float literal;
+
+        NumberLiteral(int operator, Column column, float literal) {
+            super(operator);
+            this.column = column;
+            this.literal = literal;
+        }
+
+        @Override
+        boolean test(int i) {
+            if (column.isNoValue(i - 1)) {
+                return Float.isNaN(literal) && holds(-1);
+            }
+            return holds(Float.compare(column.getFloat(i - 1), literal));
+        }
+
+        @Override
+        int filter(int[] rows, int from, int to) {
+            /* Read the typed array directly unless some value needs care. */
+            if (!column.getNoValues().isEmpty() || !column.getNaNs().isEmpty()
+                || column.getVerbatim() != null) {
+                return super.filter(rows, from, to);
+            }
+            int kept = from;
+            if (column instanceof IntColumn) {
+                int[] values = ((IntColumn) column).getValues();
+                for (int k = from; k < to; k++) {
+                    int row = rows[k];
+                    if (holds(Float.compare(values[row - 1], literal))) {
+                        rows[kept] = row;
+                        kept++;
+                    }
+                }
+            } else {
+                float[] values = ((FloatColumn) column).getValues();
+                for (int k = from; k < to; k++) {
+                    int row = rows[k];
+                    if (holds(Float.compare(values[row - 1], literal))) {
+                        rows[kept] = row;
+                        kept++;
+                    }
+                }
+            }
+            return kept - from;
+        }
+    }
+
+    /**
+     * Compares a number column to a literal that passed as a number but is
+     * not one Float.parseFloat() can read, e.g. "-". Like before, only NaN
+     * and NOVALUE compare without reading it.
+     */
+    private static class UnparsableLiteral extends Predicate {
+        private final Column column;
+        private final String literal;
+
+        UnparsableLiteral(int operator, Column column, String literal) {
+            super(operator);
+            this.column = column;
+            this.literal = literal;
+        }
+
+        @Override
+        boolean mayThrow() {
+            return true;
+        }
+
+        @Override
+        boolean test(int i) {
+            if (column.isNoValue(i - 1)) {
+                return false;
+            }
+            if (column.isNaN(i - 1)) {
+                return holds(1);
+            }
+            return holds(Float.compare(column.getFloat(i - 1),
+                    Float.parseFloat(literal)));     // throws
+        }
+    }
+
+    /** Compares two string columns. */
+    private static class StringColumns extends Predicate {
+        private final Column column1, column2;
+
+        StringColumns(int operator, Column column1, Column column2) {
+            super(operator);
+            this.column1 = column1;
+            this.column2 = column2;
+        }
+
+        @Override
+        boolean test(int i) {
+            return holds(column1.get(i - 1).compareTo(column2.get(i - 1)));
+        }
+
+        /**
+         * Compares codes instead of text if both columns share a dictionary
+         * (e.g. a column joined with a copy of itself): "==" and "!=" the
+         * codes themselves, the others their ranks.
+         */
+        @Override
+        int filter(int[] rows, int from, int to) {
+            if (!(column1 instanceof StringColumn)
+                || !(column2 instanceof StringColumn)
+                || !((StringColumn) column1).sharesDictionary(
+                        (StringColumn) column2)) {
+                return super.filter(rows, from, to);
+            }
+            Dictionary dictionary = ((StringColumn) column1).getDictionary();
+            int[] codes1 = ((StringColumn) column1).getCodes();
+            int[] codes2 = ((StringColumn) column2).getCodes();
+            boolean byCode = operator == EQ || operator == NE;
+            if (!byCode && !dictionary.isSorted() && to - from < dictionary.size()) {
+                return super.filter(rows, from, to);
+            }
+            int[] ranks = byCode ? null : dictionary.sorted().ranks;
+            int kept = from;
+            for (int k = from; k < to; k++) {
+                int row = rows[k];
+                int value1 = codes1[row - 1], value2 = codes2[row - 1];
+                boolean passes;
+                if (value1 < 0 || value2 < 0) {     // NOVALUE or NaN
+                    passes = test(row);
+                } else if (byCode) {
+                    passes = (value1 == value2) == (operator == EQ);
+                } else {
+                    passes = holds(Integer.compare(ranks[value1],
+                            ranks[value2]));
+                }
+                if (passes) {
+                    rows[kept] = row;
+                    kept++;
+                }
+            }
+            return kept - from;
+        }
+    }
+
+    /** Compares two int or float columns. */
+    private static class NumberColumns extends Predicate {
+        private final Column column1, column2;
+
+        NumberColumns(int operator, Column column1, Column column2) {
+            super(operator);
+            this.column1 = column1;
+            this.column2 = column2;
+        }
+
+        @Override
+        boolean test(int i) {
+            boolean noValue1 = column1.isNoValue(i - 1);
+            boolean noValue2 = column2.isNoValue(i - 1);
+            if (noValue1 || noValue2) {
+                if (noValue1 && !noValue2 && column2.isNaN(i - 1)) {
+                    return holds(-1);
+                }
+                if (noValue2 && !noValue1 && column1.isNaN(i - 1)) {
+                    return holds(1);
+                }
+                return false;
+            }
+            return holds(Float.compare(column1.getFloat(i - 1),
+                    column2.getFloat(i - 1)));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Predicate class.
+ */
+public class PredicateTest {
+
+    /** Returns the rows of a table that pass a compiled condition. */
+    private static String passing(Table table, String name1, String operator,
+                                  String operand2, boolean operand2IsLiteral) {
+        Predicate predicate = Predicate.compile(table, name1, operator,
+                operand2, operand2IsLiteral);
+        int[] rows = new int[table.getNumRows()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i + 1;
+        }
+        int n = predicate.filter(rows, rows.length);
+        StringBuilder ret = new StringBuilder();
+        for (int k = 0; k < n; k++) {
+            ret.append(rows[k]);
+            assertTrue(predicate.test(rows[k]));
+        }
+        return ret.toString();
+    }
+
+    /** Tests NaN, NOVALUE, and -0.0 in number comparisons. */
+    @Test
+    public void testNumbers() {
+        Table table = new Table(new String[]{"x int", "y float"});
+        table.addRow(new String[]{"1", "1.0"});
+        table.addRow(new String[]{"NaN", "NaN"});
+        table.addRow(new String[]{"NOVALUE", "-0.0"});
+        table.addRow(new String[]{"0", "0.0"});
+        table.addRow(new String[]{"16777217", "NOVALUE"});
+
+        assertEquals("4", passing(table, "x int", "==", "0", true));
+        assertEquals("", passing(table, "x int", "==", "-0", true));
+        assertEquals("25", passing(table, "x int", ">", "5", true));
+        assertEquals("1245", passing(table, "x int", "!=", "-1", true));
+        assertEquals("5", passing(table, "x int", "==", "16777216", true));
+        assertEquals("3", passing(table, "y float", "<", "0.0", true));
+        assertEquals("2", passing(table, "y float", ">=", "1000000.0", true));
+
+        /* NaN equals itself; NOVALUE compares with nothing. */
+        assertEquals("124", passing(table, "x int", "==", "y float", false));
+        assertEquals("", passing(table, "x int", "<", "y float", false));
+
+        /* A literal Float.parseFloat() cannot read fails once a row other
+           than NaN or NOVALUE needs it. */
+        Table special = new Table(new String[]{"x int"});
+        special.addRow(new String[]{"NaN"});
+        special.addRow(new String[]{"NOVALUE"});
+        assertEquals("1", passing(special, "x int", ">", "-", true));
+        try {
+            passing(table, "x int", ">", "-", true);
+            fail();
+        } catch (NumberFormatException e) {
+            /* Expected. */
+        }
+    }
+
+    /** Tests that NaN is greater than NOVALUE, as NaN is checked first. */
+    @Test
+    public void testNoValueAndNaN() {
+        Table table = new Table(new String[]{"x int", "y float"});
+        table.addRow(new String[]{"NOVALUE", "NaN"});
+        table.addRow(new String[]{"NaN", "NOVALUE"});
+        table.addRow(new String[]{"1", "NOVALUE"});
+
+        assertEquals("1", passing(table, "x int", "<", "y float", false));
+        assertEquals("2", passing(table, "x int", ">=", "y float", false));
+        assertEquals("12", passing(table, "x int", "!=", "y float", false));
+        assertEquals("", passing(table, "x int", "==", "y float", false));
+        assertEquals("13", passing(table, "x int", "<", "NaN", true));
+        assertEquals("123", passing(table, "x int", "<=", "NaN", true));
+        assertEquals("13", passing(table, "x int", "!=", "NaN", true));
+        assertEquals("2", passing(table, "x int", "==", "NaN", true));
+        assertEquals("", passing(table, "y float", ">", "NaN", true));
+    }
+
+    /** Tests that strings compare with their quotes. */
+    @Test
+    public void testStrings() {
+        Table table = new Table(new String[]{"s string", "t string"});
+        table.addRow(new String[]{"'ab'", "'ab!'"});
+        table.addRow(new String[]{"'abc'", "'abc'"});
+        table.addRow(new String[]{"NOVALUE", "'a'"});
+
+        /* The closing quote sorts after '!' but before letters, and NOVALUE
+           compares as its text. */
+        assertEquals("123", passing(table, "s string", ">", "'ab!'", true));
+        assertEquals("1", passing(table, "s string", "<", "'abc'", true));
+        assertEquals("13", passing(table, "s string", ">", "t string", false));
+        assertEquals("2", passing(table, "s string", "==", "t string", false));
+    }
+}
@@ -0,0 +1,162 @@
+package db;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * A statement prepared by Database.prepare(): parsed once, then run any
+ * number of times with new values bound to its parameters. Parameters are
+ * numbered from 1 in the order they appear, e.g.
+ *
+ *     PreparedStatement s = db.prepare("insert into t values ?, ?");
+ *     s.setInt(1, 5);
+ *     s.setString(2, "Lee");
+ *     s.execute();
+ *
+ * Running it gives the same result as running the statement with each "?"
+ * replaced by its value written as a literal, except that spaces inside
+ * bound strings are kept as they are.
+ *
+ * A select is also planned only once: its tables are looked up and its
+ * column names and types are checked the first time it runs. The plan is
+ * kept for as long as the same tables are in the database and the
+ * parameters have the same types.
+ *
+ * A prepared statement must not be used by more than one thread at a time.
+ */
+public class PreparedStatement {
+    private final Database db;
+    private final Statement statement;
+    /* Bound values as literals, and their types: "int", "float", "string",
+       or the literal itself for NaN and NOVALUE. null if not bound. */
+    private final String[] parameters;
+    private final String[] types;
+    private SelectPlan plan;
+    private String[] planTypes;
+
+    PreparedStatement(Database db, Statement statement) {
+        this.db = db;
+        this.statement = statement;
+        parameters = new String[statement.numParameters()];
+        types = new String[parameters.length];
+    }
+
+    /** Returns the number of parameters. */
+    public int getParameterCount() {
+        return parameters.length;
+    }
+
+    /** Binds an int to the parameter with the given index. */
+    public void setInt(int index, int value) {
+        bind(index, Integer.toString(value), "int");
+    }
+
+    /**
+     * Binds a float to the parameter with the given index.
+     *
+     * @throws IllegalArgumentException  if value is infinite
+     */
+    public void setFloat(int index, float value) {
+        if (Float.isNaN(value)) {
+            bind(index, "NaN", "NaN");
+            return;
+        }
+        if (Float.isInfinite(value)) {
+            throw new IllegalArgumentException("Not a float literal: "
+                                               + value);
+        }
+        /* Float literals are written without an exponent and always have a
+           decimal point. */
+        String literal = new BigDecimal(Float.toString(value)).toPlainString();
+        if (literal.indexOf('.') == -1) {
+            literal += ".0";
+        }
+        bind(index, literal, "float");
+    }
+
+    /**
+     * Binds a string to the parameter with the given index.
+     *
+     * @throws IllegalArgumentException  if value has a character strings
+     *                                   cannot have: a quote, comma, tab,
+     *                                   or newline
+     */
+    public void setString(int index, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\t' || c == ',' || c == '\'' || c == '"') {
+                throw new IllegalArgumentException("Not a string literal: "
+                                                   + value);
+            }
+        }
+        bind(index, "'" + value + "'", "string");
+    }
+
+    /** Binds NOVALUE to the parameter with the given index. */
+    public void setNoValue(int index) {
+        bind(index, "NOVALUE", "NOVALUE");
+    }
+
+    /** Unbinds every parameter. */
+    public void clearParameters() {
+        Arrays.fill(parameters, null);
+        Arrays.fill(types, null);
+    }
+
+    private void bind(int index, String literal, String type) {
+        if (index < 1 || index > parameters.length) {
+            throw new IndexOutOfBoundsException("Parameter index " + index
+                    + " out of range 1.." + parameters.length);
+        }
+        parameters[index - 1] = literal;
+        types[index - 1] = type;
+    }
+
+    /** Runs the statement and returns its result. */
+    public String execute() {
+        StringWriter out = new StringWriter();
+        try {
+            execute(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // StringWriter never throws
+        }
+        return out.toString();
+    }
+
+    /**
+     * Runs the statement and writes its result to out. Does not flush out.
+     */
+    public void execute(Writer out) throws IOException {
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == null) {
+                out.write("ERROR: No value bound to parameter " + (i + 1)
+                          + ".\n");
+                return;
+            }
+        }
+        if (statement.kind != Statement.Kind.SELECT) {
+            db.execute(statement.bind(parameters), out);
+            return;
+        }
+
+        /* A plan only depends on the tables and the types of the values, so
+           it is kept until one of them changes. */
+        if (plan != null && Arrays.equals(types, planTypes)
+            && db.isCurrent(plan)) {
+            plan = plan.bind(parameters);
+        } else {
+            Statement bound = statement.bind(parameters);
+            plan = db.planSelect(bound.select);
+            planTypes = types.clone();
+            if (plan == null) {
+                db.execute(bound, out);     // reports the missing table
+                return;
+            }
+        }
+        out.write(db.select(plan, out));
+    }
+}
@@ -0,0 +1,136 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the PreparedStatement class.
+ */
+public class PreparedStatementTest {
+
+    private static Database teams() {
+        Database db = new Database();
+        db.transact("create table t (Name string, Wins int, Rate float)");
+        db.transact("insert into t values 'Lee',10,.5");
+        db.transact("insert into t values 'Kim',3,NaN");
+        db.transact("insert into t values 'Park',7,2.25");
+        return db;
+    }
+
+    /** Tests that bound values give the same results as literals. */
+    @Test
+    public void testSelect() {
+        Database db = teams();
+        PreparedStatement s = db.prepare("select Name, Wins, Wins + ? as W"
+                                         + " from t where Wins > ? and"
+                                         + " Name != ?");
+        assertEquals(3, s.getParameterCount());
+        for (int wins = 0; wins < 12; wins++) {
+            s.setInt(1, 100);
+            s.setInt(2, wins);
+            s.setString(3, "Park");
+            String expected = db.transact("select Name, Wins, Wins + 100"
+                    + " as W from t where Wins > " + wins
+                    + " and Name != 'Park'");
+            assertFalse(expected.startsWith("ERROR"));
+            assertEquals(expected, s.execute());
+        }
+
+        s = db.prepare("select Name,Rate from t where Rate < ?");
+        s.setFloat(1, 1f);
+        assertEquals("Name string,Rate float\n'Lee',.500\n", s.execute());
+        s.setFloat(1, 1e10f);
+        assertEquals("Name string,Rate float\n'Lee',.500\n'Park',2.250\n",
+                s.execute());
+    }
+
+    /** Tests that a plan is made again when the tables or types change. */
+    @Test
+    public void testReplan() {
+        Database db = teams();
+        PreparedStatement s = db.prepare("select Name,Wins from t"
+                                         + " where Wins == ?");
+        s.setInt(1, 3);
+        assertEquals("Name string,Wins int\n'Kim',3\n", s.execute());
+
+        /* A string cannot be compared to an int. */
+        s.setString(1, "3");
+        assertEquals("ERROR: Malformed conditions.\n", s.execute());
+
+        db.transact("drop table t");
+        s.setInt(1, 3);
+        assertEquals("ERROR: No such table: t\n", s.execute());
+
+        db.transact("create table t (Name string, Wins string)");
+        db.transact("insert into t values 'Cho','3'");
+        s.setString(1, "3");
+        assertEquals("Name string,Wins string\n'Cho','3'\n", s.execute());
+    }
+
+    /** Tests inserts and statements without parameters. */
+    @Test
+    public void testInsert() {
+        Database db = teams();
+        PreparedStatement s = db.prepare("insert into t values ?,?, ?");
+        assertEquals(3, s.getParameterCount());
+        s.setString(1, "A  b");
+        s.setInt(2, -4);
+        s.setNoValue(3);
+        assertEquals("", s.execute());
+        s.setFloat(3, Float.NaN);
+        assertEquals("", s.execute());
+        s.setInt(3, 5);
+        assertEquals("ERROR: Row format does not match the table's! (b)\n",
+                s.execute());
+
+        s = db.prepare("select Name,Wins,Rate from t where Wins < 0");
+        assertEquals(0, s.getParameterCount());
+        assertEquals("Name string,Wins int,Rate float\n"
+                     + "'A  b',-4,NOVALUE\n'A  b',-4,NaN\n",
+                s.execute());
+
+        s = db.prepare("insert into t values ('Ko',?,1.5),(?,-7,?)");
+        assertEquals(3, s.getParameterCount());
+        s.setInt(1, -6);
+        s.setString(2, "Yoo");
+        s.setFloat(3, 2.5f);
+        assertEquals("", s.execute());
+        assertEquals("Name string,Wins int,Rate float\n'A  b',-4,NOVALUE\n"
+                     + "'A  b',-4,NaN\n'Ko',-6,1.500\n'Yoo',-7,2.500\n",
+                db.transact("select Name,Wins,Rate from t where Wins < 0"));
+    }
+
+    /** Tests binding errors. */
+    @Test
+    public void testErrors() {
+        Database db = teams();
+        PreparedStatement s = db.prepare("select Name from t where Wins > ?");
+        assertEquals("ERROR: No value bound to parameter 1.\n", s.execute());
+        s.setInt(1, 5);
+        s.clearParameters();
+        assertEquals("ERROR: No value bound to parameter 1.\n", s.execute());
+
+        try {
+            s.setInt(2, 5);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            /* Expected. */
+        }
+        try {
+            s.setString(1, "a,b");
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* Expected. */
+        }
+        try {
+            s.setFloat(1, Float.POSITIVE_INFINITY);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* Expected. */
+        }
+
+        /* Outside prepared statements, "?" is not a parameter. */
+        assertEquals("Malformed select: Name from t where Wins > ?\n",
+                db.transact("select Name from t where Wins > ?"));
+    }
+}
@@ -0,0 +1,197 @@
+package db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The messages a Client and a Server exchange over a connection.
+ *
+ * A request is one byte for its kind, followed by its arguments:
+ *
+ *     QUERY       text        run a statement
+ *     PREPARE     text        prepare a statement for this connection
+ *     EXECUTE     id, count,  run a prepared statement, with count values
+ *                 values      bound to its parameters in order: each a kind
+ *                             (INT, FLOAT, STRING, or NO_VALUE) and, except
+ *                             for NO_VALUE, its text
+ *     CLOSE       id          forget a prepared statement
+ *     QUIT                    end the connection
+ *
+ * The server answers every request but QUIT with the text of its result, cut
+ * into DATA chunks that are sent as the result is produced, followed by END
+ * and an int: the id of the statement for PREPARE, 0 otherwise. An error is
+ * a result like any other ("ERROR: ...").
+ *
+ * Ints are big-endian (DataOutputStream), and text is an int length followed
+ * by that many bytes of UTF-8.
+ */
+final class Protocol {
+    /* Kinds of requests. */
+    static final byte QUERY = 'Q', PREPARE = 'P', EXECUTE = 'E', CLOSE = 'C',
+                      QUIT = 'X';
+    /* Kinds of values bound to parameters. */
+    static final byte INT = 'i', FLOAT = 'f', STRING = 's', NO_VALUE = 'n';
+    /* Kinds of responses. */
+    static final byte DATA = 'D', END = 'Z';
+
+    /** Largest DATA chunk, and largest text accepted, in bytes. */
+    static final int CHUNK_SIZE = 1 << 16;
+    static final int MAX_TEXT = 1 << 28;
+    /** Most values an EXECUTE request may bind. */
+    static final int MAX_PARAMETERS = 1 << 16;
+
+    private Protocol() {
+    }
+
+    /** Writes text: its length in UTF-8 bytes, then the bytes. */
+    static void writeText(DataOutputStream out, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads text written by writeText(). */
+    static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_TEXT) {
+            throw new IOException("Bad text length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A stream of result bytes that goes out in DATA chunks of up to
+     * CHUNK_SIZE bytes. end() sends the rest and the END of the response.
+     */
+    static class ChunkOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        ChunkOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                sendChunk();
+            }
+            buffer[count] = (byte) b;
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    sendChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Sends the buffered bytes as a DATA chunk, if there are any. */
+        private void sendChunk() throws IOException {
+            if (count > 0) {
+                out.writeByte(DATA);
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        /** Ends the response, with the given value after END. */
+        void end(int value) throws IOException {
+            sendChunk();
+            out.writeByte(END);
+            out.writeInt(value);
+            out.flush();
+        }
+    }
+
+    /**
+     * The result bytes of one response, read from its DATA chunks. finish()
+     * reads up to the END of the response.
+     */
+    static class ChunkInputStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;      // bytes left in the current chunk
+        private boolean ended;
+        private int value;
+
+        ChunkInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        /** Makes sure a chunk has bytes left, unless the response ended. */
+        private void nextChunk() throws IOException {
+            while (remaining == 0 && !ended) {
+                byte kind = in.readByte();
+                if (kind == DATA) {
+                    remaining = in.readInt();
+                    if (remaining <= 0 || remaining > CHUNK_SIZE) {
+                        throw new IOException("Bad chunk length: "
+                                              + remaining);
+                    }
+                } else if (kind == END) {
+                    value = in.readInt();
+                    ended = true;
+                } else {
+                    throw new IOException("Bad response: " + kind);
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            nextChunk();
+            if (ended) {
+                return -1;
+            }
+            remaining--;
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            nextChunk();
+            if (ended) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            remaining -= n;
+            return n;
+        }
+
+        /** Reads the rest of the response, and returns the value after END. */
+        int finish() throws IOException {
+            while (!ended) {
+                while (remaining > 0) {
+                    in.readByte();      // throws at the end of the stream
+                    remaining -= 1 + in.skipBytes(remaining - 1);
+                }
+                nextChunk();
+            }
+            return value;
+        }
+    }
+}
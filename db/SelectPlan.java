@@ -0,0 +1,97 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * A small logical plan for a select. It records at which point each
+ * condition of the where clause is applied:
+ *
+ *     each table (filtered by its pushed conditions)
+ *         --> join
+ *         --> join conditions (base columns from more than one table)
+ *         --> column expressions
+ *         --> projected conditions (computed columns)
+ *
+ * Results are the same as applying every condition after the column
+ * expressions, which is what the plan falls back to if any condition is
+ * malformed (so that errors are reported exactly as before).
+ *
+ * A plan only depends on the tables' columns and on the types of literals,
+ * so a prepared statement keeps its plan and binds new parameters to it.
+ */
+class SelectPlan {
+    /**
+     * A condition whose column names are resolved against the table it is
+     * applied to, e.g. "Lastname string", "<=", "'Lee'".
+     */
+    static class Condition {
+        final String name1;
+        final String operator;
+        final String operand2;          // column name or literal
+        final boolean operand2IsLiteral;
+        final int parameter;    // index of the parameter in operand2, or -1
+
+        Condition(String name1, String operator, String operand2,
+                  boolean operand2IsLiteral, int parameter) {
+            this.name1 = name1;
+            this.operator = operator;
+            this.operand2 = operand2;
+            this.operand2IsLiteral = operand2IsLiteral;
+            this.parameter = parameter;
+        }
+
+        /** Returns a copy with its parameter, if any, bound to a value. */
+        Condition bind(String[] values) {
+            if (parameter == -1) {
+                return this;
+            }
+            return new Condition(name1, operator, values[parameter], true,
+                    parameter);
+        }
+    }
+
+    final Table[] tables;
+    final Statement.Select select;
+    /* pushedConditions.get(i) are applied to tables[i] before the join. */
+    final ArrayList<ArrayList<Condition>> pushedConditions = new ArrayList<>();
+    final ArrayList<Condition> joinConditions = new ArrayList<>();
+    /* Unresolved conditions, applied to the table of column expressions. */
+    final ArrayList<Statement.Condition> projectedConditions = new ArrayList<>();
+
+    SelectPlan(Table[] tables, Statement.Select select) {
+        this.tables = tables;
+        this.select = select;
+        for (int i = 0; i < tables.length; i++) {
+            pushedConditions.add(new ArrayList<Condition>());
+        }
+    }
+
+    /** Moves every condition back after the column expressions. */
+    void applyAllAfterExprs(Statement.Condition[] conditions) {
+        for (ArrayList<Condition> conds : pushedConditions) {
+            conds.clear();
+        }
+        joinConditions.clear();
+        projectedConditions.clear();
+        for (Statement.Condition cond : conditions) {
+            projectedConditions.add(cond);
+        }
+    }
+
+    /** Returns a copy of the plan with its parameters bound to values. */
+    SelectPlan bind(String[] values) {
+        SelectPlan ret = new SelectPlan(tables, select.bind(values));
+        for (int i = 0; i < tables.length; i++) {
+            for (Condition cond : pushedConditions.get(i)) {
+                ret.pushedConditions.get(i).add(cond.bind(values));
+            }
+        }
+        for (Condition cond : joinConditions) {
+            ret.joinConditions.add(cond.bind(values));
+        }
+        for (Statement.Condition cond : projectedConditions) {
+            ret.projectedConditions.add(cond.bind(values));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,125 @@
+package db;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves one Database to any number of clients at once over local socket
+ * connections (see Client and Protocol), so that they all share its tables
+ * instead of each loading its own copy, e.g.
+ *
+ *     Server server = new Server(new Database(), 5433);
+ *     server.start();
+ *
+ * Each connection is a Session, served on a thread of its own from a pool.
+ * The server only listens on the loopback address.
+ */
+public class Server {
+    private final Database db;
+    private final int port;
+    private ServerSocketChannel channel;
+    private final ExecutorService pool;
+    private final HashSet<Session> sessions = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * Creates a server for a database on the given port, or on any free port
+     * if it is 0 (see getPort()).
+     */
+    public Server(Database db, int port) {
+        this.db = db;
+        this.port = port;
+        pool = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task,
+                        "db-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts listening, and accepts connections on a thread of its own until
+     * close() is called.
+     *
+     * @throws IOException  if the port can't be listened on
+     */
+    public void start() throws IOException {
+        channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                port));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "db-server");
+        acceptor.start();
+    }
+
+    /** Returns the port the server listens on, once started. */
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /** Accepts connections and starts a session for each one. */
+    private void accept() {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;     // close() was called
+            } catch (IOException e) {
+                continue;   // e.g. a client that gave up while connecting
+            }
+            Session session = new Session(this, db, client);
+            synchronized (this) {
+                if (closed) {
+                    session.close();
+                    return;
+                }
+                sessions.add(session);
+            }
+            pool.execute(session);
+        }
+    }
+
+    /** Forgets a session that ended. */
+    synchronized void ended(Session session) {
+        sessions.remove(session);
+    }
+
+    /** Returns the number of connected clients. */
+    public synchronized int getNumSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Stops accepting connections and closes the ones that are open. A
+     * statement that is running is cut off when it writes its result.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            for (Session session : sessions) {
+                session.close();
+            }
+        }
+        channel.close();
+        pool.shutdown();
+    }
+}
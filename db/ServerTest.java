@@ -0,0 +1,170 @@
+package db;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Server, Session and Client classes over loopback connections.
+ */
+public class ServerTest {
+    private Database db;
+    private Server server;
+
+    @Before
+    public void setUp() throws IOException {
+        db = new Database();
+        server = new Server(db, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /** Tests that each connection has prepared statements of its own. */
+    @Test
+    public void testSessions() throws IOException {
+        try (Client c1 = new Client(server.getPort());
+             Client c2 = new Client(server.getPort())) {
+            assertEquals("", c1.transact("create table t (x int, y string)"));
+            int insert = c1.prepare("insert into t values ?, ?");
+            assertEquals(1, insert);
+            assertEquals("", c1.execute(insert, 1, "a b"));
+            assertEquals("", c1.execute(insert, 2, null));
+            assertEquals("x int,y string\n1,'a b'\n2,NOVALUE\n",
+                    c2.transact("print t"));
+
+            /* c2 has no statement 1 until it prepares one. */
+            assertEquals("ERROR: No such prepared statement: 1\n",
+                    c2.execute(1, 3, "c"));
+            int select = c2.prepare("select x, y from t where x > ?");
+            assertEquals(1, select);
+            assertEquals("x int,y string\n1,'a b'\n2,NOVALUE\n",
+                    c2.execute(select, 0));
+            assertEquals("x int,y string\n2,NOVALUE\n",
+                    c2.execute(select, 1.5f));
+
+            /* Errors are results; the session goes on. */
+            assertTrue(c1.execute(insert, 3, "it's").startsWith("ERROR: "));
+            assertTrue(c1.execute(insert, 3).startsWith("ERROR: "));
+            assertTrue(c1.transact("select z from t").startsWith("ERROR: "));
+            c1.closeStatement(insert);
+            assertTrue(c1.execute(insert, 3, "c").startsWith("ERROR: "));
+            assertEquals("x int,y string\n1,'a b'\n2,NOVALUE\n",
+                    c1.transact("print t"));
+        }
+    }
+
+    /**
+     * Tests that a request binding too many values ends its session, not
+     * the server.
+     */
+    @Test
+    public void testTooManyValues() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.getPort())) {
+            DataOutputStream out = new DataOutputStream(
+                    socket.getOutputStream());
+            out.writeByte(Protocol.EXECUTE);
+            out.writeInt(1);
+            out.writeInt(Integer.MAX_VALUE);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        try (Client client = new Client(server.getPort())) {
+            assertEquals("", client.transact("create table t (x int)"));
+            try {
+                client.execute(1, new Object[Protocol.MAX_PARAMETERS + 1]);
+                fail();
+            } catch (IllegalArgumentException e) {
+                /* Expected. */
+            }
+            assertEquals("x int\n", client.transact("print t"));
+        }
+    }
+
+    /** Tests that a result larger than a chunk arrives whole. */
+    @Test
+    public void testStreaming() throws IOException {
+        db.transact("create table t (x int, y string)");
+        for (int i = 0; i < 20000; i++) {
+            db.transact("insert into t values " + i + ",'row \u00e9 " + i
+                        + "'");
+        }
+        String expected = db.transact("print t");
+        assertTrue(expected.length() > 4 * Protocol.CHUNK_SIZE);
+        try (Client client = new Client(server.getPort())) {
+            StringWriter out = new StringWriter();
+            client.transact("print t", out);
+            assertEquals(expected, out.toString());
+            assertEquals(db.transact("select x from t where x < 10"),
+                    client.transact("select x from t where x < 10"));
+        }
+    }
+
+    /**
+     * Runs many clients at once, each writing a table of its own and reading
+     * a shared one, and checks every result.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        final int numClients = 16;
+        final int numRounds = 200;
+        db.transact("create table shared (k int, v string)");
+        for (int i = 0; i < 100; i++) {
+            db.transact("insert into shared values " + i + ",'v" + i % 7
+                        + "'");
+        }
+        final String sharedQuery = "select k, v from shared where v == 'v3'";
+        final String sharedResult = db.transact(sharedQuery);
+        assertTrue(sharedResult.startsWith("k int,v string\n3,'v3'\n"));
+
+        ExecutorService clients = Executors.newFixedThreadPool(numClients);
+        ArrayList<Future<Void>> done = new ArrayList<>();
+        for (int c = 0; c < numClients; c++) {
+            final String name = "t" + c;
+            done.add(clients.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try (Client client = new Client(server.getPort())) {
+                        client.transact("create table " + name + " (n int)");
+                        int insert = client.prepare("insert into " + name
+                                                    + " values ?");
+                        StringBuilder expected = new StringBuilder("n int\n");
+                        for (int r = 0; r < numRounds; r++) {
+                            assertEquals("", client.execute(insert, r));
+                            expected.append(r).append('\n');
+                            assertEquals(sharedResult,
+                                    client.transact(sharedQuery));
+                        }
+                        assertEquals(expected.toString(),
+                                client.transact("print " + name));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : done) {
+            future.get();
+        }
+        clients.shutdown();
+        for (int c = 0; c < numClients; c++) {
+            assertEquals(numRounds + 1,
+                    db.transact("print t" + c).split("\n").length);
+        }
+    }
+}
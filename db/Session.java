@@ -0,0 +1,177 @@
+package db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * One client connection to a Server: reads its requests one at a time, runs
+ * them against the server's Database, and streams back the results (see
+ * Protocol). The statements a client prepares belong to its session, and
+ * are dropped when it ends.
+ *
+ * Sessions run their statements on the database at the same time; the
+ * database keeps them apart (see Database).
+ */
+class Session implements Runnable {
+    private final Server server;
+    private final Database db;
+    private final SocketChannel channel;
+    private final HashMap<Integer, PreparedStatement> prepared =
+            new HashMap<>();
+    private int nextId = 1;
+
+    Session(Server server, Database db, SocketChannel channel) {
+        this.server = server;
+        this.db = db;
+        this.channel = channel;
+    }
+
+    /** Serves requests until the client quits or the connection drops. */
+    @Override
+    public void run() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            while (serve(in, out)) {
+                continue;
+            }
+        } catch (EOFException e) {
+            return;     // the client went away
+        } catch (IOException e) {
+            return;     // e.g. a malformed request, or the server closed
+        } finally {
+            close();
+            server.ended(this);
+        }
+    }
+
+    /**
+     * Serves one request.
+     *
+     * @return  false   if the client quit
+     *          true    otherwise
+     */
+    private boolean serve(DataInputStream in, DataOutputStream out)
+            throws IOException {
+        byte kind = in.readByte();
+        Protocol.ChunkOutputStream chunks =
+                new Protocol.ChunkOutputStream(out);
+        Writer result = new OutputStreamWriter(chunks, StandardCharsets.UTF_8);
+        int value = 0;
+        switch (kind) {
+            case Protocol.QUERY:
+                String query = Protocol.readText(in);
+                run(query, null, null, null, result);
+                break;
+            case Protocol.PREPARE:
+                String text = Protocol.readText(in);
+                prepared.put(nextId, db.prepare(text));
+                value = nextId;
+                nextId++;
+                break;
+            case Protocol.EXECUTE:
+                int id = in.readInt();
+                int count = in.readInt();
+                if (count < 0 || count > Protocol.MAX_PARAMETERS) {
+                    throw new IOException("Bad parameter count: " + count);
+                }
+                byte[] kinds = new byte[count];
+                String[] values = new String[count];
+                for (int i = 0; i < count; i++) {
+                    kinds[i] = in.readByte();
+                    if (kinds[i] != Protocol.NO_VALUE) {
+                        values[i] = Protocol.readText(in);
+                    }
+                }
+                PreparedStatement statement = prepared.get(id);
+                if (statement == null) {
+                    result.write("ERROR: No such prepared statement: " + id
+                                 + "\n");
+                    break;
+                }
+                run(null, statement, kinds, values, result);
+                break;
+            case Protocol.CLOSE:
+                prepared.remove(in.readInt());
+                break;
+            case Protocol.QUIT:
+                return false;
+            default:
+                throw new IOException("Bad request: " + kind);
+        }
+        result.flush();
+        chunks.end(value);
+        return true;
+    }
+
+    /**
+     * Runs a statement, or a prepared statement with values bound to its
+     * parameters, and writes its result. A statement that fails (or a value
+     * that can't be bound) reports the failure as an error instead of ending
+     * the session.
+     */
+    private void run(String query, PreparedStatement statement, byte[] kinds,
+                     String[] values, Writer out) throws IOException {
+        try {
+            if (statement == null) {
+                db.transact(query, out);
+                return;
+            }
+            statement.clearParameters();
+            for (int i = 0; i < kinds.length; i++) {
+                bind(statement, i + 1, kinds[i], values[i]);
+            }
+            statement.execute(out);
+        } catch (RuntimeException e) {
+            String message = e.getMessage();
+            out.write("ERROR: " + (message != null ? message : e) + "\n");
+        }
+    }
+
+    /**
+     * Binds a value sent by the client to a parameter.
+     *
+     * @throws IllegalArgumentException  if the value is not of its kind
+     */
+    private static void bind(PreparedStatement statement, int index,
+                             byte kind, String value) {
+        switch (kind) {
+            case Protocol.INT:
+                statement.setInt(index, Integer.parseInt(value));
+                break;
+            case Protocol.FLOAT:
+                statement.setFloat(index, Float.parseFloat(value));
+                break;
+            case Protocol.STRING:
+                statement.setString(index, value);
+                break;
+            case Protocol.NO_VALUE:
+                statement.setNoValue(index);
+                break;
+            default:
+                throw new IllegalArgumentException("Bad value kind: " + kind);
+        }
+    }
+
+    /** Closes the connection, e.g. when the server shuts down. */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            return;     // nothing more to do with it
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * An index that keeps the values of its column in order ("using btree"), in
+ * a balanced search tree from each value to its rows. It looks up "==", "<",
+ * "<=", ">", and ">=", and turns several of them on the column into one scan
+ * of the range of values that passes them all.
+ *
+ * Values are ordered the way conditions compare them:
+ *
+ *     strings     by their text, quotes included (NOVALUE as "NOVALUE")
+ *     numbers     by Float.compare(): NaN is greater than every other
+ *                 value, and -0.0 is less than 0.0. NOVALUE passes no
+ *                 comparison, so its rows are left out.
+ */
+class SortedIndex extends Index {
+    /** Orders keys, which are all Strings or all Floats. */
+    private static final Comparator<Object> ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object key1, Object key2) {
+            if (key1 instanceof Float) {
+                return Float.compare((Float) key1, (Float) key2);
+            }
+            return ((String) key1).compareTo((String) key2);
+        }
+    };
+
+    private final TreeMap<Object, Postings> tree = new TreeMap<>(ORDER);
+
+    SortedIndex(Column column) {
+        super(column);
+    }
+
+    @Override
+    String type() {
+        return "btree";
+    }
+
+    @Override
+    protected void add(int i) {
+        Object key;
+        if (isString) {
+            key = column.get(i);
+        } else if (column.isNoValue(i)) {
+            return;
+        } else {
+            key = column.getFloat(i);
+        }
+        Postings rows = tree.get(key);
+        if (rows == null) {
+            rows = new Postings();
+            tree.put(key, rows);
+        }
+        rows.add(i + 1);
+    }
+
+    @Override
+    boolean supports(int operator) {
+        return operator != Predicate.NE;
+    }
+
+    @Override
+    synchronized int[] lookup(int[] operators, String[] literals, int n) {
+        /* Narrow [low, high] down with each comparison; null is unbounded. */
+        Object low = null, high = null;
+        boolean lowInclusive = true, highInclusive = true;
+        for (int k = 0; k < n; k++) {
+            Object value = literals[k];
+            if (!isString) {
+                value = parseNumber(literals[k]);
+                if (value == null) {
+                    return null;
+                }
+            }
+            int operator = operators[k];
+            if (operator == Predicate.EQ || operator == Predicate.GT
+                || operator == Predicate.GE) {
+                boolean inclusive = operator != Predicate.GT;
+                int cmp = low == null ? 1 : ORDER.compare(value, low);
+                if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                    low = value;
+                    lowInclusive = inclusive;
+                }
+            }
+            if (operator == Predicate.EQ || operator == Predicate.LT
+                || operator == Predicate.LE) {
+                boolean inclusive = operator != Predicate.LT;
+                int cmp = high == null ? -1 : ORDER.compare(value, high);
+                if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                    high = value;
+                    highInclusive = inclusive;
+                }
+            }
+        }
+
+        NavigableMap<Object, Postings> range = tree;
+        if (low != null && high != null) {
+            int cmp = ORDER.compare(low, high);
+            if (cmp > 0 || (cmp == 0 && !(lowInclusive && highInclusive))) {
+                return new int[0];
+            }
+            range = tree.subMap(low, lowInclusive, high, highInclusive);
+        } else if (low != null) {
+            range = tree.tailMap(low, lowInclusive);
+        } else if (high != null) {
+            range = tree.headMap(high, highInclusive);
+        }
+        return rowsInOrder(range);
+    }
+
+    /**
+     * Returns the rows (numbered from 1) up to row numRows in the order of
+     * their values, and the rows of each value in ascending order. Rows of
+     * numbers that hold NOVALUE are left out.
+     */
+    synchronized int[] rowsByValue(int numRows) {
+        int[] ret = new int[numRows];
+        int k = 0;
+        for (Postings rows : tree.values()) {
+            for (int m = 0; m < rows.size && rows.rows[m] <= numRows; m++) {
+                ret[k] = rows.rows[m];
+                k++;
+            }
+        }
+        return Arrays.copyOf(ret, k);
+    }
+
+    /** Returns the rows under every key of a range, in ascending order. */
+    private static int[] rowsInOrder(
+            NavigableMap<Object, Postings> range) {
+        int size = 0, maxRow = 0;
+        for (Postings rows : range.values()) {
+            size += rows.size;
+            maxRow = Math.max(maxRow, rows.rows[rows.size - 1]);
+        }
+        int[] ret = new int[size];
+
+        /* Sort a few rows; mark many in a bitmap and read them back. */
+        if (size < maxRow / 32) {
+            int k = 0;
+            for (Postings rows : range.values()) {
+                System.arraycopy(rows.rows, 0, ret, k, rows.size);
+                k += rows.size;
+            }
+            Arrays.sort(ret);
+            return ret;
+        }
+        BitSet marked = new BitSet(maxRow + 1);
+        for (Postings rows : range.values()) {
+            for (int m = 0; m < rows.size; m++) {
+                marked.set(rows.rows[m]);
+            }
+        }
+        int k = 0;
+        for (int row = marked.nextSetBit(0); row >= 0;
+             row = marked.nextSetBit(row + 1)) {
+            ret[k] = row;
+            k++;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,77 @@
+package db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the SortedIndex class.
+ */
+public class SortedIndexTest {
+
+    /** Creates a table with every kind of value in each column. */
+    private static Database seasons() {
+        Database db = new Database();
+        db.transact("create table s (Team string, Season int, Ratio float)");
+        String[] rows = {"'A',2015,0.500", "'B',2013,NaN", "NOVALUE,NaN,-0.0",
+                         "'a',2014,0.0", "'C',NOVALUE,NOVALUE", "'',2016,-1.250",
+                         "'B',2013,0.500", "NaN,007,3.000"};
+        for (String row : rows) {
+            db.transact("insert into s values " + row);
+        }
+        return db;
+    }
+
+    /** Tests that range conditions give the same rows with an index. */
+    @Test
+    public void testRanges() {
+        String[] queries = {
+            "select * from s where Season >= 2013 and Season <= 2015",
+            "select * from s where Season > 2013 and Season < 2013",
+            "select * from s where Season > 2014",
+            "select * from s where Season >= 2014 and Season > 2014",
+            "select * from s where Season < 10 and Team != 'B'",
+            "select * from s where Season == 2013 and Season <= 2013",
+            "select * from s where Season == 7.0",
+            "select * from s where Ratio < 0.0",
+            "select * from s where Ratio >= -0.0 and Ratio <= 0.5",
+            "select * from s where Ratio > 1.0",
+            "select * from s where Team < 'B'",
+            "select * from s where Team >= 'C' and Team <= 'a'",
+            "select * from s where Team == 'B'",
+            "select * from s where Team != 'B'",
+            "select Team, Season + 1 as Next from s where Season > 2013",
+        };
+        Database plain = seasons();
+        Database indexed = seasons();
+        for (String column : new String[]{"Team", "Season", "Ratio"}) {
+            assertEquals("", indexed.transact("create index on s (" + column
+                                              + ") using btree"));
+        }
+        indexed.transact("insert into s values 'D',2014,NaN");
+        plain.transact("insert into s values 'D',2014,NaN");
+        for (String query : queries) {
+            assertEquals(query, plain.transact(query), indexed.transact(query));
+        }
+        assertEquals("Team string,Season int,Ratio float\n"
+                     + "'A',2015,0.500\n'B',2013,NaN\n'a',2014,0.000\n"
+                     + "'B',2013,0.500\n'D',2014,NaN\n",
+                indexed.transact("select * from s"
+                                 + " where Season >= 2013 and Season <= 2015"));
+    }
+
+    /** Tests that NaN is greater than every value, and NOVALUE is left out. */
+    @Test
+    public void testOrder() {
+        Database db = seasons();
+        db.transact("create index on s (Season) using btree");
+        Table table = db.catalog.get("s");
+        Index index = table.getIndex("Season int");
+        assertEquals("btree", index.type());
+        assertArrayEquals(new int[]{3},
+                index.lookup(new int[]{Predicate.GT}, new String[]{"2016"}, 1));
+        assertArrayEquals(new int[]{8},
+                index.lookup(new int[]{Predicate.LT, Predicate.GE},
+                             new String[]{"2013", "-5"}, 2));
+        assertNull(index.lookup(new int[]{Predicate.LT}, new String[]{"-"}, 1));
+    }
+}
@@ -0,0 +1,71 @@
+package db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * The temporary files of one statement that has more rows to keep than fit
+ * its memory budget (see Database.setMemoryBudget()): tables, written in the
+ * binary table file format (see BinaryTableFile), and text (see
+ * SpillWriter). The files are made in a spill directory, and deleted as
+ * they are read back, or by close() at the latest, so a statement that
+ * fails leaves none behind.
+ */
+class Spill implements Closeable {
+    private final File directory;
+    private final ArrayList<File> files = new ArrayList<>();
+
+    /** Creates a spill that makes its files in a directory. */
+    Spill(File directory) {
+        this.directory = directory;
+    }
+
+    /** Returns a new, empty file, which close() deletes. */
+    File newFile() throws IOException {
+        File file = File.createTempFile("spill", ".tmp", directory);
+        file.deleteOnExit();
+        files.add(file);
+        return file;
+    }
+
+    /** Writes a table to a new file, and returns the file. */
+    File write(Table table) throws IOException {
+        File file = newFile();
+        BinaryTableFile.write(table, file);
+        return file;
+    }
+
+    /** Reads back a table that write() wrote to a file, and deletes it. */
+    Table read(File file) throws IOException {
+        Table ret;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ret = BinaryTableFile.read(channel, null);
+        }
+        delete(file);
+        if (ret == null) {
+            throw new IOException("Corrupted spill file: " + file);
+        }
+        return ret;
+    }
+
+    /** Deletes one of the files. */
+    void delete(File file) {
+        if (files.remove(file)) {
+            file.delete();
+        }
+    }
+
+    /** Deletes every file that is left. */
+    @Override
+    public void close() {
+        for (File file : files) {
+            file.delete();
+        }
+        files.clear();
+    }
+}
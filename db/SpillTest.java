@@ -0,0 +1,127 @@
+package db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that statements over their memory budget spill to files, give the
+ * same results as when they fit, and leave no files behind.
+ */
+public class SpillTest {
+    /** Returns a database with tables to join, that spills to directory. */
+    private static Database database(File directory, long budget,
+                                     boolean nestedLoopOrder) {
+        Database db = new Database();
+        db.setSpillDirectory(directory);
+        db.setMemoryBudget(budget);
+        db.setNestedLoopOrder(nestedLoopOrder);
+        db.transact("create table t (k int, x float, s string)");
+        db.transact("create table u (s string, w int)");
+        db.transact("create table v (k int, y int)");
+        for (int i = 0; i < 500; i++) {
+            db.transact("insert into t values " + (i % 101 == 0 ? "NOVALUE"
+                        : Integer.toString(i % 37)) + "," + (i % 7) + ".5,'s"
+                        + i % 13 + "'");
+        }
+        for (int i = 0; i < 40; i++) {
+            db.transact("insert into u values 's" + i % 20 + "'," + i);
+            db.transact("insert into v values " + i % 30 + "," + i);
+        }
+        return db;
+    }
+
+    /** Returns the lines of a result, sorted. */
+    private static String[] sortedLines(String result) {
+        String[] ret = result.split("\n");
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    @Test
+    public void testSpillWriter() throws IOException {
+        File directory = Files.createTempDirectory("spill").toFile();
+        try (Spill spill = new Spill(directory)) {
+            SpillWriter out = new SpillWriter(spill, 10);
+            out.append("short");
+            assertFalse(out.isSpilled());
+            out.append(" and then longer\n");
+            assertTrue(out.isSpilled());
+            out.write("\u00e9\n".toCharArray(), 0, 2);
+            assertEquals(1, directory.listFiles().length);
+
+            StringWriter copy = new StringWriter();
+            out.writeTo(copy);
+            assertEquals("short and then longer\n\u00e9\n", copy.toString());
+            try (Reader in = out.reader()) {
+                assertEquals('s', in.read());
+            }
+        }
+        assertEquals(0, directory.listFiles().length);
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testSpillTable() throws IOException {
+        File directory = Files.createTempDirectory("spill").toFile();
+        Table t = new Table(new String[]{"k int", "s string"});
+        t.addRow(new String[]{"NOVALUE", "'a'"});
+        t.addRow(new String[]{"007", "'b'"});
+        try (Spill spill = new Spill(directory)) {
+            File file = spill.write(t);
+            assertEquals(t.toString(), spill.read(file).toString());
+            assertFalse(file.exists());
+            spill.write(t);
+        }
+        assertEquals(0, directory.listFiles().length);
+        assertTrue(directory.delete());
+    }
+
+    /**
+     * Tests selects over their budget, run a partition at a time, in
+     * nested-loop order (partitioned by rows) and not (by value).
+     */
+    @Test
+    public void testPartitionedSelect() throws IOException {
+        File directory = Files.createTempDirectory("spill").toFile();
+        String[] queries = {
+            "select * from t, u",
+            "select k, w, y from t, u, v where w < 30 and x > 2",
+            "select k + y as z, s from t, v where z > 10",
+            "select * from u, v",
+            "select k, w from t, u where k == w",
+            "select k from t, u where q > 1",
+        };
+        for (boolean nestedLoopOrder : new boolean[]{true, false}) {
+            Database whole = database(directory, Long.MAX_VALUE,
+                                      nestedLoopOrder);
+            Database partitioned = database(directory, 1000,
+                                            nestedLoopOrder);
+            for (String query : queries) {
+                String expected = whole.transact(query);
+                String result = partitioned.transact(query);
+                if (nestedLoopOrder) {
+                    assertEquals(query, expected, result);
+                } else {
+                    assertArrayEquals(query, sortedLines(expected),
+                                      sortedLines(result));
+                }
+                assertEquals(0, directory.listFiles().length);
+            }
+
+            partitioned.transact("create table r as select k, s, w "
+                                 + "from t, u");
+            whole.transact("create table r as select k, s, w from t, u");
+            assertArrayEquals(sortedLines(whole.transact("print r")),
+                              sortedLines(partitioned.transact("print r")));
+            assertEquals(0, directory.listFiles().length);
+        }
+        assertTrue(directory.delete());
+    }
+}
@@ -0,0 +1,118 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Writer for text that may not fit on the heap: it keeps what is written
+ * in memory up to a limit, and moves it to a file of a Spill beyond that.
+ * Once everything is written, reader() or writeTo() reads it back.
+ */
+class SpillWriter extends Writer {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Spill spill;
+    private final long limit;           // most chars kept in memory
+    private StringBuilder text = new StringBuilder();
+    private File file;                  // null until the text is spilled
+    private Writer fileOut;
+    private boolean closed;
+
+    /** Creates a writer that keeps up to limit chars in memory. */
+    SpillWriter(Spill spill, long limit) {
+        this.spill = spill;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length)
+            throws IOException {
+        if (fileOut != null) {
+            fileOut.write(chars, offset, length);
+            return;
+        }
+        text.append(chars, offset, length);
+        spillIfFull();
+    }
+
+    @Override
+    public void write(String string, int offset, int length)
+            throws IOException {
+        if (fileOut != null) {
+            fileOut.write(string, offset, length);
+            return;
+        }
+        text.append(string, offset, offset + length);
+        spillIfFull();
+    }
+
+    /** Moves the text to a file once there is more of it than the limit. */
+    private void spillIfFull() throws IOException {
+        if (text.length() <= limit) {
+            return;
+        }
+        file = spill.newFile();
+        fileOut = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+        fileOut.append(text);
+        text = null;
+    }
+
+    /** Returns whether the text was moved to a file. */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null && !closed) {
+            fileOut.close();
+        }
+        closed = true;
+    }
+
+    /** Closes the writer, and returns a reader of everything written. */
+    Reader reader() throws IOException {
+        close();
+        if (file == null) {
+            return new StringReader(text.toString());
+        }
+        return new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+    }
+
+    /** Closes the writer, and writes everything written to out. */
+    void writeTo(Writer out) throws IOException {
+        close();
+        if (file == null) {
+            out.append(text);
+            return;
+        }
+        char[] buffer = new char[BUFFER_SIZE];
+        try (Reader in = reader()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+}
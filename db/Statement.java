@@ -0,0 +1,299 @@
+package db;
+
+/**
+ * A parsed statement: one of the commands, with its clauses already
+ * split into table names, values, column expressions, and conditions.
+ *
+ * Statements are never changed after they are parsed, so one statement can
+ * be cached and run any number of times.
+ *
+ * A prepared statement (see Parser.parsePrepared()) may have parameters:
+ * "?" in place of an insert value, or of the second operand of a column
+ * expression or condition. bind() returns a copy with values in their
+ * place.
+ */
+class Statement {
+    /** Stands for a value bound later, in a prepared statement. */
+    static final String PARAMETER = "?";
+
+    /** Kinds of statements. */
+    enum Kind {
+        CREATE_TABLE,       // create table <name> (<column> <type>, ...)
+        CREATE_SELECTED,    // create table <name> as select ...
+        CREATE_INDEX,       // create index on <name> (<column>) [using btree]
+        LOAD,               // load <name>
+        STORE,              // store <name>
+        STORE_BINARY,       // store <name> as binary
+        DROP,               // drop table <name>
+        INSERT,             // insert into <name> values <value>, ...
+        INSERT_ROWS,        // insert into <name> values (<value>, ...), ...
+        PRINT,              // print <name>
+        SELECT,             // select ...
+        MALFORMED           // anything else; error holds the message
+    }
+
+    /**
+     * A column expression: either a column name ("x"), or an operation on a
+     * column and a column or literal, named by an alias ("x + 1 as y").
+     */
+    static class ColumnExpr {
+        final String operand1;  // column name; null if malformed
+        final String operator;  // null if the expression is just a column
+        final String operand2;  // column name or literal
+        final String alias;     // name of the new column
+        final int parameter;    // index of the parameter in operand2, or -1
+
+        ColumnExpr(String operand1, String operator, String operand2,
+                   String alias) {
+            this(operand1, operator, operand2, alias, -1);
+        }
+
+        ColumnExpr(String operand1, String operator, String operand2,
+                   String alias, int parameter) {
+            this.operand1 = operand1;
+            this.operator = operator;
+            this.operand2 = operand2;
+            this.alias = alias;
+            this.parameter = parameter;
+        }
+
+        /** Returns a copy with its parameter, if any, bound to a value. */
+        ColumnExpr bind(String[] values) {
+            if (parameter == -1) {
+                return this;
+            }
+            return new ColumnExpr(operand1, operator, values[parameter], alias,
+                    parameter);
+        }
+
+        /** Returns whether the expression could not be split. */
+        boolean isMalformed() {
+            return operand1 == null;
+        }
+    }
+
+    /**
+     * A condition of a where clause, e.g. "Lastname", "<=", "'Lee'". Names
+     * are not resolved against any table yet.
+     */
+    static class Condition {
+        final String operand1;  // column name; null if malformed
+        final String operator;
+        final String operand2;  // column name or literal
+        final int parameter;    // index of the parameter in operand2, or -1
+
+        Condition(String operand1, String operator, String operand2) {
+            this(operand1, operator, operand2, -1);
+        }
+
+        Condition(String operand1, String operator, String operand2,
+                  int parameter) {
+            this.operand1 = operand1;
+            this.operator = operator;
+            this.operand2 = operand2;
+            this.parameter = parameter;
+        }
+
+        /** Returns a copy with its parameter, if any, bound to a value. */
+        Condition bind(String[] values) {
+            if (parameter == -1) {
+                return this;
+            }
+            return new Condition(operand1, operator, values[parameter],
+                    parameter);
+        }
+
+        /** Returns whether the condition could not be split. */
+        boolean isMalformed() {
+            return operand1 == null;
+        }
+    }
+
+    /** The clauses of a select. */
+    static class Select {
+        final ColumnExpr[] columnExprs;
+        final String[] tableNames;
+        final Condition[] conditions;   // null if there is no where clause
+
+        Select(ColumnExpr[] columnExprs, String[] tableNames,
+               Condition[] conditions) {
+            this.columnExprs = columnExprs;
+            this.tableNames = tableNames;
+            this.conditions = conditions;
+        }
+
+        /** Returns a copy with its parameters bound to values. */
+        Select bind(String[] values) {
+            ColumnExpr[] boundExprs = new ColumnExpr[columnExprs.length];
+            for (int i = 0; i < columnExprs.length; i++) {
+                boundExprs[i] = columnExprs[i].bind(values);
+            }
+            Condition[] boundConditions = null;
+            if (conditions != null) {
+                boundConditions = new Condition[conditions.length];
+                for (int i = 0; i < conditions.length; i++) {
+                    boundConditions[i] = conditions[i].bind(values);
+                }
+            }
+            return new Select(boundExprs, tableNames, boundConditions);
+        }
+
+        /** Returns the number of parameters. */
+        int numParameters() {
+            int ret = 0;
+            for (ColumnExpr expr : columnExprs) {
+                ret = Math.max(ret, expr.parameter + 1);
+            }
+            if (conditions != null) {
+                for (Condition cond : conditions) {
+                    ret = Math.max(ret, cond.parameter + 1);
+                }
+            }
+            return ret;
+        }
+
+        /** Returns whether the select is "select * from ...". */
+        boolean isSelectAll() {
+            return columnExprs.length == 1
+                   && columnExprs[0].operator == null
+                   && "*".equals(columnExprs[0].operand1);
+        }
+    }
+
+    final Kind kind;
+    final String name;          // name of the table the statement is about
+    final String[] columns;     // CREATE_TABLE: column names with types;
+                                // CREATE_INDEX: the column name and the
+                                // index type, "hash" or "btree"
+    final String[] values;      // INSERT: the row's values
+    final String[][] rows;      // INSERT_ROWS: each row's values
+    final Select select;        // SELECT and CREATE_SELECTED
+    final String error;         // MALFORMED: the error message
+
+    private Statement(Kind kind, String name, String[] columns,
+                      String[] values, Select select, String error) {
+        this(kind, name, columns, values, null, select, error);
+    }
+
+    private Statement(Kind kind, String name, String[] columns,
+                      String[] values, String[][] rows, Select select,
+                      String error) {
+        this.kind = kind;
+        this.name = name;
+        this.columns = columns;
+        this.values = values;
+        this.rows = rows;
+        this.select = select;
+        this.error = error;
+    }
+
+    /** Returns the number of parameters. */
+    int numParameters() {
+        if (kind == Kind.INSERT) {
+            int ret = 0;
+            for (String value : values) {
+                if (value.equals(PARAMETER)) {
+                    ret++;
+                }
+            }
+            return ret;
+        } else if (kind == Kind.INSERT_ROWS) {
+            int ret = 0;
+            for (String[] row : rows) {
+                for (String value : row) {
+                    if (value.equals(PARAMETER)) {
+                        ret++;
+                    }
+                }
+            }
+            return ret;
+        } else if (select != null) {
+            return select.numParameters();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a copy of a prepared statement with its parameters bound to
+     * values (literals such as "5", "'Lee'", or "NOVALUE").
+     */
+    Statement bind(String[] parameters) {
+        if (kind == Kind.INSERT) {
+            String[] boundValues = values.clone();
+            int next = 0;
+            for (int i = 0; i < boundValues.length; i++) {
+                if (boundValues[i].equals(PARAMETER)) {
+                    boundValues[i] = parameters[next];
+                    next++;
+                }
+            }
+            return insert(name, boundValues);
+        } else if (kind == Kind.INSERT_ROWS) {
+            String[][] boundRows = new String[rows.length][];
+            int next = 0;
+            for (int r = 0; r < rows.length; r++) {
+                boundRows[r] = rows[r].clone();
+                for (int i = 0; i < boundRows[r].length; i++) {
+                    if (boundRows[r][i].equals(PARAMETER)) {
+                        boundRows[r][i] = parameters[next];
+                        next++;
+                    }
+                }
+            }
+            return insertRows(name, boundRows);
+        } else if (kind == Kind.SELECT) {
+            return select(select.bind(parameters));
+        } else if (kind == Kind.CREATE_SELECTED) {
+            return createSelected(name, select.bind(parameters));
+        }
+        return this;
+    }
+
+    static Statement createTable(String name, String[] columns) {
+        return new Statement(Kind.CREATE_TABLE, name, columns, null, null, null);
+    }
+
+    static Statement createSelected(String name, Select select) {
+        return new Statement(Kind.CREATE_SELECTED, name, null, null, select,
+                null);
+    }
+
+    static Statement createIndex(String name, String column, String type) {
+        return new Statement(Kind.CREATE_INDEX, name,
+                new String[]{column, type}, null, null, null);
+    }
+
+    static Statement load(String name) {
+        return new Statement(Kind.LOAD, name, null, null, null, null);
+    }
+
+    static Statement store(String name, boolean asBinary) {
+        Kind kind = asBinary ? Kind.STORE_BINARY : Kind.STORE;
+        return new Statement(kind, name, null, null, null, null);
+    }
+
+    static Statement drop(String name) {
+        return new Statement(Kind.DROP, name, null, null, null, null);
+    }
+
+    static Statement insert(String name, String[] values) {
+        return new Statement(Kind.INSERT, name, null, values, null, null);
+    }
+
+    static Statement insertRows(String name, String[][] rows) {
+        return new Statement(Kind.INSERT_ROWS, name, null, null, rows, null,
+                null);
+    }
+
+    static Statement print(String name) {
+        return new Statement(Kind.PRINT, name, null, null, null, null);
+    }
+
+    static Statement select(Select select) {
+        return new Statement(Kind.SELECT, null, null, null, select, null);
+    }
+
+    static Statement malformed(String error) {
+        return new Statement(Kind.MALFORMED, null, null, null, null, error);
+    }
+}
@@ -0,0 +1,42 @@
+package db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of parsed statements, keyed on their
+ * normalized text (see Parser.normalize()). Once full, adding a statement
+ * drops the one that was used the longest time ago. Safe to use from many
+ * threads at once.
+ */
+class StatementCache {
+    private final int capacity;
+    private final LinkedHashMap<String, Statement> statements;
+
+    /** Creates a cache that holds up to capacity statements. */
+    StatementCache(int capacity) {
+        this.capacity = capacity;
+        /* Access order: get() moves a statement to the end. */
+        statements = new LinkedHashMap<String, Statement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Statement> e) {
+                return size() > StatementCache.this.capacity;
+            }
+        };
+    }
+
+    /** Returns the statement parsed from the given text, or null. */
+    synchronized Statement get(String text) {
+        return statements.get(text);
+    }
+
+    /** Adds a statement parsed from the given text. */
+    synchronized void put(String text, Statement statement) {
+        statements.put(text, statement);
+    }
+
+    /** Returns the number of statements in the cache. */
+    synchronized int size() {
+        return statements.size();
+    }
+}
@@ -0,0 +1,207 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A Column of strings. Values keep their single quotes.
+ *
+ * Each row holds the code of its value in a Dictionary (-1 under NOVALUE and
+ * NaN). An empty column takes on the dictionary of the first column it
+ * copies a value from, so that tables made from other tables (selections,
+ * joins, ...) share the dictionaries of their sources, and copying a value
+ * or comparing two copies of it only moves or compares an int.
+ */
+class StringColumn extends Column {
+    private int[] codes = new int[capacity];
+    private Dictionary dictionary = new Dictionary();
+
+    @Override
+    String type() {
+        return "string";
+    }
+
+    /**
+     * Returns the codes of the values. Only the first size() codes are in
+     * use, and they are -1 under NOVALUE/NaN.
+     */
+    int[] getCodes() {
+        return codes;
+    }
+
+    /** Returns the dictionary the codes refer to. */
+    Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Replaces the dictionary and codes of an empty column, before
+     * restore().
+     */
+    void setCodes(Dictionary dictionary, int[] codes) {
+        this.dictionary = dictionary;
+        this.codes = codes;
+        this.capacity = codes.length;
+    }
+
+    /**
+     * Codes the values of an empty column in the dictionary of another, so
+     * that appending this column to the other copies codes as they are.
+     */
+    void useDictionaryOf(StringColumn other) {
+        dictionary = other.dictionary;
+    }
+
+    /**
+     * Returns whether the values of this column and another one are coded
+     * in the same dictionary, so that equal values have equal codes.
+     */
+    boolean sharesDictionary(StringColumn other) {
+        return dictionary == other.dictionary;
+    }
+
+    /**
+     * Returns a code for each value (from 0) of this column and of another
+     * string column, such that a value of one equals a value of the other if
+     * and only if their codes are equal:
+     *
+     *     ret[0]  this column's codes, with NOVALUE as -2 and NaN as -3
+     *     ret[1]  the other column's values in the same codes; a value this
+     *             column doesn't have is -1
+     *
+     * Joins match keys by these codes. Either array may be a column's own
+     * codes, so neither is to be modified.
+     */
+    int[][] joinCodes(StringColumn other) {
+        int[] codes2 = other.codes;
+        if (!sharesDictionary(other)) {
+            codes2 = new int[other.size];
+            int[] map = dictionary.lookUp(other.dictionary);
+            for (int j = 0; j < other.size; j++) {
+                int code = other.codes[j];
+                codes2[j] = code < 0 ? -1 : map[code];
+            }
+        }
+        return new int[][] {withSpecialCodes(codes),
+                            other.withSpecialCodes(codes2)};
+    }
+
+    /**
+     * Returns codes of this column's values with NOVALUE as -2 and NaN as -3,
+     * in a copy if they are the column's own codes.
+     */
+    private int[] withSpecialCodes(int[] ret) {
+        BitSet noValues = getNoValues();
+        BitSet nans = getNaNs();
+        if (noValues.isEmpty() && nans.isEmpty()) {
+            return ret;
+        }
+        if (ret == codes) {
+            ret = Arrays.copyOf(codes, size);
+        }
+        for (int i = noValues.nextSetBit(0); i >= 0 && i < size;
+             i = noValues.nextSetBit(i + 1)) {
+            ret[i] = -2;
+        }
+        for (int i = nans.nextSetBit(0); i >= 0 && i < size;
+             i = nans.nextSetBit(i + 1)) {
+            ret[i] = -3;
+        }
+        return ret;
+    }
+
+    @Override
+    protected boolean set(int i, String value) {
+        codes[i] = dictionary.encode(value);
+        return true;
+    }
+
+    @Override
+    protected void setZero(int i) {
+        codes[i] = -1;
+    }
+
+    @Override
+    protected String format(int i) {
+        return dictionary.decode(codes[i]);
+    }
+
+    @Override
+    protected float floatAt(int i) {
+        return Float.parseFloat(format(i));
+    }
+
+    @Override
+    protected Column share() {
+        StringColumn ret = new StringColumn();
+        ret.codes = codes;
+        ret.dictionary = dictionary;
+        return ret;
+    }
+
+    @Override
+    protected void grow(int newCapacity) {
+        int[] temp = new int[newCapacity];
+        System.arraycopy(codes, 0, temp, 0, size);
+        codes = temp;
+    }
+
+    @Override
+    protected void copy(int i, Column other, int j) {
+        StringColumn column = (StringColumn) other;
+        adoptDictionary(column);
+        int code = column.codes[j];
+        if (!sharesDictionary(column)) {
+            code = dictionary.encode(column.dictionary.decode(code));
+        }
+        codes[i] = code;
+    }
+
+    @Override
+    protected void copyRange(Column other, int from, int to, int n) {
+        StringColumn column = (StringColumn) other;
+        adoptDictionary(column);
+        if (sharesDictionary(column)) {
+            System.arraycopy(column.codes, from, codes, to, n);
+            return;
+        }
+        int[] map = dictionary.translate(column.dictionary);
+        for (int k = 0; k < n; k++) {
+            int code = column.codes[from + k];
+            codes[to + k] = code < 0 ? -1 : map[code];
+        }
+    }
+
+    /**
+     * Starts using the dictionary of another column, if this one has no
+     * values coded in its own yet.
+     */
+    private void adoptDictionary(StringColumn other) {
+        if (dictionary.size() == 0) {
+            dictionary = other.dictionary;
+        }
+    }
+
+    @Override
+    protected int hashAt(int i) {
+        return format(i).hashCode();
+    }
+
+    @Override
+    protected boolean equalsAt(int i, Column other, int j) {
+        StringColumn column = (StringColumn) other;
+        if (sharesDictionary(column)) {
+            return codes[i] == column.codes[j];
+        }
+        return format(i).equals(column.format(j));
+    }
+
+    @Override
+    protected int compareAt(int i, Column other, int j) {
+        StringColumn column = (StringColumn) other;
+        if (sharesDictionary(column) && codes[i] == column.codes[j]) {
+            return 0;
+        }
+        return format(i).compareTo(column.format(j));
+    }
+}
@@ -1,13 +1,27 @@
 package db;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Table class that holds values in columns and rows.
- * Design: Map<Integer, Map<String, String>>, where
- *     the Integer is the row number (row 0 == column names),
- *     the first String is the name of a column, and
- *     the second String is the value in that particular column (and row).
+ * Design: Column[], where
+ *     each Column holds every value of one column in a typed array
+ *     (int[], float[], or String[]), plus bitmaps for NOVALUE and NaN.
+ * Rows are numbered from 1 (row 0 == column names), as before.
+ *
+ * A Database shares its tables between threads. Rows are only ever added,
+ * so the number of rows is the table's version: statements that add rows
+ * hold the table's lock (see getLock()) while they do, and statements that
+ * read the table read a snapshot of it instead (see snapshot()), which
+ * keeps the rows it has while more are added, without holding any lock.
+ * The table's other methods don't lock; the Database takes the lock for
+ * each statement.
  *
  * @author Moo Jin Kim
  */
@@ -20,7 +34,13 @@ public class Table {
     private String[] rawColumnNames;    // column names without types
     private final String[] validTypes = new String[]{"string", "int", "float"};
     private String[] columnTypes;
-    private LinkedHashMap<Integer, LinkedHashMap<String, String>> table;
+    private Column[] columns;
+    /* The indexes by column name, null until one is made. The map is
+       replaced instead of changed, so it can be read without the lock. */
+    private volatile HashMap<String, Index> indexes;
+    private final ReentrantLock lock = new ReentrantLock();
+    /* The last snapshot taken, or null if rows were added since. */
+    private volatile Table snapshot;
 
     /** Creates a Table with column names. */
     public Table(String[] columnNames) {
@@ -38,7 +58,10 @@ public class Table {
         System.arraycopy(columnNames, 0, this.columnNames, 0,
                 this.numColumns);
         this.rawColumnNames = toRaw(this.columnNames);
-        this.table = new LinkedHashMap<>();
+        this.columns = new Column[this.numColumns];
+        for (int i = 0; i < this.numColumns; i++) {
+            this.columns[i] = Column.forType(columnTypes[i]);
+        }
     }
 
     /** Creates a Table with column names and a name. */
@@ -47,6 +70,21 @@ public class Table {
         this.name = name;
     }
 
+    /** Creates a snapshot of a table (see snapshot()). */
+    private Table(Table table) {
+        numRows = table.numRows;
+        name = table.name;
+        numColumns = table.numColumns;
+        columnNames = table.columnNames;
+        rawColumnNames = table.rawColumnNames;
+        columnTypes = table.columnTypes;
+        columns = new Column[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            columns[i] = table.columns[i].snapshot();
+        }
+        indexes = table.indexes;
+    }
+
     /**
      * Adds a row to the table if its values match their corresponding column
      * types.
@@ -55,6 +93,65 @@ public class Table {
      *          false   if not
      */
     public boolean addRow(String[] values) {
+        /* Floats are formatted in place. */
+        if (!formatRow(values, values)) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            columns[i].append(values[i]);
+        }
+        numRows++;
+        updateIndexes();
+        return true;
+    }
+
+    /**
+     * Returns an empty table with the same columns, to check and type rows
+     * in (see addToBatch()) before they are appended to this table all at
+     * once (see appendTable()). Its string columns code their values in the
+     * dictionaries of this table's, so appending them only copies codes.
+     * Rows can be added to the batch while this table is in use.
+     */
+    Table newBatch() {
+        Table ret = new Table(columnNames);
+        for (int i = 0; i < numColumns; i++) {
+            if (columns[i] instanceof StringColumn) {
+                ((StringColumn) ret.columns[i]).useDictionaryOf(
+                        (StringColumn) columns[i]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Adds a row to a table made by newBatch() if its values match their
+     * corresponding column types, like addRow(), but without changing the
+     * values or updating indexes.
+     *
+     * @return  true    if the values match their column types
+     *          false   if not
+     */
+    boolean addToBatch(String[] values) {
+        String[] formatted = new String[numColumns];
+        if (!formatRow(values, formatted)) {
+            return false;
+        }
+        for (int i = 0; i < numColumns; i++) {
+            columns[i].append(formatted[i]);
+        }
+        numRows++;
+        return true;
+    }
+
+    /**
+     * Checks that values match their corresponding column types, and puts
+     * them in formatted as the columns store them (floats to 3 decimal
+     * points). formatted may be values itself.
+     *
+     * @return  true    if the values match their column types
+     *          false   if not
+     */
+    private boolean formatRow(String[] values, String[] formatted) {
         if (values == null) {
             return false;
         }
@@ -65,6 +162,10 @@ public class Table {
         /* For each value... */
         for (int i = 0; i < values.length; i++) {
             String value = values[i];
+            formatted[i] = value;
+            if (value == null || value.isEmpty()) {
+                return false;
+            }
             /* Accept NOVALUE and NaN inputs. */
             if (value.equals("NOVALUE") || value.equals("NaN")) {
                 continue;
@@ -126,62 +227,43 @@ public class Table {
                 }
 
                 /* Format to 3 decimal points. */
-                values[i] = formatFloat(value);
+                formatted[i] = formatFloat(value);
             } else {
                 return false;
             }
         }
-        numRows++;
-        table.put(numRows, new LinkedHashMap<>());
-
-        for (int i = 0; i < values.length; i++) {
-            table.get(numRows).put(columnNames[i], values[i]);
-        }
         return true;
     }
 
-    /** Formats a float string to 3 decimal points and removes leading 0's. */
-    private String formatFloat(String value) {
+    /**
+     * Formats a float string to 3 decimal points and removes leading 0's,
+     * except the last of a whole part that is all 0's. Bulk inserts format
+     * every value, so this builds the result in one pass instead of
+     * splitting it apart with regular expressions.
+     */
+    private static String formatFloat(String value) {
         int indexOfDecimal = value.indexOf('.');
         if (indexOfDecimal == -1) {
             System.out.println("ERROR: formatFloat() found no '.'!");
             return null;
         }
 
-        /* Split the float string into 2 parts:
-        first part is all characters up to but EXcluding the '.'
-        second part is all characters after '.' */
-        String[] parts = value.split("\\.");
-        String firstPart = parts[0];
-        String secondPart;
-        if (parts.length == 2) {
-            secondPart = parts[1];
-        } else {
-            secondPart = "";
+        /* Remove leading 0's from the part before the '.', unless it is all
+           0's, in which case keep one. */
+        int start = 0;
+        while (start < indexOfDecimal - 1 && value.charAt(start) == '0') {
+            start++;
         }
 
-        /* Remove leading 0's. Credits to StackOverflow:
-         * https://stackoverflow.com/questions/2800739/how-to-remove-leading-zeros-from-alphanumeric-text
-         */
-        firstPart = firstPart.replaceFirst("^0+(?!$)", "");
-
-        String ret = firstPart + '.';
-        String partToAdd = "";
-        for (int i = 0; i < secondPart.length(); i++) {
-            if (partToAdd.length() != 3) {
-                partToAdd += secondPart.charAt(i);
-            }
-        }
-
-        /* Append '0's if necessary */
-        for (int i = 0; i < 3; i++) {
-            if (partToAdd.length() != 3) {
-                partToAdd += '0';
-            }
+        /* Keep at most 3 digits after the '.', and append '0's if
+           necessary. */
+        int end = Math.min(value.length(), indexOfDecimal + 4);
+        StringBuilder ret = new StringBuilder(indexOfDecimal - start + 4);
+        ret.append(value, start, end);
+        for (int i = end - indexOfDecimal; i < 4; i++) {
+            ret.append('0');
         }
-
-        ret += partToAdd;
-        return ret;
+        return ret.toString();
     }
 
     /** Gets the name of the table. */
@@ -219,10 +301,8 @@ public class Table {
             System.arraycopy(columnNames, 0, rowElements, 0, numColumns);
         } else {
             rowElements = new String[numColumns];
-            int index = 0;
-            for (Map.Entry<String, String> column : table.get(N).entrySet()) {
-                rowElements[index] = column.getValue();
-                index++;
+            for (int i = 0; i < numColumns; i++) {
+                rowElements[i] = columns[i].get(N - 1);
             }
         }
         return rowElements;
@@ -242,8 +322,7 @@ public class Table {
             return null;
         }
 
-        String[] rowElements = getRow(row);
-        return rowElements[col - 1];
+        return columns[col - 1].get(row - 1);
     }
 
     /**
@@ -255,8 +334,8 @@ public class Table {
             return null;
         }
 
-        String[] column = getCol(columnName);
-        return column[N - 1];
+        Column column = getColumn(columnName);
+        return column.get(N - 1);
     }
 
     /**
@@ -270,10 +349,9 @@ public class Table {
             colElements = null;
         } else {
             colElements = new String[numRows];
-            int index = 0;
-            for (int i = 1; i <= numRows; i++) {
-                colElements[index] = getVal(i, N);
-                index++;
+            Column column = columns[N - 1];
+            for (int i = 0; i < numRows; i++) {
+                colElements[i] = column.get(i);
             }
         }
         return colElements;
@@ -284,12 +362,196 @@ public class Table {
      * column name passed in as the argument. Does not include the column name.
      */
     public String[] getCol(String columnName) {
+        int index = getColIndex(columnName);
+        if (index == 0) {
+            return null;
+        }
+        return getCol(index);
+    }
+
+    /**
+     * Returns the index of the column with the given name, where column 1 is
+     * the first column.
+     *
+     * @return  N   if the column exists (1 <= N <= numColumns)
+     *          0   if not
+     */
+    public int getColIndex(String columnName) {
         for (int i = 0; i < numColumns; i++) {
             if (columnNames[i].equals(columnName)) {
-                return getCol(i + 1);
+                return i + 1;
             }
         }
-        return null;
+        return 0;
+    }
+
+    /**
+     * Returns the Nth Column (the typed storage behind getCol()), where
+     * column 1 is the first column.
+     * 1 <= N <= numColumns
+     */
+    Column getColumn(int N) {
+        if (N < 1 || N > numColumns) {
+            return null;
+        }
+        return columns[N - 1];
+    }
+
+    /** Returns the Column corresponding to the column name, or null. */
+    Column getColumn(String columnName) {
+        return getColumn(getColIndex(columnName));
+    }
+
+    /**
+     * Replaces the columns of an empty table with columns that were built
+     * elsewhere (e.g. read from a binary table file).
+     */
+    void restoreColumns(Column[] columns, int numRows) {
+        this.columns = columns;
+        this.numRows = numRows;
+        HashMap<String, Index> old = indexes;
+        if (old != null) {
+            HashMap<String, Index> rebuilt = new HashMap<>();
+            for (Map.Entry<String, Index> entry : old.entrySet()) {
+                rebuilt.put(entry.getKey(), Index.forType(
+                        entry.getValue().type(), getColumn(entry.getKey()),
+                        numRows));
+            }
+            indexes = rebuilt;
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Appends every row of another table with the same columns, copying
+     * whole columns at a time. Used to put together tables built in parts.
+     */
+    void appendTable(Table other) {
+        for (int i = 0; i < numColumns; i++) {
+            columns[i].appendAll(other.columns[i]);
+        }
+        numRows += other.numRows;
+        updateIndexes();
+    }
+
+    /**
+     * Builds an index on a column, which conditions (and, for a hash index,
+     * joins) on that column then use (see Index).
+     *
+     * Holds the lock while it reads the column, so rows can't be added until
+     * the index is in place to be updated with them.
+     *
+     * @param type  "hash" or "btree"
+     * @return  true    if the index was built
+     *          false   if there is no such column, or it has an index
+     */
+    boolean createIndex(String columnName, String type) {
+        Column column = getColumn(columnName);
+        if (column == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (getIndex(columnName) != null) {
+                return false;
+            }
+            HashMap<String, Index> ret = new HashMap<>();
+            if (indexes != null) {
+                ret.putAll(indexes);
+            }
+            ret.put(columnName, Index.forType(type, column, numRows));
+            indexes = ret;
+            snapshot = null;
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /** Returns the index on a column, or null if it has none. */
+    Index getIndex(String columnName) {
+        HashMap<String, Index> current = indexes;
+        if (current == null) {
+            return null;
+        }
+        return current.get(columnName);
+    }
+
+    /** Removes every index of the table. */
+    void dropIndexes() {
+        indexes = null;
+        snapshot = null;
+    }
+
+    /**
+     * Adds the rows added since the last update to every index. Rows are
+     * only added by calling this, so it also retires the last snapshot.
+     */
+    private void updateIndexes() {
+        HashMap<String, Index> current = indexes;
+        if (current != null) {
+            for (Index index : current.values()) {
+                index.update(numRows);
+            }
+        }
+        if (snapshot != null) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Returns the table's lock, which statements hold while they add rows to
+     * the table.
+     */
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Returns a read-only copy of the table as of the last rows added: its
+     * rows, and its indexes, which may hold later rows too (see Index). It
+     * keeps those rows while more are added to the table, so a statement can
+     * read it for as long as it runs without holding the lock; and it shares
+     * the table's storage, so taking it costs a few objects per column.
+     *
+     * Statements that read the table before rows are added again share one
+     * snapshot. Each one is dropped once nothing reads it, along with any
+     * storage that the table has replaced since.
+     */
+    Table snapshot() {
+        Table ret = snapshot;
+        if (ret != null) {
+            return ret;
+        }
+        lock.lock();
+        try {
+            if (snapshot == null) {
+                snapshot = new Table(this);
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a new table with only the given rows, in the given order.
+     * Rows are numbered from 1, like getRow().
+     */
+    Table selectRows(int[] rows, int numSelected) {
+        return selectRows(rows, 0, numSelected);
+    }
+
+    /** Returns a new table with only the rows rows[from] to rows[to - 1]. */
+    Table selectRows(int[] rows, int from, int to) {
+        Table ret = new Table(columnNames);
+        for (int k = from; k < to; k++) {
+            for (int i = 0; i < numColumns; i++) {
+                ret.columns[i].appendFrom(columns[i], rows[k] - 1);
+            }
+            ret.numRows++;
+        }
+        return ret;
     }
 
     /**
@@ -355,23 +617,45 @@ public class Table {
 
     /** Prints the rows in the Table. */
     public void printRows() {
-        for (Map.Entry<Integer, LinkedHashMap<String, String>> outerEntry : table.entrySet()) {
-            int count = 1;
-            for (Map.Entry<String, String> innerEntry : outerEntry.getValue().entrySet()) {
-                System.out.print(innerEntry.getValue());
-                /* Don't end the line with a comma. */
-                if (count != numColumns) {
-                    System.out.print(",");
-                }
-                count++;
-            }
-            System.out.print("\n");
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < numRows; i++) {
+            line.setLength(0);
+            appendRow(line, i);
+            System.out.print(line);
         }
     }
 
     /** Prints the Table. */
     public void printTable() {
-        System.out.print(toString());
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out)));
+        try {
+            write(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the string representation of the table to out, one row at a
+     * time, so the whole text is never held in memory. Does not flush.
+     */
+    public void write(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder();
+        appendHeader(line);
+        out.append(line);
+        writeRows(out);
+    }
+
+    /** Writes the rows of the table to out, like write(), one at a time. */
+    void writeRows(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < numRows; i++) {
+            line.setLength(0);
+            appendRow(line, i);
+            out.append(line);
+        }
     }
 
     /** Finds and returns a list of shared columns. */
@@ -410,27 +694,119 @@ public class Table {
     }
 
     /** Gets the Cartesian Product of two tables. */
-    private static Table getProduct(Table a, Table b, String[] columnNames, int len) {
+    private static Table getProduct(Table a, Table b, String[] columnNames) {
         Table ret = new Table(columnNames);
+        Column[] sources = joinSources(a, b, new ArrayList<String>());
         int nRow_a = a.getNumRows();
-        int nCol_a = a.getNumColumns();
         int nRow_b = b.getNumRows();
-        int nCol_b = b.getNumColumns();
-        for (int i = 1; i <= nRow_a; i++) {
-            for (int j = 1; j <= nRow_b; j++) {
-                String[] rowElements = new String[len];
-                    /* Insert all elements from A's row. */
-                System.arraycopy(a.getRow(i), 0, rowElements, 0, nCol_a);
-                    /* Insert all elements from B's row. */
-                System.arraycopy(b.getRow(j), 0, rowElements, nCol_a, nCol_b);
-                ret.addRow(rowElements);
+        for (int i = 0; i < nRow_a; i++) {
+            for (int j = 0; j < nRow_b; j++) {
+                ret.appendJoinedRow(sources, a.getNumColumns(), i, j);
             }
         }
         return ret;
     }
 
-    /** Combines two tables and returns the result. */
+    /**
+     * Returns the columns that the joined table's columns are copied from, in
+     * the joined table's column order: shared columns and left-unique columns
+     * from Table a, then right-unique columns from Table b.
+     */
+    private static Column[] joinSources(Table a, Table b,
+                                        ArrayList<String> sharedColumns) {
+        ArrayList<Column> sources = new ArrayList<>();
+        for (String name : sharedColumns) {
+            sources.add(a.getColumn(name));
+        }
+        for (String name : uniqueColumns(a, b)) {
+            sources.add(a.getColumn(name));
+        }
+        for (String name : uniqueColumns(b, a)) {
+            sources.add(b.getColumn(name));
+        }
+        return sources.toArray(new Column[0]);
+    }
+
+    /**
+     * Appends a row made of row i (0-indexed) of the left table and row j of
+     * the right table. The first numFromLeft sources belong to the left table.
+     */
+    void appendJoinedRow(Column[] sources, int numFromLeft, int i, int j) {
+        for (int k = 0; k < numColumns; k++) {
+            if (k < numFromLeft) {
+                columns[k].appendFrom(sources[k], i);
+            } else {
+                columns[k].appendFrom(sources[k], j);
+            }
+        }
+        numRows++;
+    }
+
+    /**
+     * Hashes the values of row i (0-indexed) in the given key columns. A key
+     * with codes (see joinCodes()) is hashed by its code.
+     */
+    private static int hashKey(Column[] keys, int[][] codes, int i) {
+        int h = 1;
+        for (int k = 0; k < keys.length; k++) {
+            h = 31 * h + (codes[k] != null ? codes[k][i]
+                                           : keys[k].valueHash(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns whether row i of one set of key columns has the same values as
+     * row j of another.
+     */
+    private static boolean keysEqual(Column[] keys1, int[][] codes1, int i,
+                                     Column[] keys2, int[][] codes2, int j) {
+        for (int k = 0; k < keys1.length; k++) {
+            if (codes1[k] != null) {
+                if (codes1[k][i] != codes2[k][j]) {
+                    return false;
+                }
+            } else if (!keys1[k].valueEquals(i, keys2[k], j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills in codes for the string keys of a join, so that they are matched
+     * by comparing ints instead of text (see StringColumn.joinCodes()).
+     * Other keys are left null.
+     */
+    private static void joinCodes(Column[] keys_a, Column[] keys_b,
+                                  int[][] codes_a, int[][] codes_b) {
+        for (int k = 0; k < keys_a.length; k++) {
+            if (keys_a[k] instanceof StringColumn) {
+                int[][] codes = ((StringColumn) keys_a[k]).joinCodes(
+                        (StringColumn) keys_b[k]);
+                codes_a[k] = codes[0];
+                codes_b[k] = codes[1];
+            }
+        }
+    }
+
+    /**
+     * Combines two tables and returns the result, with its rows in the order
+     * of a nested loop join: the left table's rows in order, and the right
+     * table's rows that match each one in order.
+     */
     public static Table join(Table a, Table b) {
+        return join(a, b, true);
+    }
+
+    /**
+     * Combines two tables and returns the result. A hash join always gives
+     * its rows in nested-loop order (see join(Table, Table)). A merge join
+     * (see MergeJoin) gives them in the order of the shared columns' values
+     * unless nestedLoopOrder is true, which costs a sort when the left
+     * table's rows are not in that order already.
+     */
+    public static Table join(Table a, Table b, boolean nestedLoopOrder) {
         if (a == null || b == null) {
             return null;
         }
@@ -442,115 +818,303 @@ public class Table {
         ArrayList<String> rightUniqueColumns = uniqueColumns(b, a);
 
         /* Initialize the combined table. */
-        int nRow_a = a.getNumRows();
-        int nCol_a = a.getNumColumns();
-        int nRow_b = b.getNumRows();
-        int nCol_b = b.getNumColumns();
         ArrayList<String> temp = new ArrayList<String>();
         temp.addAll(sharedColumns);
         temp.addAll(leftUniqueColumns);
         temp.addAll(rightUniqueColumns);
-        int len = sharedColumns.size() + leftUniqueColumns.size()
-                  + rightUniqueColumns.size();
         String[] columnNames = temp.toArray(new String[0]); // from StckOvflw
         Table ret = new Table(columnNames);
 
         /* If there are no shared columns, return the Cartesian Product of the
            two tables. */
         if (sharedColumns.size() == 0) {
-            return getProduct(a, b, columnNames, len);
+            return getProduct(a, b, columnNames);
         }
 
         /* If there are shared columns, return merged rows i.f.f. values
-           in every shared column match. */
-
-        /* For each row in the left table... */
-        for (int i = 1; i <= nRow_a; i++) {
-            /* Create an array containing only the values in the shared
-               columns, in the same order as the shared columns in the final
-               table. */
-            String[] arr_a = new String[sharedColumns.size()];
-            int index_a = 0;
-            for (String name : sharedColumns) {
-                arr_a[index_a] = a.getVal(i, name);
-                index_a++;
-            }
-            /* Do the same for each row in the right table while comparing the
-               arrays. If the left table array matches the right table array,
-               then merge the rest of those rows together. */
-            for (int j = 1; j <= nRow_b; j++) {
-                String[] arr_b = new String[sharedColumns.size()];
-                int index_b = 0;
-                for (String name: sharedColumns) {
-                    arr_b[index_b] = b.getVal(j, name);
-                    index_b++;
+           in every shared column match. This is a hash join: the smaller
+           table is put in a hash table keyed on its shared column values,
+           and the larger table is streamed past it. */
+        int numKeys = sharedColumns.size();
+        Column[] keys_a = new Column[numKeys];
+        Column[] keys_b = new Column[numKeys];
+        for (int k = 0; k < numKeys; k++) {
+            keys_a[k] = a.getColumn(sharedColumns.get(k));
+            keys_b[k] = b.getColumn(sharedColumns.get(k));
+        }
+        int[][] codes_a = new int[numKeys][];
+        int[][] codes_b = new int[numKeys][];
+        Column[] sources = joinSources(a, b, sharedColumns);
+        int numFromLeft = sharedColumns.size() + leftUniqueColumns.size();
+
+        /* Merge tables that are both in order of the shared columns. */
+        if (MergeJoin.joinIfOrdered(a, b, sharedColumns, ret, sources,
+                                    numFromLeft, nestedLoopOrder)) {
+            return ret;
+        }
+
+        /* A hash index on the only shared column takes the place of the
+           hash table: the other table is probed against it. If both tables
+           have one, probe with the smaller table. */
+        if (numKeys == 1) {
+            HashIndex index_a = hashIndex(a, sharedColumns.get(0));
+            HashIndex index_b = hashIndex(b, sharedColumns.get(0));
+            if (index_b != null
+                && (index_a == null || a.getNumRows() <= b.getNumRows())) {
+                for (int i = 0; i < a.getNumRows(); i++) {
+                    int[] rows = index_b.get(HashIndex.key(keys_a[0], i),
+                            b.getNumRows());
+                    for (int m = 0; rows != null && m < rows.length; m++) {
+                        int j = rows[m] - 1;
+                        if (keysEqual(keys_a, codes_a, i, keys_b, codes_b,
+                                      j)) {
+                            ret.appendJoinedRow(sources, numFromLeft, i, j);
+                        }
+                    }
                 }
-                if (Arrays.equals(arr_a, arr_b)) {
-                    int index_r = 0;
-                    String[] rowToAdd = new String[len];
-                    String[] sharedColumnNames = sharedColumns.toArray(new String[0]);
-                    String[] ror_a = a.getRestOfRow(i, sharedColumnNames);
-                    String[] ror_b = b.getRestOfRow(j, sharedColumnNames);
-                    /* Add in the shared column values. */
-                    System.arraycopy(arr_a, 0, rowToAdd, 0, arr_a.length);
-                    index_r += arr_a.length;
-                    /* Add in the left table row's values. */
-                    for (String val : ror_a) {
-                        rowToAdd[index_r] = val;
-                        index_r++;
+                return ret;
+            }
+            if (index_a != null) {
+                JoinMatches matches = new JoinMatches();
+                for (int j = 0; j < b.getNumRows(); j++) {
+                    int[] rows = index_a.get(HashIndex.key(keys_b[0], j),
+                            a.getNumRows());
+                    for (int m = 0; rows != null && m < rows.length; m++) {
+                        int i = rows[m] - 1;
+                        if (keysEqual(keys_a, codes_a, i, keys_b, codes_b,
+                                      j)) {
+                            matches.add(i, j);
+                        }
                     }
-                    /* Add in the right table row's values.*/
-                    for (String val : ror_b) {
-                        rowToAdd[index_r] = val;
-                        index_r++;
+                }
+                matches.appendInLeftOrder(ret, sources, numFromLeft,
+                        a.getNumRows());
+                return ret;
+            }
+        }
+
+        /* Sort and merge tables that are too large to hash. */
+        if (MergeJoin.isTooLargeToHash(Math.min(a.getNumRows(),
+                                                b.getNumRows()))) {
+            MergeJoin.join(a, b, sharedColumns, 0, ret, sources, numFromLeft,
+                           nestedLoopOrder);
+            return ret;
+        }
+
+        /* Match string keys by dictionary code from here on. */
+        joinCodes(keys_a, keys_b, codes_a, codes_b);
+        boolean buildRight = b.getNumRows() <= a.getNumRows();
+        Table build = buildRight ? b : a;
+        Table probe = buildRight ? a : b;
+        Column[] buildKeys = buildRight ? keys_b : keys_a;
+        Column[] probeKeys = buildRight ? keys_a : keys_b;
+        int[][] buildCodes = buildRight ? codes_b : codes_a;
+        int[][] probeCodes = buildRight ? codes_a : codes_b;
+
+        /* Build: chain the rows of each bucket together. Rows are inserted
+           from last to first, so each chain is in ascending row order. */
+        int nRow_build = build.getNumRows();
+        int numBuckets = Integer.highestOneBit(Math.max(nRow_build, 1) * 2);
+        int mask = numBuckets - 1;
+        int[] head = new int[numBuckets];
+        Arrays.fill(head, -1);
+        int[] next = new int[nRow_build];
+        int[] hashes = new int[nRow_build];
+        for (int i = nRow_build - 1; i >= 0; i--) {
+            int h = hashKey(buildKeys, buildCodes, i);
+            hashes[i] = h;
+            next[i] = head[h & mask];
+            head[h & mask] = i;
+        }
+
+        /* Probe. Keep the row order of a regular nested loop join: rows of
+           the left table in order, then matching right rows in order. */
+        int nRow_probe = probe.getNumRows();
+        if (buildRight) {
+            for (int i = 0; i < nRow_probe; i++) {
+                int h = hashKey(probeKeys, probeCodes, i);
+                for (int j = head[h & mask]; j != -1; j = next[j]) {
+                    if (hashes[j] == h && keysEqual(probeKeys, probeCodes, i,
+                                                    buildKeys, buildCodes, j)) {
+                        ret.appendJoinedRow(sources, numFromLeft, i, j);
                     }
-                    ret.addRow(rowToAdd);
                 }
             }
+            return ret;
         }
+
+        /* The left table was the build side, so matches come out in right
+           table order. */
+        JoinMatches matches = new JoinMatches();
+        for (int j = 0; j < nRow_probe; j++) {
+            int h = hashKey(probeKeys, probeCodes, j);
+            for (int i = head[h & mask]; i != -1; i = next[i]) {
+                if (hashes[i] == h && keysEqual(buildKeys, buildCodes, i,
+                                                probeKeys, probeCodes, j)) {
+                    matches.add(i, j);
+                }
+            }
+        }
+        matches.appendInLeftOrder(ret, sources, numFromLeft, nRow_build);
         return ret;
     }
 
-    /** Combines multiple tables and returns the result. */
+    /** Returns the hash index on a column of a table, or null. */
+    private static HashIndex hashIndex(Table table, String columnName) {
+        Index index = table.getIndex(columnName);
+        if (index instanceof HashIndex) {
+            return (HashIndex) index;
+        }
+        return null;
+    }
+
+    /**
+     * Pairs of matching rows (0-indexed) of a join, found out of
+     * nested-loop order, e.g. in right table order.
+     */
+    static class JoinMatches {
+        private int[] rows_a = new int[16];
+        private int[] rows_b = new int[16];
+        private int size;
+
+        void add(int i, int j) {
+            if (size == rows_a.length) {
+                rows_a = Arrays.copyOf(rows_a, size * 2);
+                rows_b = Arrays.copyOf(rows_b, size * 2);
+            }
+            rows_a[size] = i;
+            rows_b[size] = j;
+            size++;
+        }
+
+        /**
+         * Appends the joined rows to ret in the order of a nested loop join:
+         * left rows in order, then right rows in order. Puts the matches back
+         * in left table order with a (stable) counting sort.
+         */
+        void appendInLeftOrder(Table ret, Column[] sources, int numFromLeft,
+                               int nRow_a) {
+            int[] counts = new int[nRow_a + 1];
+            for (int m = 0; m < size; m++) {
+                counts[rows_a[m] + 1]++;
+            }
+            for (int i = 0; i < nRow_a; i++) {
+                counts[i + 1] += counts[i];
+            }
+            int[] ordered_b = new int[size];
+            for (int m = 0; m < size; m++) {
+                ordered_b[counts[rows_a[m]]++] = rows_b[m];
+            }
+            /* counts[i] is now the end of row i's matches. */
+            int m = 0;
+            for (int i = 0; i < nRow_a; i++) {
+                while (m < counts[i]) {
+                    ret.appendJoinedRow(sources, numFromLeft, i, ordered_b[m]);
+                    m++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Combines multiple tables, from left to right, and returns the result,
+     * with its rows in nested-loop order. Leaves arr as it is.
+     */
     public static Table join(Table[] arr) {
-        Table ret = null;
-        int size = arr.length;
-        for (int i = 1; i < size; i++) {
-            arr[i] = join(arr[i - 1], arr[i]);
+        return join(arr, true);
+    }
+
+    /**
+     * Combines multiple tables, from left to right, like join(Table, Table,
+     * boolean), and returns the result. Leaves arr as it is.
+     */
+    public static Table join(Table[] arr, boolean nestedLoopOrder) {
+        Table ret = arr[0];
+        for (int i = 1; i < arr.length; i++) {
+            ret = join(ret, arr[i], nestedLoopOrder);
         }
-        return arr[size - 1];
+        return ret;
+    }
+
+    /**
+     * Returns the table with one more int column at the end that holds the
+     * number of each row, from 0. It shares the table's columns and indexes,
+     * so neither is to be changed while it is in use.
+     */
+    Table withRowNumbers(String columnName) {
+        String[] names = Arrays.copyOf(columnNames, numColumns + 1);
+        names[numColumns] = columnName;
+        Table ret = new Table(names);
+        IntColumn rowNumbers = new IntColumn();
+        for (int i = 0; i < numRows; i++) {
+            rowNumbers.appendInt(i);
+        }
+        ret.columns = Arrays.copyOf(columns, numColumns + 1);
+        ret.columns[numColumns] = rowNumbers;
+        ret.numRows = numRows;
+        ret.indexes = indexes;
+        return ret;
+    }
+
+    /**
+     * Returns a table with the given columns of this one, in the given order,
+     * sharing them instead of copying them.
+     */
+    Table withColumns(String[] names) {
+        Table ret = new Table(names);
+        Column[] selected = new Column[names.length];
+        for (int i = 0; i < names.length; i++) {
+            selected[i] = getColumn(names[i]);
+        }
+        ret.columns = selected;
+        ret.numRows = numRows;
+        return ret;
     }
 
     /** Gets the string representation of the table. */
     public String toString() {
-        String ret = "";
+        StringBuilder ret = new StringBuilder();
+        appendHeader(ret);
+        for (int i = 0; i < numRows; i++) {
+            appendRow(ret, i);
+        }
+        return ret.toString();
+    }
 
-        /* Column names. */
-        int count = 1;
-        for (String columnName : columnNames) {
-            ret += columnName;
+    /** Appends the column names line, ending with a newline. */
+    void appendHeader(StringBuilder out) {
+        appendHeader(out, columnNames);
+    }
+
+    /** Appends a line of column names, ending with a newline. */
+    static void appendHeader(StringBuilder out, String[] columnNames) {
+        for (int j = 0; j < columnNames.length; j++) {
+            out.append(columnNames[j]);
             /* Don't end the line with a comma. */
-            if (count != numColumns) {
-                ret += ",";
+            if (j != columnNames.length - 1) {
+                out.append(',');
             }
-            count++;
         }
-        ret += "\n";
+        out.append('\n');
+    }
 
-        /* Rows. */
-        for (Map.Entry<Integer, LinkedHashMap<String, String>> outerEntry : table.entrySet()) {
-            count = 1;
-            for (Map.Entry<String, String> innerEntry : outerEntry.getValue().entrySet()) {
-                ret += innerEntry.getValue();
-                /* Don't end the line with a comma. */
-                if (count != numColumns) {
-                    ret += ",";
-                }
-                count++;
+    /** Appends rows from to to - 1 (0-indexed), each ending with a newline. */
+    void appendRows(StringBuilder out, int from, int to) {
+        for (int i = from; i < to; i++) {
+            appendRow(out, i);
+        }
+    }
+
+    /** Appends the ith row (0-indexed), ending with a newline. */
+    void appendRow(StringBuilder out, int i) {
+        for (int j = 0; j < numColumns; j++) {
+            out.append(columns[j].get(i));
+            /* Don't end the line with a comma. */
+            if (j != numColumns - 1) {
+                out.append(',');
             }
-            ret += "\n";
         }
-        return ret;
+        out.append('\n');
     }
 
     /**
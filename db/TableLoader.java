@@ -0,0 +1,323 @@
+package db;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads a table from a .tbl file.
+ *
+ * The file is memory-mapped and split into chunks at newline boundaries.
+ * Each chunk is parsed and type-checked on a fork-join pool into its own
+ * typed columns, and the chunks are then appended to the table in file
+ * order. Small files are parsed in one chunk on the calling thread.
+ *
+ * Files written by "store <name> as binary" are recognized by their first
+ * bytes and read by BinaryTableFile instead.
+ *
+ * Lines are read the same way BufferedReader.readLine() reads them ('\n',
+ * '\r', or "\r\n" ends a line), and values are split the same way as
+ * before: on every comma, dropping spaces that are not inside quotes.
+ */
+class TableLoader {
+    /* Files smaller than this are not split. */
+    private static final long PARALLEL_THRESHOLD = 1 << 20;
+    /* Bounds on the size of one chunk, in bytes. */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 16 << 20;
+    /* How far ahead to read at a time when looking for a newline. */
+    private static final int SCAN_SIZE = 4096;
+
+    private final File file;
+    private final String name;
+    private final ForkJoinPool pool;
+    private final Charset charset = Charset.defaultCharset();
+    private Table table;
+
+    /** Creates a loader for the table with the given name. */
+    TableLoader(File file, String name) {
+        this(file, name, ForkJoinPool.commonPool());
+    }
+
+    /** Creates a loader that parses chunks on the given pool. */
+    TableLoader(File file, String name, ForkJoinPool pool) {
+        this.file = file;
+        this.name = name;
+        this.pool = pool;
+    }
+
+    /** Returns the loaded table, or null if load() failed. */
+    Table getTable() {
+        return table;
+    }
+
+    /**
+     * Loads the table.
+     *
+     * @return  ""              if the table was loaded
+     *          error message   otherwise
+     */
+    String load() throws IOException {
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return "ERROR: " + file.getName() + " not found.\n";
+        }
+
+        try (FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+
+            /* Tables stored as binary are read back as they are. */
+            if (BinaryTableFile.isBinary(channel)) {
+                table = BinaryTableFile.read(channel, name);
+                if (table == null) {
+                    return "ERROR: " + file.getName() + " is corrupted.\n";
+                }
+                return "";
+            }
+
+            /* Process the first line in the file. */
+            if (size == 0) {
+                return "ERROR: The first line is null!\n";
+            }
+            long headerEnd = findLineEnd(channel, 0, size);
+            String header = decode(channel, 0, headerEnd);
+            Table ret = new Table(splitHeader(header), name);
+
+            /* Check if the table is valid. */
+            if (!ret.isValid()) {
+                return "ERROR: Attempting to load incorrectly formatted "
+                        + "table!\n";
+            }
+
+            /* Process all other lines, chunk by chunk. */
+            long bodyStart = skipLineEnd(channel, headerEnd, size);
+            ArrayList<ChunkParser> chunks = split(channel, bodyStart, size,
+                    ret.getColumnNames());
+            if (chunks.size() == 1) {
+                chunks.get(0).invoke();
+            } else if (chunks.size() > 1) {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(chunks);
+                    }
+                });
+            }
+            for (ChunkParser chunk : chunks) {
+                Table part = chunk.join();
+                if (part == null) {
+                    return "ERROR: Row format does not match the table's! (a)\n";
+                }
+                ret.appendTable(part);
+            }
+            table = ret;
+        }
+        return "";
+    }
+
+    /** Splits the header line into column names. */
+    private static String[] splitHeader(String line) {
+        ArrayList<String> list = new ArrayList<>();
+        int start = 0;
+        int comma;
+        /* Upon finding comma, add the column name to list. */
+        while ((comma = line.indexOf(',', start)) != -1) {
+            list.add(line.substring(start, comma));
+            start = comma + 1;
+        }
+        list.add(line.substring(start));    // add last column
+        return list.toArray(new String[0]);
+    }
+
+    /**
+     * Splits the bytes in [start, end) into chunks that each begin right
+     * after a '\n'.
+     */
+    private ArrayList<ChunkParser> split(FileChannel channel, long start,
+                                         long end, String[] columnNames)
+            throws IOException {
+        ArrayList<ChunkParser> chunks = new ArrayList<>();
+        long length = end - start;
+        if (length <= 0) {
+            return chunks;
+        }
+        long chunkSize = length;
+        if (length >= PARALLEL_THRESHOLD) {
+            chunkSize = length / (pool.getParallelism() * 4L);
+            chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+        }
+        long chunkStart = start;
+        while (chunkStart < end) {
+            long chunkEnd = end;
+            if (end - chunkStart > chunkSize) {
+                chunkEnd = findNewline(channel, chunkStart + chunkSize, end);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    chunkStart, chunkEnd - chunkStart);
+            chunks.add(new ChunkParser(buffer, charset, columnNames));
+            chunkStart = chunkEnd;
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the position right after the first '\n' at or after the given
+     * position, or end if there is none.
+     */
+    private static long findNewline(FileChannel channel, long position,
+                                    long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        while (position < end) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return end;
+    }
+
+    /** Returns the position of the first '\r' or '\n' at or after start. */
+    private static long findLineEnd(FileChannel channel, long start, long end)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    return position + i;
+                }
+            }
+            position += n;
+        }
+        return end;
+    }
+
+    /** Returns the position after the line terminator at lineEnd. */
+    private static long skipLineEnd(FileChannel channel, long lineEnd, long end)
+            throws IOException {
+        if (lineEnd >= end) {
+            return end;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        channel.read(buffer, lineEnd);
+        if (buffer.get(0) == '\r' && buffer.position() > 1
+            && buffer.get(1) == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    /** Decodes the bytes in [start, end) of the file. */
+    private String decode(FileChannel channel, long start, long end)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()
+               && channel.read(buffer, start + buffer.position()) > 0) {
+            continue;
+        }
+        buffer.flip();
+        return charset.decode(buffer).toString();
+    }
+
+    /**
+     * Parses and type-checks one chunk of lines into a table of its own.
+     * Returns null if any row does not match the table's format.
+     */
+    private static class ChunkParser extends RecursiveTask<Table> {
+        private static final long serialVersionUID = 1L;
+
+        private final MappedByteBuffer buffer;
+        private final Charset charset;
+        private final String[] columnNames;
+
+        ChunkParser(MappedByteBuffer buffer, Charset charset,
+                    String[] columnNames) {
+            this.buffer = buffer;
+            this.charset = charset;
+            this.columnNames = columnNames;
+        }
+
+        @Override
+        protected Table compute() {
+            Table part = new Table(columnNames);
+            String text = charset.decode(buffer).toString();
+            int length = text.length();
+            int numColumns = columnNames.length;
+            ArrayList<String> values = new ArrayList<>(numColumns);
+            StringBuilder value = new StringBuilder();
+            int i = 0;
+            while (i < length) {
+                /* Split one line into values. */
+                values.clear();
+                value.setLength(0);
+                boolean ignoreSpaces = true;
+                char c = 0;
+                while (i < length) {
+                    c = text.charAt(i);
+                    if (c == '\n' || c == '\r') {
+                        break;
+                    }
+                    /* File lines should have 0 spaces except when the spaces
+                       are inside quotes. */
+                    if (c == '\'') {
+                        ignoreSpaces = !ignoreSpaces;
+                    }
+                    if (c == ',') {
+                        values.add(value.toString());
+                        value.setLength(0);
+                    } else if (!ignoreSpaces || c != ' ') {
+                        value.append(c);
+                    }
+                    i++;
+                }
+                values.add(value.toString());  // add the last value
+
+                /* Skip the line terminator. */
+                if (i < length) {
+                    i++;
+                    if (c == '\r' && i < length && text.charAt(i) == '\n') {
+                        i++;
+                    }
+                }
+
+                if (!addRow(part, values)) {
+                    return null;
+                }
+            }
+            return part;
+        }
+
+        /** Adds one row to the part, treating a malformed value as a bad row. */
+        private static boolean addRow(Table part, ArrayList<String> values) {
+            try {
+                return part.addRow(values.toArray(new String[0]));
+            } catch (RuntimeException e) {
+                return false;   // e.g. an empty value
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package db;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the TableLoader class.
+ */
+public class TableLoaderTest {
+
+    /** Writes a temporary .tbl file with the given contents. */
+    private static File write(String contents) throws IOException {
+        File file = File.createTempFile("loader", ".tbl");
+        file.deleteOnExit();
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(contents);
+        }
+        return file;
+    }
+
+    /** Tests line endings, spaces, and float formatting. */
+    @Test
+    public void testLoad() throws IOException {
+        File file = write("x int,y float,z string\r\n"
+                + "1, 2.5,'a b'\n"
+                + "-3,.25 ,NOVALUE\r"
+                + "NaN,7.0,'c'");
+        TableLoader loader = new TableLoader(file, "t");
+        assertEquals("", loader.load());
+        Table table = loader.getTable();
+        assertEquals("t", table.getName());
+        assertEquals("x int,y float,z string\n"
+                + "1,2.500,'a b'\n"
+                + "-3,.250,NOVALUE\n"
+                + "NaN,7.000,'c'\n", table.toString());
+    }
+
+    /** Tests that a large file is split into chunks and loaded in order. */
+    @Test
+    public void testLoadInChunks() throws IOException {
+        StringBuilder contents = new StringBuilder("x int,y string\n");
+        StringBuilder expected = new StringBuilder("x int,y string\n");
+        for (int i = 0; i < 200000; i++) {
+            contents.append(i).append(",'row ").append(i).append("'\n");
+            expected.append(i).append(",'row ").append(i).append("'\n");
+        }
+        TableLoader loader = new TableLoader(write(contents.toString()), "t",
+                new ForkJoinPool(4));
+        assertEquals("", loader.load());
+        assertEquals(200000, loader.getTable().getNumRows());
+        assertEquals(expected.toString(), loader.getTable().toString());
+
+        /* One bad row anywhere fails the whole load. */
+        contents.append("5,6\n");
+        for (int i = 0; i < 100000; i++) {
+            contents.append(i).append(",'row'\n");
+        }
+        loader = new TableLoader(write(contents.toString()), "t",
+                new ForkJoinPool(4));
+        assertEquals("ERROR: Row format does not match the table's! (a)\n",
+                loader.load());
+        assertEquals(null, loader.getTable());
+    }
+
+    /** Tests that a table stored as binary loads back unchanged. */
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        File file = write("a float,s string,i int\n"
+                + "1.5,'hi',007\n"
+                + ".500,'there',NaN\n"
+                + "NaN,NOVALUE,99999999999\n"
+                + "NOVALUE,'hi',-3\n");
+        TableLoader loader = new TableLoader(file, "t");
+        assertEquals("", loader.load());
+        Table table = loader.getTable();
+
+        File binary = File.createTempFile("binary", ".tbl");
+        binary.deleteOnExit();
+        BinaryTableFile.write(table, binary);
+        loader = new TableLoader(binary, "t");
+        assertEquals("", loader.load());
+        assertEquals(table.toString(), loader.getTable().toString());
+        assertEquals(4, loader.getTable().getNumRows());
+
+        /* A damaged file is rejected instead of loaded. */
+        try (RandomAccessFile raf = new RandomAccessFile(binary, "rw")) {
+            raf.seek(raf.length() - 12);
+            raf.write(0x55);
+        }
+        loader = new TableLoader(binary, "t");
+        assertEquals("ERROR: " + binary.getName() + " is corrupted.\n",
+                loader.load());
+    }
+
+    /** Tests the error messages. */
+    @Test
+    public void testErrors() throws IOException {
+        TableLoader loader = new TableLoader(new File("no_such_table.tbl"),
+                "no_such_table");
+        assertEquals("ERROR: no_such_table.tbl not found.\n", loader.load());
+
+        loader = new TableLoader(write(""), "t");
+        assertEquals("ERROR: The first line is null!\n", loader.load());
+
+        loader = new TableLoader(write("x integer\n1\n"), "t");
+        assertEquals("ERROR: Attempting to load incorrectly formatted table!\n",
+                loader.load());
+
+        loader = new TableLoader(write("x int,y int\n1,2\n\n3,4\n"), "t");
+        assertEquals("ERROR: Row format does not match the table's! (a)\n",
+                loader.load());
+    }
+}
@@ -437,6 +437,51 @@ public class TableTest {
          */
     }
 
+    /**
+     * Tests that join() keeps the row order of the left table, then of the
+     * right table, no matter which table is the smaller one.
+     */
+    @Test
+    public void testJoinRowOrder() {
+        //  Table 1     Table 2         Joined          Joined (2, 1)
+        //  [x ][y ]    [x ][z ]        [x ][y ][z ]    [x ][z ][y ]
+        //  [2 ][5 ]    [8 ][1 ]        [2 ][5 ][3 ]    [8 ][1 ][3 ]
+        //  [8 ][3 ]    [2 ][3 ]        [2 ][5 ][4 ]    [2 ][3 ][5 ]
+        //              [8 ][2 ]        [8 ][3 ][1 ]    [8 ][2 ][3 ]
+        //              [2 ][4 ]        [8 ][3 ][2 ]    [2 ][4 ][5 ]
+        //              [7 ][9 ]
+        Table t1 = new Table(new String[]{"x int", "y int"});
+        t1.addRow(new String[]{"2", "5"});
+        t1.addRow(new String[]{"8", "3"});
+        Table t2 = new Table(new String[]{"x int", "z int"});
+        t2.addRow(new String[]{"8", "1"});
+        t2.addRow(new String[]{"2", "3"});
+        t2.addRow(new String[]{"8", "2"});
+        t2.addRow(new String[]{"2", "4"});
+        t2.addRow(new String[]{"7", "9"});
+
+        Table joinedTable = Table.join(t1, t2);
+        assertEquals("x int,y int,z int\n2,5,3\n2,5,4\n8,3,1\n8,3,2\n",
+                joinedTable.toString());
+
+        joinedTable = Table.join(t2, t1);
+        assertEquals("x int,z int,y int\n8,1,3\n2,3,5\n8,2,3\n2,4,5\n",
+                joinedTable.toString());
+    }
+
+    @Test
+    public void testWrite() throws java.io.IOException {
+        Table t = new Table(new String[]{"x int", "y string", "z float"});
+        t.addRow(new String[]{"1", "'a'", "2.5"});
+        t.addRow(new String[]{"NaN", "NOVALUE", "-0.125"});
+
+        java.io.StringWriter out = new java.io.StringWriter();
+        t.write(out);
+        assertEquals("x int,y string,z float\n1,'a',2.500\nNaN,NOVALUE,-0.125\n",
+                out.toString());
+        assertEquals(t.toString(), out.toString());
+    }
+
     @Test
     public void testSetColumnTypes() {
         /* Test 1: Returns true */
@@ -464,6 +509,38 @@ public class TableTest {
         assertEquals(t1.setColumnTypes(columns1), false);
     }
 
+    /** Tests that typed column storage gives back the values it was given. */
+    @Test
+    public void testTypedStorage() {
+        String[] columns = new String[]{"X int", "Y float", "Z string"};
+        Table t1 = new Table(columns);
+        t1.addRow(new String[]{"2", "1.5", "'a'"});
+        t1.addRow(new String[]{"007", ".5", "'b c'"});
+        t1.addRow(new String[]{"-4", "-0.25", "NOVALUE"});
+        t1.addRow(new String[]{"NOVALUE", "NaN", "'d'"});
+        t1.addRow(new String[]{"99999999999", "16777217.5", "NaN"});
+
+        assertArrayEquals(new String[]{"2", "1.500", "'a'"}, t1.getRow(1));
+        assertArrayEquals(new String[]{"007", ".500", "'b c'"}, t1.getRow(2));
+        assertArrayEquals(new String[]{"-4", "-0.250", "NOVALUE"}, t1.getRow(3));
+        assertArrayEquals(new String[]{"NOVALUE", "NaN", "'d'"}, t1.getRow(4));
+        assertArrayEquals(new String[]{"99999999999", "16777217.500", "NaN"},
+                t1.getRow(5));
+        assertEquals("X int,Y float,Z string\n"
+                + "2,1.500,'a'\n"
+                + "007,.500,'b c'\n"
+                + "-4,-0.250,NOVALUE\n"
+                + "NOVALUE,NaN,'d'\n"
+                + "99999999999,16777217.500,NaN\n", t1.toString());
+
+        /* Typed reads. */
+        Column x = t1.getColumn("X int");
+        assertEquals(7.0f, x.getFloat(1), 0.0f);
+        assertEquals(true, x.isNoValue(3));
+        assertEquals(true, t1.getColumn(2).isNaN(3));
+        assertEquals(-0.25f, t1.getColumn(2).getFloat(2), 0.0f);
+    }
+
     public static void main(String[] args) {
         jh61b.junit.TestRunner.runTests("all", TableTest.class);
     }
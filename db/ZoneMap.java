@@ -0,0 +1,361 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Statistics about the values of a column, kept for each block of
+ * BLOCK_SIZE rows: the smallest and largest value, the number of NOVALUEs
+ * and NaNs, and a sketch that estimates the number of distinct values.
+ *
+ * Columns only ever grow at the end, so a zone map summarizes the rows that
+ * were added since it was last used and leaves the others alone (see
+ * Column.getZoneMap()). A binary table file stores it with its column.
+ *
+ * Statements that read snapshots of a column share its zone map, so update()
+ * and the methods that read every block are synchronized (a caller that
+ * reads the blocks one at a time holds the lock itself), and the zone map
+ * may summarize more rows than a snapshot has.
+ *
+ * Smallest and largest follow the order that conditions compare by (see
+ * Predicate), so a block whose range can't pass a comparison to a literal
+ * can be skipped without testing its rows:
+ *
+ *     strings     the text of every value, quotes included (NOVALUE as
+ *                 "NOVALUE" and NaN as "NaN")
+ *     numbers     Float.compare() of the values that are neither NOVALUE
+ *                 nor NaN; NaN is greater than every value, and NOVALUE
+ *                 passes no comparison
+ *
+ * Distinct values are estimated with a small HyperLogLog sketch per block,
+ * which merge into an estimate for the whole column.
+ */
+class ZoneMap {
+    /** Number of rows in a block. */
+    static final int BLOCK_SIZE = 4096;
+
+    /** Number of HyperLogLog registers of a block (a power of 2). */
+    static final int REGISTERS = 64;
+    private static final int REGISTER_BITS = 6;     // log2(REGISTERS)
+
+    private final Column column;
+    private final boolean isString;
+    private int numRows;    // number of rows summarized
+    private int numBlocks;
+    private float[] mins = new float[0], maxs = new float[0];
+    private String[] minTexts = new String[0], maxTexts = new String[0];
+    private int[] noValueCounts = new int[0], nanCounts = new int[0];
+    private byte[] registers = new byte[0];     // REGISTERS per block
+
+    /** Creates an empty zone map for a column. */
+    ZoneMap(Column column) {
+        this.column = column;
+        this.isString = column.type().equals("string");
+    }
+
+    /** Returns the number of rows in block b of a column of numRows rows. */
+    static int blockRows(int b, int numRows) {
+        return Math.min(BLOCK_SIZE, numRows - b * BLOCK_SIZE);
+    }
+
+    /** Returns the number of blocks of a column of numRows rows. */
+    static int numBlocks(int numRows) {
+        return (numRows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Summarizes the rows added to the column since the last update, reading
+     * them from source: the column itself, or a snapshot of it (see
+     * Column.snapshot()). Rows already summarized are left alone, so a
+     * snapshot with fewer rows changes nothing.
+     */
+    synchronized void update(Column source) {
+        int size = source.size();
+        if (size <= numRows) {
+            return;
+        }
+        grow(numBlocks(size));
+        int[] ints = null;
+        float[] floats = null;
+        if (source.getVerbatim() == null) {
+            if (source instanceof IntColumn) {
+                ints = ((IntColumn) source).getValues();
+            } else if (source instanceof FloatColumn) {
+                floats = ((FloatColumn) source).getValues();
+            }
+        }
+        for (int i = numRows; i < size; i++) {
+            int b = i / BLOCK_SIZE;
+            if (isString) {
+                addText(b, source.get(i));
+            } else if (source.isNoValue(i)) {
+                noValueCounts[b]++;
+            } else if (source.isNaN(i)) {
+                nanCounts[b]++;
+                addHash(b, Float.floatToIntBits(Float.NaN));
+            } else {
+                float value;
+                if (ints != null) {
+                    value = ints[i];
+                } else if (floats != null) {
+                    value = floats[i];
+                } else {
+                    value = source.getFloat(i);
+                }
+                addNumber(b, i, value);
+            }
+        }
+        numRows = size;
+    }
+
+    /** Adds the text of a string value to block b. */
+    private void addText(int b, String text) {
+        if (text.equals(Column.NOVALUE)) {
+            noValueCounts[b]++;
+        } else if (text.equals(Column.NAN)) {
+            nanCounts[b]++;
+        }
+        if (minTexts[b] == null || text.compareTo(minTexts[b]) < 0) {
+            minTexts[b] = text;
+        }
+        if (maxTexts[b] == null || text.compareTo(maxTexts[b]) > 0) {
+            maxTexts[b] = text;
+        }
+        addHash(b, text.hashCode());
+    }
+
+    /** Adds the number in row i to block b. */
+    private void addNumber(int b, int i, float value) {
+        if (numValues(b, i - b * BLOCK_SIZE) == 0) {
+            mins[b] = value;
+            maxs[b] = value;
+        } else {
+            if (Float.compare(value, mins[b]) < 0) {
+                mins[b] = value;
+            }
+            if (Float.compare(value, maxs[b]) > 0) {
+                maxs[b] = value;
+            }
+        }
+        addHash(b, Float.floatToIntBits(value));
+    }
+
+    /** Adds a value, by its hash, to the sketch of block b. */
+    private void addHash(int b, int hash) {
+        long h = mix(hash);
+        int register = (int) (h >>> (64 - REGISTER_BITS));
+        int rank = Long.numberOfLeadingZeros(h << REGISTER_BITS) + 1;
+        rank = Math.min(rank, 64 - REGISTER_BITS + 1);
+        int k = b * REGISTERS + register;
+        if (rank > registers[k]) {
+            registers[k] = (byte) rank;
+        }
+    }
+
+    /** Spreads the bits of a 32-bit hash over 64 (MurmurHash3's fmix64). */
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE5A8C2C3L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Makes room for the given number of blocks. */
+    private void grow(int blocks) {
+        if (blocks <= numBlocks) {
+            return;
+        }
+        if (blocks > noValueCounts.length) {
+            int capacity = Math.max(blocks, noValueCounts.length * 2);
+            noValueCounts = Arrays.copyOf(noValueCounts, capacity);
+            nanCounts = Arrays.copyOf(nanCounts, capacity);
+            registers = Arrays.copyOf(registers, capacity * REGISTERS);
+            if (isString) {
+                minTexts = Arrays.copyOf(minTexts, capacity);
+                maxTexts = Arrays.copyOf(maxTexts, capacity);
+            } else {
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+            }
+        }
+        numBlocks = blocks;
+    }
+
+    /** Returns the number of blocks summarized. */
+    synchronized int numBlocks() {
+        return numBlocks;
+    }
+
+    /** Returns the number of rows summarized. */
+    synchronized int numRows() {
+        return numRows;
+    }
+
+    /** Returns the number of NOVALUEs in block b. */
+    int noValueCount(int b) {
+        return noValueCounts[b];
+    }
+
+    /** Returns the number of NaNs in block b. */
+    int nanCount(int b) {
+        return nanCounts[b];
+    }
+
+    /**
+     * Returns the number of values in the first n rows of block b that are
+     * neither NOVALUE nor NaN.
+     */
+    private int numValues(int b, int n) {
+        return n - noValueCounts[b] - nanCounts[b];
+    }
+
+    /**
+     * Returns the smallest number in block b that is neither NOVALUE nor NaN
+     * (NaN if there is none). Only for int and float columns.
+     */
+    float min(int b) {
+        return numValues(b, blockRows(b, numRows)) > 0 ? mins[b] : Float.NaN;
+    }
+
+    /** Returns the largest number in block b, like min(). */
+    float max(int b) {
+        return numValues(b, blockRows(b, numRows)) > 0 ? maxs[b] : Float.NaN;
+    }
+
+    /** Returns the smallest text in block b. Only for string columns. */
+    String minText(int b) {
+        return minTexts[b];
+    }
+
+    /** Returns the largest text in block b. Only for string columns. */
+    String maxText(int b) {
+        return maxTexts[b];
+    }
+
+    /** Returns a copy of the sketch registers of block b. */
+    byte[] registers(int b) {
+        return Arrays.copyOfRange(registers, b * REGISTERS,
+                (b + 1) * REGISTERS);
+    }
+
+    /** Returns an estimate of the number of distinct values in block b. */
+    long estimateDistinct(int b) {
+        return estimate(registers, b * REGISTERS);
+    }
+
+    /** Returns an estimate of the number of distinct values in the column. */
+    synchronized long estimateDistinct() {
+        byte[] merged = new byte[REGISTERS];
+        for (int k = 0; k < numBlocks * REGISTERS; k++) {
+            int r = k % REGISTERS;
+            merged[r] = (byte) Math.max(merged[r], registers[k]);
+        }
+        return estimate(merged, 0);
+    }
+
+    /** Returns the HyperLogLog estimate of REGISTERS registers. */
+    private static long estimate(byte[] registers, int offset) {
+        double sum = 0;
+        int zeros = 0;
+        for (int k = offset; k < offset + REGISTERS; k++) {
+            sum += Math.scalb(1.0, -registers[k]);
+            if (registers[k] == 0) {
+                zeros++;
+            }
+        }
+        double m = REGISTERS;
+        double estimate = 0.709 * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / zeros);     // linear counting
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Sets the statistics of block b, read back from a file. Blocks must be
+     * set in order, and only on an empty zone map of a column that already
+     * holds every row.
+     */
+    void restoreBlock(int b, int noValues, int nans, float min, float max,
+                      String minText, String maxText, byte[] blockRegisters) {
+        grow(b + 1);
+        noValueCounts[b] = noValues;
+        nanCounts[b] = nans;
+        if (isString) {
+            minTexts[b] = minText;
+            maxTexts[b] = maxText;
+        } else {
+            mins[b] = min;
+            maxs[b] = max;
+        }
+        System.arraycopy(blockRegisters, 0, registers, b * REGISTERS,
+                REGISTERS);
+        numRows = Math.min(column.size(), (b + 1) * BLOCK_SIZE);
+    }
+
+    /**
+     * Returns the blocks in which some row may pass a comparison of the
+     * column to a literal.
+     *
+     * @param operator  operator code (see Predicate)
+     * @return  the blocks  as a bitmap
+     *          null        if the literal can't be compared, e.g. "-" for a
+     *                      number column
+     */
+    synchronized BitSet blocksThatMayPass(int operator, String literal) {
+        BitSet ret = new BitSet(numBlocks);
+        if (isString) {
+            for (int b = 0; b < numBlocks; b++) {
+                if (mayPass(operator, minTexts[b].compareTo(literal),
+                            maxTexts[b].compareTo(literal))) {
+                    ret.set(b);
+                }
+            }
+            return ret;
+        }
+        Float value = Index.parseNumber(literal);
+        if (value == null) {
+            return null;
+        }
+        for (int b = 0; b < numBlocks; b++) {
+            int numRowsInBlock = blockRows(b, numRows);
+            boolean may = false;
+            if (numValues(b, numRowsInBlock) > 0) {
+                may = mayPass(operator, Float.compare(mins[b], value),
+                              Float.compare(maxs[b], value));
+            }
+            if (!may && nanCounts[b] > 0) {
+                int cmp = Float.compare(Float.NaN, value);
+                may = mayPass(operator, cmp, cmp);
+            }
+            if (may) {
+                ret.set(b);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns whether a value in [min, max] may pass a comparison, given how
+     * min and max compare to the literal.
+     */
+    private static boolean mayPass(int operator, int minCmp, int maxCmp) {
+        switch (operator) {
+            case Predicate.EQ:
+                return minCmp <= 0 && maxCmp >= 0;
+            case Predicate.NE:
+                return minCmp != 0 || maxCmp != 0;
+            case Predicate.LT:
+                return minCmp < 0;
+            case Predicate.GT:
+                return maxCmp > 0;
+            case Predicate.LE:
+                return minCmp <= 0;
+            default:
+                return maxCmp >= 0;
+        }
+    }
+}
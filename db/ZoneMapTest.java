@@ -0,0 +1,131 @@
+package db;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ZoneMap class.
+ */
+public class ZoneMapTest {
+    private static final int BLOCK = ZoneMap.BLOCK_SIZE;
+
+    /**
+     * Creates a table of 2.5 blocks, clustered by Season: one season per
+     * half block, with some NOVALUEs and NaNs in the second block.
+     */
+    private static Database seasons() {
+        Database db = new Database();
+        db.transact("create table s (Team string, Season int, Ratio float)");
+        for (int i = 0; i < BLOCK * 5 / 2; i++) {
+            String season = String.valueOf(2000 + i / (BLOCK / 2));
+            String ratio = (i % 100) + ".5";
+            if (i == BLOCK + 1) {
+                season = "NOVALUE";
+            } else if (i == BLOCK + 2) {
+                season = "NaN";
+                ratio = "NaN";
+            }
+            db.transact("insert into s values 'T" + (i % 7) + "'," + season
+                        + "," + ratio);
+        }
+        return db;
+    }
+
+    /** Tests the statistics of each block. */
+    @Test
+    public void testStatistics() {
+        Database db = seasons();
+        Column season = db.catalog.get("s").getColumn("Season int");
+        ZoneMap zoneMap = season.getZoneMap();
+        assertEquals(3, zoneMap.numBlocks());
+        assertEquals(2000, zoneMap.min(0), 0);
+        assertEquals(2001, zoneMap.max(0), 0);
+        assertEquals(2002, zoneMap.min(1), 0);
+        assertEquals(2003, zoneMap.max(1), 0);
+        assertEquals(1, zoneMap.noValueCount(1));
+        assertEquals(1, zoneMap.nanCount(1));
+        assertEquals(0, zoneMap.nanCount(2));
+
+        /* Rows added later are summarized the next time. */
+        db.transact("insert into s values 'T0',1999,NaN");
+        zoneMap = season.getZoneMap();
+        assertEquals(1999, zoneMap.min(2), 0);
+        assertEquals(2004, zoneMap.max(2), 0);
+
+        Column team = db.catalog.get("s").getColumn("Team string");
+        assertEquals("'T0'", team.getZoneMap().minText(0));
+        assertEquals("'T6'", team.getZoneMap().maxText(2));
+        assertEquals(7, team.getZoneMap().estimateDistinct());
+        assertEquals(7, zoneMap.estimateDistinct());    // 6 seasons and NaN
+        long ratios = db.catalog.get("s").getColumn("Ratio float")
+                .getZoneMap().estimateDistinct();
+        assertTrue(ratios > 70 && ratios < 130);
+    }
+
+    /** Tests which blocks may pass comparisons. */
+    @Test
+    public void testBlocksThatMayPass() {
+        ZoneMap zoneMap = seasons().catalog.get("s").getColumn("Season int")
+                .getZoneMap();
+        assertEquals("{0}", zoneMap.blocksThatMayPass(Predicate.LE,
+                "2001").toString());
+        assertEquals("{1, 2}", zoneMap.blocksThatMayPass(Predicate.GE,
+                "2002").toString());
+        assertEquals("{1}", zoneMap.blocksThatMayPass(Predicate.GT,
+                "2004").toString());     // NaN
+        assertEquals("{1}", zoneMap.blocksThatMayPass(Predicate.EQ,
+                "2002.0").toString());
+        assertEquals("{}", zoneMap.blocksThatMayPass(Predicate.LT,
+                "1999").toString());
+        assertEquals(null, zoneMap.blocksThatMayPass(Predicate.LT, "-"));
+    }
+
+    /** Tests that conditions give the same rows when blocks are skipped. */
+    @Test
+    public void testConditions() {
+        Database db = seasons();
+        String result = db.transact("select Season, Ratio from s"
+                                    + " where Season >= 2002 and Season < 2003"
+                                    + " and Ratio == 99.5");
+        StringBuilder expected = new StringBuilder("Season int,Ratio float\n");
+        for (int i = BLOCK; i < BLOCK * 3 / 2; i++) {
+            if (i % 100 == 99) {
+                expected.append("2002,99.500\n");
+            }
+        }
+        assertEquals(expected.toString(), result);
+        assertEquals("Season int\nNaN\n",
+                db.transact("select Season from s where Season > 2004"));
+    }
+
+    /** Tests that a binary table file keeps the zone maps. */
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        Table table = seasons().catalog.get("s");
+        File binary = File.createTempFile("zones", ".tbl");
+        binary.deleteOnExit();
+        BinaryTableFile.write(table, binary);
+        TableLoader loader = new TableLoader(binary, "s");
+        assertEquals("", loader.load());
+        for (int i = 1; i <= 3; i++) {
+            ZoneMap expected = table.getColumn(i).getZoneMap();
+            ZoneMap actual = loader.getTable().getColumn(i).getZoneMap();
+            assertEquals(expected.numBlocks(), actual.numBlocks());
+            for (int b = 0; b < expected.numBlocks(); b++) {
+                assertEquals(expected.noValueCount(b), actual.noValueCount(b));
+                assertEquals(expected.nanCount(b), actual.nanCount(b));
+                assertArrayEquals(expected.registers(b), actual.registers(b));
+                if (i == 1) {
+                    assertEquals(expected.minText(b), actual.minText(b));
+                    assertEquals(expected.maxText(b), actual.maxText(b));
+                } else {
+                    assertEquals(expected.min(b), actual.min(b), 0);
+                    assertEquals(expected.max(b), actual.max(b), 0);
+                }
+            }
+        }
+    }
+}